@@ -0,0 +1,78 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decrypting a file, as done for each file data or thumbnail request.
+ * The uncached benchmark derives the secret key each time, like before the key cache.
+ *
+ * Run with: mvn -pl docs-core -Pbenchmark test-compile exec:exec
+ *
+ * @author bgamard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionUtilBenchmark {
+    /**
+     * Private key of the user.
+     */
+    private static final String PRIVATE_KEY = "OnceUponATime";
+
+    /**
+     * Size of the decrypted file, a thumbnail or a small document.
+     */
+    @Param({"16384", "1048576"})
+    public int fileSize;
+
+    /**
+     * Encrypted file.
+     */
+    private byte[] encryptedData;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        Cipher cipher = EncryptionUtil.getEncryptionCipher(PRIVATE_KEY);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (OutputStream outputStream = new CipherOutputStream(byteArrayOutputStream, cipher)) {
+            outputStream.write(data);
+        }
+        encryptedData = byteArrayOutputStream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] decryptWithDerivedKey() throws Exception {
+        EncryptionUtil.clearSecretKeyCache();
+        return ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(new ByteArrayInputStream(encryptedData), PRIVATE_KEY));
+    }
+
+    @Benchmark
+    public byte[] decryptWithCachedKey() throws Exception {
+        return ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(new ByteArrayInputStream(encryptedData), PRIVATE_KEY));
+    }
+}
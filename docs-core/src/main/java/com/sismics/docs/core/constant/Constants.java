@@ -83,6 +83,253 @@ public class Constants {
      */
     public static final String BCRYPT_WORK_ENV = "DOCS_BCRYPT_WORK";
 
+    /**
+     * Interval in seconds between two Lucene commits (0 to commit after each write).
+     * The index is rebuilt after a crash, whatever the interval.
+     */
+    public static final String LUCENE_COMMIT_INTERVAL_ENV = "DOCS_LUCENE_COMMIT_INTERVAL";
+
+    /**
+     * Default interval in seconds between two Lucene commits.
+     */
+    public static final int DEFAULT_LUCENE_COMMIT_INTERVAL = 60;
+
+    /**
+     * Interval in seconds between two checks for rebuilding the search suggester.
+     */
+    public static final String LUCENE_SUGGEST_INTERVAL_ENV = "DOCS_LUCENE_SUGGEST_INTERVAL";
+
+    /**
+     * Default interval in seconds between two checks for rebuilding the search suggester.
+     */
+    public static final int DEFAULT_LUCENE_SUGGEST_INTERVAL = 60;
+
+    /**
+     * Number of threads used to rebuild the index (0 for the number of processors).
+     */
+    public static final String LUCENE_REBUILD_THREADS_ENV = "DOCS_LUCENE_REBUILD_THREADS";
+
+    /**
+     * Time budget in milliseconds for highlighting the results of a search (0 for no limit).
+     */
+    public static final String SEARCH_HIGHLIGHT_BUDGET_ENV = "DOCS_SEARCH_HIGHLIGHT_BUDGET";
+
+    /**
+     * Default time budget in milliseconds for highlighting the results of a search.
+     */
+    public static final int DEFAULT_SEARCH_HIGHLIGHT_BUDGET = 500;
+
+    /**
+     * Maximum number of queued tasks in each asynchronous event lane.
+     */
+    public static final String ASYNC_QUEUE_CAPACITY_ENV = "DOCS_ASYNC_QUEUE_CAPACITY";
+
+    /**
+     * Default maximum number of queued tasks in each asynchronous event lane.
+     */
+    public static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 1000;
+
+    /**
+     * Behavior when an asynchronous event lane is full (BLOCK, CALLER_RUNS or ABORT).
+     */
+    public static final String ASYNC_REJECTION_POLICY_ENV = "DOCS_ASYNC_REJECTION_POLICY";
+
+    /**
+     * Number of threads of an asynchronous event lane, formatted with the lane name.
+     */
+    public static final String ASYNC_LANE_THREADS_ENV = "DOCS_ASYNC_%s_THREADS";
+
+    /**
+     * Number of threads rendering and recognizing pages for OCR (default to the number of processors).
+     */
+    public static final String OCR_THREADS_ENV = "DOCS_OCR_THREADS";
+
+    /**
+     * Maximum number of concurrent tesseract processes (default to the number of processors).
+     */
+    public static final String OCR_MAX_PROCESSES_ENV = "DOCS_OCR_MAX_PROCESSES";
+
+    /**
+     * Timeout in seconds of the OCR of a page (0 for no limit).
+     */
+    public static final String OCR_PAGE_TIMEOUT_ENV = "DOCS_OCR_PAGE_TIMEOUT";
+
+    /**
+     * Default timeout in seconds of the OCR of a page.
+     */
+    public static final int DEFAULT_OCR_PAGE_TIMEOUT = 300;
+
+    /**
+     * Timeout in seconds of the OCR of a file (0 for no limit).
+     */
+    public static final String OCR_FILE_TIMEOUT_ENV = "DOCS_OCR_FILE_TIMEOUT";
+
+    /**
+     * Default timeout in seconds of the OCR of a file.
+     */
+    public static final int DEFAULT_OCR_FILE_TIMEOUT = 3600;
+
+    /**
+     * Maximum size in megabytes of the extraction cache (0 to disable it).
+     */
+    public static final String EXTRACTION_CACHE_SIZE_ENV = "DOCS_EXTRACTION_CACHE_SIZE";
+
+    /**
+     * Default maximum size in megabytes of the extraction cache.
+     */
+    public static final int DEFAULT_EXTRACTION_CACHE_SIZE = 1024;
+
+    /**
+     * Maximum number of derived encryption keys kept in memory (0 to disable the cache).
+     */
+    public static final String ENCRYPTION_KEY_CACHE_SIZE_ENV = "DOCS_ENCRYPTION_KEY_CACHE_SIZE";
+
+    /**
+     * Default maximum number of derived encryption keys kept in memory.
+     */
+    public static final int DEFAULT_ENCRYPTION_KEY_CACHE_SIZE = 1000;
+
+    /**
+     * Time in minutes after which an unused derived encryption key is forgotten.
+     */
+    public static final String ENCRYPTION_KEY_CACHE_EXPIRATION_ENV = "DOCS_ENCRYPTION_KEY_CACHE_EXPIRATION";
+
+    /**
+     * Default time in minutes after which an unused derived encryption key is forgotten.
+     */
+    public static final int DEFAULT_ENCRYPTION_KEY_CACHE_EXPIRATION = 30;
+
+    /**
+     * Storage provider of the files data (LOCAL, CAS or MEMORY).
+     */
+    public static final String STORAGE_PROVIDER_ENV = "DOCS_STORAGE_PROVIDER";
+
+    /**
+     * Encryption of the new files at rest, disable it if the volume is already encrypted.
+     */
+    public static final String STORAGE_ENCRYPTION_ENV = "DOCS_STORAGE_ENCRYPTION";
+
+    /**
+     * Number of threads reading ahead and compressing the entries of ZIP exports (default to the number of processors).
+     */
+    public static final String ZIP_THREADS_ENV = "DOCS_ZIP_THREADS";
+
+    /**
+     * Number of entries of a ZIP export read ahead of the one being sent, up to 1 MB each (default to twice the number of threads).
+     */
+    public static final String ZIP_PREFETCH_ENV = "DOCS_ZIP_PREFETCH";
+
+    /**
+     * Maximum size in megabytes of the decrypted files kept on disk for the PDF exports (0 to disable it).
+     */
+    public static final String UNENCRYPTED_FILE_CACHE_SIZE_ENV = "DOCS_UNENCRYPTED_FILE_CACHE_SIZE";
+
+    /**
+     * Default maximum size in megabytes of the decrypted files kept on disk for the PDF exports.
+     */
+    public static final int DEFAULT_UNENCRYPTED_FILE_CACHE_SIZE = 512;
+
+    /**
+     * Number of threads running the background PDF exports.
+     */
+    public static final String PDF_EXPORT_THREADS_ENV = "DOCS_PDF_EXPORT_THREADS";
+
+    /**
+     * Default number of threads running the background PDF exports.
+     */
+    public static final int DEFAULT_PDF_EXPORT_THREADS = 2;
+
+    /**
+     * Time in minutes during which a finished background PDF export can be downloaded.
+     */
+    public static final String PDF_EXPORT_EXPIRATION_ENV = "DOCS_PDF_EXPORT_EXPIRATION";
+
+    /**
+     * Default time in minutes during which a finished background PDF export can be downloaded.
+     */
+    public static final int DEFAULT_PDF_EXPORT_EXPIRATION = 60;
+
+    /**
+     * Maximum number of background PDF exports kept by a user, pending or downloadable.
+     */
+    public static final String PDF_EXPORT_USER_LIMIT_ENV = "DOCS_PDF_EXPORT_USER_LIMIT";
+
+    /**
+     * Default maximum number of background PDF exports kept by a user.
+     */
+    public static final int DEFAULT_PDF_EXPORT_USER_LIMIT = 5;
+
+    /**
+     * Maximum size in megabytes of the generated PDF exports kept on disk for the next identical exports.
+     */
+    public static final String PDF_EXPORT_CACHE_SIZE_ENV = "DOCS_PDF_EXPORT_CACHE_SIZE";
+
+    /**
+     * Default maximum size in megabytes of the generated PDF exports kept on disk.
+     */
+    public static final int DEFAULT_PDF_EXPORT_CACHE_SIZE = 256;
+
+    /**
+     * Scaling method of the thumbnails, from the fastest to the best looking (SPEED, BALANCED, QUALITY or ULTRA_QUALITY).
+     * QUALITY by default.
+     */
+    public static final String THUMBNAIL_QUALITY_ENV = "DOCS_THUMBNAIL_QUALITY";
+
+    /**
+     * Number of threads generating the missing thumbnails requested by the users.
+     */
+    public static final String THUMBNAIL_THREADS_ENV = "DOCS_THUMBNAIL_THREADS";
+
+    /**
+     * Default number of threads generating the missing thumbnails requested by the users.
+     */
+    public static final int DEFAULT_THUMBNAIL_THREADS = 2;
+
+    /**
+     * Interval in minutes between two searches of the missing thumbnails (0 to disable it).
+     */
+    public static final String THUMBNAIL_SWEEP_INTERVAL_ENV = "DOCS_THUMBNAIL_SWEEP_INTERVAL";
+
+    /**
+     * Default interval in minutes between two searches of the missing thumbnails.
+     */
+    public static final int DEFAULT_THUMBNAIL_SWEEP_INTERVAL = 1440;
+
+    /**
+     * Time in seconds during which the authenticated users are not resolved again (0 to disable the cache).
+     */
+    public static final String PRINCIPAL_CACHE_EXPIRATION_ENV = "DOCS_PRINCIPAL_CACHE_EXPIRATION";
+
+    /**
+     * Default time in seconds during which the authenticated users are not resolved again.
+     */
+    public static final int DEFAULT_PRINCIPAL_CACHE_EXPIRATION = 60;
+
+    /**
+     * Maximum number of authenticated users kept in memory.
+     */
+    public static final String PRINCIPAL_CACHE_SIZE_ENV = "DOCS_PRINCIPAL_CACHE_SIZE";
+
+    /**
+     * Default maximum number of authenticated users kept in memory.
+     */
+    public static final int DEFAULT_PRINCIPAL_CACHE_SIZE = 10000;
+
+    /**
+     * Comma separated URLs of the trusted JWT issuers.
+     */
+    public static final String JWT_ISSUERS_ENV = "DOCS_JWT_ISSUERS";
+
+    /**
+     * Interval in minutes between two downloads of the signing keys of a JWT issuer.
+     */
+    public static final String JWKS_REFRESH_INTERVAL_ENV = "DOCS_JWKS_REFRESH_INTERVAL";
+
+    /**
+     * Default interval in minutes between two downloads of the signing keys of a JWT issuer.
+     */
+    public static final int DEFAULT_JWKS_REFRESH_INTERVAL = 60;
+
     /**
      * Expiration time of the password recovery in hours.
      */
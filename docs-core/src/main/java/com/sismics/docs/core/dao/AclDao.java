@@ -13,8 +13,14 @@ import com.sismics.util.context.ThreadLocalContext;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Query;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -23,6 +29,15 @@ import java.util.UUID;
  * @author bgamard
  */
 public class AclDao {
+    /**
+     * Tables and ID columns of the ACL sources.
+     */
+    private static final String[][] SOURCE_TABLE_LIST = {
+            { "T_DOCUMENT", "DOC_ID_C" },
+            { "T_TAG", "TAG_ID_C" },
+            { "T_ROUTE_MODEL", "RTM_ID_C" }
+    };
+
     /**
      * Creates a new ACL.
      *
@@ -37,6 +52,7 @@ public class AclDao {
         // Create the ACL
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(acl);
+        refreshEffectiveAcl(acl.getSourceId());
 
         // Create audit log
         AuditLogUtil.create(acl, AuditLogType.CREATE, userId);
@@ -118,6 +134,7 @@ public class AclDao {
 
     /**
      * Check if a source is accessible to a target.
+     * The documents are also accessible with the permissions given on their tags.
      *
      * @param sourceId ACL source entity ID
      * @param perm Necessary permission
@@ -133,22 +150,43 @@ public class AclDao {
         }
 
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        StringBuilder sb = new StringBuilder("select a.ACL_ID_C from T_ACL a ");
-        sb.append(" where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = :sourceId and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
-        sb.append(" union all ");
-        sb.append(" select a.ACL_ID_C from T_ACL a, T_DOCUMENT_TAG dt, T_DOCUMENT d ");
-        sb.append(" where a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null ");
-        sb.append(" and d.DOC_ID_C = :sourceId and d.DOC_DELETEDATE_D is null ");
-        sb.append(" and a.ACL_TARGETID_C in (:targetIdList) and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
+        StringBuilder sb = new StringBuilder("select e.EAC_IDSOURCE_C from T_EFFECTIVE_ACL e ");
+        sb.append(" where e.EAC_IDSOURCE_C = :sourceId and e.EAC_PERM_C = :perm and e.EAC_IDTARGET_C in (:targetIdList) ");
         Query q = em.createNativeQuery(sb.toString());
         q.setParameter("sourceId", sourceId);
         q.setParameter("perm", perm.name());
         q.setParameter("targetIdList", targetIdList);
+        q.setMaxResults(1);
 
         // We have a matching permission
         return q.getResultList().size() > 0;
     }
 
+    /**
+     * Returns the targets having a permission on some documents,
+     * directly or inherited from the document tags.
+     *
+     * @param documentIds Document IDs
+     * @param perm Permission
+     * @return Target IDs by document ID
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Set<String>> getTargetIdsByDocumentIds(Collection<String> documentIds, PermType perm) {
+        Map<String, Set<String>> targetIdMap = new HashMap<>();
+        if (documentIds.isEmpty()) {
+            return targetIdMap;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select e.EAC_IDSOURCE_C, e.EAC_IDTARGET_C from T_EFFECTIVE_ACL e where e.EAC_IDSOURCE_C in (:documentIds) and e.EAC_PERM_C = :perm");
+        q.setParameter("documentIds", documentIds);
+        q.setParameter("perm", perm.name());
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            targetIdMap.computeIfAbsent((String) o[0], k -> new HashSet<>()).add((String) o[1]);
+        }
+        return targetIdMap;
+    }
+
     /**
      * Delete an ACL.
      *
@@ -181,5 +219,77 @@ public class AclDao {
         q.setParameter("type", type);
         q.setParameter("dateNow", new Date());
         q.executeUpdate();
+        refreshEffectiveAcl(sourceId);
+    }
+
+    /**
+     * Refresh the effective permissions of a source, after its ACLs changed or its tags changed for a document.
+     * The documents tagged by the source are refreshed too, since they inherit the permissions given on their tags.
+     *
+     * @param sourceId Source ID
+     */
+    public void refreshEffectiveAcl(String sourceId) {
+        refreshEffectiveAcl("%1$s = :sourceId or %1$s in (select tdt.DOT_IDDOCUMENT_C from T_DOCUMENT_TAG tdt where tdt.DOT_IDTAG_C = :sourceId and tdt.DOT_DELETEDATE_D is null)",
+                Collections.singletonMap("sourceId", sourceId));
+    }
+
+    /**
+     * Rebuild all the effective permissions.
+     */
+    public void rebuildEffectiveAcl() {
+        refreshEffectiveAcl("%1$s is not null", Collections.emptyMap());
+    }
+
+    /**
+     * Delete the effective permissions of a target, after all its ACLs have been deleted.
+     *
+     * @param targetId Target ID
+     */
+    public void deleteEffectiveAclByTargetId(String targetId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("delete from T_EFFECTIVE_ACL where EAC_IDTARGET_C = :targetId");
+        q.setParameter("targetId", targetId);
+        q.executeUpdate();
+    }
+
+    /**
+     * Compute again the effective permissions of some sources:
+     * the ACLs of the sources, and for the documents the ACLs of their tags.
+     *
+     * @param sourceCondition Condition selecting the sources, formatted with the source ID column
+     * @param parameterMap Parameters of the condition
+     */
+    private void refreshEffectiveAcl(String sourceCondition, Map<String, Object> parameterMap) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+
+        // Lock the sources until the end of the transaction, concurrent refreshes would insert the same permissions
+        for (String[] source : SOURCE_TABLE_LIST) {
+            Query q = em.createNativeQuery("select s." + source[1] + " from " + source[0] + " s where "
+                    + String.format(sourceCondition, "s." + source[1]) + " order by s." + source[1] + " for update");
+            for (Map.Entry<String, Object> entry : parameterMap.entrySet()) {
+                q.setParameter(entry.getKey(), entry.getValue());
+            }
+            q.getResultList();
+        }
+
+        Query q = em.createNativeQuery("delete from T_EFFECTIVE_ACL where " + String.format(sourceCondition, "EAC_IDSOURCE_C"));
+        for (Map.Entry<String, Object> entry : parameterMap.entrySet()) {
+            q.setParameter(entry.getKey(), entry.getValue());
+        }
+        q.executeUpdate();
+
+        StringBuilder sb = new StringBuilder("insert into T_EFFECTIVE_ACL (EAC_IDSOURCE_C, EAC_IDTARGET_C, EAC_PERM_C) ");
+        sb.append(" select a.ACL_SOURCEID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_ACL a ");
+        sb.append(" where a.ACL_DELETEDATE_D is null and (").append(String.format(sourceCondition, "a.ACL_SOURCEID_C")).append(") ");
+        sb.append(" union ");
+        sb.append(" select d.DOC_ID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_ACL a, T_DOCUMENT_TAG dt, T_DOCUMENT d ");
+        sb.append(" where a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null ");
+        sb.append(" and d.DOC_DELETEDATE_D is null and a.ACL_DELETEDATE_D is null ");
+        sb.append(" and (").append(String.format(sourceCondition, "d.DOC_ID_C")).append(") ");
+        q = em.createNativeQuery(sb.toString());
+        for (Map.Entry<String, Object> entry : parameterMap.entrySet()) {
+            q.setParameter(entry.getKey(), entry.getValue());
+        }
+        q.executeUpdate();
     }
 }
\ No newline at end of file
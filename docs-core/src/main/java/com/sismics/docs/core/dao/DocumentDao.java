@@ -12,6 +12,8 @@ import jakarta.persistence.NoResultException;
 import jakarta.persistence.Query;
 import jakarta.persistence.TypedQuery;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -59,6 +61,26 @@ public class DocumentDao {
         return q.getResultList();
     }
 
+    /**
+     * Returns the IDs of active documents after an ID, in ID order.
+     *
+     * @param lastId Last ID of the previous page, null for the first page
+     * @param limit Page size
+     * @return List of document IDs
+     */
+    public List<String> findIdsAfter(String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<String> q;
+        if (lastId == null) {
+            q = em.createQuery("select d.id from Document d where d.deleteDate is null order by d.id", String.class);
+        } else {
+            q = em.createQuery("select d.id from Document d where d.deleteDate is null and d.id > :lastId order by d.id", String.class);
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
     /**
      * Returns the list of all active documents from a user.
      * 
@@ -156,6 +178,7 @@ public class DocumentDao {
         q.setParameter("documentId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new AclDao().refreshEffectiveAcl(id);
         
         q = em.createQuery("update DocumentTag dt set dt.deleteDate = :dateNow where dt.documentId = :documentId and dt.deleteDate is not null");
         q.setParameter("documentId", id);
@@ -188,6 +211,22 @@ public class DocumentDao {
         }
     }
     
+    /**
+     * Gets active documents by their IDs.
+     *
+     * @param ids Document IDs
+     * @return Documents
+     */
+    public List<Document> getByIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<Document> q = em.createQuery("select d from Document d where d.id in :ids and d.deleteDate is null", Document.class);
+        q.setParameter("ids", ids);
+        return q.getResultList();
+    }
+
     /**
      * Update a document and log the action.
      * 
@@ -1,6 +1,7 @@
 package com.sismics.docs.core.dao;
 
 import com.sismics.docs.core.constant.AuditLogType;
+import com.sismics.docs.core.dao.dto.FileDuplicateDto;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.util.context.ThreadLocalContext;
@@ -9,11 +10,16 @@ import jakarta.persistence.NoResultException;
 import jakarta.persistence.Query;
 import jakarta.persistence.TypedQuery;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -59,6 +65,37 @@ public class FileDao {
         return q.getResultList();
     }
     
+    /**
+     * Returns the IDs of active files after an ID, in ID order.
+     *
+     * @param lastId Last ID of the previous page, null for the first page
+     * @param limit Page size
+     * @return List of file IDs
+     */
+    public List<String> findIdsAfter(String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<String> q;
+        if (lastId == null) {
+            q = em.createQuery("select f.id from File f where f.deleteDate is null order by f.id", String.class);
+        } else {
+            q = em.createQuery("select f.id from File f where f.deleteDate is null and f.id > :lastId order by f.id", String.class);
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the number of active files.
+     *
+     * @return Number of files
+     */
+    public long getFileCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query query = em.createNativeQuery("select count(f.FIL_ID_C) from T_FILE f where f.FIL_DELETEDATE_D is null");
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
     /**
      * Returns the list of all files from a user.
      * 
@@ -164,6 +201,7 @@ public class FileDao {
         fileDb.setVersionId(file.getVersionId());
         fileDb.setLatestVersion(file.isLatestVersion());
         fileDb.setSize(file.getSize());
+        fileDb.setHash(file.getHash());
 
         return file;
     }
@@ -234,6 +272,28 @@ public class FileDao {
         return result;
     }
 
+    /**
+     * Get the MIME types of the files of some documents, all versions included.
+     *
+     * @param documentIds Documents IDs
+     * @return MIME types by document ID
+     */
+    public Map<String, Set<String>> getMimeTypesByDocumentIds(Collection<String> documentIds) {
+        Map<String, Set<String>> result = new HashMap<>();
+        if (documentIds.isEmpty()) {
+            return result;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select distinct f.documentId, f.mimeType from File f where f.documentId in :documentIds and f.deleteDate is null");
+        q.setParameter("documentIds", documentIds);
+        q.getResultList().forEach(o -> {
+            Object[] resultLine = (Object[]) o;
+            result.computeIfAbsent((String) resultLine[0], k -> new HashSet<>()).add((String) resultLine[1]);
+        });
+        return result;
+    }
+
     /**
      * Get all files from a version.
      *
@@ -254,4 +314,80 @@ public class FileDao {
         q.setMaxResults(limit);
         return q.getResultList();
     }
+
+    /**
+     * Returns a batch of active files, ordered by ID.
+     *
+     * @param afterId Only returns the files after this ID, null to start from the first one
+     * @param limit Maximum number of files
+     * @return List of files
+     */
+    public List<File> getActiveAfterId(String afterId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<File> q;
+        if (afterId == null) {
+            q = em.createQuery("select f from File f where f.deleteDate is null order by f.id asc", File.class);
+        } else {
+            q = em.createQuery("select f from File f where f.id > :afterId and f.deleteDate is null order by f.id asc", File.class);
+            q.setParameter("afterId", afterId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns an active file with the same content, stored the same way.
+     * Encrypted files can only share their content with the files of the same user.
+     *
+     * @param hash Content hash
+     * @param userId ID of the user creating the file
+     * @param encrypted True if the file is encrypted
+     * @return File or null if there is none
+     */
+    public File getByHash(String hash, String userId, boolean encrypted) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<File> q;
+        if (encrypted) {
+            q = em.createQuery("select f from File f where f.hash = :hash and f.encrypted = true and f.userId = :userId and f.deleteDate is null", File.class);
+            q.setParameter("userId", userId);
+        } else {
+            q = em.createQuery("select f from File f where f.hash = :hash and f.encrypted = false and f.deleteDate is null", File.class);
+        }
+        q.setParameter("hash", hash);
+        q.setMaxResults(1);
+        List<File> fileList = q.getResultList();
+        return fileList.isEmpty() ? null : fileList.get(0);
+    }
+
+    /**
+     * Returns the number of active files with a content hash.
+     *
+     * @return Number of files
+     */
+    public long getHashedFileCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query query = em.createNativeQuery("select count(f.FIL_ID_C) from T_FILE f where f.FIL_HASH_C is not null and f.FIL_DELETEDATE_D is null");
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
+    /**
+     * Returns the contents shared by several active files of the same user, the largest duplicates first.
+     *
+     * @return List of duplicates
+     */
+    @SuppressWarnings("unchecked")
+    public List<FileDuplicateDto> findDuplicates() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select f.hash, f.userId, count(f), max(f.size) from File f where f.hash is not null and f.deleteDate is null group by f.hash, f.userId having count(f) > 1");
+        List<FileDuplicateDto> duplicateList = new ArrayList<>();
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            duplicateList.add(new FileDuplicateDto()
+                    .setHash((String) o[0])
+                    .setUserId((String) o[1])
+                    .setCount(((Number) o[2]).longValue())
+                    .setSize(((Number) o[3]).longValue()));
+        }
+        duplicateList.sort(Comparator.comparingLong(FileDuplicateDto::getDuplicateSize).reversed());
+        return duplicateList;
+    }
 }
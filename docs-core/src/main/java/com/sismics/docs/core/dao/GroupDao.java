@@ -72,6 +72,14 @@ public class GroupDao {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(group);
         
+        // Create the group hierarchy
+        Query q = ThreadLocalContext.get().getEntityManager().createNativeQuery("insert into T_GROUP_ANCESTOR (GAN_IDGROUP_C, GAN_IDANCESTOR_C) values (:groupId, :groupId)");
+        q.setParameter("groupId", group.getId());
+        q.executeUpdate();
+        if (group.getParentId() != null) {
+            linkToParent(group.getId(), group.getParentId());
+        }
+        
         // Create audit log
         AuditLogUtil.create(group, AuditLogType.CREATE, userId);
         
@@ -106,11 +114,18 @@ public class GroupDao {
         q.setParameter("groupId", groupDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new AclDao().deleteEffectiveAclByTargetId(groupDb.getId());
 
         q = em.createQuery("update Group g set g.parentId = null where g.parentId = :groupId and g.deleteDate is null");
         q.setParameter("groupId", groupDb.getId());
         q.executeUpdate();
 
+        // Delete the group from the hierarchy, its subgroups having no parent anymore
+        unlinkFromParent(groupDb.getId());
+        q = em.createNativeQuery("delete from T_GROUP_ANCESTOR where GAN_IDGROUP_C = :groupId or GAN_IDANCESTOR_C = :groupId");
+        q.setParameter("groupId", groupDb.getId());
+        q.executeUpdate();
+
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.DELETE, userId);
     }
@@ -164,9 +179,6 @@ public class GroupDao {
         List<String> criteriaList = new ArrayList<>();
         
         StringBuilder sb = new StringBuilder("select g.GRP_ID_C as c0, g.GRP_NAME_C as c1, g.GRP_IDPARENT_C as c2, gp.GRP_NAME_C as c3, g.GRP_IDROLE_C ");
-        if (criteria.getUserId() != null) {
-            sb.append(" , ug.UGP_ID_C ");
-        }
         sb.append(" from T_GROUP g ");
         sb.append(" left join T_GROUP gp on g.GRP_IDPARENT_C = gp.GRP_ID_C ");
         
@@ -176,9 +188,12 @@ public class GroupDao {
             parameterMap.put("search", "%" + criteria.getSearch() + "%");
         }
         if (criteria.getUserId() != null) {
-            // Left join and post-filtering for recursive groups
-            sb.append(criteria.isRecursive() ? " left " : "");
-            sb.append(" join T_USER_GROUP ug on ug.UGP_IDGROUP_C = g.GRP_ID_C and ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null ");
+            if (criteria.isRecursive()) {
+                // The groups of the user and all their ancestors
+                criteriaList.add("g.GRP_ID_C in (select ga.GAN_IDANCESTOR_C from T_GROUP_ANCESTOR ga join T_USER_GROUP ug on ug.UGP_IDGROUP_C = ga.GAN_IDGROUP_C where ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null)");
+            } else {
+                sb.append(" join T_USER_GROUP ug on ug.UGP_IDGROUP_C = g.GRP_ID_C and ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null ");
+            }
             parameterMap.put("userId", criteria.getUserId());
         }
         
@@ -194,7 +209,6 @@ public class GroupDao {
         
         // Assemble results
         List<GroupDto> groupDtoList = new ArrayList<>();
-        List<GroupDto> userGroupDtoList = new ArrayList<>();
         for (Object[] o : l) {
             int i = 0;
             GroupDto groupDto = new GroupDto()
@@ -202,45 +216,26 @@ public class GroupDao {
                 .setName((String) o[i++])
                 .setParentId((String) o[i++])
                 .setParentName((String) o[i++])
-                .setRoleId((String) o[i++]);
+                .setRoleId((String) o[i]);
             groupDtoList.add(groupDto);
-            if (criteria.getUserId() != null && o[i] != null) {
-                userGroupDtoList.add(groupDto);
-            }
-        }
-        
-        // Post-query filtering for recursive groups
-        if (criteria.getUserId() != null && criteria.isRecursive()) {
-            Set<GroupDto> filteredGroupDtoSet = new HashSet<>();
-            for (GroupDto userGroupDto : userGroupDtoList) {
-                filteredGroupDtoSet.add(userGroupDto); // Direct group
-                findGroupParentHierarchy(filteredGroupDtoSet, groupDtoList, userGroupDto, 0); // Indirect groups
-            }
-            groupDtoList = new ArrayList<>(filteredGroupDtoSet);
         }
         
         return groupDtoList;
     }
     
     /**
-     * Recursively search group's parents.
+     * Returns true if a group is an ancestor of another group, or the group itself.
      * 
-     * @param parentGroupDtoSet Resulting parents
-     * @param groupDtoList All groups
-     * @param userGroupDto Reference group to search from
-     * @param depth Depth
+     * @param groupId Group ID
+     * @param ancestorId Ancestor group ID
+     * @return True if the group is an ancestor
      */
-    private void findGroupParentHierarchy(Set<GroupDto> parentGroupDtoSet, List<GroupDto> groupDtoList, GroupDto userGroupDto, int depth) {
-        if (userGroupDto.getParentId() == null || depth == 10) { // Max depth 10 to avoid infinite loop
-            return;
-        }
-        
-        for (GroupDto groupDto : groupDtoList) {
-            if (groupDto.getId().equals(userGroupDto.getParentId())) {
-                parentGroupDtoSet.add(groupDto); // Add parent
-                findGroupParentHierarchy(parentGroupDtoSet, groupDtoList, groupDto, depth + 1); // Find parent's parents
-            }
-        }
+    public boolean hasAncestor(String groupId, String ancestorId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select GAN_IDGROUP_C from T_GROUP_ANCESTOR where GAN_IDGROUP_C = :groupId and GAN_IDANCESTOR_C = :ancestorId");
+        q.setParameter("groupId", groupId);
+        q.setParameter("ancestorId", ancestorId);
+        return !q.getResultList().isEmpty();
     }
     
     /**
@@ -259,13 +254,53 @@ public class GroupDao {
         Group groupDb = (Group) q.getSingleResult();
         
         // Update the group
+        String oldParentId = groupDb.getParentId();
         groupDb.setName(group.getName());
         groupDb.setParentId(group.getParentId());
         
+        // Move the group and its subgroups in the hierarchy
+        if (!Objects.equals(oldParentId, group.getParentId())) {
+            unlinkFromParent(groupDb.getId());
+            if (group.getParentId() != null) {
+                linkToParent(groupDb.getId(), group.getParentId());
+            }
+        }
+        
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.UPDATE, userId);
         
         return groupDb;
     }
+    
+    /**
+     * Link a group and its subgroups to the ancestors of a new parent group.
+     * 
+     * @param groupId Group ID
+     * @param parentId Parent group ID
+     */
+    private void linkToParent(String groupId, String parentId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("insert into T_GROUP_ANCESTOR (GAN_IDGROUP_C, GAN_IDANCESTOR_C) " +
+                " select s.GAN_IDGROUP_C, p.GAN_IDANCESTOR_C from T_GROUP_ANCESTOR s, T_GROUP_ANCESTOR p " +
+                " where s.GAN_IDANCESTOR_C = :groupId and p.GAN_IDGROUP_C = :parentId " +
+                " and not exists (select e.GAN_IDGROUP_C from T_GROUP_ANCESTOR e where e.GAN_IDGROUP_C = s.GAN_IDGROUP_C and e.GAN_IDANCESTOR_C = p.GAN_IDANCESTOR_C)");
+        q.setParameter("groupId", groupId);
+        q.setParameter("parentId", parentId);
+        q.executeUpdate();
+    }
+    
+    /**
+     * Unlink a group and its subgroups from the ancestors of its parent group.
+     * 
+     * @param groupId Group ID
+     */
+    private void unlinkFromParent(String groupId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("delete from T_GROUP_ANCESTOR " +
+                " where GAN_IDGROUP_C in (select s.GAN_IDGROUP_C from T_GROUP_ANCESTOR s where s.GAN_IDANCESTOR_C = :groupId) " +
+                " and GAN_IDANCESTOR_C in (select a.GAN_IDANCESTOR_C from T_GROUP_ANCESTOR a where a.GAN_IDGROUP_C = :groupId and a.GAN_IDANCESTOR_C <> :groupId) " +
+                " and GAN_IDGROUP_C <> GAN_IDANCESTOR_C");
+        q.setParameter("groupId", groupId);
+        q.executeUpdate();
+    }
 }
-
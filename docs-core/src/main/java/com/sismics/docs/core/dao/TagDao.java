@@ -79,8 +79,47 @@ public class TagDao {
                 em.persist(documentTag);
             }
         }
+
+        // The document inherits the permissions of its tags
+        new AclDao().refreshEffectiveAcl(documentId);
     }
     
+    /**
+     * Returns the IDs of the tags linked to some documents.
+     *
+     * @param documentIds Document IDs
+     * @return Tag IDs by document ID
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<String>> getTagIdsByDocumentIds(Collection<String> documentIds) {
+        Map<String, List<String>> tagIdMap = new HashMap<>();
+        if (documentIds.isEmpty()) {
+            return tagIdMap;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select dt.documentId, dt.tagId from DocumentTag dt where dt.documentId in :documentIds and dt.deleteDate is null");
+        q.setParameter("documentIds", documentIds);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            tagIdMap.computeIfAbsent((String) o[0], k -> new ArrayList<>()).add((String) o[1]);
+        }
+        return tagIdMap;
+    }
+
+    /**
+     * Returns the IDs of the documents linked to a tag.
+     *
+     * @param tagId Tag ID
+     * @return Document IDs
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getDocumentIdsByTagId(String tagId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select dt.documentId from DocumentTag dt where dt.tagId = :tagId and dt.deleteDate is null");
+        q.setParameter("tagId", tagId);
+        return q.getResultList();
+    }
+
     /**
      * Creates a new tag.
      * 
@@ -121,15 +160,16 @@ public class TagDao {
         Date dateNow = new Date();
         tagDb.setDeleteDate(dateNow);
 
-        // Delete linked data
-        q = em.createQuery("update DocumentTag dt set dt.deleteDate = :dateNow where dt.tagId = :tagId and dt.deleteDate is not null");
-        q.setParameter("dateNow", dateNow);
+        // Delete linked data, the tagged documents lose the permissions inherited from the tag before being unlinked
+        q = em.createQuery("update Acl a set a.deleteDate = :dateNow where a.sourceId = :tagId and a.deleteDate is null");
         q.setParameter("tagId", tagId);
+        q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new AclDao().refreshEffectiveAcl(tagId);
 
-        q = em.createQuery("update Acl a set a.deleteDate = :dateNow where a.sourceId = :tagId and a.deleteDate is null");
-        q.setParameter("tagId", tagId);
+        q = em.createQuery("update DocumentTag dt set dt.deleteDate = :dateNow where dt.tagId = :tagId and dt.deleteDate is null");
         q.setParameter("dateNow", dateNow);
+        q.setParameter("tagId", tagId);
         q.executeUpdate();
 
         q = em.createQuery("update Tag t set t.parentId = null where t.parentId = :tagId and t.deleteDate is null");
@@ -222,5 +262,51 @@ public class TagDao {
 
         return tagDtoList;
     }
-}
 
+    /**
+     * Returns the tags of some documents, sorted by name.
+     *
+     * @param documentIds Documents IDs
+     * @param targetIdList List of targets the tags must be readable by, null to skip the check
+     * @return Tags by document ID
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<TagDto>> findByDocumentIds(Collection<String> documentIds, List<String> targetIdList) {
+        Map<String, List<TagDto>> tagDtoMap = new HashMap<>();
+        if (documentIds.isEmpty()) {
+            return tagDtoMap;
+        }
+
+        StringBuilder sb = new StringBuilder("select dt.DOT_IDDOCUMENT_C, t.TAG_ID_C, t.TAG_NAME_C, t.TAG_COLOR_C, t.TAG_IDPARENT_C, u.USE_USERNAME_C ");
+        sb.append(" from T_DOCUMENT_TAG dt ");
+        sb.append(" join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null ");
+        sb.append(" join T_USER u on t.TAG_IDUSER_C = u.USE_ID_C ");
+        sb.append(" where dt.DOT_IDDOCUMENT_C in (:documentIds) and dt.DOT_DELETEDATE_D is null ");
+        boolean checkAcl = targetIdList != null && !SecurityUtil.skipAclCheck(targetIdList);
+        if (checkAcl) {
+            sb.append(" and exists (select a.ACL_ID_C from T_ACL a where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = t.TAG_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null) ");
+        }
+        sb.append(" order by t.TAG_NAME_C asc ");
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery(sb.toString());
+        q.setParameter("documentIds", documentIds);
+        if (checkAcl) {
+            q.setParameter("targetIdList", targetIdList);
+        }
+
+        // Assemble results
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            int i = 0;
+            String documentId = (String) o[i++];
+            TagDto tagDto = new TagDto()
+                    .setId((String) o[i++])
+                    .setName((String) o[i++])
+                    .setColor((String) o[i++])
+                    .setParentId((String) o[i++])
+                    .setCreator((String) o[i]);
+            tagDtoMap.computeIfAbsent(documentId, k -> new ArrayList<>()).add(tagDto);
+        }
+        return tagDtoMap;
+    }
+}
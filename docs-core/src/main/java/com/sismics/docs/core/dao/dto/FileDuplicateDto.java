@@ -0,0 +1,73 @@
+package com.sismics.docs.core.dao.dto;
+
+/**
+ * Files with the same content DTO.
+ *
+ * @author bgamard
+ */
+public class FileDuplicateDto {
+    /**
+     * Content hash.
+     */
+    private String hash;
+
+    /**
+     * ID of the user whom created the files.
+     */
+    private String userId;
+
+    /**
+     * Number of files with this content.
+     */
+    private long count;
+
+    /**
+     * Size of the content.
+     */
+    private long size;
+
+    public String getHash() {
+        return hash;
+    }
+
+    public FileDuplicateDto setHash(String hash) {
+        this.hash = hash;
+        return this;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public FileDuplicateDto setUserId(String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public FileDuplicateDto setCount(long count) {
+        this.count = count;
+        return this;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public FileDuplicateDto setSize(long size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * Returns the size taken by the duplicate copies.
+     *
+     * @return Size of all the files but one
+     */
+    public long getDuplicateSize() {
+        return (count - 1) * size;
+    }
+}
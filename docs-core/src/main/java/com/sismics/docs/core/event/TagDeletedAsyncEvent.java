@@ -0,0 +1,46 @@
+package com.sismics.docs.core.event;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.List;
+
+/**
+ * Tag deleted event.
+ *
+ * @author bgamard
+ */
+public class TagDeletedAsyncEvent extends UserEvent {
+    /**
+     * Tag ID.
+     */
+    private String tagId;
+
+    /**
+     * IDs of the documents which were tagged.
+     */
+    private List<String> documentIdList;
+
+    public String getTagId() {
+        return tagId;
+    }
+
+    public void setTagId(String tagId) {
+        this.tagId = tagId;
+    }
+
+    public List<String> getDocumentIdList() {
+        return documentIdList;
+    }
+
+    public void setDocumentIdList(List<String> documentIdList) {
+        this.documentIdList = documentIdList;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("tagId", tagId)
+            .add("documentCount", documentIdList.size())
+            .toString();
+    }
+}
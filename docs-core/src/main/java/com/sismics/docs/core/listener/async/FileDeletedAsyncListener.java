@@ -44,7 +44,7 @@ public class FileDeletedAsyncListener {
 
                 if (fileSize.equals(File.UNKNOWN_SIZE)) {
                     // The file size was not in the database, in this case we need to get from the unencrypted size.
-                    fileSize = FileUtil.getFileSize(event.getFileId(), user);
+                    fileSize = FileUtil.getFileSize(event.getFileId());
                 }
 
                 if (! fileSize.equals(File.UNKNOWN_SIZE)) {
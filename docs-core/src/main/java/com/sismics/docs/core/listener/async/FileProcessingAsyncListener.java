@@ -10,24 +10,19 @@ import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
-import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.ExtractionCache;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.ThumbnailUtil;
 import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
-import com.sismics.util.ImageUtil;
-import com.sismics.util.Scalr;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
-import java.awt.image.BufferedImage;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -144,29 +139,33 @@ public class FileProcessingAsyncListener {
             return null;
         }
 
-        // Generate file variations
-        try {
-            Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-            BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile());
-            if (image != null) {
-                // Generate thumbnails from image
-                BufferedImage web = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
-                BufferedImage thumbnail = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
-                image.flush();
-
-                // Write "web" encrypted image
-                Path outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_web");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(web, outputStream);
-                }
-
-                // Write "thumb" encrypted image
-                outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_thumb");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(thumbnail, outputStream);
+        // Look for a previous extraction of the same content
+        String contentHash = null;
+        if (ExtractionCache.isEnabled()) {
+            try {
+                contentHash = file.getHash() != null ? file.getHash() : ExtractionCache.hash(event.getUnencryptedFile());
+                ExtractionCache.Entry entry = ExtractionCache.get(contentHash, event.getLanguage(), formatHandler);
+                if (entry != null) {
+                    log.info("Content and thumbnails found in the extraction cache for: " + file);
+                    writeThumbnails(user, file, entry.getWeb(), entry.getThumb());
+                    return entry.getContent();
                 }
+            } catch (Throwable e) {
+                log.error("Unable to use the extraction cache for: " + file, e);
             }
+        }
+
+        // Generate file variations, each one is stored as soon as it is ready
+        boolean success = true;
+        Map<ThumbnailUtil.Size, byte[]> thumbnailMap = new EnumMap<>(ThumbnailUtil.Size.class);
+        try {
+            String privateKey = StorageUtil.getPrivateKey(file, user);
+            ThumbnailUtil.generate(file.getId(), formatHandler, event.getUnencryptedFile(), (size, data) -> {
+                thumbnailMap.put(size, data);
+                ThumbnailUtil.store(file.getId(), privateKey, size, data);
+            });
         } catch (Throwable e) {
+            success = false;
             log.error("Unable to generate thumbnails for: " + file, e);
         }
 
@@ -177,10 +176,36 @@ public class FileProcessingAsyncListener {
         try {
             content = formatHandler.extractContent(event.getLanguage(), event.getUnencryptedFile());
         } catch (Throwable e) {
+            success = false;
             log.error("Error extracting content from: " + file, e);
         }
         log.info(MessageFormat.format("File content extracted in {0}ms: " + file.getId(), System.currentTimeMillis() - startTime));
 
+        // Blank content may come from a failed OCR, don't keep it
+        if (contentHash != null && success && (content == null || !content.trim().isEmpty())) {
+            ExtractionCache.put(contentHash, event.getLanguage(), formatHandler, new ExtractionCache.Entry(content,
+                    thumbnailMap.get(ThumbnailUtil.Size.WEB), thumbnailMap.get(ThumbnailUtil.Size.THUMB)));
+        }
+
         return content;
     }
+
+    /**
+     * Write the web image and thumbnail of a file, encrypted like the file.
+     *
+     * @param user User whom created the file
+     * @param file File
+     * @param web Web image as JPEG, can be null
+     * @param thumbnail Thumbnail as JPEG, can be null
+     * @throws Exception e
+     */
+    private void writeThumbnails(User user, File file, byte[] web, byte[] thumbnail) throws Exception {
+        String privateKey = StorageUtil.getPrivateKey(file, user);
+        if (web != null) {
+            ThumbnailUtil.store(file.getId(), privateKey, ThumbnailUtil.Size.WEB, web);
+        }
+        if (thumbnail != null) {
+            ThumbnailUtil.store(file.getId(), privateKey, ThumbnailUtil.Size.THUMB, thumbnail);
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package com.sismics.docs.core.listener.async;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.event.DocumentDeletedAsyncEvent;
+import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
+import com.sismics.docs.core.event.FileDeletedAsyncEvent;
+import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
+import com.sismics.docs.core.model.context.AppContext;
+
+/**
+ * Listener forgetting the generated PDFs of the modified documents and files.
+ *
+ * @author bgamard
+ */
+public class PdfExportCacheAsyncListener {
+    /**
+     * Document updated.
+     *
+     * @param event Document updated event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final DocumentUpdatedAsyncEvent event) {
+        AppContext.getInstance().getPdfExportService().invalidateDocument(event.getDocumentId());
+    }
+
+    /**
+     * Document deleted.
+     *
+     * @param event Document deleted event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final DocumentDeletedAsyncEvent event) {
+        AppContext.getInstance().getPdfExportService().invalidateDocument(event.getDocumentId());
+    }
+
+    /**
+     * File updated.
+     *
+     * @param event File updated event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final FileUpdatedAsyncEvent event) {
+        AppContext.getInstance().getPdfExportService().invalidateFile(event.getFileId());
+    }
+
+    /**
+     * File deleted.
+     *
+     * @param event File deleted event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final FileDeletedAsyncEvent event) {
+        AppContext.getInstance().getPdfExportService().invalidateFile(event.getFileId());
+    }
+}
@@ -0,0 +1,46 @@
+package com.sismics.docs.core.listener.async;
+
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.event.TagDeletedAsyncEvent;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Listener on tag deleted.
+ *
+ * @author bgamard
+ */
+public class TagDeletedAsyncListener {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(TagDeletedAsyncListener.class);
+
+    /**
+     * Tag deleted.
+     *
+     * @param event Tag deleted event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final TagDeletedAsyncEvent event) {
+        if (log.isInfoEnabled()) {
+            log.info("Tag deleted event: " + event.toString());
+        }
+
+        TransactionUtil.handle(() -> {
+            // Reindex the documents which lost the tag and the permissions inherited from it
+            DocumentDao documentDao = new DocumentDao();
+            for (List<String> documentIdPartition : Lists.partition(event.getDocumentIdList(), 100)) {
+                AppContext.getInstance().getIndexingHandler().updateDocuments(documentDao.getByIds(documentIdPartition));
+            }
+        });
+    }
+}
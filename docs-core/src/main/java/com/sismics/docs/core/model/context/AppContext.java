@@ -2,7 +2,6 @@ package com.sismics.docs.core.model.context;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.UserDao;
@@ -11,8 +10,14 @@ import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.service.FileService;
 import com.sismics.docs.core.service.FileSizeService;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.PdfExportService;
+import com.sismics.docs.core.service.ThumbnailService;
+import com.sismics.docs.core.util.OcrEngine;
 import com.sismics.docs.core.util.PdfUtil;
+import com.sismics.docs.core.util.ZipExporter;
 import com.sismics.docs.core.util.indexing.IndexingHandler;
+import com.sismics.docs.core.util.storage.StorageProvider;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.util.ClasspathScanner;
 import com.sismics.util.EnvironmentUtil;
 import org.slf4j.Logger;
@@ -21,8 +26,6 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -72,9 +75,34 @@ public class AppContext {
     private FileSizeService fileSizeService;
 
     /**
-     * Asynchronous executors.
+     * PDF export service.
      */
-    private List<ThreadPoolExecutor> asyncExecutorList;
+    private PdfExportService pdfExportService;
+
+    /**
+     * Thumbnail service.
+     */
+    private ThumbnailService thumbnailService;
+
+    /**
+     * OCR engine.
+     */
+    private OcrEngine ocrEngine;
+
+    /**
+     * ZIP export engine.
+     */
+    private ZipExporter zipExporter;
+
+    /**
+     * Storage provider of the files data.
+     */
+    private StorageProvider storageProvider;
+
+    /**
+     * Asynchronous executors, one per event lane.
+     */
+    private List<EventLaneExecutor> asyncExecutorList;
 
     /**
      * Start the application context.
@@ -82,6 +110,15 @@ public class AppContext {
     private void startUp() {
         resetEventBus();
 
+        // Open the files storage
+        storageProvider = StorageUtil.createStorageProvider();
+
+        // Start OCR engine
+        ocrEngine = new OcrEngine();
+
+        // Start ZIP export engine
+        zipExporter = new ZipExporter();
+
         // Start indexing handler
         try {
             List<Class<? extends IndexingHandler>> indexingHandlerList = Lists.newArrayList(
@@ -108,6 +145,16 @@ public class AppContext {
         inboxService.startAsync();
         inboxService.awaitRunning();
 
+        // Start PDF export service
+        pdfExportService = new PdfExportService();
+        pdfExportService.startAsync();
+        pdfExportService.awaitRunning();
+
+        // Start thumbnail service
+        thumbnailService = new ThumbnailService();
+        thumbnailService.startAsync();
+        thumbnailService.awaitRunning();
+
         // Start file size service
         fileSizeService = new FileSizeService();
         fileSizeService.startAsync();
@@ -145,7 +192,7 @@ public class AppContext {
     private void resetEventBus() {
         asyncExecutorList = new ArrayList<>();
 
-        asyncEventBus = newAsyncEventBus();
+        asyncEventBus = newAsyncEventBus("async", EventLane.INTERACTIVE, EventLane.PROCESSING, EventLane.BATCH);
         asyncEventBus.register(new FileProcessingAsyncListener());
         asyncEventBus.register(new FileDeletedAsyncListener());
         asyncEventBus.register(new DocumentCreatedAsyncListener());
@@ -154,9 +201,11 @@ public class AppContext {
         asyncEventBus.register(new RebuildIndexAsyncListener());
         asyncEventBus.register(new AclCreatedAsyncListener());
         asyncEventBus.register(new AclDeletedAsyncListener());
+        asyncEventBus.register(new TagDeletedAsyncListener());
         asyncEventBus.register(new WebhookAsyncListener());
+        asyncEventBus.register(new PdfExportCacheAsyncListener());
 
-        mailEventBus = newAsyncEventBus();
+        mailEventBus = newAsyncEventBus("mail", EventLane.MAIL);
         mailEventBus.register(new PasswordLostAsyncListener());
         mailEventBus.register(new RouteStepValidateAsyncListener());
     }
@@ -176,19 +225,35 @@ public class AppContext {
 
     /**
      * Creates a new asynchronous event bus.
+     * Each lane has its own executor with a bounded queue, events of unknown lanes go to the first lane.
      *
+     * @param identifier Bus identifier
+     * @param laneList Lanes of this bus
      * @return Async event bus
      */
-    private EventBus newAsyncEventBus() {
+    private EventBus newAsyncEventBus(String identifier, EventLane... laneList) {
         if (EnvironmentUtil.isUnitTest()) {
             return new EventBus();
         } else {
-            int threadCount = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
-                    1L, TimeUnit.MINUTES,
-                    new LinkedBlockingQueue<>());
-            asyncExecutorList.add(executor);
-            return new AsyncEventBus(executor);
+            int queueCapacity = EnvironmentUtil.getEnvIntegerValue(Constants.ASYNC_QUEUE_CAPACITY_ENV, Constants.DEFAULT_ASYNC_QUEUE_CAPACITY);
+            EventLaneExecutor.RejectionPolicy rejectionPolicy = EventLaneExecutor.RejectionPolicy.BLOCK;
+            String rejectionPolicyValue = System.getenv(Constants.ASYNC_REJECTION_POLICY_ENV);
+            if (!Strings.isNullOrEmpty(rejectionPolicyValue)) {
+                try {
+                    rejectionPolicy = EventLaneExecutor.RejectionPolicy.valueOf(rejectionPolicyValue.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    log.warn("Unknown async rejection policy {}, using {}", rejectionPolicyValue, rejectionPolicy);
+                }
+            }
+
+            LaneEventBus eventBus = new LaneEventBus(identifier, laneList[0]);
+            for (EventLane lane : laneList) {
+                int threadCount = EnvironmentUtil.getEnvIntegerValue(String.format(Constants.ASYNC_LANE_THREADS_ENV, lane.name()), lane.getDefaultThreadCount());
+                EventLaneExecutor executor = new EventLaneExecutor(lane, Math.max(threadCount, 1), Math.max(queueCapacity, 1), rejectionPolicy);
+                asyncExecutorList.add(executor);
+                eventBus.addLane(executor);
+            }
+            return eventBus;
         }
     }
 
@@ -199,12 +264,16 @@ public class AppContext {
      */
     public int getQueuedTaskCount() {
         int queueSize = 0;
-        for (ThreadPoolExecutor executor : asyncExecutorList) {
+        for (EventLaneExecutor executor : asyncExecutorList) {
             queueSize += executor.getTaskCount() - executor.getCompletedTaskCount();
         }
         return queueSize;
     }
 
+    public List<EventLaneExecutor> getAsyncExecutorList() {
+        return asyncExecutorList;
+    }
+
     public EventBus getAsyncEventBus() {
         return asyncEventBus;
     }
@@ -225,6 +294,30 @@ public class AppContext {
         return fileService;
     }
 
+    public PdfExportService getPdfExportService() {
+        return pdfExportService;
+    }
+
+    public ThumbnailService getThumbnailService() {
+        return thumbnailService;
+    }
+
+    public OcrEngine getOcrEngine() {
+        return ocrEngine;
+    }
+
+    public ZipExporter getZipExporter() {
+        return zipExporter;
+    }
+
+    public StorageProvider getStorageProvider() {
+        return storageProvider;
+    }
+
+    public void setStorageProvider(StorageProvider storageProvider) {
+        this.storageProvider = storageProvider;
+    }
+
     public void shutDown() {
         for (ExecutorService executor : asyncExecutorList) {
             // Shutdown executor, don't accept any more tasks (can cause error with nested events)
@@ -236,6 +329,14 @@ public class AppContext {
             }
         }
 
+        if (ocrEngine != null) {
+            ocrEngine.shutDown();
+        }
+
+        if (zipExporter != null) {
+            zipExporter.shutDown();
+        }
+
         if (indexingHandler != null) {
             indexingHandler.shutDown();
         }
@@ -253,6 +354,14 @@ public class AppContext {
             fileSizeService.stopAsync();
         }
 
+        if (pdfExportService != null) {
+            pdfExportService.stopAsync();
+        }
+
+        if (thumbnailService != null) {
+            thumbnailService.stopAsync();
+        }
+
         instance = null;
     }
 }
@@ -0,0 +1,84 @@
+package com.sismics.docs.core.model.context;
+
+import com.sismics.docs.core.event.FileCreatedAsyncEvent;
+import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
+import com.sismics.docs.core.event.PasswordLostEvent;
+import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
+import com.sismics.docs.core.event.RouteStepValidateEvent;
+
+/**
+ * Lanes of asynchronous events.
+ * Each lane has its own bounded executor, so that long running work like OCR
+ * never delays interactive updates like ACL or metadata indexing.
+ *
+ * @author bgamard
+ */
+public enum EventLane {
+    /**
+     * Short updates following a user action: documents, ACLs, deleted files.
+     */
+    INTERACTIVE(2, Thread.NORM_PRIORITY + 1),
+
+    /**
+     * File processing: content extraction, OCR, thumbnails.
+     */
+    PROCESSING(Math.max(Runtime.getRuntime().availableProcessors() / 2, 2), Thread.NORM_PRIORITY - 1),
+
+    /**
+     * Batch operations: index rebuild.
+     */
+    BATCH(1, Thread.MIN_PRIORITY),
+
+    /**
+     * Email sending.
+     */
+    MAIL(2, Thread.NORM_PRIORITY);
+
+    /**
+     * Default number of threads.
+     */
+    private final int defaultThreadCount;
+
+    /**
+     * Priority of the threads.
+     */
+    private final int threadPriority;
+
+    /**
+     * Constructor.
+     *
+     * @param defaultThreadCount Default number of threads
+     * @param threadPriority Priority of the threads
+     */
+    EventLane(int defaultThreadCount, int threadPriority) {
+        this.defaultThreadCount = defaultThreadCount;
+        this.threadPriority = threadPriority;
+    }
+
+    /**
+     * Returns the lane of an event.
+     *
+     * @param event Event
+     * @return Lane
+     */
+    public static EventLane of(Object event) {
+        if (event instanceof FileCreatedAsyncEvent || event instanceof FileUpdatedAsyncEvent) {
+            return PROCESSING;
+        }
+        if (event instanceof RebuildIndexAsyncEvent) {
+            return BATCH;
+        }
+        if (event instanceof PasswordLostEvent || event instanceof RouteStepValidateEvent) {
+            return MAIL;
+        }
+        return INTERACTIVE;
+    }
+
+    public int getDefaultThreadCount() {
+        return defaultThreadCount;
+    }
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+}
@@ -0,0 +1,274 @@
+package com.sismics.docs.core.model.context;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor of an event lane.
+ * Its queue is bounded, and the rejection policy applies when it is full.
+ * The time spent by tasks in the queue and executing is measured.
+ *
+ * @author bgamard
+ */
+public class EventLaneExecutor extends ThreadPoolExecutor {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(EventLaneExecutor.class);
+
+    /**
+     * Behavior when the queue of a lane is full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * The submitting thread waits for room in the queue.
+         */
+        BLOCK,
+
+        /**
+         * The submitting thread runs the task itself.
+         */
+        CALLER_RUNS,
+
+        /**
+         * The task is rejected with an exception.
+         */
+        ABORT
+    }
+
+    /**
+     * Executor running the task of the current thread.
+     */
+    private static final ThreadLocal<EventLaneExecutor> currentExecutor = new ThreadLocal<>();
+
+    /**
+     * Lane.
+     */
+    private final EventLane lane;
+
+    /**
+     * Queue capacity.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Number of tasks submitted while the queue was full.
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Number of executed tasks.
+     */
+    private final AtomicLong executedCount = new AtomicLong();
+
+    /**
+     * Total time spent waiting in the queue, in nanoseconds.
+     */
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    /**
+     * Longest time spent waiting in the queue, in nanoseconds.
+     */
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * Total execution time, in nanoseconds.
+     */
+    private final AtomicLong totalExecutionTime = new AtomicLong();
+
+    /**
+     * Longest execution time, in nanoseconds.
+     */
+    private final AtomicLong maxExecutionTime = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param lane Lane
+     * @param threadCount Number of threads
+     * @param queueCapacity Maximum number of queued tasks
+     * @param rejectionPolicy Behavior when the queue is full
+     */
+    public EventLaneExecutor(EventLane lane, int threadCount, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        super(threadCount, threadCount, 1L, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("event-" + lane.name().toLowerCase() + "-%d")
+                        .setPriority(lane.getThreadPriority())
+                        .build());
+        this.lane = lane;
+        this.queueCapacity = queueCapacity;
+        setRejectedExecutionHandler(new LaneRejectedExecutionHandler(rejectionPolicy));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new TimedTask(command));
+    }
+
+    /**
+     * Returns the average time spent waiting in the queue.
+     *
+     * @return Average wait time in milliseconds
+     */
+    public long getAverageWaitTime() {
+        long count = executedCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get() / count);
+    }
+
+    /**
+     * Returns the longest time spent waiting in the queue.
+     *
+     * @return Maximum wait time in milliseconds
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+    }
+
+    /**
+     * Returns the average execution time.
+     *
+     * @return Average execution time in milliseconds
+     */
+    public long getAverageExecutionTime() {
+        long count = executedCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalExecutionTime.get() / count);
+    }
+
+    /**
+     * Returns the longest execution time.
+     *
+     * @return Maximum execution time in milliseconds
+     */
+    public long getMaxExecutionTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxExecutionTime.get());
+    }
+
+    /**
+     * Returns the number of tasks waiting in the queue.
+     *
+     * @return Queue size
+     */
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    public EventLane getLane() {
+        return lane;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * Task measuring its wait and execution times.
+     */
+    private class TimedTask implements Runnable {
+        /**
+         * Wrapped task.
+         */
+        private final Runnable command;
+
+        /**
+         * Submission timestamp in nanoseconds.
+         */
+        private final long submitTime = System.nanoTime();
+
+        /**
+         * Constructor.
+         *
+         * @param command Wrapped task
+         */
+        TimedTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            EventLaneExecutor previousExecutor = currentExecutor.get();
+            currentExecutor.set(EventLaneExecutor.this);
+            try {
+                command.run();
+            } finally {
+                currentExecutor.set(previousExecutor);
+                long endTime = System.nanoTime();
+                executedCount.incrementAndGet();
+                totalWaitTime.addAndGet(startTime - submitTime);
+                maxWaitTime.accumulateAndGet(startTime - submitTime, Math::max);
+                totalExecutionTime.addAndGet(endTime - startTime);
+                maxExecutionTime.accumulateAndGet(endTime - startTime, Math::max);
+            }
+        }
+    }
+
+    /**
+     * Applies the rejection policy when the queue is full.
+     */
+    private class LaneRejectedExecutionHandler implements RejectedExecutionHandler {
+        /**
+         * Rejection policy.
+         */
+        private final RejectionPolicy rejectionPolicy;
+
+        /**
+         * Constructor.
+         *
+         * @param rejectionPolicy Rejection policy
+         */
+        LaneRejectedExecutionHandler(RejectionPolicy rejectionPolicy) {
+            this.rejectionPolicy = rejectionPolicy;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                log.warn("Event lane {} is shut down, discarding a task", lane);
+                return;
+            }
+            rejectedCount.incrementAndGet();
+
+            switch (rejectionPolicy) {
+                case BLOCK:
+                    // A task of this lane can't wait for its own lane to drain, it runs the new task itself
+                    if (currentExecutor.get() == EventLaneExecutor.this) {
+                        task.run();
+                        return;
+                    }
+                    try {
+                        executor.getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for event lane " + lane, e);
+                    }
+                    if (executor.isShutdown() && executor.getQueue().remove(task)) {
+                        log.warn("Event lane {} is shut down, discarding a task", lane);
+                    }
+                    break;
+                case CALLER_RUNS:
+                    task.run();
+                    break;
+                case ABORT:
+                default:
+                    throw new RejectedExecutionException("Event lane " + lane + " is full");
+            }
+        }
+    }
+}
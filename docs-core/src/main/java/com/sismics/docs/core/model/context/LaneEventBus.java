@@ -0,0 +1,68 @@
+package com.sismics.docs.core.model.context;
+
+import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.EventBus;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Asynchronous event bus dispatching each event to the executor of its lane.
+ * Listeners are registered on all lanes, and receive the events of every lane.
+ *
+ * @author bgamard
+ */
+public class LaneEventBus extends EventBus {
+    /**
+     * Event bus of each lane.
+     */
+    private final Map<EventLane, EventBus> laneEventBusMap = new EnumMap<>(EventLane.class);
+
+    /**
+     * Lane used for events without a lane on this bus.
+     */
+    private final EventLane defaultLane;
+
+    /**
+     * Constructor.
+     *
+     * @param identifier Bus identifier
+     * @param defaultLane Lane used for events without a lane on this bus
+     */
+    public LaneEventBus(String identifier, EventLane defaultLane) {
+        super(identifier);
+        this.defaultLane = defaultLane;
+    }
+
+    /**
+     * Add a lane to this bus.
+     *
+     * @param executor Executor of the lane
+     */
+    public void addLane(EventLaneExecutor executor) {
+        laneEventBusMap.put(executor.getLane(), new AsyncEventBus(identifier() + "-" + executor.getLane().name().toLowerCase(), executor));
+    }
+
+    @Override
+    public void register(Object object) {
+        for (EventBus eventBus : laneEventBusMap.values()) {
+            eventBus.register(object);
+        }
+    }
+
+    @Override
+    public void unregister(Object object) {
+        for (EventBus eventBus : laneEventBusMap.values()) {
+            eventBus.unregister(object);
+        }
+    }
+
+    @Override
+    public void post(Object event) {
+        EventBus eventBus = laneEventBusMap.get(EventLane.of(event));
+        if (eventBus == null) {
+            eventBus = laneEventBusMap.get(defaultLane);
+        }
+        eventBus.post(event);
+    }
+}
@@ -96,6 +96,19 @@ public class File implements Loggable {
     @Column(name = "FIL_SIZE_N", nullable = false)
     private Long size;
 
+    /**
+     * True if the stored file is encrypted with the private key of its creator.
+     */
+    @Column(name = "FIL_ENCRYPTED_B", nullable = false)
+    private boolean encrypted = true;
+
+    /**
+     * SHA-256 of the unencrypted content.
+     * Null if the file has been uploaded before the content was hashed.
+     */
+    @Column(name = "FIL_HASH_C", length = 64)
+    private String hash;
+
     /**
      * Private key to decrypt the file.
      * Not saved to database, of course.
@@ -224,6 +237,24 @@ public class File implements Loggable {
         return this;
     }
 
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    public File setEncrypted(boolean encrypted) {
+        this.encrypted = encrypted;
+        return this;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public File setHash(String hash) {
+        this.hash = hash;
+        return this;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -0,0 +1,136 @@
+package com.sismics.docs.core.service;
+
+import java.nio.file.Path;
+
+/**
+ * PDF export running in the background.
+ *
+ * @author bgamard
+ */
+public class PdfExportJob {
+    /**
+     * Status of an export.
+     */
+    public enum Status {
+        /**
+         * Waiting for a thread.
+         */
+        PENDING,
+
+        /**
+         * Being generated.
+         */
+        RUNNING,
+
+        /**
+         * Ready to download.
+         */
+        DONE,
+
+        /**
+         * Failed.
+         */
+        ERROR
+    }
+
+    /**
+     * Export ID.
+     */
+    private final String id;
+
+    /**
+     * ID of the user who requested the export, null if anonymous.
+     */
+    private final String userId;
+
+    /**
+     * Share ID used to access the document, null if none.
+     */
+    private final String shareId;
+
+    /**
+     * Document ID.
+     */
+    private final String documentId;
+
+    /**
+     * Title of the document.
+     */
+    private final String title;
+
+    /**
+     * Status.
+     */
+    private volatile Status status = Status.PENDING;
+
+    /**
+     * Generated PDF file, once done.
+     */
+    private volatile Path file;
+
+    /**
+     * End time in milliseconds, once done or failed.
+     */
+    private volatile long endTime;
+
+    /**
+     * Constructor.
+     *
+     * @param id Export ID
+     * @param userId ID of the user who requested the export
+     * @param shareId Share ID used to access the document
+     * @param documentId Document ID
+     * @param title Title of the document
+     */
+    public PdfExportJob(String id, String userId, String shareId, String documentId, String title) {
+        this.id = id;
+        this.userId = userId;
+        this.shareId = shareId;
+        this.documentId = documentId;
+        this.title = title;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getShareId() {
+        return shareId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public void setFile(Path file) {
+        this.file = file;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+}
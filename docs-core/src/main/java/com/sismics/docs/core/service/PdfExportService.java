@@ -0,0 +1,374 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.PdfUtil;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Service running the PDF exports in the background, so large documents don't hold a request thread.
+ * The generated files can be downloaded until they expire.
+ * Generated PDFs are also kept on disk and reused by the next identical exports,
+ * until the document or one of its files changes.
+ *
+ * @author bgamard
+ */
+public class PdfExportService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(PdfExportService.class);
+
+    /**
+     * Exports by ID.
+     */
+    private final Map<String, PdfExportJob> jobMap = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of exports kept by a user, which bounds the exports waiting for a thread.
+     */
+    private final int userJobLimit = Math.max(EnvironmentUtil.getEnvIntegerValue(
+            Constants.PDF_EXPORT_USER_LIMIT_ENV, Constants.DEFAULT_PDF_EXPORT_USER_LIMIT), 1);
+
+    /**
+     * Maximum size in kilobytes of the generated PDFs cache.
+     */
+    private final long pdfCacheSize = EnvironmentUtil.getEnvIntegerValue(
+            Constants.PDF_EXPORT_CACHE_SIZE_ENV, Constants.DEFAULT_PDF_EXPORT_CACHE_SIZE) * 1024L;
+
+    /**
+     * Generated PDFs by export key, weighted by their size in kilobytes.
+     * The files are deleted from the disk when they are evicted.
+     */
+    private final Cache<String, CachedPdf> pdfCache = CacheBuilder.newBuilder()
+            .maximumWeight(Math.max(pdfCacheSize, 0))
+            .weigher((String key, CachedPdf cachedPdf) -> (int) Math.min(cachedPdf.size / 1024, Integer.MAX_VALUE))
+            .removalListener((RemovalNotification<String, CachedPdf> notification) -> deleteFile(notification.getValue().file))
+            .build();
+
+    /**
+     * Pool generating the exports.
+     */
+    private ExecutorService exportExecutor;
+
+    @Override
+    protected void startUp() {
+        int threadCount = Math.max(EnvironmentUtil.getEnvIntegerValue(Constants.PDF_EXPORT_THREADS_ENV, Constants.DEFAULT_PDF_EXPORT_THREADS), 1);
+        exportExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("pdf-export-%d")
+                .setDaemon(true)
+                .build());
+        log.info("PDF export service starting up with {} threads", threadCount);
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("PDF export service shutting down");
+        exportExecutor.shutdownNow();
+        for (PdfExportJob job : jobMap.values()) {
+            deleteFile(job.getFile());
+        }
+        jobMap.clear();
+        pdfCache.invalidateAll();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            deleteExpiredJobs();
+        } catch (Throwable e) {
+            log.error("Exception during PDF export service iteration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Start a PDF export.
+     * The files must carry their private key, as the export runs outside of any transaction.
+     * A user keeps a limited number of exports: the oldest finished export is forgotten to make room,
+     * and no export is started while all of them are still running.
+     *
+     * @param userId ID of the user requesting the export, null if anonymous
+     * @param shareId Share ID used to access the document, null if none
+     * @param documentDto Document DTO
+     * @param fileList List of files
+     * @param fitImageToPage Fit images to the page
+     * @param metadata Add a page with metadata
+     * @param margin Margins in millimeters
+     * @return Export, null if the user has too many exports running
+     */
+    public PdfExportJob submit(String userId, String shareId, DocumentDto documentDto, List<File> fileList,
+            boolean fitImageToPage, boolean metadata, int margin) {
+        PdfExportJob job = new PdfExportJob(UUID.randomUUID().toString(), userId, shareId, documentDto.getId(), documentDto.getTitle());
+        synchronized (jobMap) {
+            List<PdfExportJob> userJobList = new ArrayList<>();
+            for (PdfExportJob userJob : jobMap.values()) {
+                if (Objects.equals(userJob.getUserId(), userId) && Objects.equals(userJob.getShareId(), shareId)) {
+                    userJobList.add(userJob);
+                }
+            }
+            if (userJobList.size() >= userJobLimit) {
+                PdfExportJob oldestJob = userJobList.stream()
+                        .filter(userJob -> userJob.getEndTime() > 0)
+                        .min(Comparator.comparingLong(PdfExportJob::getEndTime))
+                        .orElse(null);
+                if (oldestJob == null) {
+                    return null;
+                }
+                jobMap.remove(oldestJob.getId());
+                deleteFile(oldestJob.getFile());
+            }
+            jobMap.put(job.getId(), job);
+        }
+        exportExecutor.submit(() -> {
+            job.setStatus(PdfExportJob.Status.RUNNING);
+            long startTime = System.currentTimeMillis();
+            Path file = null;
+            try {
+                file = Files.createTempFile("sismics_docs_export", ".pdf");
+                try (InputStream inputStream = openPdf(documentDto, fileList, fitImageToPage, metadata, margin)) {
+                    Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                job.setFile(file);
+                job.setStatus(PdfExportJob.Status.DONE);
+                log.info("PDF export of document {} done in {}ms", documentDto.getId(), System.currentTimeMillis() - startTime);
+            } catch (Throwable e) {
+                log.error("Error exporting the document " + documentDto.getId() + " to PDF", e);
+                job.setStatus(PdfExportJob.Status.ERROR);
+                if (file != null) {
+                    deleteFile(file);
+                }
+            }
+            job.setEndTime(System.currentTimeMillis());
+        });
+        return job;
+    }
+
+    /**
+     * Export a document to PDF, or reuse the PDF generated by an identical export.
+     * The files must carry their private key.
+     *
+     * @param documentDto Document DTO
+     * @param fileList List of files
+     * @param fitImageToPage Fit images to the page
+     * @param metadata Add a page with metadata
+     * @param margin Margins in millimeters
+     * @return PDF input stream, to be closed by the caller
+     * @throws Exception e
+     */
+    public InputStream openPdf(DocumentDto documentDto, List<File> fileList,
+            boolean fitImageToPage, boolean metadata, int margin) throws Exception {
+        String key = getCacheKey(documentDto, fileList, fitImageToPage, metadata, margin);
+        CachedPdf cachedPdf = pdfCache.getIfPresent(key);
+        if (cachedPdf != null) {
+            try {
+                return Files.newInputStream(cachedPdf.file);
+            } catch (NoSuchFileException e) {
+                // Evicted in the meantime, generate it again
+            }
+        }
+
+        // Generate the PDF
+        Path file = Files.createTempFile("sismics_docs_export", ".pdf");
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            PdfUtil.convertToPdf(documentDto, fileList, fitImageToPage, metadata, margin, outputStream);
+        } catch (Exception e) {
+            deleteFile(file);
+            throw e;
+        }
+
+        // PDFs too large for a cache segment would be evicted right away, they are deleted once read
+        long size = Files.size(file);
+        InputStream inputStream = Files.newInputStream(file);
+        if (pdfCacheSize <= 0 || size / 1024 > pdfCacheSize / 4) {
+            return new FilterInputStream(inputStream) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    deleteFile(file);
+                }
+            };
+        }
+
+        Set<String> fileIdSet = new HashSet<>();
+        for (File f : fileList) {
+            fileIdSet.add(f.getId());
+        }
+        pdfCache.put(key, new CachedPdf(documentDto.getId(), fileIdSet, file, size));
+        return inputStream;
+    }
+
+    /**
+     * Forget the generated PDFs of a document.
+     *
+     * @param documentId Document ID
+     */
+    public void invalidateDocument(String documentId) {
+        invalidate(cachedPdf -> cachedPdf.documentId.equals(documentId));
+    }
+
+    /**
+     * Forget the generated PDFs containing a file.
+     *
+     * @param fileId File ID
+     */
+    public void invalidateFile(String fileId) {
+        invalidate(cachedPdf -> cachedPdf.fileIdSet.contains(fileId));
+    }
+
+    /**
+     * Forget the generated PDFs matching a predicate.
+     *
+     * @param predicate Predicate
+     */
+    private void invalidate(Predicate<CachedPdf> predicate) {
+        List<String> keyList = new ArrayList<>();
+        for (Map.Entry<String, CachedPdf> entry : pdfCache.asMap().entrySet()) {
+            if (predicate.test(entry.getValue())) {
+                keyList.add(entry.getKey());
+            }
+        }
+        pdfCache.invalidateAll(keyList);
+    }
+
+    /**
+     * Returns the key of an export in the generated PDFs cache.
+     * The last update of the document and the files with their version identify its content.
+     *
+     * @param documentDto Document DTO
+     * @param fileList List of files
+     * @param fitImageToPage Fit images to the page
+     * @param metadata Add a page with metadata
+     * @param margin Margins in millimeters
+     * @return Cache key
+     */
+    private static String getCacheKey(DocumentDto documentDto, List<File> fileList,
+            boolean fitImageToPage, boolean metadata, int margin) {
+        StringBuilder key = new StringBuilder(documentDto.getId())
+                .append('|').append(documentDto.getUpdateTimestamp())
+                .append('|').append(fitImageToPage)
+                .append('|').append(metadata)
+                .append('|').append(margin);
+        for (File file : fileList) {
+            key.append('|').append(file.getId()).append(':').append(file.getVersion());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns an export.
+     *
+     * @param id Export ID
+     * @return Export, null if not found or expired
+     */
+    public PdfExportJob getJob(String id) {
+        return jobMap.get(id);
+    }
+
+    /**
+     * Delete the exports finished for longer than the expiration time.
+     */
+    private void deleteExpiredJobs() {
+        long expirationTime = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(
+                EnvironmentUtil.getEnvIntegerValue(Constants.PDF_EXPORT_EXPIRATION_ENV, Constants.DEFAULT_PDF_EXPORT_EXPIRATION));
+        Iterator<PdfExportJob> iterator = jobMap.values().iterator();
+        while (iterator.hasNext()) {
+            PdfExportJob job = iterator.next();
+            if (job.getEndTime() > 0 && job.getEndTime() < expirationTime) {
+                iterator.remove();
+                deleteFile(job.getFile());
+            }
+        }
+    }
+
+    /**
+     * Delete a generated PDF.
+     *
+     * @param file Generated PDF, may be null
+     */
+    private static void deleteFile(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Unable to delete the PDF export " + file, e);
+        }
+    }
+
+    /**
+     * Generated PDF kept for the next identical exports.
+     */
+    private static class CachedPdf {
+        /**
+         * Document ID.
+         */
+        private final String documentId;
+
+        /**
+         * IDs of the exported files.
+         */
+        private final Set<String> fileIdSet;
+
+        /**
+         * Generated PDF.
+         */
+        private final Path file;
+
+        /**
+         * Size in bytes.
+         */
+        private final long size;
+
+        /**
+         * Constructor.
+         *
+         * @param documentId Document ID
+         * @param fileIdSet IDs of the exported files
+         * @param file Generated PDF
+         * @param size Size in bytes
+         */
+        private CachedPdf(String documentId, Set<String> fileIdSet, Path file, long size) {
+            this.documentId = documentId;
+            this.fileIdSet = fileIdSet;
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
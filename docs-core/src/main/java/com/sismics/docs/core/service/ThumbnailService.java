@@ -0,0 +1,250 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.ThumbnailUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
+import com.sismics.docs.core.util.storage.StorageUtil;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service generating the missing thumbnails, for example after a failed processing.
+ * The thumbnails requested by the users are generated right away by a dedicated pool,
+ * and the files are regularly searched in the background for missing thumbnails.
+ *
+ * @author bgamard
+ */
+public class ThumbnailService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    /**
+     * Number of files checked by iteration of a search.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Time in minutes during which the users' requests don't try again a failed generation.
+     */
+    private static final int FAILURE_EXPIRATION = 60;
+
+    /**
+     * IDs of the files whose thumbnails couldn't be generated on request.
+     */
+    private final Cache<String, Boolean> failureCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(FAILURE_EXPIRATION, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Generations in progress by file ID, shared by the concurrent requests of the same file.
+     */
+    private final Map<String, CompletableFuture<Boolean>> generationMap = new ConcurrentHashMap<>();
+
+    /**
+     * Pool generating the thumbnails requested by the users.
+     */
+    private ExecutorService requestExecutor;
+
+    /**
+     * ID of the last file checked by the current search, null to start a new one.
+     */
+    private String searchFileId;
+
+    /**
+     * Time in milliseconds of the next search.
+     */
+    private long nextSearchTime;
+
+    @Override
+    protected void startUp() {
+        int threadCount = Math.max(EnvironmentUtil.getEnvIntegerValue(Constants.THUMBNAIL_THREADS_ENV, Constants.DEFAULT_THUMBNAIL_THREADS), 1);
+        requestExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("thumbnail-%d")
+                .setPriority(Thread.NORM_PRIORITY + 1)
+                .setDaemon(true)
+                .build());
+        log.info("Thumbnail service starting up with {} threads", threadCount);
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Thumbnail service shutting down");
+        requestExecutor.shutdownNow();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        int searchInterval = EnvironmentUtil.getEnvIntegerValue(Constants.THUMBNAIL_SWEEP_INTERVAL_ENV, Constants.DEFAULT_THUMBNAIL_SWEEP_INTERVAL);
+        if (searchInterval <= 0 || System.currentTimeMillis() < nextSearchTime) {
+            return;
+        }
+
+        // The search gives way to the users' requests and the files processing
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        try {
+            if (searchMissingThumbnails()) {
+                searchFileId = null;
+                nextSearchTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(searchInterval);
+            }
+        } catch (Throwable e) {
+            log.error("Exception during thumbnail service iteration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Generate the missing thumbnails of a file at high priority, in the background.
+     * The request doesn't wait for them, the next requests of the file get them once generated.
+     * A failed generation is not tried again by the next requests for a while.
+     *
+     * @param file File
+     * @param privateKey Private key of the file, null if not encrypted
+     */
+    public void generate(File file, String privateKey) {
+        if (failureCache.getIfPresent(file.getId()) != null) {
+            return;
+        }
+
+        generate(file, privateKey, requestExecutor).whenComplete((generated, e) -> {
+            if (!Boolean.TRUE.equals(generated)) {
+                failureCache.put(file.getId(), true);
+            }
+        });
+    }
+
+    /**
+     * Generate the thumbnails of a file, unless they are already being generated.
+     *
+     * @param file File
+     * @param privateKey Private key of the file, null if not encrypted
+     * @param executor Executor running the generation
+     * @return True when the thumbnails have been generated
+     */
+    private CompletableFuture<Boolean> generate(File file, String privateKey, Executor executor) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        CompletableFuture<Boolean> currentFuture = generationMap.putIfAbsent(file.getId(), future);
+        if (currentFuture != null) {
+            return currentFuture;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    boolean generated = generateThumbnails(file, privateKey);
+                    if (generated) {
+                        failureCache.invalidate(file.getId());
+                    }
+                    future.complete(generated);
+                } catch (Throwable e) {
+                    log.error("Unable to generate the missing thumbnails for: " + file, e);
+                    future.completeExceptionally(e);
+                } finally {
+                    generationMap.remove(file.getId(), future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            generationMap.remove(file.getId(), future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Generate the missing thumbnails of a file.
+     * The stored thumbnails are kept as is.
+     *
+     * @param file File
+     * @param privateKey Private key of the file, null if not encrypted
+     * @return False if the file has no thumbnail
+     * @throws Exception e
+     */
+    private static boolean generateThumbnails(File file, String privateKey) throws Exception {
+        FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
+        if (formatHandler == null) {
+            return false;
+        }
+        Set<ThumbnailUtil.Size> missingSizes = ThumbnailUtil.getMissingSizes(file.getId());
+        if (missingSizes.isEmpty()) {
+            return true;
+        }
+
+        Path unencryptedFile = StorageUtil.getUnencryptedFile(file.getId(), privateKey);
+        return ThumbnailUtil.generate(file.getId(), formatHandler, unencryptedFile, missingSizes,
+                (size, data) -> ThumbnailUtil.store(file.getId(), privateKey, size, data));
+    }
+
+    /**
+     * Check the next batch of files for missing thumbnails, and generate them.
+     *
+     * @return True if all the files have been checked
+     * @throws Exception e
+     */
+    private boolean searchMissingThumbnails() throws Exception {
+        // Get the next files with their private key
+        List<File> fileList = new ArrayList<>();
+        Map<String, String> privateKeyMap = new HashMap<>();
+        TransactionUtil.handle(() -> {
+            FileDao fileDao = new FileDao();
+            UserDao userDao = new UserDao();
+            Map<String, User> userMap = new HashMap<>();
+            for (File file : fileDao.getActiveAfterId(searchFileId, BATCH_SIZE)) {
+                fileList.add(file);
+                User user = userMap.computeIfAbsent(file.getUserId(), userDao::getById);
+                if (user != null) {
+                    privateKeyMap.put(file.getId(), StorageUtil.getPrivateKey(file, user));
+                }
+            }
+        });
+
+        for (File file : fileList) {
+            searchFileId = file.getId();
+            if (!privateKeyMap.containsKey(file.getId())
+                    || FormatHandlerUtil.find(file.getMimeType()) == null
+                    || FileUtil.isProcessingFile(file.getId())
+                    || !ThumbnailUtil.isMissing(file.getId())) {
+                continue;
+            }
+
+            log.info("Generating the missing thumbnails of: " + file);
+            try {
+                generate(file, privateKeyMap.get(file.getId()), Runnable::run).join();
+            } catch (Exception e) {
+                // Already logged, try the next one
+            }
+        }
+        return fileList.size() < BATCH_SIZE;
+    }
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -68,6 +69,15 @@ public class DirectoryUtil {
         return getDataSubDirectory("lucene");
     }
     
+    /**
+     * Returns the directory of the lucene index being rebuilt.
+     *
+     * @return Lucene rebuild directory.
+     */
+    public static Path getLuceneRebuildDirectory() {
+        return getDataSubDirectory("lucene_rebuild");
+    }
+
     /**
      * Returns the storage directory.
      * 
@@ -77,6 +87,32 @@ public class DirectoryUtil {
         return getDataSubDirectory("storage");
     }
     
+    /**
+     * Returns the directory of the cached extraction results.
+     *
+     * @return Extraction cache directory.
+     */
+    public static Path getExtractionCacheDirectory() {
+        return getDataSubDirectory("extraction_cache");
+    }
+
+    /**
+     * Returns the directory of the decrypted files, only accessible by the owner of the process.
+     *
+     * @return Decrypted files directory.
+     */
+    public static Path getDecryptedFileDirectory() {
+        Path directory = getDataSubDirectory("decrypted");
+        try {
+            Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, the data directory permissions apply
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return directory;
+    }
+
     /**
      * Returns the log directory.
      * 
@@ -1,22 +1,32 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.util.EnvironmentUtil;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Encryption utilities.
@@ -28,7 +38,21 @@ public class EncryptionUtil {
      * Salt.
      */
     private static final String SALT = "LEpxZmm2SMu2PeKzPNrar2rhVAS6LrrgvXKeL9uyXC4vgKHg";
-    
+
+    /**
+     * AES block size, each block is encrypted with its own counter.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Secret keys derived from the private keys, kept in memory only.
+     * The key derivation is slow by design, and is needed for each file read.
+     */
+    private static final Cache<String, SecretKey> secretKeyCache = CacheBuilder.newBuilder()
+            .maximumSize(EnvironmentUtil.getEnvIntegerValue(Constants.ENCRYPTION_KEY_CACHE_SIZE_ENV, Constants.DEFAULT_ENCRYPTION_KEY_CACHE_SIZE))
+            .expireAfterAccess(EnvironmentUtil.getEnvIntegerValue(Constants.ENCRYPTION_KEY_CACHE_EXPIRATION_ENV, Constants.DEFAULT_ENCRYPTION_KEY_CACHE_EXPIRATION), TimeUnit.MINUTES)
+            .build();
+
     static {
         // Initialize Bouncy Castle provider
         Security.insertProviderAt(new BouncyCastleProvider(), 1);
@@ -61,6 +85,33 @@ public class EncryptionUtil {
         return new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE));
     }
 
+    /**
+     * Decrypt a seekable encrypted channel from a byte offset using the specified private key.
+     * In CTR mode, the counter of a block is the initial counter plus the block index,
+     * so only the bytes from the block containing the offset are read and decrypted.
+     *
+     * @param channel Encrypted channel
+     * @param privateKey Private key
+     * @param offset Offset in the decrypted data
+     * @return Decrypted stream starting at the offset
+     * @throws Exception e
+     */
+    public static InputStream decryptInputStream(SeekableByteChannel channel, String privateKey, long offset) throws Exception {
+        long blockIndex = offset / BLOCK_SIZE;
+        Cipher cipher = getCipher(privateKey, Cipher.DECRYPT_MODE);
+        if (blockIndex > 0) {
+            BigInteger counter = new BigInteger(1, cipher.getIV())
+                    .add(BigInteger.valueOf(blockIndex))
+                    .mod(BigInteger.ONE.shiftLeft(BLOCK_SIZE * 8));
+            cipher.init(Cipher.DECRYPT_MODE, getSecretKey(privateKey), new IvParameterSpec(toBlock(counter)));
+        }
+
+        channel.position(blockIndex * BLOCK_SIZE);
+        InputStream is = new CipherInputStream(Channels.newInputStream(channel), cipher);
+        ByteStreams.skipFully(is, offset % BLOCK_SIZE);
+        return is;
+    }
+
     /**
      * Decrypt a file to a temporary file using the specified private key.
      *
@@ -105,11 +156,59 @@ public class EncryptionUtil {
      * @throws Exception e
      */
     private static Cipher getCipher(String privateKey, int mode) throws Exception {
-        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
-        SecretKey desKey = skf.generateSecret(keySpec);
         Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
-        cipher.init(mode, desKey);
+        cipher.init(mode, getSecretKey(privateKey));
         return cipher;
     }
+
+    /**
+     * Returns the secret key of a private key, derived once and cached.
+     *
+     * @param privateKey Private key
+     * @return Secret key
+     * @throws Exception e
+     */
+    private static SecretKey getSecretKey(String privateKey) throws Exception {
+        try {
+            return secretKeyCache.get(privateKey, () -> deriveSecretKey(privateKey));
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Convert a counter to a cipher block.
+     *
+     * @param counter Counter
+     * @return Big-endian block
+     */
+    private static byte[] toBlock(BigInteger counter) {
+        byte[] bytes = counter.toByteArray();
+        byte[] block = new byte[BLOCK_SIZE];
+        int length = Math.min(bytes.length, BLOCK_SIZE);
+        System.arraycopy(bytes, bytes.length - length, block, BLOCK_SIZE - length, length);
+        return block;
+    }
+
+    /**
+     * Derive the secret key of a private key.
+     *
+     * @param privateKey Private key
+     * @return Secret key
+     * @throws Exception e
+     */
+    private static SecretKey deriveSecretKey(String privateKey) throws Exception {
+        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
+        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
+        SecretKey secretKey = skf.generateSecret(keySpec);
+        keySpec.clearPassword();
+        return secretKey;
+    }
+
+    /**
+     * Forget all the derived secret keys.
+     */
+    static void clearSecretKeyCache() {
+        secretKeyCache.invalidateAll();
+    }
 }
@@ -0,0 +1,436 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of the thumbnails and text content extracted from files.
+ * Entries are addressed by the hash of the unencrypted file content, so the same file
+ * uploaded several times or processed again is only extracted once.
+ *
+ * Entries are encrypted with a key derived from the content hash, which can't be computed from the entry ID:
+ * the cache directory alone doesn't disclose the extracted content. The content hash is also stored
+ * in the database with the file, so anyone reading the database and the cache can decrypt its entries.
+ *
+ * @author bgamard
+ */
+public class ExtractionCache {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ExtractionCache.class);
+
+    /**
+     * Version of the cache layout.
+     */
+    private static final String CACHE_VERSION = "1";
+
+    /**
+     * Name of the cached text content.
+     */
+    private static final String CONTENT = "content";
+
+    /**
+     * Name of the cached web image.
+     */
+    private static final String WEB = "web";
+
+    /**
+     * Name of the cached thumbnail.
+     */
+    private static final String THUMB = "thumb";
+
+    /**
+     * Length of the initialization vector stored before each encrypted part.
+     */
+    private static final int IV_LENGTH = 16;
+
+    /**
+     * Random generator of initialization vectors.
+     */
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Estimated size of the cache in bytes, -1 if unknown.
+     */
+    private static final AtomicLong cacheSize = new AtomicLong(-1);
+
+    /**
+     * Cached extraction result.
+     */
+    public static class Entry {
+        /**
+         * Text content, can be null.
+         */
+        private final String content;
+
+        /**
+         * Web image as JPEG, can be null.
+         */
+        private final byte[] web;
+
+        /**
+         * Thumbnail as JPEG, can be null.
+         */
+        private final byte[] thumb;
+
+        /**
+         * Constructor.
+         *
+         * @param content Text content, can be null
+         * @param web Web image as JPEG, can be null
+         * @param thumb Thumbnail as JPEG, can be null
+         */
+        public Entry(String content, byte[] web, byte[] thumb) {
+            this.content = content;
+            this.web = web;
+            this.thumb = thumb;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public byte[] getWeb() {
+            return web;
+        }
+
+        public byte[] getThumb() {
+            return thumb;
+        }
+    }
+
+    /**
+     * Returns true if the cache is enabled.
+     *
+     * @return True if enabled
+     */
+    public static boolean isEnabled() {
+        return getMaxSize() > 0;
+    }
+
+    /**
+     * Hash the content of a file.
+     *
+     * @param file Unencrypted file
+     * @return Content hash
+     * @throws IOException e
+     */
+    public static String hash(Path file) throws IOException {
+        return com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha256()).toString();
+    }
+
+    /**
+     * Get a cached extraction result.
+     *
+     * @param contentHash Hash of the unencrypted file
+     * @param language Language of the file, can be null
+     * @param formatHandler Format handler of the file
+     * @return Cached result, null if not found
+     */
+    public static Entry get(String contentHash, String language, FormatHandler formatHandler) {
+        String parameters = getParameters(language, formatHandler);
+        Path entryDirectory = getEntryDirectory(contentHash, parameters);
+        if (!Files.isDirectory(entryDirectory)) {
+            return null;
+        }
+
+        try {
+            byte[] content = read(entryDirectory, CONTENT, contentHash, parameters);
+            Entry entry = new Entry(content == null ? null : new String(content, StandardCharsets.UTF_8),
+                    read(entryDirectory, WEB, contentHash, parameters),
+                    read(entryDirectory, THUMB, contentHash, parameters));
+
+            // Most recently used entries are evicted last
+            Files.setLastModifiedTime(entryDirectory, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        } catch (Exception e) {
+            log.warn("Unable to read the extraction cache entry " + entryDirectory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store an extraction result.
+     *
+     * @param contentHash Hash of the unencrypted file
+     * @param language Language of the file, can be null
+     * @param formatHandler Format handler of the file
+     * @param entry Extraction result
+     */
+    public static void put(String contentHash, String language, FormatHandler formatHandler, Entry entry) {
+        String parameters = getParameters(language, formatHandler);
+        Path entryDirectory = getEntryDirectory(contentHash, parameters);
+        if (Files.isDirectory(entryDirectory)) {
+            return;
+        }
+
+        // Write the entry aside, and move it in place at once
+        Path tmpDirectory = entryDirectory.resolveSibling(entryDirectory.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(tmpDirectory);
+            long size = 0;
+            if (entry.getContent() != null) {
+                size += write(tmpDirectory, CONTENT, contentHash, parameters, entry.getContent().getBytes(StandardCharsets.UTF_8));
+            }
+            if (entry.getWeb() != null) {
+                size += write(tmpDirectory, WEB, contentHash, parameters, entry.getWeb());
+            }
+            if (entry.getThumb() != null) {
+                size += write(tmpDirectory, THUMB, contentHash, parameters, entry.getThumb());
+            }
+            Files.move(tmpDirectory, entryDirectory, StandardCopyOption.ATOMIC_MOVE);
+
+            if (cacheSize.get() < 0 || cacheSize.addAndGet(size) > getMaxSize()) {
+                evict();
+            }
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            // Stored concurrently by another thread
+        } catch (Exception e) {
+            log.warn("Unable to write the extraction cache entry " + entryDirectory, e);
+        } finally {
+            deleteDirectory(tmpDirectory);
+        }
+    }
+
+    /**
+     * Delete the least recently used entries until the cache fits in its maximum size.
+     */
+    public static synchronized void evict() {
+        Path cacheDirectory = DirectoryUtil.getExtractionCacheDirectory();
+        List<Path> entryList = new ArrayList<>();
+        try (Stream<Path> prefixStream = Files.list(cacheDirectory)) {
+            for (Path prefixDirectory : (Iterable<Path>) prefixStream::iterator) {
+                try (Stream<Path> entryStream = Files.list(prefixDirectory)) {
+                    entryStream.filter(path -> !path.getFileName().toString().endsWith(".tmp"))
+                            .forEach(entryList::add);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to list the extraction cache", e);
+            return;
+        }
+
+        List<CachedEntry> cachedEntryList = new ArrayList<>();
+        long size = 0;
+        for (Path entryDirectory : entryList) {
+            try {
+                CachedEntry cachedEntry = new CachedEntry(entryDirectory, getSize(entryDirectory),
+                        Files.getLastModifiedTime(entryDirectory).toMillis());
+                cachedEntryList.add(cachedEntry);
+                size += cachedEntry.size;
+            } catch (IOException e) {
+                // Deleted concurrently
+            }
+        }
+
+        long maxSize = getMaxSize();
+        if (size > maxSize) {
+            cachedEntryList.sort(Comparator.comparingLong(cachedEntry -> cachedEntry.lastUsed));
+            int evictedCount = 0;
+            for (CachedEntry cachedEntry : cachedEntryList) {
+                if (size <= maxSize * 9 / 10) {
+                    break;
+                }
+                deleteDirectory(cachedEntry.directory);
+                size -= cachedEntry.size;
+                evictedCount++;
+            }
+            log.info("Evicted {} entries from the extraction cache", evictedCount);
+        }
+        cacheSize.set(size);
+    }
+
+    /**
+     * Returns the maximum size of the cache.
+     *
+     * @return Maximum size in bytes
+     */
+    private static long getMaxSize() {
+        return EnvironmentUtil.getEnvIntegerValue(Constants.EXTRACTION_CACHE_SIZE_ENV, Constants.DEFAULT_EXTRACTION_CACHE_SIZE) * 1024L * 1024L;
+    }
+
+    /**
+     * Returns the parameters changing the extraction result besides the file content.
+     *
+     * @param language Language of the file, can be null
+     * @param formatHandler Format handler of the file
+     * @return Parameters
+     */
+    private static String getParameters(String language, FormatHandler formatHandler) {
+        return String.join(":", CACHE_VERSION,
+                formatHandler.getClass().getSimpleName(),
+                Integer.toString(formatHandler.getVersion()),
+                language == null ? "" : language,
+                Boolean.toString(ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)));
+    }
+
+    /**
+     * Returns the directory of an entry.
+     *
+     * @param contentHash Hash of the unencrypted file
+     * @param parameters Extraction parameters
+     * @return Entry directory
+     */
+    private static Path getEntryDirectory(String contentHash, String parameters) {
+        String id = Hashing.sha256().hashString("id:" + contentHash + ":" + parameters, StandardCharsets.UTF_8).toString();
+        return DirectoryUtil.getExtractionCacheDirectory().resolve(id.substring(0, 2)).resolve(id);
+    }
+
+    /**
+     * Returns a cipher for a part of an entry.
+     *
+     * @param mode Cipher mode
+     * @param part Part name
+     * @param contentHash Hash of the unencrypted file
+     * @param parameters Extraction parameters
+     * @param iv Initialization vector
+     * @return Cipher
+     * @throws GeneralSecurityException e
+     */
+    private static Cipher getCipher(int mode, String part, String contentHash, String parameters, byte[] iv) throws GeneralSecurityException {
+        byte[] key = Hashing.sha256().hashString("key:" + contentHash + ":" + parameters + ":" + part, StandardCharsets.UTF_8).asBytes();
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        return cipher;
+    }
+
+    /**
+     * Write an encrypted part of an entry.
+     *
+     * @param entryDirectory Entry directory
+     * @param part Part name
+     * @param contentHash Hash of the unencrypted file
+     * @param parameters Extraction parameters
+     * @param data Data
+     * @return Number of bytes written
+     * @throws Exception e
+     */
+    private static long write(Path entryDirectory, String part, String contentHash, String parameters, byte[] data) throws Exception {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        byte[] encrypted = getCipher(Cipher.ENCRYPT_MODE, part, contentHash, parameters, iv).doFinal(data);
+        byte[] output = new byte[IV_LENGTH + encrypted.length];
+        System.arraycopy(iv, 0, output, 0, IV_LENGTH);
+        System.arraycopy(encrypted, 0, output, IV_LENGTH, encrypted.length);
+        Files.write(entryDirectory.resolve(part), output);
+        return output.length;
+    }
+
+    /**
+     * Read an encrypted part of an entry.
+     *
+     * @param entryDirectory Entry directory
+     * @param part Part name
+     * @param contentHash Hash of the unencrypted file
+     * @param parameters Extraction parameters
+     * @return Data, null if the part is absent
+     * @throws Exception e
+     */
+    private static byte[] read(Path entryDirectory, String part, String contentHash, String parameters) throws Exception {
+        Path file = entryDirectory.resolve(part);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            byte[] iv = new byte[IV_LENGTH];
+            ByteStreams.readFully(inputStream, iv);
+            return getCipher(Cipher.DECRYPT_MODE, part, contentHash, parameters, iv).doFinal(ByteStreams.toByteArray(inputStream));
+        }
+    }
+
+    /**
+     * Returns the size of an entry.
+     *
+     * @param entryDirectory Entry directory
+     * @return Size in bytes
+     * @throws IOException e
+     */
+    private static long getSize(Path entryDirectory) throws IOException {
+        long size = 0;
+        try (Stream<Path> stream = Files.list(entryDirectory)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                size += Files.size(path);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Delete a directory and its content, ignoring errors.
+     *
+     * @param directory Directory
+     */
+    private static void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(directory)) {
+            stream.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(java.io.File::delete);
+        } catch (IOException e) {
+            log.warn("Unable to delete " + directory, e);
+        }
+    }
+
+    /**
+     * Entry found while evicting.
+     */
+    private static class CachedEntry {
+        /**
+         * Entry directory.
+         */
+        private final Path directory;
+
+        /**
+         * Size in bytes.
+         */
+        private final long size;
+
+        /**
+         * Last use timestamp.
+         */
+        private final long lastUsed;
+
+        /**
+         * Constructor.
+         *
+         * @param directory Entry directory
+         * @param size Size in bytes
+         * @param lastUsed Last use timestamp
+         */
+        CachedEntry(Path directory, long size, long lastUsed) {
+            this.directory = directory;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import com.google.common.io.CharStreams;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
@@ -11,26 +13,20 @@ import com.sismics.docs.core.event.FileCreatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.util.ImageDeskew;
-import com.sismics.util.Scalr;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
+import com.sismics.docs.core.util.storage.StorageProvider;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.util.context.ThreadLocalContext;
-import com.sismics.util.io.InputStreamReaderThread;
+import com.sismics.util.io.TeeInputStream;
 import com.sismics.util.mime.MimeTypeUtil;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.CountingInputStream;
-import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -51,57 +47,13 @@ public class FileUtil {
      */
     private static final Set<String> processingFileSet = Collections.synchronizedSet(new HashSet<>());
     
-    /**
-     * Optical character recognition on an image.
-     *
-     * @param language Language to OCR
-     * @param image Buffered image
-     * @return Content extracted
-     * @throws Exception e
-     */
-    public static String ocrFile(String language, BufferedImage image) throws Exception {
-        // Upscale, grayscale and deskew the image
-        BufferedImage resizedImage = Scalr.resize(image, Scalr.Method.AUTOMATIC, Scalr.Mode.AUTOMATIC, 3500, Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
-        image.flush();
-        ImageDeskew imageDeskew = new ImageDeskew(resizedImage);
-        BufferedImage deskewedImage = Scalr.rotate(resizedImage, - imageDeskew.getSkewAngle(), Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
-        resizedImage.flush();
-        Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
-        ImageIO.write(deskewedImage, "tiff", tmpFile.toFile());
-
-        List<String> result = Lists.newLinkedList(Arrays.asList("tesseract", tmpFile.toAbsolutePath().toString(), "stdout", "-l", language));
-        ProcessBuilder pb = new ProcessBuilder(result);
-        Process process = pb.start();
-
-        // Consume the process error stream
-        final String commandName = pb.command().get(0);
-        new InputStreamReaderThread(process.getErrorStream(), commandName).start();
-
-        // Consume the data as text
-        try (InputStream is = process.getInputStream()) {
-            return CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
-        }
-    }
-
     /**
      * Remove a file from the storage filesystem.
      * 
      * @param fileId ID of file to delete
      */
     public static void delete(String fileId) throws IOException {
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
-        Path webFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_web");
-        Path thumbnailFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_thumb");
-        
-        if (Files.exists(storedFile)) {
-            Files.delete(storedFile);
-        }
-        if (Files.exists(webFile)) {
-            Files.delete(webFile);
-        }
-        if (Files.exists(thumbnailFile)) {
-            Files.delete(thumbnailFile);
-        }
+        StorageUtil.delete(fileId);
     }
 
     /**
@@ -126,24 +78,137 @@ public class FileUtil {
             throw new IOException("ErrorGuessMime", e);
         }
 
-        // Validate user quota
+        // Validate quota
         UserDao userDao = new UserDao();
         User user = userDao.getById(userId);
-        if (user.getStorageCurrent() + fileSize > user.getStorageQuota()) {
+        if (fileSize > getRemainingQuota(user, userDao)) {
             throw new IOException("QuotaReached");
         }
 
-        // Validate global quota
+        // Prepare the file
+        File file = prepareFile(name, previousFileId, mimeType, userId, documentId);
+        file.setSize(fileSize);
+        file.setHash(ExtractionCache.hash(unencryptedFile));
+
+        // Create the file
+        FileDao fileDao = new FileDao();
+        File identicalFile = fileDao.getByHash(file.getHash(), userId, file.isEncrypted());
+        String fileId = fileDao.create(file, userId);
+
+        // Save the file, or reuse the stored content of an identical file
+        if (identicalFile == null || !StorageUtil.copy(identicalFile.getId(), fileId)) {
+            try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
+                StorageUtil.write(fileId, inputStream, StorageUtil.getPrivateKey(file, user));
+            }
+        }
+
+        onFileCreated(file, user, userDao, unencryptedFile, language);
+        return fileId;
+    }
+
+    /**
+     * Create a new file from a stream, reading it once.
+     * The data is measured, hashed and stored while it is received, and its MIME type is guessed from the first bytes.
+     * An unencrypted copy is kept on disk only if a format handler needs it to process the file.
+     *
+     * @param name File name, can be null
+     * @param previousFileId ID of the previous version of the file, if the new file is a new version
+     * @param inputStream Unencrypted data, not closed
+     * @param language File language, can be null if associated to no document
+     * @param userId User ID creating the file
+     * @param documentId Associated document ID or null if no document
+     * @return New file
+     * @throws Exception e
+     */
+    public static File createFile(String name, String previousFileId, InputStream inputStream, String language, String userId, String documentId) throws Exception {
+        // Guess the mime type from the first bytes
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        String mimeType;
+        try {
+            bufferedInputStream.mark(MimeTypeUtil.HEADER_SIZE);
+            byte[] header = bufferedInputStream.readNBytes(MimeTypeUtil.HEADER_SIZE);
+            bufferedInputStream.reset();
+            mimeType = MimeTypeUtil.guessMimeType(header, name);
+        } catch (IOException e) {
+            throw new IOException("StreamError", e);
+        }
+
+        // Create the file, its ID is needed to store the data
+        UserDao userDao = new UserDao();
+        User user = userDao.getById(userId);
+        long remainingQuota = getRemainingQuota(user, userDao);
+        File file = prepareFile(name, previousFileId, mimeType, userId, documentId);
+        file.setSize(0L);
+        FileDao fileDao = new FileDao();
+        String fileId = fileDao.create(file, userId);
+
+        // Receive the data, stopping as soon as the quota is exceeded
+        Path unencryptedFile = FormatHandlerUtil.find(mimeType) == null ?
+                null : AppContext.getInstance().getFileService().createTemporaryFile(name);
+        CountingInputStream countingInputStream = new CountingInputStream(remainingQuota == Long.MAX_VALUE ?
+                bufferedInputStream : ByteStreams.limit(bufferedInputStream, remainingQuota + 1));
+        HashingInputStream hashingInputStream = new HashingInputStream(Hashing.sha256(), countingInputStream);
+        try (OutputStream unencryptedOutputStream = unencryptedFile == null ?
+                OutputStream.nullOutputStream() : Files.newOutputStream(unencryptedFile)) {
+            StorageUtil.write(fileId, new TeeInputStream(hashingInputStream, unencryptedOutputStream),
+                    StorageUtil.getPrivateKey(file, user));
+        } catch (IOException e) {
+            StorageUtil.delete(fileId);
+            throw new IOException("StreamError", e);
+        }
+        if (countingInputStream.getCount() > remainingQuota) {
+            StorageUtil.delete(fileId);
+            throw new IOException("QuotaReached");
+        }
+
+        // Save the size and hash of the received data
+        String hash = hashingInputStream.hash().toString();
+        File identicalFile = fileDao.getByHash(hash, userId, file.isEncrypted());
+        file.setSize(countingInputStream.getCount());
+        file.setHash(hash);
+        fileDao.update(file);
+
+        // Share the stored content of an identical file, the received data is kept if it can't be shared
+        if (identicalFile != null) {
+            StorageUtil.share(identicalFile.getId(), fileId);
+        }
+        onFileCreated(file, user, userDao, unencryptedFile, language);
+        return file;
+    }
+
+    /**
+     * Returns the number of bytes a user can still store.
+     *
+     * @param user User
+     * @param userDao User DAO
+     * @return Remaining quota in bytes
+     */
+    private static long getRemainingQuota(User user, UserDao userDao) {
+        long remainingQuota = Math.max(user.getStorageQuota() - user.getStorageCurrent(), -1);
+
+        // Apply the global quota
         String globalStorageQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
         if (!Strings.isNullOrEmpty(globalStorageQuotaStr)) {
             long globalStorageQuota = Long.parseLong(globalStorageQuotaStr);
             long globalStorageCurrent = userDao.getGlobalStorageCurrent();
-            if (globalStorageCurrent + fileSize > globalStorageQuota) {
-                throw new IOException("QuotaReached");
-            }
+            remainingQuota = Math.min(remainingQuota, Math.max(globalStorageQuota - globalStorageCurrent, -1));
         }
 
-        // Prepare the file
+        return remainingQuota;
+    }
+
+    /**
+     * Prepare a new file, without its data.
+     *
+     * @param name File name, can be null
+     * @param previousFileId ID of the previous version of the file, if the new file is a new version
+     * @param mimeType MIME type
+     * @param userId User ID creating the file
+     * @param documentId Associated document ID or null if no document
+     * @return File to create
+     * @throws IOException If the previous version doesn't match
+     */
+    private static File prepareFile(String name, String previousFileId, String mimeType, String userId, String documentId) throws IOException {
         File file = new File();
         file.setOrder(0);
         file.setVersion(0);
@@ -152,7 +217,7 @@ public class FileUtil {
         file.setName(StringUtils.abbreviate(name, 200));
         file.setMimeType(mimeType);
         file.setUserId(userId);
-        file.setSize(fileSize);
+        file.setEncrypted(StorageUtil.isEncryptionEnabled());
 
         // Get files of this document
         FileDao fileDao = new FileDao();
@@ -182,37 +247,38 @@ public class FileUtil {
             }
         }
 
-        // Create the file
-        String fileId = fileDao.create(file, userId);
-
-        // Save the file
-        Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-        Path path = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
-            Files.copy(new CipherInputStream(inputStream, cipher), path);
-        }
+        return file;
+    }
 
+    /**
+     * Update the user quota and start processing a new file.
+     *
+     * @param file New file
+     * @param user User whom created the file
+     * @param userDao User DAO
+     * @param unencryptedFile Path to the unencrypted file, null if no format handler needs it
+     * @param language File language, can be null if associated to no document
+     */
+    private static void onFileCreated(File file, User user, UserDao userDao, Path unencryptedFile, String language) {
         // Update the user quota
-        user.setStorageCurrent(user.getStorageCurrent() + fileSize);
+        user.setStorageCurrent(user.getStorageCurrent() + file.getSize());
         userDao.updateQuota(user);
 
         // Raise a new file created event and document updated event if we have a document
-        startProcessingFile(fileId);
+        startProcessingFile(file.getId());
         FileCreatedAsyncEvent fileCreatedAsyncEvent = new FileCreatedAsyncEvent();
-        fileCreatedAsyncEvent.setUserId(userId);
+        fileCreatedAsyncEvent.setUserId(user.getId());
         fileCreatedAsyncEvent.setLanguage(language);
         fileCreatedAsyncEvent.setFileId(file.getId());
         fileCreatedAsyncEvent.setUnencryptedFile(unencryptedFile);
         ThreadLocalContext.get().addAsyncEvent(fileCreatedAsyncEvent);
 
-        if (documentId != null) {
+        if (file.getDocumentId() != null) {
             DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
-            documentUpdatedAsyncEvent.setUserId(userId);
-            documentUpdatedAsyncEvent.setDocumentId(documentId);
+            documentUpdatedAsyncEvent.setUserId(user.getId());
+            documentUpdatedAsyncEvent.setDocumentId(file.getDocumentId());
             ThreadLocalContext.get().addAsyncEvent(documentUpdatedAsyncEvent);
         }
-
-        return fileId;
     }
 
     /**
@@ -249,24 +315,18 @@ public class FileUtil {
      * Get the size of a file on disk.
      *
      * @param fileId the file id
-     * @param user   the file owner
      * @return the size or -1 if something went wrong
      */
-    public static long getFileSize(String fileId, User user) {
-        // To get the size we copy the decrypted content into a null output stream
-        // and count the copied byte size.
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
-        if (! Files.exists(storedFile)) {
-            log.debug("File does not exist " + fileId);
-            return File.UNKNOWN_SIZE;
-        }
-        try (InputStream fileInputStream = Files.newInputStream(storedFile);
-             InputStream inputStream = EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey());
-             CountingInputStream countingInputStream = new CountingInputStream(inputStream);
-        ) {
-            IOUtils.copy(countingInputStream, NullOutputStream.NULL_OUTPUT_STREAM);
-            return countingInputStream.getByteCount();
-        } catch (Exception e) {
+    public static long getFileSize(String fileId) {
+        // AES-CTR doesn't pad, so the unencrypted size is the stored size
+        try {
+            StorageProvider storageProvider = StorageUtil.getStorageProvider();
+            if (!storageProvider.exists(fileId)) {
+                log.debug("File does not exist " + fileId);
+                return File.UNKNOWN_SIZE;
+            }
+            return storageProvider.getSize(fileId);
+        } catch (IOException e) {
             log.debug("Can't find size of file " + fileId, e);
             return File.UNKNOWN_SIZE;
         }
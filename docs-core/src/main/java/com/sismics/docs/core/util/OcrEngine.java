@@ -0,0 +1,288 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.ImageDeskew;
+import com.sismics.util.Scalr;
+import com.sismics.util.io.InputStreamReaderThread;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optical character recognition engine.
+ * Pages of a document are rendered and recognized in parallel by a dedicated pool,
+ * and the number of concurrent tesseract processes is capped.
+ *
+ * @author bgamard
+ */
+public class OcrEngine {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(OcrEngine.class);
+
+    /**
+     * Resolution of the PDF pages rendered for OCR.
+     */
+    private static final int PDF_RENDER_DPI = 300;
+
+    /**
+     * Pool rendering and recognizing pages.
+     */
+    private final ExecutorService pageExecutor;
+
+    /**
+     * Number of threads of the page pool.
+     */
+    private final int threadCount;
+
+    /**
+     * Permits to run a tesseract process.
+     */
+    private final Semaphore processPermits;
+
+    /**
+     * Maximum number of concurrent tesseract processes.
+     */
+    private final int maxProcessCount;
+
+    /**
+     * Timeout of a tesseract process in seconds.
+     */
+    private final int pageTimeout;
+
+    /**
+     * Timeout of the OCR of a file in seconds.
+     */
+    private final int fileTimeout;
+
+    /**
+     * Number of pages recognized.
+     */
+    private final AtomicLong pageCount = new AtomicLong();
+
+    /**
+     * Total time spent recognizing pages, in milliseconds.
+     */
+    private final AtomicLong totalPageTime = new AtomicLong();
+
+    /**
+     * Number of pages or files which timed out.
+     */
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     */
+    public OcrEngine() {
+        int processorCount = Runtime.getRuntime().availableProcessors();
+        threadCount = Math.max(EnvironmentUtil.getEnvIntegerValue(Constants.OCR_THREADS_ENV, processorCount), 1);
+        maxProcessCount = Math.max(EnvironmentUtil.getEnvIntegerValue(Constants.OCR_MAX_PROCESSES_ENV, processorCount), 1);
+        pageTimeout = EnvironmentUtil.getEnvIntegerValue(Constants.OCR_PAGE_TIMEOUT_ENV, Constants.DEFAULT_OCR_PAGE_TIMEOUT);
+        fileTimeout = EnvironmentUtil.getEnvIntegerValue(Constants.OCR_FILE_TIMEOUT_ENV, Constants.DEFAULT_OCR_FILE_TIMEOUT);
+        processPermits = new Semaphore(maxProcessCount, true);
+        pageExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("ocr-page-%d")
+                .setDaemon(true)
+                .build());
+        log.info("OCR engine started with {} threads and {} tesseract processes", threadCount, maxProcessCount);
+    }
+
+    /**
+     * Stop the engine, running recognitions are interrupted.
+     */
+    public void shutDown() {
+        pageExecutor.shutdownNow();
+        try {
+            pageExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            // NOP
+        }
+    }
+
+    /**
+     * Optical character recognition on an image.
+     *
+     * @param language Language to OCR
+     * @param image Buffered image
+     * @return Content extracted
+     * @throws Exception e
+     */
+    public String ocrImage(String language, BufferedImage image) throws Exception {
+        long startTime = System.currentTimeMillis();
+
+        // Upscale, grayscale and deskew the image
+        BufferedImage resizedImage = Scalr.resize(image, Scalr.Method.AUTOMATIC, Scalr.Mode.AUTOMATIC, 3500, Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
+        image.flush();
+        ImageDeskew imageDeskew = new ImageDeskew(resizedImage);
+        BufferedImage deskewedImage = Scalr.rotate(resizedImage, - imageDeskew.getSkewAngle(), Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
+        resizedImage.flush();
+        Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
+        Path outputFile = AppContext.getInstance().getFileService().createTemporaryFile();
+        try {
+            ImageIO.write(deskewedImage, "tiff", tmpFile.toFile());
+            deskewedImage.flush();
+
+            processPermits.acquire();
+            try {
+                ProcessBuilder pb = new ProcessBuilder(Arrays.asList("tesseract", tmpFile.toAbsolutePath().toString(), "stdout", "-l", language));
+                pb.redirectOutput(outputFile.toFile());
+                Process process = pb.start();
+
+                // Consume the process error stream
+                new InputStreamReaderThread(process.getErrorStream(), pb.command().get(0)).start();
+
+                try {
+                    if (pageTimeout <= 0) {
+                        process.waitFor();
+                    } else if (!process.waitFor(pageTimeout, TimeUnit.SECONDS)) {
+                        timeoutCount.incrementAndGet();
+                        throw new TimeoutException("tesseract did not finish in " + pageTimeout + "s");
+                    }
+                } finally {
+                    if (process.isAlive()) {
+                        process.destroyForcibly();
+                    }
+                }
+            } finally {
+                processPermits.release();
+            }
+
+            pageCount.incrementAndGet();
+            totalPageTime.addAndGet(System.currentTimeMillis() - startTime);
+            return new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8);
+        } finally {
+            // The image and the text of the page are not needed anymore, even on failure
+            Files.deleteIfExists(tmpFile);
+            Files.deleteIfExists(outputFile);
+        }
+    }
+
+    /**
+     * Optical character recognition on all pages of a PDF.
+     * Each worker opens its own copy of the document, and renders and recognizes the next page to process.
+     *
+     * @param language Language to OCR
+     * @param file PDF file
+     * @return Content extracted
+     * @throws Exception e
+     */
+    public String ocrPdf(String language, Path file) throws Exception {
+        long startTime = System.currentTimeMillis();
+        int pdfPageCount;
+        try (PDDocument pdfDocument = PDDocument.load(file.toFile())) {
+            pdfPageCount = pdfDocument.getNumberOfPages();
+        }
+
+        String[] pageContents = new String[pdfPageCount];
+        AtomicInteger nextPage = new AtomicInteger();
+        List<Future<Void>> futureList = new ArrayList<>();
+        for (int i = 0; i < Math.min(threadCount, pdfPageCount); i++) {
+            futureList.add(pageExecutor.submit(() -> {
+                try (PDDocument pdfDocument = PDDocument.load(file.toFile())) {
+                    PDFRenderer renderer = new PDFRenderer(pdfDocument);
+                    int pageIndex;
+                    while ((pageIndex = nextPage.getAndIncrement()) < pdfPageCount) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedException();
+                        }
+                        long pageStartTime = System.currentTimeMillis();
+                        BufferedImage image = renderer.renderImageWithDPI(pageIndex, PDF_RENDER_DPI, ImageType.GRAY);
+                        long renderTime = System.currentTimeMillis() - pageStartTime;
+                        pageContents[pageIndex] = ocrImage(language, image);
+                        long pageTime = System.currentTimeMillis() - pageStartTime;
+                        log.info("OCR page {}/{} of PDF file containing only images in {}ms (rendering {}ms, recognition {}ms)",
+                                pageIndex + 1, pdfPageCount, pageTime, renderTime, pageTime - renderTime);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        // Wait for all pages until the file deadline, and stop everything on the first failure
+        long deadline = fileTimeout > 0 ? startTime + TimeUnit.SECONDS.toMillis(fileTimeout) : Long.MAX_VALUE;
+        try {
+            for (Future<Void> future : futureList) {
+                future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            timeoutCount.incrementAndGet();
+            throw new TimeoutException("OCR of the PDF file did not finish in " + fileTimeout + "s");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            for (Future<Void> future : futureList) {
+                future.cancel(true);
+            }
+        }
+
+        log.info("OCR of {} pages in {}ms", pdfPageCount, System.currentTimeMillis() - startTime);
+        StringBuilder sb = new StringBuilder();
+        for (String pageContent : pageContents) {
+            sb.append(" ");
+            sb.append(pageContent);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the number of tesseract processes running.
+     *
+     * @return Number of processes
+     */
+    public int getActiveProcessCount() {
+        return maxProcessCount - processPermits.availablePermits();
+    }
+
+    /**
+     * Returns the average time to recognize a page.
+     *
+     * @return Average page time in milliseconds
+     */
+    public long getAveragePageTime() {
+        long count = pageCount.get();
+        return count == 0 ? 0 : totalPageTime.get() / count;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getMaxProcessCount() {
+        return maxProcessCount;
+    }
+
+    public long getPageCount() {
+        return pageCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+}
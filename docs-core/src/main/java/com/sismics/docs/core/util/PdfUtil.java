@@ -11,6 +11,8 @@ import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
 import com.sismics.docs.core.util.pdf.PdfPage;
+import com.sismics.docs.core.util.storage.StorageUtil;
+import com.sismics.docs.core.util.storage.UnencryptedFile;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -48,6 +50,7 @@ public class PdfUtil {
      * @param metadata Add a page with metadata
      * @param margin Margins in millimeters
      * @param outputStream Output stream to write to, will be closed
+     * @throws Exception e
      */
     public static void convertToPdf(DocumentDto documentDto, List<File> fileList,
             boolean fitImageToPage, boolean metadata, int margin, OutputStream outputStream) throws Exception {
@@ -101,20 +104,19 @@ public class PdfUtil {
                 }
             }
             
-            // Add files
+            // Add files, each source is released once appended
             for (File file : fileList) {
-                Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-
-                // Decrypt the file to a temporary file
-                Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, file.getPrivateKey());
                 FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
                 if (formatHandler != null) {
-                    formatHandler.appendToPdf(unencryptedFile, doc, fitImageToPage, margin, memUsageSettings, closer);
+                    // Decrypted files are reused by the next exports
+                    UnencryptedFile unencryptedFile = closer.register(StorageUtil.getCachedUnencryptedFile(file.getId(), file.getPrivateKey()));
+                    formatHandler.appendToPdf(unencryptedFile.getPath(), doc, fitImageToPage, margin, memUsageSettings, closer);
                 }
             }
             
             doc.save(outputStream); // Write to the output stream
-            closer.close(); // Close all remaining opened PDF
+        } finally {
+            closer.close(); // Close all remaining opened resources
         }
     }
 
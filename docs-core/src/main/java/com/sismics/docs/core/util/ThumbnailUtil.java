@@ -0,0 +1,244 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.base.Strings;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.docs.core.util.storage.StorageProvider;
+import com.sismics.docs.core.util.storage.StorageUtil;
+import com.sismics.util.ImageUtil;
+import com.sismics.util.Scalr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Thumbnails utilities.
+ * The file is rendered or decoded close to the largest size, then each size is scaled down from the previous one
+ * and handed over as soon as it is encoded.
+ *
+ * @author bgamard
+ */
+public class ThumbnailUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailUtil.class);
+
+    /**
+     * Scaling method.
+     */
+    private static final Scalr.Method SCALING_METHOD = getScalingMethod();
+
+    /**
+     * Thumbnail sizes, from the largest to the smallest.
+     */
+    public enum Size {
+        /**
+         * Image displayed in the file viewer.
+         */
+        WEB("web", 1280),
+
+        /**
+         * Thumbnail displayed in the lists.
+         */
+        THUMB("thumb", 256);
+
+        /**
+         * Suffix of the stored file.
+         */
+        private final String suffix;
+
+        /**
+         * Maximum size of the largest side in pixels.
+         */
+        private final int pixels;
+
+        /**
+         * Constructor.
+         *
+         * @param suffix Suffix of the stored file
+         * @param pixels Maximum size of the largest side in pixels
+         */
+        Size(String suffix, int pixels) {
+            this.suffix = suffix;
+            this.pixels = pixels;
+        }
+
+        public String getSuffix() {
+            return suffix;
+        }
+
+        public int getPixels() {
+            return pixels;
+        }
+    }
+
+    /**
+     * Receiver of the generated thumbnails.
+     */
+    @FunctionalInterface
+    public interface ThumbnailConsumer {
+        /**
+         * Receive a thumbnail.
+         *
+         * @param size Size
+         * @param data Thumbnail as JPEG
+         * @throws Exception e
+         */
+        void accept(Size size, byte[] data) throws Exception;
+    }
+
+    /**
+     * Generate all the thumbnails of a file.
+     *
+     * @param fileId File ID, for logging
+     * @param formatHandler Format handler of the file
+     * @param file Unencrypted file
+     * @param consumer Receiver of the thumbnails, in the order of the sizes
+     * @return False if the format handler doesn't produce any image
+     * @throws Exception e
+     */
+    public static boolean generate(String fileId, FormatHandler formatHandler, Path file, ThumbnailConsumer consumer) throws Exception {
+        return generate(fileId, formatHandler, file, EnumSet.allOf(Size.class), consumer);
+    }
+
+    /**
+     * Generate some of the thumbnails of a file.
+     * The image is still scaled down in cascade through the other sizes, but they are not encoded.
+     *
+     * @param fileId File ID, for logging
+     * @param formatHandler Format handler of the file
+     * @param file Unencrypted file
+     * @param sizes Sizes to generate
+     * @param consumer Receiver of the thumbnails, in the order of the sizes
+     * @return False if the format handler doesn't produce any image
+     * @throws Exception e
+     */
+    public static boolean generate(String fileId, FormatHandler formatHandler, Path file, Set<Size> sizes, ThumbnailConsumer consumer) throws Exception {
+        long startTime = System.currentTimeMillis();
+        BufferedImage image = formatHandler.generateThumbnail(file, Size.WEB.getPixels());
+        if (image == null) {
+            return false;
+        }
+        StringBuilder timing = new StringBuilder("render ").append(System.currentTimeMillis() - startTime).append("ms");
+
+        try {
+            for (Size size : Size.values()) {
+                long stageTime = System.currentTimeMillis();
+                BufferedImage scaledImage = scale(image, size.getPixels());
+                if (scaledImage != image) {
+                    image.flush();
+                    image = scaledImage;
+                }
+                if (!sizes.contains(size)) {
+                    continue;
+                }
+                long encodeTime = System.currentTimeMillis();
+                byte[] data = toJpeg(image);
+                timing.append(", ").append(size.getSuffix())
+                        .append(" scale ").append(encodeTime - stageTime).append("ms")
+                        .append(" encode ").append(System.currentTimeMillis() - encodeTime).append("ms");
+                consumer.accept(size, data);
+            }
+        } finally {
+            image.flush();
+        }
+
+        log.info("Thumbnails generated in {}ms ({}): {}", System.currentTimeMillis() - startTime, timing, fileId);
+        return true;
+    }
+
+    /**
+     * Store a thumbnail of a file, encrypted like the file.
+     *
+     * @param fileId File ID
+     * @param privateKey Private key of the file, null if not encrypted
+     * @param size Size
+     * @param data Thumbnail as JPEG
+     * @throws Exception e
+     */
+    public static void store(String fileId, String privateKey, Size size, byte[] data) throws Exception {
+        StorageUtil.write(StorageUtil.getKey(fileId, size.getSuffix()), new ByteArrayInputStream(data), privateKey);
+    }
+
+    /**
+     * Returns true if one of the thumbnails of a file is not stored.
+     *
+     * @param fileId File ID
+     * @return True if a thumbnail is missing
+     * @throws IOException e
+     */
+    public static boolean isMissing(String fileId) throws IOException {
+        return !getMissingSizes(fileId).isEmpty();
+    }
+
+    /**
+     * Returns the sizes of the thumbnails of a file which are not stored.
+     *
+     * @param fileId File ID
+     * @return Missing sizes
+     * @throws IOException e
+     */
+    public static Set<Size> getMissingSizes(String fileId) throws IOException {
+        StorageProvider storageProvider = StorageUtil.getStorageProvider();
+        Set<Size> missingSizes = EnumSet.noneOf(Size.class);
+        for (Size size : Size.values()) {
+            if (!storageProvider.exists(StorageUtil.getKey(fileId, size.getSuffix()))) {
+                missingSizes.add(size);
+            }
+        }
+        return missingSizes;
+    }
+
+    /**
+     * Scale an image down, smaller images are kept as is.
+     *
+     * @param image Image
+     * @param pixels Maximum size of the largest side in pixels
+     * @return Scaled image
+     */
+    private static BufferedImage scale(BufferedImage image, int pixels) {
+        if (Math.max(image.getWidth(), image.getHeight()) <= pixels) {
+            return image;
+        }
+        return Scalr.resize(image, SCALING_METHOD, Scalr.Mode.AUTOMATIC, pixels);
+    }
+
+    /**
+     * Encode an image as JPEG.
+     *
+     * @param image Image
+     * @return JPEG data
+     * @throws Exception e
+     */
+    private static byte[] toJpeg(BufferedImage image) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageUtil.writeJpeg(image, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Returns the scaling method configured by the environment.
+     *
+     * @return Scaling method
+     */
+    private static Scalr.Method getScalingMethod() {
+        Scalr.Method method = Scalr.Method.QUALITY;
+        String methodValue = System.getenv(Constants.THUMBNAIL_QUALITY_ENV);
+        if (!Strings.isNullOrEmpty(methodValue)) {
+            try {
+                method = Scalr.Method.valueOf(methodValue.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown thumbnail quality {}, using {}", methodValue, method);
+            }
+        }
+        return method;
+    }
+}
@@ -69,6 +69,7 @@ public class TransactionUtil {
         if (em.isOpen()) {
             if (em.getTransaction() != null && em.getTransaction().isActive()) {
                 em.getTransaction().commit();
+                context.runAfterCommit();
                 
                 try {
                     em.close();
@@ -0,0 +1,302 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.FileBackedOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.mime.MimeType;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * ZIP export engine.
+ * The entries following the one being sent are read and compressed in parallel by a dedicated pool,
+ * then written in order as raw entries. At most a few entries are staged at once, each one in memory up to
+ * a threshold and on disk above it. Already compressed formats are stored without deflating them,
+ * and ZIP64 is used when the export needs it.
+ *
+ * @author bgamard
+ */
+public class ZipExporter {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ZipExporter.class);
+
+    /**
+     * MIME types which are not worth deflating.
+     */
+    private static final Set<String> STORED_MIME_TYPES = ImmutableSet.of(
+            MimeType.IMAGE_JPEG, MimeType.IMAGE_PNG, MimeType.IMAGE_GIF,
+            MimeType.VIDEO_MP4, MimeType.VIDEO_WEBM, MimeType.APPLICATION_ZIP, MimeType.APPLICATION_PDF,
+            MimeType.OPEN_DOCUMENT_TEXT, MimeType.OFFICE_DOCUMENT, MimeType.OFFICE_PRESENTATION, MimeType.OFFICE_SHEET);
+
+    /**
+     * Size in bytes above which a prepared entry is staged on disk instead of memory.
+     */
+    static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Size in bytes of the buffer used to read the entries.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Pool preparing the entries.
+     */
+    private final ExecutorService entryExecutor;
+
+    /**
+     * Number of entries prepared ahead of the one being sent.
+     */
+    private final int prefetchCount;
+
+    /**
+     * Constructor.
+     */
+    public ZipExporter() {
+        int threadCount = Math.max(EnvironmentUtil.getEnvIntegerValue(Constants.ZIP_THREADS_ENV, Runtime.getRuntime().availableProcessors()), 1);
+        prefetchCount = Math.max(EnvironmentUtil.getEnvIntegerValue(Constants.ZIP_PREFETCH_ENV, threadCount * 2), 1);
+        entryExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("zip-entry-%d")
+                .setDaemon(true)
+                .build());
+        log.info("ZIP exporter started with {} threads and {} prefetched entries", threadCount, prefetchCount);
+    }
+
+    /**
+     * Stop the exporter, running exports are interrupted.
+     */
+    public void shutDown() {
+        entryExecutor.shutdownNow();
+        try {
+            entryExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            // NOP
+        }
+    }
+
+    /**
+     * Write a ZIP file.
+     *
+     * @param entryList Entries of the ZIP file
+     * @param outputStream Output stream, closed at the end
+     * @throws IOException e
+     */
+    public void export(List<Entry> entryList, OutputStream outputStream) throws IOException {
+        Deque<Future<PreparedEntry>> preparedEntryQueue = new ArrayDeque<>();
+        Iterator<Entry> entryIterator = entryList.iterator();
+        AtomicBoolean aborted = new AtomicBoolean();
+        try (ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(outputStream)) {
+            zipOutputStream.setUseZip64(Zip64Mode.AsNeeded);
+            while (entryIterator.hasNext() || !preparedEntryQueue.isEmpty()) {
+                // Prepare the next entries
+                while (entryIterator.hasNext() && preparedEntryQueue.size() < prefetchCount) {
+                    Entry entry = entryIterator.next();
+                    preparedEntryQueue.add(entryExecutor.submit(() -> prepare(entry, aborted)));
+                }
+
+                // Send the first one
+                try (PreparedEntry preparedEntry = getPreparedEntry(preparedEntryQueue.poll());
+                     InputStream inputStream = preparedEntry.data.asByteSource().openStream()) {
+                    zipOutputStream.addRawArchiveEntry(preparedEntry.zipEntry, inputStream);
+                }
+            }
+        } finally {
+            // The export has been interrupted, stop preparing entries and release the ones already prepared
+            aborted.set(true);
+            for (Future<PreparedEntry> future : preparedEntryQueue) {
+                if (!future.cancel(false)) {
+                    try {
+                        getPreparedEntry(future).close();
+                    } catch (IOException e) {
+                        // The entry failed, nothing to release
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an entry and compress it if needed.
+     * The compressed data is staged in memory, and on disk above a threshold.
+     *
+     * @param entry Entry
+     * @param aborted True if the export has been interrupted
+     * @return Prepared entry
+     * @throws Exception e
+     */
+    private static PreparedEntry prepare(Entry entry, AtomicBoolean aborted) throws Exception {
+        if (aborted.get()) {
+            throw new IOException("ZIP export interrupted");
+        }
+
+        boolean stored = STORED_MIME_TYPES.contains(entry.mimeType);
+        FileBackedOutputStream data = new FileBackedOutputStream(MEMORY_THRESHOLD, true);
+        CountingOutputStream compressedOutputStream = new CountingOutputStream(data);
+        CRC32 crc = new CRC32();
+        long size = 0;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (InputStream inputStream = entry.source.open();
+             OutputStream os = stored ? compressedOutputStream : new DeflaterOutputStream(compressedOutputStream, deflater)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                if (aborted.get()) {
+                    throw new IOException("ZIP export interrupted");
+                }
+                crc.update(buffer, 0, length);
+                os.write(buffer, 0, length);
+                size += length;
+            }
+        } catch (Exception e) {
+            data.reset();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        if (aborted.get()) {
+            // Nobody is waiting for this entry anymore
+            data.reset();
+            throw new IOException("ZIP export interrupted");
+        }
+
+        ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.name);
+        zipEntry.setMethod(stored ? ZipArchiveEntry.STORED : ZipArchiveEntry.DEFLATED);
+        zipEntry.setSize(size);
+        zipEntry.setCompressedSize(compressedOutputStream.getCount());
+        zipEntry.setCrc(crc.getValue());
+        zipEntry.setTime(entry.time);
+        return new PreparedEntry(zipEntry, data);
+    }
+
+    /**
+     * Wait for an entry to be prepared.
+     *
+     * @param future Entry being prepared
+     * @return Prepared entry
+     * @throws IOException If the entry can't be read
+     */
+    private static PreparedEntry getPreparedEntry(Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("ZIP export interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error preparing a ZIP entry", e.getCause());
+        }
+    }
+
+    /**
+     * Source of the data of an entry.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * Open the uncompressed data.
+         *
+         * @return Input stream, closed by the exporter
+         * @throws Exception e
+         */
+        InputStream open() throws Exception;
+    }
+
+    /**
+     * Entry of a ZIP file.
+     */
+    public static class Entry {
+        /**
+         * Name in the ZIP file.
+         */
+        private final String name;
+
+        /**
+         * MIME type of the data.
+         */
+        private final String mimeType;
+
+        /**
+         * Modification time in milliseconds.
+         */
+        private final long time;
+
+        /**
+         * Source of the data.
+         */
+        private final Source source;
+
+        /**
+         * Constructor.
+         *
+         * @param name Name in the ZIP file
+         * @param mimeType MIME type of the data
+         * @param time Modification time in milliseconds
+         * @param source Source of the data
+         */
+        public Entry(String name, String mimeType, long time, Source source) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.time = time;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Entry ready to be written.
+     */
+    private static class PreparedEntry implements Closeable {
+        /**
+         * ZIP entry, with its sizes and checksum.
+         */
+        private final ZipArchiveEntry zipEntry;
+
+        /**
+         * Compressed data.
+         */
+        private final FileBackedOutputStream data;
+
+        /**
+         * Constructor.
+         *
+         * @param zipEntry ZIP entry
+         * @param data Compressed data
+         */
+        private PreparedEntry(ZipArchiveEntry zipEntry, FileBackedOutputStream data) {
+            this.zipEntry = zipEntry;
+            this.data = data;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.reset();
+        }
+    }
+}
@@ -21,6 +21,16 @@ public interface FormatHandler {
      */
     boolean accept(String mimeType);
 
+    /**
+     * Returns the version of the thumbnails and content produced by this handler.
+     * It must be incremented when they change for the same file, to invalidate the extraction cache.
+     *
+     * @return Version
+     */
+    default int getVersion() {
+        return 1;
+    }
+
     /**
      * Generate a thumbnail.
      *
@@ -30,6 +40,19 @@ public interface FormatHandler {
      */
     BufferedImage generateThumbnail(Path file) throws Exception;
 
+    /**
+     * Generate a thumbnail close to a size, to avoid rendering or decoding more pixels than needed.
+     * The thumbnail may still be larger than the requested size.
+     *
+     * @param file File
+     * @param size Requested size of the largest side in pixels
+     * @return Thumbnail
+     * @throws Exception e
+     */
+    default BufferedImage generateThumbnail(Path file, int size) throws Exception {
+        return generateThumbnail(file);
+    }
+
     /**
      * Extract text content.
      *
@@ -48,7 +71,7 @@ public interface FormatHandler {
      * @param fitImageToPage Fit image to page
      * @param margin Margin
      * @param memUsageSettings Memory usage
-     * @param closer Closer
+     * @param closer Closer of the resources which must stay open until the PDF is saved
      * @throws Exception e
      */
     void appendToPdf(Path file, PDDocument doc, boolean fitImageToPage, int margin, MemoryUsageSetting memUsageSettings, Closer closer) throws Exception;
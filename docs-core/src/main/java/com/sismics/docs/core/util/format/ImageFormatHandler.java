@@ -2,7 +2,7 @@ package com.sismics.docs.core.util.format;
 
 import com.google.common.io.Closer;
 import com.sismics.docs.core.constant.Constants;
-import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.util.mime.MimeType;
@@ -16,10 +16,14 @@ import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
 
 /**
  * Image format handler.
@@ -44,6 +48,30 @@ public class ImageFormatHandler implements FormatHandler {
         }
     }
 
+    @Override
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readerIterator = ImageIO.getImageReaders(imageInputStream);
+            if (!readerIterator.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readerIterator.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+
+                // Skip pixels of large images while decoding, keeping twice the requested size for a clean downscaling
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(reader.getWidth(0), reader.getHeight(0)) / (size * 2);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
     @Override
     public String extractContent(String language, Path file) throws Exception {
         if (language == null || !ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)) {
@@ -51,7 +79,7 @@ public class ImageFormatHandler implements FormatHandler {
         }
 
         try (InputStream inputStream = Files.newInputStream(file)) {
-            return FileUtil.ocrFile(language, ImageIO.read(inputStream));
+            return AppContext.getInstance().getOcrEngine().ocrImage(language, ImageIO.read(inputStream));
         }
     }
 
@@ -37,6 +37,12 @@ public class OdtFormatHandler implements FormatHandler {
         return new PdfFormatHandler().generateThumbnail(getGeneratedPdf(file));
     }
 
+    @Override
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
+        // Use the PDF format handler
+        return new PdfFormatHandler().generateThumbnail(getGeneratedPdf(file), size);
+    }
+
     @Override
     public String extractContent(String language, Path file) throws Exception {
         // Use the PDF format handler
@@ -1,14 +1,14 @@
 package com.sismics.docs.core.util.format;
 
 import com.google.common.io.Closer;
-import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.slf4j.Logger;
@@ -44,6 +44,18 @@ public class PdfFormatHandler implements FormatHandler {
         }
     }
 
+    @Override
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
+        try (InputStream inputStream = Files.newInputStream(file);
+             PDDocument pdfDocument = PDDocument.load(inputStream)) {
+            // Render the first page directly at the requested size
+            PDRectangle cropBox = pdfDocument.getPage(0).getCropBox();
+            float scale = size / Math.max(cropBox.getWidth(), cropBox.getHeight());
+            PDFRenderer renderer = new PDFRenderer(pdfDocument);
+            return renderer.renderImage(0, scale);
+        }
+    }
+
     @Override
     public String extractContent(String language, Path file) {
         String content = null;
@@ -56,16 +68,8 @@ public class PdfFormatHandler implements FormatHandler {
 
         // No text content, try to OCR it
         if (language != null && content != null && content.trim().isEmpty() && ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)) {
-            StringBuilder sb = new StringBuilder();
-            try (InputStream inputStream = Files.newInputStream(file);
-                 PDDocument pdfDocument = PDDocument.load(inputStream)) {
-                PDFRenderer renderer = new PDFRenderer(pdfDocument);
-                for (int pageIndex = 0; pageIndex < pdfDocument.getNumberOfPages(); pageIndex++) {
-                    log.info("OCR page " + (pageIndex + 1) + "/" + pdfDocument.getNumberOfPages() + " of PDF file containing only images");
-                    sb.append(" ");
-                    sb.append(FileUtil.ocrFile(language, renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY)));
-                }
-                return sb.toString();
+            try {
+                return AppContext.getInstance().getOcrEngine().ocrPdf(language, file);
             } catch (Exception e) {
                 log.error("Error while OCR-izing the PDF", e);
             }
@@ -76,9 +80,10 @@ public class PdfFormatHandler implements FormatHandler {
 
     @Override
     public void appendToPdf(Path file, PDDocument doc, boolean fitImageToPage, int margin, MemoryUsageSetting memUsageSettings, Closer closer) throws Exception {
-        PDDocument mergeDoc = PDDocument.load(file.toFile(), memUsageSettings);
-        closer.register(mergeDoc);
-        PDFMergerUtility pdfMergerUtility = new PDFMergerUtility();
-        pdfMergerUtility.appendDocument(doc, mergeDoc);
+        // The appended pages are copied, so the source can be released right away
+        try (PDDocument mergeDoc = PDDocument.load(file.toFile(), memUsageSettings)) {
+            PDFMergerUtility pdfMergerUtility = new PDFMergerUtility();
+            pdfMergerUtility.appendDocument(doc, mergeDoc);
+        }
     }
 }
@@ -27,6 +27,24 @@ public class TextPlainFormatHandler implements FormatHandler {
 
     @Override
     public BufferedImage generateThumbnail(Path file) throws Exception {
+        // Use the PDF format handler
+        return new PdfFormatHandler().generateThumbnail(generatePdf(file));
+    }
+
+    @Override
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
+        // Use the PDF format handler
+        return new PdfFormatHandler().generateThumbnail(generatePdf(file), size);
+    }
+
+    /**
+     * Generate a PDF from a text file.
+     *
+     * @param file Text file
+     * @return Temporary PDF file
+     * @throws Exception e
+     */
+    private Path generatePdf(Path file) throws Exception {
         Document output = new Document(PageSize.A4, 40, 40, 40, 40);
         Path tempFile = AppContext.getInstance().getFileService().createTemporaryFile();
         OutputStream pdfOutputStream = Files.newOutputStream(tempFile);
@@ -39,9 +57,7 @@ public class TextPlainFormatHandler implements FormatHandler {
         paragraph.setAlignment(Element.ALIGN_LEFT);
         output.add(paragraph);
         output.close();
-
-        // Use the PDF format handler
-        return new PdfFormatHandler().generateThumbnail(tempFile);
+        return tempFile;
     }
 
     @Override
@@ -30,9 +30,28 @@ public class VideoFormatHandler implements FormatHandler {
 
     @Override
     public BufferedImage generateThumbnail(Path file) throws IOException {
+        return generateThumbnail(file, "thumbnail");
+    }
+
+    @Override
+    public BufferedImage generateThumbnail(Path file, int size) throws IOException {
+        // Let ffmpeg scale the frame down before encoding it
+        return generateThumbnail(file, "thumbnail,scale=w='min(iw," + size + ")':h='min(ih," + size + ")'"
+                + ":force_original_aspect_ratio=decrease");
+    }
+
+    /**
+     * Generate a thumbnail with ffmpeg.
+     *
+     * @param file File
+     * @param filter Video filter selecting the frame
+     * @return Thumbnail
+     * @throws IOException e
+     */
+    private BufferedImage generateThumbnail(Path file, String filter) throws IOException {
         List<String> result = Lists.newLinkedList(Arrays.asList("ffmpeg", "-i"));
         result.add(file.toAbsolutePath().toString());
-        result.addAll(Arrays.asList("-vf", "thumbnail", "-frames:v", "1", "-f", "mjpeg", "-"));
+        result.addAll(Arrays.asList("-vf", filter, "-frames:v", "1", "-f", "mjpeg", "-"));
         ProcessBuilder pb = new ProcessBuilder(result);
         Process process = pb.start();
 
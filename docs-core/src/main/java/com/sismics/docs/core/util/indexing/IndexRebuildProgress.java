@@ -0,0 +1,186 @@
+package com.sismics.docs.core.util.indexing;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of an index rebuild.
+ *
+ * @author bgamard
+ */
+public class IndexRebuildProgress {
+    /**
+     * Rebuild status.
+     */
+    public enum Status {
+        /**
+         * No rebuild since startup.
+         */
+        IDLE,
+
+        /**
+         * Rebuild in progress.
+         */
+        RUNNING,
+
+        /**
+         * Last rebuild completed.
+         */
+        COMPLETED,
+
+        /**
+         * Last rebuild failed or was stopped, it can be resumed.
+         */
+        FAILED
+    }
+
+    /**
+     * Status.
+     */
+    private volatile Status status = Status.IDLE;
+
+    /**
+     * Current phase.
+     */
+    private volatile String phase;
+
+    /**
+     * True if the rebuild resumed from a checkpoint.
+     */
+    private volatile boolean resumed;
+
+    /**
+     * Number of documents to index.
+     */
+    private volatile long documentTotal;
+
+    /**
+     * Number of documents indexed.
+     */
+    private final AtomicLong documentCount = new AtomicLong();
+
+    /**
+     * Number of files to index.
+     */
+    private volatile long fileTotal;
+
+    /**
+     * Number of files indexed.
+     */
+    private final AtomicLong fileCount = new AtomicLong();
+
+    /**
+     * Start timestamp.
+     */
+    private volatile Long startDate;
+
+    /**
+     * End timestamp.
+     */
+    private volatile Long endDate;
+
+    /**
+     * Error message of the last failure.
+     */
+    private volatile String error;
+
+    /**
+     * Start a rebuild.
+     *
+     * @param resumed True if resumed from a checkpoint
+     * @param documentTotal Number of documents to index
+     * @param fileTotal Number of files to index
+     */
+    public void start(boolean resumed, long documentTotal, long fileTotal) {
+        this.resumed = resumed;
+        this.documentTotal = documentTotal;
+        this.fileTotal = fileTotal;
+        documentCount.set(0);
+        fileCount.set(0);
+        phase = null;
+        startDate = System.currentTimeMillis();
+        endDate = null;
+        error = null;
+        status = Status.RUNNING;
+    }
+
+    /**
+     * Complete the rebuild.
+     */
+    public void complete() {
+        endDate = System.currentTimeMillis();
+        status = Status.COMPLETED;
+    }
+
+    /**
+     * Fail the rebuild.
+     *
+     * @param error Error message
+     */
+    public void fail(String error) {
+        this.error = error;
+        endDate = System.currentTimeMillis();
+        status = Status.FAILED;
+    }
+
+    /**
+     * Add indexed documents.
+     *
+     * @param count Number of documents
+     */
+    public void addDocuments(int count) {
+        documentCount.addAndGet(count);
+    }
+
+    /**
+     * Add indexed files.
+     *
+     * @param count Number of files
+     */
+    public void addFiles(int count) {
+        fileCount.addAndGet(count);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public long getDocumentTotal() {
+        return documentTotal;
+    }
+
+    public long getDocumentCount() {
+        return documentCount.get();
+    }
+
+    public long getFileTotal() {
+        return fileTotal;
+    }
+
+    public long getFileCount() {
+        return fileCount.get();
+    }
+
+    public Long getStartDate() {
+        return startDate;
+    }
+
+    public Long getEndDate() {
+        return endDate;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
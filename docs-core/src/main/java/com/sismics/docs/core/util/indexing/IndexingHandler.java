@@ -40,6 +40,19 @@ public interface IndexingHandler {
      */
     void clearIndex();
 
+    /**
+     * Rebuild the index from the database.
+     * Searches are served from the current index until the new one is ready.
+     */
+    void rebuildIndex();
+
+    /**
+     * Returns the progress of the last index rebuild.
+     *
+     * @return Rebuild progress
+     */
+    IndexRebuildProgress getRebuildProgress();
+
     /**
      * Index a list of documents.
      *
@@ -75,6 +88,13 @@ public interface IndexingHandler {
      */
     void updateDocument(Document document);
 
+    /**
+     * Update a list of indexed documents.
+     *
+     * @param documentList Documents
+     */
+    void updateDocuments(List<Document> documentList);
+
     /**
      * Update an indexed file.
      *
@@ -117,4 +137,30 @@ public interface IndexingHandler {
      * @throws Exception e
      */
     void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception;
+
+    /**
+     * Suggest search terms completing the last word of a query.
+     * Only the words from the titles of the documents readable by the targets are suggested.
+     *
+     * @param search Search query
+     * @param targetIdList List of targets
+     * @param count Maximum number of suggestions
+     * @return Suggestions
+     * @throws Exception e
+     */
+    List<String> suggest(String search, List<String> targetIdList, int count) throws Exception;
+
+    /**
+     * Returns the queue of index mutations waiting to be applied.
+     *
+     * @return Indexing queue
+     */
+    IndexingQueue<?> getIndexingQueue();
+
+    /**
+     * Wait until the changes submitted before are applied and visible to the searches and suggestions.
+     *
+     * @throws Exception e
+     */
+    void awaitSearchable() throws Exception;
 }
@@ -0,0 +1,334 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Queue of index mutations.
+ * Mutations submitted from any thread are applied by a single worker thread
+ * in micro-batches, so that a batch can be followed by a single commit.
+ *
+ * @param <T> Type of mutation
+ *
+ * @author bgamard
+ */
+public class IndexingQueue<T> {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(IndexingQueue.class);
+
+    /**
+     * Pending mutations.
+     */
+    private final BlockingQueue<PendingMutation<T>> queue;
+
+    /**
+     * Maximum number of mutations applied in one batch.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Handler applying a batch of mutations.
+     */
+    private final BatchHandler<T> batchHandler;
+
+    /**
+     * Worker thread.
+     */
+    private Thread worker;
+
+    /**
+     * True while the queue accepts and processes mutations.
+     */
+    private volatile boolean running;
+
+    /**
+     * Lock on the running state, held for reading while submitting and for writing while stopping.
+     */
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+    /**
+     * Number of batches applied.
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * Number of mutations applied.
+     */
+    private final AtomicLong mutationCount = new AtomicLong();
+
+    /**
+     * Size of the last batch applied.
+     */
+    private volatile int lastBatchSize;
+
+    /**
+     * Size of the largest batch applied.
+     */
+    private volatile int largestBatchSize;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Maximum number of pending mutations, submitters block when it is reached
+     * @param maxBatchSize Maximum number of mutations applied in one batch
+     * @param batchHandler Handler applying a batch of mutations
+     */
+    public IndexingQueue(int capacity, int maxBatchSize, BatchHandler<T> batchHandler) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.batchHandler = batchHandler;
+    }
+
+    /**
+     * Start the worker thread.
+     *
+     * @param name Worker thread name
+     */
+    public void start(String name) {
+        stateLock.writeLock().lock();
+        try {
+            running = true;
+            worker = new Thread(this::run, name);
+            worker.setDaemon(true);
+            worker.start();
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stop the worker thread after all pending mutations are applied.
+     * The mutations submitted afterwards are rejected.
+     */
+    public void stop() {
+        // Wait for the submissions in progress, the worker is still consuming the queue
+        stateLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+
+        if (worker != null) {
+            try {
+                worker.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+
+        // Apply what the worker left behind, nothing is queued anymore
+        List<PendingMutation<T>> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            try {
+                applyBatch(batch);
+            } catch (Throwable e) {
+                log.error("Error applying the last indexing batch", e);
+            }
+        }
+    }
+
+    /**
+     * Submit a mutation.
+     * Blocks while the queue is full.
+     *
+     * @param mutation Mutation
+     * @return Future completed when the batch containing the mutation is applied
+     * @throws RejectedExecutionException If the queue is not running
+     */
+    public Future<Void> submit(T mutation) {
+        return enqueue(new PendingMutation<>(mutation));
+    }
+
+    /**
+     * Wait until all the mutations submitted before are applied.
+     *
+     * @throws Exception If the queue is not running or the wait is interrupted
+     */
+    public void await() throws Exception {
+        enqueue(new PendingMutation<>(null)).get();
+    }
+
+    /**
+     * Queue a pending mutation.
+     *
+     * @param pendingMutation Pending mutation
+     * @return Future completed when the batch containing the mutation is applied
+     */
+    private Future<Void> enqueue(PendingMutation<T> pendingMutation) {
+        stateLock.readLock().lock();
+        try {
+            if (!running) {
+                throw new RejectedExecutionException("The indexing queue is stopped");
+            }
+            queue.put(pendingMutation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pendingMutation.future.completeExceptionally(e);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        return pendingMutation.future;
+    }
+
+    /**
+     * Worker loop.
+     */
+    private void run() {
+        List<PendingMutation<T>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMutation<T> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                applyBatch(batch);
+            } catch (InterruptedException e) {
+                // Keep draining until stopped
+            } catch (Throwable e) {
+                log.error("Error applying an indexing batch", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of mutations and complete their futures.
+     *
+     * @param batch Batch of mutations
+     */
+    private synchronized void applyBatch(List<PendingMutation<T>> batch) {
+        // Waiting markers have no mutation, they are only completed in order
+        List<T> mutationList = new ArrayList<>(batch.size());
+        for (PendingMutation<T> pendingMutation : batch) {
+            if (pendingMutation.mutation != null) {
+                mutationList.add(pendingMutation.mutation);
+            }
+        }
+
+        try {
+            try {
+                if (!mutationList.isEmpty()) {
+                    batchHandler.handle(mutationList);
+                }
+            } finally {
+                // Counted before completing the futures, the waiting callers see the batch in the statistics
+                if (!mutationList.isEmpty()) {
+                    batchCount.incrementAndGet();
+                    mutationCount.addAndGet(mutationList.size());
+                    lastBatchSize = mutationList.size();
+                    largestBatchSize = Math.max(largestBatchSize, mutationList.size());
+                }
+            }
+            for (PendingMutation<T> pendingMutation : batch) {
+                pendingMutation.future.complete(null);
+            }
+        } catch (Throwable e) {
+            for (PendingMutation<T> pendingMutation : batch) {
+                pendingMutation.future.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of mutations waiting to be applied.
+     *
+     * @return Queue depth
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of batches applied.
+     *
+     * @return Batch count
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Returns the number of mutations applied.
+     *
+     * @return Mutation count
+     */
+    public long getMutationCount() {
+        return mutationCount.get();
+    }
+
+    /**
+     * Returns the size of the last batch applied.
+     *
+     * @return Last batch size
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * Returns the size of the largest batch applied.
+     *
+     * @return Largest batch size
+     */
+    public int getLargestBatchSize() {
+        return largestBatchSize;
+    }
+
+    /**
+     * Returns the average batch size.
+     *
+     * @return Average batch size
+     */
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : (double) mutationCount.get() / batches;
+    }
+
+    /**
+     * Mutation waiting in the queue.
+     *
+     * @param <T> Type of mutation
+     */
+    private static class PendingMutation<T> {
+        private final T mutation;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingMutation(T mutation) {
+            this.mutation = mutation;
+        }
+    }
+
+    /**
+     * Handler applying a batch of mutations.
+     *
+     * @param <T> Type of mutation
+     */
+    public interface BatchHandler<T> {
+        /**
+         * Apply a batch of mutations.
+         *
+         * @param mutationList Mutations, in submission order
+         */
+        void handle(List<T> mutationList);
+    }
+}
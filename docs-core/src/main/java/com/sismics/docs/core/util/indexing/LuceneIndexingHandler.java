@@ -3,10 +3,15 @@ package com.sismics.docs.core.util.indexing;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.TagDao;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
@@ -16,57 +21,103 @@ import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.SecurityUtil;
+import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
+import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.ClasspathScanner;
+import com.sismics.util.EnvironmentUtil;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.CheckIndex;
 import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.simple.SimpleQueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
-import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
-import org.apache.lucene.search.spell.LuceneDictionary;
-import org.apache.lucene.search.suggest.Lookup;
-import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.NIOFSDirectory;
-import org.apache.lucene.store.NoLockFactory;
+import org.apache.lucene.store.NativeFSLockFactory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Timestamp;
+import java.text.BreakIterator;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 /**
  * Lucene indexing handler.
- * Documents and files are indexed in Lucene, but only used for fulltext search.
- * Other search criteria are still using the database.
+ * Documents and files are indexed in Lucene with their tags, permissions and dates,
+ * so that fulltext searches are filtered, sorted and paginated in the index.
+ * Writes are queued and applied in batches by a single thread,
+ * searches run on near-real-time readers refreshed in background,
+ * and the index is committed periodically (see {@link Constants#LUCENE_COMMIT_INTERVAL_ENV}).
  *
  * @author bgamard
  */
@@ -78,19 +129,234 @@ public class LuceneIndexingHandler implements IndexingHandler {
     private static final Logger log = LoggerFactory.getLogger(LuceneIndexingHandler.class);
 
     /**
-     * Lucene directory.
+     * Maximum number of index mutations waiting to be applied.
+     */
+    private static final int QUEUE_CAPACITY = 10000;
+
+    /**
+     * Maximum number of index mutations applied between two commits.
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Key of the index version in the commit user data.
+     */
+    private static final String INDEX_VERSION_KEY = "docs.index.version";
+
+    /**
+     * Current index version, to be incremented when indexed fields change.
+     */
+    private static final String INDEX_VERSION = "3";
+
+    /**
+     * Key of the clean shutdown flag in the commit user data.
+     * It is only true in the commit written when closing the index.
+     */
+    static final String CLEAN_SHUTDOWN_KEY = "docs.clean.shutdown";
+
+    /**
+     * Key of the rebuild phase in the commit user data of an index being rebuilt.
+     */
+    static final String REBUILD_PHASE_KEY = "docs.rebuild.phase";
+
+    /**
+     * Key of the last indexed ID in the commit user data of an index being rebuilt.
+     */
+    static final String REBUILD_LAST_ID_KEY = "docs.rebuild.last_id";
+
+    /**
+     * Rebuild phase indexing documents.
+     */
+    private static final String REBUILD_PHASE_DOCUMENTS = "documents";
+
+    /**
+     * Rebuild phase indexing files.
+     */
+    private static final String REBUILD_PHASE_FILES = "files";
+
+    /**
+     * Rebuild phase once everything is indexed, before the new index replaces the current one.
      */
-    private Directory directory;
+    private static final String REBUILD_PHASE_DONE = "done";
 
     /**
-     * Directory reader.
+     * Number of documents or files read per page while rebuilding.
      */
-    private DirectoryReader directoryReader;
+    private static final int REBUILD_PAGE_SIZE = 100;
+
+    /**
+     * Number of pages indexed between two rebuild checkpoints.
+     */
+    private static final int REBUILD_CHECKPOINT_PAGES = 20;
+
+    /**
+     * Stored fields loaded for search results.
+     */
+    private static final Set<String> ID_FIELD_SET = Collections.singleton("id");
+
+    /**
+     * Stored fields loaded to find the document of a search result.
+     */
+    private static final Set<String> RESULT_FIELD_SET = Set.of("id", "doctype", "document_id");
+
+    /**
+     * Number of suggestions looked up for each suggestion returned, some come from titles the user can't read.
+     */
+    private static final int SUGGEST_CANDIDATE_FACTOR = 5;
+
+    /**
+     * Maximum number of characters of a file content considered for highlighting.
+     */
+    private static final int HIGHLIGHT_MAX_LENGTH = 100000;
+
+    /**
+     * Target length of a highlight.
+     */
+    private static final int HIGHLIGHT_LENGTH = 100;
+
+    /**
+     * Field type of the file content, with offsets in the postings for highlighting.
+     */
+    private static final FieldType CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+
+    static {
+        CONTENT_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENT_FIELD_TYPE.freeze();
+    }
+
+    /**
+     * Lucene storage (RAM, FILE or MMAP), the best file storage for the platform if not configured.
+     */
+    private String luceneStorage;
+
+    /**
+     * Lucene directory.
+     */
+    private volatile Directory directory;
 
     /**
      * Index writer.
      */
-    private IndexWriter indexWriter;
+    private volatile IndexWriter indexWriter;
+
+    /**
+     * Near-real-time searcher manager, shared by all searching threads.
+     */
+    private volatile SearcherManager searcherManager;
+
+    /**
+     * Lock protecting the current index: held for reading while searching and writing,
+     * and for writing while replacing the index by a rebuilt one.
+     */
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /**
+     * Directory of the index being rebuilt.
+     */
+    private Directory rebuildDirectory;
+
+    /**
+     * Writer of the index being rebuilt, all mutations are also applied to it.
+     */
+    private volatile IndexWriter rebuildWriter;
+
+    /**
+     * Sequence of the mutations applied to the index being rebuilt.
+     */
+    private final AtomicLong rebuildSequence = new AtomicLong();
+
+    /**
+     * Sequence of the last mutation applied to the index being rebuilt, by document or file ID.
+     * A page read from the database before this mutation is stale for this ID.
+     */
+    private final Map<String, Long> rebuildMutationMap = new ConcurrentHashMap<>();
+
+    /**
+     * Lock ordering the mutations and the pages written to the index being rebuilt.
+     */
+    private final Object rebuildWriteLock = new Object();
+
+    /**
+     * True while a rebuild is running.
+     */
+    private final AtomicBoolean rebuildRunning = new AtomicBoolean();
+
+    /**
+     * True if the running rebuild must stop.
+     */
+    private volatile boolean rebuildStopped;
+
+    /**
+     * Progress of the last rebuild.
+     */
+    private final IndexRebuildProgress rebuildProgress = new IndexRebuildProgress();
+
+    /**
+     * Background thread refreshing the searcher manager.
+     */
+    private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+
+    /**
+     * Executor committing the index periodically.
+     */
+    private ScheduledExecutorService commitExecutor;
+
+    /**
+     * Executor rebuilding the title suggester in background.
+     */
+    private ScheduledExecutorService suggestExecutor;
+
+    /**
+     * Suggester on document titles.
+     */
+    private TitleSuggester titleSuggester;
+
+    /**
+     * Interval in seconds between two commits, 0 to commit after each batch.
+     */
+    private int commitInterval;
+
+    /**
+     * Queue of index mutations, applied in batches.
+     */
+    private IndexingQueue<LuceneMutation> indexingQueue;
+
+    /**
+     * True if the current index is from an older version and must be rebuilt.
+     * Searches don't rely on the fields added since.
+     */
+    private volatile boolean indexOutdated;
+
+    /**
+     * True if the current index was not closed properly and misses its last updates, until it is rebuilt.
+     */
+    private volatile boolean indexStale;
+
+    /**
+     * Time budget in milliseconds for highlighting the results of a search.
+     */
+    private int highlightBudget;
+
+    /**
+     * Interval in seconds between two checks for rebuilding the title suggester.
+     */
+    private final int suggestInterval;
+
+    /**
+     * Create a Lucene indexing handler, with the title suggester checked at the configured interval.
+     */
+    public LuceneIndexingHandler() {
+        this(EnvironmentUtil.getEnvIntegerValue(Constants.LUCENE_SUGGEST_INTERVAL_ENV, Constants.DEFAULT_LUCENE_SUGGEST_INTERVAL));
+    }
+
+    /**
+     * Create a Lucene indexing handler.
+     *
+     * @param suggestInterval Interval in seconds between two checks for rebuilding the title suggester
+     */
+    LuceneIndexingHandler(int suggestInterval) {
+        this.suggestInterval = suggestInterval;
+    }
 
     @Override
     public boolean accept() {
@@ -100,68 +366,293 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void startUp() throws Exception {
+        indexingQueue = new IndexingQueue<>(QUEUE_CAPACITY, MAX_BATCH_SIZE, this::applyBatch);
+        indexingQueue.start("lucene-indexing");
+
         try {
             initLucene();
+        } catch (LockObtainFailedException e) {
+            // The index is used by another process, don't touch it
+            throw e;
         } catch (Exception e) {
             // An error occurred initializing Lucene, the index is out of date or broken, delete everything
             log.info("Unable to initialize Lucene, cleaning up the index: " + e.getMessage());
-            Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
-            Files.walk(luceneDirectory)
-                    .sorted(Comparator.reverseOrder())
-                    .map(Path::toFile)
-                    .forEach(java.io.File::delete);
+            closeRebuild();
+            if (indexWriter != null) {
+                // Release the index lock without committing
+                IOUtils.closeWhileHandlingException(indexWriter::rollback, directory);
+                indexWriter = null;
+            }
+            deleteDirectory(DirectoryUtil.getLuceneDirectory());
 
             // Re-initialize and schedule a full reindex
             initLucene();
             RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
             AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
+            return;
+        }
+
+        if (indexStale) {
+            // The updates since the last commit and the queued ones are lost, and can't be told apart
+            log.info("Lucene index was not closed properly, its last updates may be missing, scheduling a full reindex");
+        }
+        if (indexOutdated || indexStale || rebuildWriter != null) {
+            log.info("Lucene index is outdated, stale or being rebuilt, scheduling a full reindex");
+            RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
+            AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
         }
     }
 
     private void initLucene() throws Exception {
         ConfigDao configDao = new ConfigDao();
         Config luceneStorageConfig = configDao.getById(ConfigType.LUCENE_DIRECTORY_STORAGE);
-        String luceneStorage = luceneStorageConfig == null ? null : luceneStorageConfig.getValue();
+        luceneStorage = luceneStorageConfig == null ? null : luceneStorageConfig.getValue();
 
-        // RAM directory storage by default
-        if (luceneStorage == null || luceneStorage.equals("RAM")) {
-            directory = new RAMDirectory();
+        // File storage by default
+        if (isFileStorage()) {
+            // Finish replacing the index if the server stopped in the middle of it
+            recoverRebuildSwap();
+            log.info("Using {} Lucene storage: {}", luceneStorage == null ? "default file" : luceneStorage, DirectoryUtil.getLuceneDirectory());
+        } else {
             log.info("Using RAM Lucene storage");
-        } else if (luceneStorage.equals("FILE")) {
-            Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
-            log.info("Using file Lucene storage: {}", luceneDirectory);
-            directory = new NIOFSDirectory(luceneDirectory, NoLockFactory.INSTANCE);
+        }
+        directory = openDirectory(DirectoryUtil.getLuceneDirectory());
+
+        // Check the index health if it was not closed properly, before the writer locks it
+        Map<String, String> commitData = null;
+        indexStale = false;
+        if (DirectoryReader.indexExists(directory)) {
+            commitData = SegmentInfos.readLatestCommit(directory).getUserData();
+            indexStale = checkShutdown(directory);
         }
 
         // Create an index writer
+        indexWriter = new IndexWriter(directory, newWriterConfig());
+
+        // Check index version and rebuild it if necessary
+        if (commitData != null) {
+            indexOutdated = !INDEX_VERSION.equals(commitData.get(INDEX_VERSION_KEY));
+            commitData = new HashMap<>(commitData);
+        } else {
+            commitData = newCommitData();
+        }
+
+        // Until the next clean shutdown, the index must be checked on startup
+        commitData.put(CLEAN_SHUTDOWN_KEY, Boolean.FALSE.toString());
+        indexWriter.setLiveCommitData(commitData.entrySet());
+        indexWriter.commit();
+
+        // Resume an interrupted rebuild
+        if (isFileStorage()) {
+            Path rebuildPath = DirectoryUtil.getLuceneRebuildDirectory();
+            if (checkRebuild(rebuildPath, indexStale)) {
+                rebuildDirectory = openDirectory(rebuildPath);
+                rebuildWriter = new IndexWriter(rebuildDirectory, newWriterConfig());
+                log.info("Resuming the index rebuild from checkpoint: {}", getCommitData(rebuildWriter));
+            }
+        }
+
+        // Searchers are opened from the writer and refreshed in background
+        openSearcher();
+
+        // Commit periodically instead of after each write
+        commitInterval = EnvironmentUtil.getEnvIntegerValue(Constants.LUCENE_COMMIT_INTERVAL_ENV, Constants.DEFAULT_LUCENE_COMMIT_INTERVAL);
+        if (commitInterval > 0) {
+            log.info("Committing Lucene index every {}s", commitInterval);
+            commitExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("lucene-commit")
+                    .setDaemon(true)
+                    .build());
+            commitExecutor.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.SECONDS);
+        }
+
+        highlightBudget = EnvironmentUtil.getEnvIntegerValue(Constants.SEARCH_HIGHLIGHT_BUDGET_ENV, Constants.DEFAULT_SEARCH_HIGHLIGHT_BUDGET);
+
+        // Build the title suggester in background, and rebuild it when the index has changed
+        titleSuggester = new TitleSuggester(directory);
+        suggestExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("lucene-suggest")
+                .setDaemon(true)
+                .build());
+        suggestExecutor.scheduleWithFixedDelay(this::refreshSuggester, 0, Math.max(suggestInterval, 1), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Check an interrupted rebuild on startup.
+     * After a dirty shutdown, the index being rebuilt misses the updates applied since its last commit too,
+     * and the mutations applied since the pages were read are forgotten: it is deleted to start the rebuild over.
+     *
+     * @param rebuildPath Path of the index being rebuilt
+     * @param indexStale True if the server was not stopped properly
+     * @return True if the rebuild can be resumed from its last checkpoint
+     * @throws IOException e
+     */
+    static boolean checkRebuild(Path rebuildPath, boolean indexStale) throws IOException {
+        if (!Files.exists(rebuildPath)) {
+            return false;
+        }
+        if (indexStale) {
+            log.info("The index rebuild was interrupted by a dirty shutdown, starting it over");
+            deleteDirectory(rebuildPath);
+            return false;
+        }
+        try (Directory directory = FSDirectory.open(rebuildPath)) {
+            return DirectoryReader.indexExists(directory);
+        }
+    }
+
+    /**
+     * Check an existing index on startup.
+     * An index closed properly is up to date. Otherwise its health is checked, and even a healthy
+     * index misses the updates applied since its last commit and the updates still queued.
+     *
+     * @param directory Index directory
+     * @return True if the index was not closed properly, and must be rebuilt to catch up
+     * @throws Exception If the index is corrupt
+     */
+    static boolean checkShutdown(Directory directory) throws Exception {
+        Map<String, String> commitData = SegmentInfos.readLatestCommit(directory).getUserData();
+        if (Boolean.parseBoolean(commitData.get(CLEAN_SHUTDOWN_KEY))) {
+            log.info("Index was closed properly, skipping the health check");
+            return false;
+        }
+
+        log.info("Index was not closed properly, checking its health");
+        try (CheckIndex checkIndex = new CheckIndex(directory)) {
+            CheckIndex.Status status = checkIndex.checkIndex();
+            if (!status.clean) {
+                throw new Exception("Index is dirty");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the index is stored on disk.
+     *
+     * @return True for file storage
+     */
+    private boolean isFileStorage() {
+        return !"RAM".equals(luceneStorage);
+    }
+
+    /**
+     * Open a Lucene directory according to the configured storage.
+     *
+     * File storages are locked, to fail fast if another process uses the same index.
+     *
+     * @param path Path of the index, unused for RAM storage
+     * @return Directory
+     * @throws IOException e
+     */
+    private Directory openDirectory(Path path) throws IOException {
+        if (!isFileStorage()) {
+            return new RAMDirectory();
+        }
+        if ("FILE".equals(luceneStorage)) {
+            return new NIOFSDirectory(path, NativeFSLockFactory.INSTANCE);
+        }
+        if ("MMAP".equals(luceneStorage)) {
+            // The index is paged by the OS cache instead of living in the heap
+            return new MMapDirectory(path, NativeFSLockFactory.INSTANCE);
+        }
+        return FSDirectory.open(path, NativeFSLockFactory.INSTANCE);
+    }
+
+    /**
+     * Create the commit user data of a new index at the current version.
+     *
+     * @return Commit user data
+     */
+    private static Map<String, String> newCommitData() {
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put(INDEX_VERSION_KEY, INDEX_VERSION);
+        commitData.put(CLEAN_SHUTDOWN_KEY, Boolean.FALSE.toString());
+        return commitData;
+    }
+
+    /**
+     * Create a new index writer configuration.
+     *
+     * @return Index writer configuration
+     */
+    private IndexWriterConfig newWriterConfig() {
         IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
         config.setCommitOnClose(true);
         config.setMergeScheduler(new ConcurrentMergeScheduler());
-        indexWriter = new IndexWriter(directory, config);
+        return config;
+    }
 
-        // Check index version and rebuild it if necessary
-        if (DirectoryReader.indexExists(directory)) {
-            log.info("Checking index health and version");
-            try (CheckIndex checkIndex = new CheckIndex(directory)) {
-                CheckIndex.Status status = checkIndex.checkIndex();
-                if (!status.clean) {
-                    throw new Exception("Index is dirty");
-                }
+    /**
+     * Open the searcher manager on the current writer, and start refreshing it in background.
+     *
+     * @throws IOException e
+     */
+    private void openSearcher() throws IOException {
+        searcherManager = new SearcherManager(indexWriter, null);
+        reopenThread = new ControlledRealTimeReopenThread<>(indexWriter, searcherManager, 1.0, 0.1);
+        reopenThread.setName("lucene-nrt-reopen");
+        reopenThread.setDaemon(true);
+        reopenThread.start();
+    }
+
+    /**
+     * Returns the commit user data of a writer.
+     *
+     * @param writer Index writer
+     * @return Commit user data
+     */
+    private static Map<String, String> getCommitData(IndexWriter writer) {
+        Map<String, String> commitData = new HashMap<>();
+        Iterable<Map.Entry<String, String>> liveCommitData = writer.getLiveCommitData();
+        if (liveCommitData != null) {
+            for (Map.Entry<String, String> entry : liveCommitData) {
+                commitData.put(entry.getKey(), entry.getValue());
             }
         }
+        return commitData;
     }
 
     @Override
     public void shutDown() {
-        if (directoryReader != null) {
+        // Stop the running rebuild, it will resume from its last checkpoint on next startup
+        rebuildStopped = true;
+        if (indexingQueue != null) {
+            indexingQueue.stop();
+        }
+        if (commitExecutor != null) {
+            commitExecutor.shutdown();
+            try {
+                commitExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+        if (suggestExecutor != null) {
+            suggestExecutor.shutdownNow();
             try {
-                directoryReader.close();
+                suggestExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+        if (reopenThread != null) {
+            reopenThread.close();
+        }
+        if (searcherManager != null) {
+            try {
+                searcherManager.close();
             } catch (IOException e) {
-                log.error("Error closing the index reader", e);
+                log.error("Error closing the searcher manager", e);
             }
         }
+        closeRebuild();
         if (indexWriter != null) {
             try {
+                // The last commit marks the index as closed properly, to skip the health check on next startup
+                Map<String, String> commitData = getCommitData(indexWriter);
+                commitData.put(CLEAN_SHUTDOWN_KEY, Boolean.TRUE.toString());
+                indexWriter.setLiveCommitData(commitData.entrySet());
                 indexWriter.close();
             } catch (IOException e) {
                 log.error("Error closing the index writer, index may be corrupt", e);
@@ -178,114 +669,137 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void clearIndex() {
-        handle(IndexWriter::deleteAll);
+        handle(Collections.emptyList(), indexWriter -> {
+            indexWriter.deleteAll();
+
+            // The index is rebuilt from scratch, it is now at the current version
+            indexWriter.setLiveCommitData(newCommitData().entrySet());
+        });
     }
 
     @Override
     public void createDocuments(List<Document> documentList) {
-        handle(indexWriter -> {
-            for (Document document : documentList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-                indexWriter.addDocument(luceneDocument);
+        List<org.apache.lucene.document.Document> luceneDocumentList = getDocumentsFromDocuments(documentList);
+        handle(getIds(luceneDocumentList), indexWriter -> {
+            for (org.apache.lucene.document.Document luceneDocument : luceneDocumentList) {
+                indexWriter.updateDocument(new Term("id", luceneDocument.get("id")), luceneDocument);
             }
         });
     }
 
     @Override
     public void createFiles(List<File> fileList) {
-        handle(indexWriter -> {
-            for (File file : fileList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-                indexWriter.addDocument(luceneDocument);
+        List<org.apache.lucene.document.Document> luceneDocumentList = new ArrayList<>();
+        for (File file : fileList) {
+            luceneDocumentList.add(getDocumentFromFile(file));
+        }
+        handle(getIds(luceneDocumentList), indexWriter -> {
+            for (org.apache.lucene.document.Document luceneDocument : luceneDocumentList) {
+                indexWriter.updateDocument(new Term("id", luceneDocument.get("id")), luceneDocument);
             }
         });
     }
 
     @Override
     public void createDocument(final Document document) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.addDocument(luceneDocument);
-        });
+        org.apache.lucene.document.Document luceneDocument = getDocumentsFromDocuments(Collections.singletonList(document)).get(0);
+        handle(Collections.singletonList(document.getId()), indexWriter -> indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument));
     }
 
     @Override
     public void createFile(final File file) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-            indexWriter.addDocument(luceneDocument);
-        });
+        org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
+        handle(Collections.singletonList(file.getId()), indexWriter -> indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument));
     }
 
     @Override
     public void updateFile(final File file) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-            indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
-        });
+        org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
+        handle(Collections.singletonList(file.getId()), indexWriter -> indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument));
     }
 
     @Override
     public void updateDocument(final Document document) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
-        });
+        updateDocuments(Collections.singletonList(document));
     }
 
     @Override
     public void deleteDocument(final String id) {
-        handle(indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
+        handle(Collections.singletonList(id), indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
     }
 
     @Override
     public void createAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateAclSource(sourceId);
+        }
     }
 
     @Override
     public void deleteAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateAclSource(sourceId);
+        }
+    }
+
+    /**
+     * Update the indexed permissions of the documents affected by an ACL change.
+     *
+     * @param sourceId ACL source ID (document or tag)
+     */
+    private void updateAclSource(String sourceId) {
+        DocumentDao documentDao = new DocumentDao();
+        List<String> documentIdList;
+        if (documentDao.getById(sourceId) != null) {
+            documentIdList = Collections.singletonList(sourceId);
+        } else {
+            // The ACL is on a tag, inherited by all tagged documents
+            documentIdList = new TagDao().getDocumentIdsByTagId(sourceId);
+        }
+
+        for (List<String> documentIdPartition : Lists.partition(documentIdList, 100)) {
+            updateDocuments(documentDao.getByIds(documentIdPartition));
+        }
+    }
+
+    @Override
+    public void updateDocuments(List<Document> documentList) {
+        List<org.apache.lucene.document.Document> luceneDocumentList = getDocumentsFromDocuments(documentList);
+        handle(getIds(luceneDocumentList), indexWriter -> {
+            for (org.apache.lucene.document.Document luceneDocument : luceneDocumentList) {
+                indexWriter.updateDocument(new Term("id", luceneDocument.get("id")), luceneDocument);
+            }
+        });
     }
 
     @Override
     public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+        boolean fullTextSearch = !Strings.isNullOrEmpty(criteria.getSimpleSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch());
+        Sort indexSort = getIndexSort(sortCriteria);
+        if (fullTextSearch && indexSort != null && isIndexFilterable(criteria) && !indexOutdated) {
+            // Filter, sort and paginate in the index, only the current page is read from the database
+            findByIndex(paginatedList, criteria, indexSort);
+            suggestSearchTerms(criteria.getFullSearch(), criteria.getTargetIdList(), suggestionList);
+            return;
+        }
+
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
-        Map<String, String> documentSearchMap = Maps.newHashMap();
 
-        StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
-        sb.append(" s.count c5, ");
-        sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
-        sb.append(" from T_DOCUMENT d ");
-        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
-                "   FROM T_SHARE s, T_ACL ac " +
-                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
-                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C ");
-        sb.append(" left join (select rs.*, rs3.idDocument " +
-                "from T_ROUTE_STEP rs " +
-                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
-                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
+        StringBuilder sb = new StringBuilder();
+        appendBaseQuery(sb, criteriaList, parameterMap, criteria);
 
         // Add search criterias
-        if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
-            // Read permission is enough for searching
-            sb.append(" left join T_ACL a on a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = d.DOC_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null ");
-            sb.append(" left join T_DOCUMENT_TAG dta on dta.DOT_IDDOCUMENT_C = d.DOC_ID_C and dta.DOT_DELETEDATE_D is null ");
-            sb.append(" left join T_ACL a2 on a2.ACL_TARGETID_C in (:targetIdList) and a2.ACL_SOURCEID_C = dta.DOT_IDTAG_C and a2.ACL_PERM_C = 'READ' and a2.ACL_DELETEDATE_D is null ");
-            criteriaList.add("(a.ACL_ID_C is not null or a2.ACL_ID_C is not null)");
-        }
-        parameterMap.put("targetIdList", criteria.getTargetIdList());
-        if (!Strings.isNullOrEmpty(criteria.getSimpleSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
-            documentSearchMap = search(criteria.getSimpleSearch(), criteria.getFullSearch());
-            if (documentSearchMap.isEmpty()) {
+        if (fullTextSearch) {
+            Set<String> documentIdSet = search(criteria.getSimpleSearch(), criteria.getFullSearch());
+            if (documentIdSet.isEmpty()) {
                 // If the search doesn't find any document, the request should return nothing
-                documentSearchMap.put(UUID.randomUUID().toString(), null);
+                documentIdSet.add(UUID.randomUUID().toString());
             }
             criteriaList.add("d.DOC_ID_C in :documentIdList");
-            parameterMap.put("documentIdList", documentSearchMap.keySet());
+            parameterMap.put("documentIdList", documentIdSet);
 
-            suggestSearchTerms(criteria.getFullSearch(), suggestionList);
+            suggestSearchTerms(criteria.getFullSearch(), criteria.getTargetIdList(), suggestionList);
         }
         if (criteria.getCreateDateMin() != null) {
             criteriaList.add("d.DOC_CREATEDATE_D >= :createDateMin");
@@ -362,9 +876,59 @@ public class LuceneIndexingHandler implements IndexingHandler {
         QueryParam queryParam = new QueryParam(sb.toString(), parameterMap);
         List<Object[]> l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
 
+        // Highlight the current page only
+        Map<String, String> highlightMap = Collections.emptyMap();
+        if (fullTextSearch && !l.isEmpty()) {
+            List<String> documentIdList = new ArrayList<>();
+            for (Object[] o : l) {
+                documentIdList.add((String) o[0]);
+            }
+            highlightMap = highlightPage(criteria, documentIdList);
+        }
+
         // Assemble results
+        paginatedList.setResultList(assembleResults(l, highlightMap));
+    }
+
+    /**
+     * Append the selected columns, the joins needed by them and the permission check to a document query.
+     *
+     * @param sb Query (updated by side effects)
+     * @param criteriaList Criteria list (updated by side effects)
+     * @param parameterMap Parameters (updated by side effects)
+     * @param criteria Search criteria
+     */
+    private void appendBaseQuery(StringBuilder sb, List<String> criteriaList, Map<String, Object> parameterMap, DocumentCriteria criteria) {
+        sb.append("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
+        sb.append(" s.count c5, ");
+        sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
+        sb.append(" from T_DOCUMENT d ");
+        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
+                "   FROM T_SHARE s, T_ACL ac " +
+                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
+                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C ");
+        sb.append(" left join (select rs.*, rs3.idDocument " +
+                "from T_ROUTE_STEP rs " +
+                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
+                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
+
+        if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
+            // Read permission is enough for searching, directly or inherited from the tags
+            criteriaList.add("exists (select e.EAC_IDSOURCE_C from T_EFFECTIVE_ACL e where e.EAC_IDSOURCE_C = d.DOC_ID_C and e.EAC_PERM_C = 'READ' and e.EAC_IDTARGET_C in (:targetIdList))");
+        }
+        parameterMap.put("targetIdList", criteria.getTargetIdList());
+    }
+
+    /**
+     * Assemble document DTOs from the result of a document query.
+     *
+     * @param resultList Query results
+     * @param highlightMap Highlights by document ID
+     * @return Document DTOs
+     */
+    private List<DocumentDto> assembleResults(List<Object[]> resultList, Map<String, String> highlightMap) {
         List<DocumentDto> documentDtoList = new ArrayList<>();
-        for (Object[] o : l) {
+        for (Object[] o : resultList) {
             int i = 0;
             DocumentDto documentDto = new DocumentDto();
             documentDto.setId((String) o[i++]);
@@ -378,54 +942,430 @@ public class LuceneIndexingHandler implements IndexingHandler {
             documentDto.setActiveRoute(o[i++] != null);
             documentDto.setCurrentStepName((String) o[i++]);
             documentDto.setUpdateTimestamp(((Timestamp) o[i]).getTime());
-            documentDto.setHighlight(documentSearchMap.get(documentDto.getId()));
+            documentDto.setHighlight(highlightMap.get(documentDto.getId()));
             documentDtoList.add(documentDto);
         }
+        return documentDtoList;
+    }
+
+    /**
+     * Returns true if all search criteria can be applied on the index.
+     * Shares and routes are not indexed.
+     *
+     * @param criteria Search criteria
+     * @return True if the search can be done in the index
+     */
+    private boolean isIndexFilterable(DocumentCriteria criteria) {
+        return (criteria.getShared() == null || !criteria.getShared())
+                && (criteria.getActiveRoute() == null || !criteria.getActiveRoute());
+    }
+
+    /**
+     * Returns the index sort matching a sort criteria.
+     *
+     * @param sortCriteria Sort criteria
+     * @return Index sort, or null if this column is not sortable in the index
+     */
+    private Sort getIndexSort(SortCriteria sortCriteria) {
+        if (sortCriteria == null) {
+            return Sort.RELEVANCE;
+        }
+
+        boolean reverse = !sortCriteria.isAsc();
+        SortField sortField;
+        switch (sortCriteria.getColumn()) {
+            case 0:
+                return new Sort(new SortField("id", SortField.Type.STRING, reverse));
+            case 1:
+                sortField = new SortField("title_sort", SortField.Type.STRING, reverse);
+                break;
+            case 3:
+                sortField = new SortField("create_date", SortField.Type.LONG, reverse);
+                break;
+            case 4:
+                sortField = new SortField("language", SortField.Type.STRING, reverse);
+                break;
+            case 8:
+                sortField = new SortField("update_date", SortField.Type.LONG, reverse);
+                break;
+            default:
+                return null;
+        }
 
+        // Sort by ID on ties to keep pages stable
+        return new Sort(sortField, new SortField("id", SortField.Type.STRING));
+    }
+
+    /**
+     * Search documents in the index with all criteria applied,
+     * and read only the current page from the database.
+     * The result count is the index hit count, less the hits of the current page rejected by the database:
+     * hits on the other pages are not checked again, so the count may be approximate while the index lags behind.
+     *
+     * @param paginatedList List of documents (updated by side effects)
+     * @param criteria Search criteria
+     * @param sort Index sort
+     * @throws Exception e
+     */
+    private void findByIndex(PaginatedList<DocumentDto> paginatedList, DocumentCriteria criteria, Sort sort) throws Exception {
+        Analyzer analyzer = new StandardAnalyzer();
+        String searchQuery = criteria.getSimpleSearch() + " " + criteria.getFullSearch();
+        Query documentQuery = buildDocumentQuery(analyzer, searchQuery);
+        Query fileQuery = buildFileQuery(analyzer, searchQuery, criteria.getFullSearch());
+
+        List<String> documentIdList = new ArrayList<>();
+        Map<String, String> highlightMap = new HashMap<>();
+        int resultCount = withSearcher(searcher -> {
+            // Documents can match by their own fields or by one of their files
+            BooleanQuery.Builder matchQuery = new BooleanQuery.Builder()
+                    .add(documentQuery, BooleanClause.Occur.SHOULD);
+            Set<BytesRef> fileDocumentIdSet = collectFileDocumentIds(searcher, fileQuery);
+            if (!fileDocumentIdSet.isEmpty()) {
+                matchQuery.add(new TermInSetQuery("id", fileDocumentIdSet), BooleanClause.Occur.SHOULD);
+            }
+            BooleanQuery.Builder query = new BooleanQuery.Builder()
+                    .add(matchQuery.build(), BooleanClause.Occur.MUST)
+                    .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER);
+            addIndexFilters(query, criteria);
+
+            // Collect the current page only, but count all hits
+            int offset = paginatedList.getOffset();
+            int limit = paginatedList.getLimit();
+            TopFieldCollector collector = TopFieldCollector.create(sort, offset + limit, Integer.MAX_VALUE);
+            searcher.search(query.build(), collector);
+            for (ScoreDoc scoreDoc : collector.topDocs(offset, limit).scoreDocs) {
+                documentIdList.add(searcher.doc(scoreDoc.doc, ID_FIELD_SET).get("id"));
+            }
+
+            highlightMap.putAll(highlightFiles(searcher, fileQuery, analyzer, documentIdList));
+            return collector.getTotalHits();
+        });
+
+        // Read the current page from the database, permissions are checked again
+        Map<String, DocumentDto> documentDtoMap = new HashMap<>();
+        if (!documentIdList.isEmpty()) {
+            Map<String, Object> parameterMap = new HashMap<>();
+            List<String> criteriaList = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            appendBaseQuery(sb, criteriaList, parameterMap, criteria);
+            criteriaList.add("d.DOC_ID_C in :documentIdList");
+            parameterMap.put("documentIdList", documentIdList);
+            criteriaList.add("d.DOC_DELETEDATE_D is null");
+            sb.append(" where ");
+            sb.append(Joiner.on(" and ").join(criteriaList));
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> l = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), parameterMap)).getResultList();
+            for (DocumentDto documentDto : assembleResults(l, highlightMap)) {
+                documentDtoMap.put(documentDto.getId(), documentDto);
+            }
+        }
+
+        // Keep the index order
+        List<DocumentDto> documentDtoList = new ArrayList<>();
+        for (String documentId : documentIdList) {
+            DocumentDto documentDto = documentDtoMap.get(documentId);
+            if (documentDto != null) {
+                documentDtoList.add(documentDto);
+            }
+        }
+
+        paginatedList.setResultCount(resultCount - documentIdList.size() + documentDtoList.size());
         paginatedList.setResultList(documentDtoList);
     }
 
+    /**
+     * Add the search criteria as index filters.
+     *
+     * @param query Query (updated by side effects)
+     * @param criteria Search criteria
+     */
+    private void addIndexFilters(BooleanQuery.Builder query, DocumentCriteria criteria) {
+        if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
+            // Read permission is enough for searching
+            query.add(new TermInSetQuery("acl_read", toBytesRefList(criteria.getTargetIdList())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreateDateMin() != null || criteria.getCreateDateMax() != null) {
+            query.add(LongPoint.newRangeQuery("create_date",
+                    criteria.getCreateDateMin() == null ? Long.MIN_VALUE : criteria.getCreateDateMin().getTime(),
+                    criteria.getCreateDateMax() == null ? Long.MAX_VALUE : criteria.getCreateDateMax().getTime()),
+                    BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getUpdateDateMin() != null || criteria.getUpdateDateMax() != null) {
+            query.add(LongPoint.newRangeQuery("update_date",
+                    criteria.getUpdateDateMin() == null ? Long.MIN_VALUE : criteria.getUpdateDateMin().getTime(),
+                    criteria.getUpdateDateMax() == null ? Long.MAX_VALUE : criteria.getUpdateDateMax().getTime()),
+                    BooleanClause.Occur.FILTER);
+        }
+        if (!criteria.getTitleList().isEmpty()) {
+            query.add(new TermInSetQuery("title_exact", toBytesRefList(criteria.getTitleList())), BooleanClause.Occur.FILTER);
+        }
+        for (List<String> tagIdList : criteria.getTagIdList()) {
+            // One of the tags of each group
+            query.add(new TermInSetQuery("tag_id", toBytesRefList(tagIdList)), BooleanClause.Occur.FILTER);
+        }
+        for (List<String> tagIdList : criteria.getExcludedTagIdList()) {
+            for (String tagId : tagIdList) {
+                query.add(new TermQuery(new Term("tag_id", tagId)), BooleanClause.Occur.MUST_NOT);
+            }
+        }
+        if (criteria.getMimeType() != null) {
+            query.add(new TermQuery(new Term("mime_type", criteria.getMimeType())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getLanguage() != null) {
+            query.add(new TermQuery(new Term("language", criteria.getLanguage())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreatorId() != null) {
+            query.add(new TermQuery(new Term("creator_id", criteria.getCreatorId())), BooleanClause.Occur.FILTER);
+        }
+    }
+
+    /**
+     * Collect the IDs of the documents owning the files matching a query.
+     * Only doc values are read, stored fields are not loaded.
+     *
+     * @param searcher Index searcher
+     * @param fileQuery Query on files
+     * @return Document IDs
+     * @throws IOException e
+     */
+    private Set<BytesRef> collectFileDocumentIds(IndexSearcher searcher, Query fileQuery) throws IOException {
+        Set<BytesRef> documentIdSet = new HashSet<>();
+        searcher.search(fileQuery, new SimpleCollector() {
+            private SortedDocValues documentIds;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                documentIds = context.reader().getSortedDocValues("document_id");
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                if (documentIds != null && documentIds.advanceExact(doc)) {
+                    documentIdSet.add(BytesRef.deepCopyOf(documentIds.binaryValue()));
+                }
+            }
+
+            @Override
+            public ScoreMode scoreMode() {
+                return ScoreMode.COMPLETE_NO_SCORES;
+            }
+        });
+        return documentIdSet;
+    }
+
+    /**
+     * Highlight the documents of a page.
+     *
+     * @param criteria Search criteria
+     * @param documentIdList Documents to highlight
+     * @return Highlights by document ID
+     * @throws Exception e
+     */
+    private Map<String, String> highlightPage(DocumentCriteria criteria, List<String> documentIdList) throws Exception {
+        Analyzer analyzer = new StandardAnalyzer();
+        String searchQuery = criteria.getSimpleSearch() + " " + criteria.getFullSearch();
+        Query fileQuery = buildFileQuery(analyzer, searchQuery, criteria.getFullSearch());
+        return withSearcher(searcher -> highlightFiles(searcher, fileQuery, analyzer, documentIdList));
+    }
+
+    /**
+     * Highlight the best matching file of each document.
+     * Offsets are read from the postings, the content is not analyzed again.
+     * Highlighting stops when the time budget is spent, remaining documents are not highlighted.
+     *
+     * @param searcher Index searcher
+     * @param fileQuery Query on files
+     * @param analyzer Analyzer
+     * @param documentIdList Documents to highlight
+     * @return Highlights by document ID
+     * @throws Exception e
+     */
+    private Map<String, String> highlightFiles(IndexSearcher searcher, Query fileQuery, Analyzer analyzer, List<String> documentIdList) throws Exception {
+        Map<String, String> highlightMap = new HashMap<>();
+        if (documentIdList.isEmpty()) {
+            return highlightMap;
+        }
+
+        Query query = new BooleanQuery.Builder()
+                .add(fileQuery, BooleanClause.Occur.MUST)
+                .add(new TermInSetQuery("document_id", toBytesRefList(documentIdList)), BooleanClause.Occur.FILTER)
+                .build();
+        UnifiedHighlighter highlighter = new UnifiedHighlighter(searcher, analyzer);
+        highlighter.setFormatter(new DefaultPassageFormatter("<strong>", "</strong>", "... ", true));
+        highlighter.setBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(BreakIterator.getWordInstance(Locale.ROOT), HIGHLIGHT_LENGTH));
+        highlighter.setMaxLength(HIGHLIGHT_MAX_LENGTH);
+        highlighter.setMaxNoHighlightPassages(0);
+
+        // Best scoring files first, one highlight per document
+        long deadline = System.currentTimeMillis() + highlightBudget;
+        TopDocs topDocs = searcher.search(query, documentIdList.size() * 10);
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            if (highlightBudget > 0 && System.currentTimeMillis() > deadline) {
+                log.debug("Highlight budget spent, {} of {} documents highlighted", highlightMap.size(), documentIdList.size());
+                break;
+            }
+            String documentId = searcher.doc(scoreDoc.doc, RESULT_FIELD_SET).get("document_id");
+            if (documentId == null || highlightMap.containsKey(documentId)) {
+                continue;
+            }
+            String highlight = highlighter.highlightFields(new String[] { "content" }, fileQuery,
+                    new int[] { scoreDoc.doc }, new int[] { 1 }).get("content")[0];
+            if (highlight != null) {
+                highlightMap.put(documentId, highlight);
+            }
+        }
+        return highlightMap;
+    }
+
+    /**
+     * Convert strings to index terms.
+     *
+     * @param valueList Values
+     * @return Terms
+     */
+    private static List<BytesRef> toBytesRefList(Collection<String> valueList) {
+        List<BytesRef> bytesRefList = new ArrayList<>();
+        for (String value : valueList) {
+            bytesRefList.add(new BytesRef(value));
+        }
+        return bytesRefList;
+    }
+
+    @Override
+    public List<String> suggest(String search, List<String> targetIdList, int count) throws Exception {
+        if (Strings.isNullOrEmpty(search)) {
+            return Collections.emptyList();
+        }
+        int lastIndex = search.lastIndexOf(' ');
+        String suggestQuery = search.substring(Math.max(lastIndex, 0));
+        if (SecurityUtil.skipAclCheck(targetIdList)) {
+            return titleSuggester.lookup(suggestQuery, count);
+        }
+
+        // The suggester is shared by all users, keep the terms from the titles readable by the targets
+        List<String> candidateList = titleSuggester.lookup(suggestQuery, count * SUGGEST_CANDIDATE_FACTOR);
+        if (candidateList.isEmpty() || targetIdList.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Query aclQuery = new TermInSetQuery("acl_read", toBytesRefList(targetIdList));
+        return withSearcher(searcher -> {
+            List<String> suggestionList = new ArrayList<>();
+            for (String candidate : candidateList) {
+                Query query = new BooleanQuery.Builder()
+                        .add(new TermQuery(new Term("title", candidate)), BooleanClause.Occur.FILTER)
+                        .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER)
+                        .add(aclQuery, BooleanClause.Occur.FILTER)
+                        .build();
+                if (searcher.count(query) > 0) {
+                    suggestionList.add(candidate);
+                    if (suggestionList.size() == count) {
+                        break;
+                    }
+                }
+            }
+            return suggestionList;
+        });
+    }
+
     /**
      * Suggest search terms according to the user query.
      *
      * @param search User search query
+     * @param targetIdList List of targets reading the suggested titles
      * @param suggestionList Suggestion of search query (updated by side effects)
      * @throws Exception e
      */
-    private void suggestSearchTerms(String search, List<String> suggestionList) throws Exception {
-        DirectoryReader directoryReader = getDirectoryReader();
-        if (directoryReader == null) {
-            return;
+    private void suggestSearchTerms(String search, List<String> targetIdList, List<String> suggestionList) throws Exception {
+        suggestionList.addAll(suggest(search, targetIdList, 10));
+    }
+
+    /**
+     * Rebuild the title suggester if the index has changed since the last build.
+     */
+    private void refreshSuggester() {
+        try {
+            withSearcher(searcher -> {
+                DirectoryReader reader = (DirectoryReader) searcher.getIndexReader();
+                if (titleSuggester.isStale(reader)) {
+                    titleSuggester.build(reader);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Error building the title suggester", e);
         }
+    }
+
+    /**
+     * Fulltext search in files and documents.
+     *
+     * @param simpleSearchQuery Search query on metadatas
+     * @param fullSearchQuery Search query on all fields
+     * @return IDs of the matching documents
+     * @throws Exception e
+     */
+    private Set<String> search(String simpleSearchQuery, String fullSearchQuery) throws Exception {
+        // The fulltext query searches in all fields
+        String searchQuery = simpleSearchQuery + " " + fullSearchQuery;
+
+        // Build search query
+        Analyzer analyzer = new StandardAnalyzer();
+
+        // Search on documents and files
+        BooleanQuery query = new BooleanQuery.Builder()
+                .add(buildDocumentQuery(analyzer, searchQuery), BooleanClause.Occur.SHOULD)
+                .add(buildFileQuery(analyzer, searchQuery, fullSearchQuery), BooleanClause.Occur.SHOULD)
+                .build();
+
+        // Search
+        Set<String> documentIdSet = new HashSet<>();
+        withSearcher(searcher -> {
+            collectDocumentIds(searcher, query, documentIdSet);
+            return null;
+        });
+
+        return documentIdSet;
+    }
+
+    /**
+     * Run a query and collect the matching document IDs.
+     *
+     * @param searcher Index searcher
+     * @param query Query
+     * @param documentIdSet Document IDs (updated by side effects)
+     * @throws Exception e
+     */
+    private void collectDocumentIds(IndexSearcher searcher, Query query, Set<String> documentIdSet) throws Exception {
+        TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
+        ScoreDoc[] docs = topDocs.scoreDocs;
+
+        // Extract document IDs, without loading the file contents
+        for (ScoreDoc doc : docs) {
+            org.apache.lucene.document.Document document = searcher.doc(doc.doc, RESULT_FIELD_SET);
+            String type = document.get("doctype");
+            String documentId = null;
+            if (type.equals("document")) {
+                documentId = document.get("id");
+            } else if (type.equals("file")) {
+                documentId = document.get("document_id");
+            }
 
-        FuzzySuggester suggester = new FuzzySuggester(directory, "", new StandardAnalyzer());
-        LuceneDictionary dictionary = new LuceneDictionary(directoryReader, "title");
-        suggester.build(dictionary);
-        int lastIndex = search.lastIndexOf(' ');
-        String suggestQuery = search.substring(Math.max(lastIndex, 0));
-        List<Lookup.LookupResult> lookupResultList = suggester.lookup(suggestQuery, false, 10);
-        for (Lookup.LookupResult lookupResult : lookupResultList) {
-            suggestionList.add(lookupResult.key.toString());
+            if (documentId != null) {
+                documentIdSet.add(documentId);
+            }
         }
     }
 
     /**
-     * Fulltext search in files and documents.
+     * Build the fulltext query on document fields.
      *
-     * @param simpleSearchQuery Search query on metadatas
-     * @param fullSearchQuery Search query on all fields
-     * @return Map of document IDs as key and highlight as value
-     * @throws Exception e
+     * @param analyzer Analyzer
+     * @param searchQuery Search query
+     * @return Query
      */
-    private Map<String, String> search(String simpleSearchQuery, String fullSearchQuery) throws Exception {
-        // The fulltext query searches in all fields
-        String searchQuery = simpleSearchQuery + " " + fullSearchQuery;
-
-        // Build search query
-        Analyzer analyzer = new StandardAnalyzer();
-
-        // Search on documents and files
-        BooleanQuery query = new BooleanQuery.Builder()
+    private Query buildDocumentQuery(Analyzer analyzer, String searchQuery) {
+        return new BooleanQuery.Builder()
                 .add(buildQueryParser(analyzer, "title").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "description").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "subject").parse(searchQuery), BooleanClause.Occur.SHOULD)
@@ -436,47 +1376,22 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 .add(buildQueryParser(analyzer, "type").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "coverage").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "rights").parse(searchQuery), BooleanClause.Occur.SHOULD)
+                .build();
+    }
+
+    /**
+     * Build the fulltext query on file fields.
+     *
+     * @param analyzer Analyzer
+     * @param searchQuery Search query on metadatas
+     * @param fullSearchQuery Search query on content
+     * @return Query
+     */
+    private Query buildFileQuery(Analyzer analyzer, String searchQuery, String fullSearchQuery) {
+        return new BooleanQuery.Builder()
                 .add(buildQueryParser(analyzer, "filename").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "content").parse(fullSearchQuery), BooleanClause.Occur.SHOULD)
                 .build();
-
-        // Search
-        DirectoryReader directoryReader = getDirectoryReader();
-        Map<String, String> documentMap = Maps.newHashMap();
-        if (directoryReader == null) {
-            // The directory reader is not yet initialized (probably because there is nothing indexed)
-            return documentMap;
-        }
-        IndexSearcher searcher = new IndexSearcher(directoryReader);
-        TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
-        ScoreDoc[] docs = topDocs.scoreDocs;
-
-        SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
-        SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
-        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(query));
-
-        // Extract document IDs and highlights
-        for (ScoreDoc doc : docs) {
-            org.apache.lucene.document.Document document = searcher.doc(doc.doc);
-            String type = document.get("doctype");
-            String documentId = null;
-            String highlight = null;
-            if (type.equals("document")) {
-                documentId = document.get("id");
-            } else if (type.equals("file")) {
-                documentId = document.get("document_id");
-                String content = document.get("content");
-                if (content != null) {
-                    highlight = highlighter.getBestFragment(analyzer, "content", content);
-                }
-            }
-
-            if (documentId != null) {
-                documentMap.put(documentId, highlight);
-            }
-        }
-
-        return documentMap;
     }
 
     /**
@@ -492,13 +1407,43 @@ public class LuceneIndexingHandler implements IndexingHandler {
         return simpleQueryParser;
     }
 
+    /**
+     * Build Lucene documents from database documents.
+     * Tags, permissions and file types are fetched for all documents at once.
+     *
+     * @param documentList Documents
+     * @return Lucene documents
+     */
+    private List<org.apache.lucene.document.Document> getDocumentsFromDocuments(List<Document> documentList) {
+        List<String> documentIdList = new ArrayList<>();
+        for (Document document : documentList) {
+            documentIdList.add(document.getId());
+        }
+        Map<String, List<String>> tagIdMap = new TagDao().getTagIdsByDocumentIds(documentIdList);
+        Map<String, Set<String>> targetIdMap = new AclDao().getTargetIdsByDocumentIds(documentIdList, PermType.READ);
+        Map<String, Set<String>> mimeTypeMap = new FileDao().getMimeTypesByDocumentIds(documentIdList);
+
+        List<org.apache.lucene.document.Document> luceneDocumentList = new ArrayList<>();
+        for (Document document : documentList) {
+            luceneDocumentList.add(getDocumentFromDocument(document,
+                    tagIdMap.getOrDefault(document.getId(), Collections.emptyList()),
+                    targetIdMap.getOrDefault(document.getId(), Collections.emptySet()),
+                    mimeTypeMap.getOrDefault(document.getId(), Collections.emptySet())));
+        }
+        return luceneDocumentList;
+    }
+
     /**
      * Build Lucene document from database document.
      *
      * @param document Document
+     * @param tagIdList IDs of the document tags
+     * @param readTargetIdSet IDs of the targets allowed to read the document
+     * @param mimeTypeSet MIME types of the document files
      * @return Document
      */
-    private org.apache.lucene.document.Document getDocumentFromDocument(Document document) {
+    private org.apache.lucene.document.Document getDocumentFromDocument(Document document, Collection<String> tagIdList,
+                                                                        Collection<String> readTargetIdSet, Collection<String> mimeTypeSet) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", document.getId(), Field.Store.YES));
         luceneDocument.add(new StringField("doctype", "document", Field.Store.YES));
@@ -531,9 +1476,46 @@ public class LuceneIndexingHandler implements IndexingHandler {
             luceneDocument.add(new TextField("rights", document.getRights(), Field.Store.NO));
         }
 
+        // Filterable and sortable fields
+        luceneDocument.add(new SortedDocValuesField("id", new BytesRef(document.getId())));
+        luceneDocument.add(new StringField("title_exact", document.getTitle(), Field.Store.NO));
+        luceneDocument.add(new SortedDocValuesField("title_sort", new BytesRef(document.getTitle())));
+        if (document.getLanguage() != null) {
+            luceneDocument.add(new StringField("language", document.getLanguage(), Field.Store.NO));
+            luceneDocument.add(new SortedDocValuesField("language", new BytesRef(document.getLanguage())));
+        }
+        if (document.getUserId() != null) {
+            luceneDocument.add(new StringField("creator_id", document.getUserId(), Field.Store.NO));
+        }
+        addDateField(luceneDocument, "create_date", document.getCreateDate());
+        addDateField(luceneDocument, "update_date", document.getUpdateDate());
+        for (String tagId : tagIdList) {
+            luceneDocument.add(new StringField("tag_id", tagId, Field.Store.NO));
+        }
+        for (String targetId : readTargetIdSet) {
+            luceneDocument.add(new StringField("acl_read", targetId, Field.Store.NO));
+        }
+        for (String mimeType : mimeTypeSet) {
+            luceneDocument.add(new StringField("mime_type", mimeType, Field.Store.NO));
+        }
+
         return luceneDocument;
     }
 
+    /**
+     * Add a date field, filterable by range and sortable.
+     *
+     * @param luceneDocument Lucene document
+     * @param name Field name
+     * @param date Date
+     */
+    private void addDateField(org.apache.lucene.document.Document luceneDocument, String name, Date date) {
+        if (date != null) {
+            luceneDocument.add(new LongPoint(name, date.getTime()));
+            luceneDocument.add(new NumericDocValuesField(name, date.getTime()));
+        }
+    }
+
     /**
      * Build Lucene document from file.
      *
@@ -544,69 +1526,496 @@ public class LuceneIndexingHandler implements IndexingHandler {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", file.getId(), Field.Store.YES));
         luceneDocument.add(new StringField("doctype", "file", Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("id", new BytesRef(file.getId())));
         if (file.getName() != null) {
             luceneDocument.add(new TextField("filename", file.getName(), Field.Store.NO));
         }
         if (file.getDocumentId() != null) {
             luceneDocument.add(new StringField("document_id", file.getDocumentId(), Field.Store.YES));
+            luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(file.getDocumentId())));
         }
         if (file.getContent() != null) {
-            luceneDocument.add(new TextField("content", file.getContent(), Field.Store.YES));
+            luceneDocument.add(new Field("content", file.getContent(), CONTENT_FIELD_TYPE));
         }
 
         return luceneDocument;
     }
 
+    @Override
+    public void rebuildIndex() {
+        if (!rebuildRunning.compareAndSet(false, true)) {
+            log.info("An index rebuild is already running");
+            return;
+        }
+
+        rebuildStopped = false;
+        try {
+            Map<String, String> checkpoint = openRebuild();
+            String phase = checkpoint.getOrDefault(REBUILD_PHASE_KEY, REBUILD_PHASE_DOCUMENTS);
+            String lastId = checkpoint.get(REBUILD_LAST_ID_KEY);
+            long[] totals = new long[2];
+            runInTransaction(() -> {
+                totals[0] = new DocumentDao().getDocumentCount();
+                totals[1] = new FileDao().getFileCount();
+            });
+            rebuildProgress.start(checkpoint.containsKey(REBUILD_PHASE_KEY), totals[0], totals[1]);
+            log.info("Rebuilding the index from phase {} after ID {}", phase, lastId);
+
+            if (REBUILD_PHASE_DOCUMENTS.equals(phase)) {
+                rebuildPhase(REBUILD_PHASE_DOCUMENTS, lastId);
+                checkpoint(REBUILD_PHASE_FILES, null);
+                phase = REBUILD_PHASE_FILES;
+                lastId = null;
+            }
+            if (REBUILD_PHASE_FILES.equals(phase)) {
+                rebuildPhase(REBUILD_PHASE_FILES, lastId);
+            }
+
+            swapRebuild();
+            rebuildProgress.complete();
+        } catch (Exception e) {
+            log.error("Error rebuilding the index, it will resume from its last checkpoint", e);
+            rebuildProgress.fail(e.getMessage());
+            IndexWriter writer = rebuildWriter;
+            if (writer != null && !writer.isOpen()) {
+                // The rebuilt index is unusable, start over next time
+                closeRebuild();
+            }
+        } finally {
+            rebuildRunning.set(false);
+        }
+    }
+
+    @Override
+    public IndexRebuildProgress getRebuildProgress() {
+        return rebuildProgress;
+    }
+
     /**
-     * Returns a valid directory reader.
-     * Take care of reopening the reader if the index has changed
-     * and closing the previous one.
+     * Open the index being rebuilt, or create a new one.
+     * All mutations are applied to it from now on.
      *
-     * @return the directoryReader
+     * @return Commit user data of the last checkpoint
+     * @throws IOException e
+     */
+    private Map<String, String> openRebuild() throws IOException {
+        if (rebuildWriter == null) {
+            if (isFileStorage()) {
+                Path rebuildPath = DirectoryUtil.getLuceneRebuildDirectory();
+                deleteDirectory(rebuildPath);
+                rebuildDirectory = openDirectory(DirectoryUtil.getLuceneRebuildDirectory());
+            } else {
+                rebuildDirectory = openDirectory(null);
+            }
+            rebuildWriter = new IndexWriter(rebuildDirectory, newWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.CREATE));
+        }
+        return getCommitData(rebuildWriter);
+    }
+
+    /**
+     * Close the index being rebuilt.
      */
-    private DirectoryReader getDirectoryReader() {
-        if (directoryReader == null) {
+    private void closeRebuild() {
+        IndexWriter writer = rebuildWriter;
+        rebuildWriter = null;
+        rebuildMutationMap.clear();
+        if (writer != null) {
             try {
-                if (!DirectoryReader.indexExists(directory)) {
+                writer.close();
+            } catch (Exception e) {
+                log.error("Error closing the rebuilt index writer", e);
+            }
+        }
+        if (rebuildDirectory != null) {
+            try {
+                rebuildDirectory.close();
+            } catch (IOException e) {
+                log.error("Error closing the rebuilt index", e);
+            }
+            rebuildDirectory = null;
+        }
+    }
+
+    /**
+     * Index all documents or all files into the index being rebuilt.
+     * IDs are read by keyset pages, and the pages are indexed by a pool of threads.
+     *
+     * @param phase Rebuild phase
+     * @param lastId Last ID already indexed, null to start from the beginning
+     * @throws Exception e
+     */
+    private void rebuildPhase(String phase, String lastId) throws Exception {
+        rebuildProgress.setPhase(phase);
+        int threadCount = EnvironmentUtil.getEnvIntegerValue(Constants.LUCENE_REBUILD_THREADS_ENV, 0);
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("lucene-rebuild-%d")
+                .setDaemon(true)
+                .build());
+
+        try {
+            // Pages are checkpointed in order, once all the previous pages are indexed
+            Deque<Map.Entry<String, Future<?>>> pageQueue = new ArrayDeque<>();
+            int pageCount = 0;
+            String pageLastId = lastId;
+            while (!rebuildStopped) {
+                List<String> idList = findIdsAfter(phase, pageLastId);
+                if (idList.isEmpty()) {
+                    break;
+                }
+                pageLastId = idList.get(idList.size() - 1);
+                pageQueue.add(new AbstractMap.SimpleEntry<>(pageLastId, executor.submit(() -> {
+                    rebuildPage(phase, idList);
                     return null;
+                })));
+
+                while (pageQueue.size() >= threadCount * 2) {
+                    Map.Entry<String, Future<?>> page = pageQueue.poll();
+                    page.getValue().get();
+                    if (++pageCount % REBUILD_CHECKPOINT_PAGES == 0) {
+                        checkpoint(phase, page.getKey());
+                    }
                 }
-                directoryReader = DirectoryReader.open(directory);
-            } catch (IOException e) {
-                log.error("Error creating the directory reader", e);
             }
-        } else {
-            try {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(directoryReader);
-                if (newReader != null) {
-                    directoryReader.close();
-                    directoryReader = newReader;
+
+            while (!pageQueue.isEmpty()) {
+                pageQueue.poll().getValue().get();
+            }
+            if (rebuildStopped) {
+                throw new InterruptedException("Index rebuild stopped");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the next page of IDs to index.
+     *
+     * @param phase Rebuild phase
+     * @param lastId Last ID of the previous page
+     * @return IDs
+     * @throws IOException e
+     */
+    private List<String> findIdsAfter(String phase, String lastId) throws IOException {
+        List<String> idList = new ArrayList<>();
+        runInTransaction(() -> {
+            if (REBUILD_PHASE_DOCUMENTS.equals(phase)) {
+                idList.addAll(new DocumentDao().findIdsAfter(lastId, REBUILD_PAGE_SIZE));
+            } else {
+                idList.addAll(new FileDao().findIdsAfter(lastId, REBUILD_PAGE_SIZE));
+            }
+        });
+        return idList;
+    }
+
+    /**
+     * Index a page of documents or files into the index being rebuilt.
+     *
+     * @param phase Rebuild phase
+     * @param idList IDs
+     * @throws IOException e
+     */
+    private void rebuildPage(String phase, List<String> idList) throws IOException {
+        long readSequence = rebuildSequence.get();
+        List<org.apache.lucene.document.Document> luceneDocumentList = new ArrayList<>();
+        runInTransaction(() -> {
+            if (REBUILD_PHASE_DOCUMENTS.equals(phase)) {
+                luceneDocumentList.addAll(getDocumentsFromDocuments(new DocumentDao().getByIds(idList)));
+            } else {
+                for (File file : new FileDao().getFiles(idList)) {
+                    luceneDocumentList.add(getDocumentFromFile(file));
                 }
-            } catch (IOException e) {
-                log.error("Error while reopening the directory reader", e);
             }
+        });
+
+        // Documents updated or deleted since the page was read are left to the concurrent mutations
+        IndexWriter writer = rebuildWriter;
+        if (writer == null) {
+            throw new IOException("No index being rebuilt");
+        }
+        synchronized (rebuildWriteLock) {
+            for (org.apache.lucene.document.Document luceneDocument : luceneDocumentList) {
+                String id = luceneDocument.get("id");
+                Long mutationSequence = rebuildMutationMap.get(id);
+                if (mutationSequence == null || mutationSequence <= readSequence) {
+                    writer.updateDocument(new Term("id", id), luceneDocument);
+                }
+            }
+        }
+
+        if (REBUILD_PHASE_DOCUMENTS.equals(phase)) {
+            rebuildProgress.addDocuments(luceneDocumentList.size());
+        } else {
+            rebuildProgress.addFiles(luceneDocumentList.size());
+        }
+    }
+
+    /**
+     * Commit the index being rebuilt, with the position to resume from.
+     *
+     * @param phase Rebuild phase
+     * @param lastId Last ID indexed in this phase
+     * @throws IOException e
+     */
+    private void checkpoint(String phase, String lastId) throws IOException {
+        Map<String, String> checkpoint = new HashMap<>();
+        checkpoint.put(REBUILD_PHASE_KEY, phase);
+        if (lastId != null) {
+            checkpoint.put(REBUILD_LAST_ID_KEY, lastId);
+        }
+        IndexWriter writer = rebuildWriter;
+        writer.setLiveCommitData(checkpoint.entrySet());
+        writer.commit();
+    }
+
+    /**
+     * Replace the current index by the rebuilt one.
+     *
+     * @throws IOException e
+     */
+    private void swapRebuild() throws IOException {
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put(INDEX_VERSION_KEY, INDEX_VERSION);
+        commitData.put(REBUILD_PHASE_KEY, REBUILD_PHASE_DONE);
+        rebuildWriter.setLiveCommitData(commitData.entrySet());
+        rebuildWriter.commit();
+
+        // Searches and mutations wait until the new index is open
+        indexLock.writeLock().lock();
+        try {
+            reopenThread.close();
+            searcherManager.close();
+            indexWriter.close();
+            directory.close();
+
+            if (isFileStorage()) {
+                closeRebuild();
+                recoverRebuildSwap();
+                directory = openDirectory(DirectoryUtil.getLuceneDirectory());
+                indexWriter = new IndexWriter(directory, newWriterConfig());
+            } else {
+                directory = rebuildDirectory;
+                indexWriter = rebuildWriter;
+                rebuildWriter = null;
+                rebuildDirectory = null;
+                rebuildMutationMap.clear();
+            }
+            indexWriter.setLiveCommitData(newCommitData().entrySet());
+
+            openSearcher();
+            titleSuggester = new TitleSuggester(directory);
+            indexOutdated = false;
+            indexStale = false;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        log.info("Rebuilt index is now in use");
+    }
+
+    /**
+     * Move a fully rebuilt index in place of the current index on disk.
+     * Nothing is done if there is no fully rebuilt index.
+     *
+     * @throws IOException e
+     */
+    private void recoverRebuildSwap() throws IOException {
+        Path baseDirectory = DirectoryUtil.getBaseDataDirectory();
+        Path livePath = baseDirectory.resolve("lucene");
+        Path rebuildPath = baseDirectory.resolve("lucene_rebuild");
+        Path oldPath = baseDirectory.resolve("lucene_old");
+
+        boolean rebuildDone = false;
+        if (Files.isDirectory(rebuildPath)) {
+            try (Directory existingRebuildDirectory = openDirectory(rebuildPath)) {
+                rebuildDone = DirectoryReader.indexExists(existingRebuildDirectory)
+                        && REBUILD_PHASE_DONE.equals(SegmentInfos.readLatestCommit(existingRebuildDirectory).getUserData().get(REBUILD_PHASE_KEY));
+            }
+        }
+
+        if (rebuildDone) {
+            deleteDirectory(oldPath);
+            if (Files.exists(livePath)) {
+                Files.move(livePath, oldPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(rebuildPath, livePath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        deleteDirectory(oldPath);
+    }
+
+    /**
+     * Delete a directory and its content, if it exists.
+     *
+     * @param path Directory
+     * @throws IOException e
+     */
+    private static void deleteDirectory(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> pathStream = Files.walk(path)) {
+            pathStream.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(java.io.File::delete);
+        }
+    }
+
+    /**
+     * Run some code in a new transaction.
+     * Unlike {@link TransactionUtil#handle(Runnable)}, failures are reported to the caller.
+     *
+     * @param runnable Code to run
+     * @throws IOException If the transaction was rolled back
+     */
+    private static void runInTransaction(Runnable runnable) throws IOException {
+        AtomicBoolean completed = new AtomicBoolean();
+        TransactionUtil.handle(() -> {
+            runnable.run();
+            completed.set(true);
+        });
+        if (!completed.get()) {
+            throw new IOException("Transaction rolled back, see previous errors");
+        }
+    }
+
+    @Override
+    public IndexingQueue<?> getIndexingQueue() {
+        return indexingQueue;
+    }
+
+    @Override
+    public void awaitSearchable() throws Exception {
+        indexingQueue.await();
+        indexLock.readLock().lock();
+        try {
+            searcherManager.maybeRefreshBlocking();
+        } finally {
+            indexLock.readLock().unlock();
         }
-        return directoryReader;
+        refreshSuggester();
     }
 
     /**
      * Encapsulate a process into a Lucene context.
+     * The process is queued and applied with the next batch.
      *
+     * @param idList IDs of the documents and files written by the process
      * @param runnable Runnable
      */
-    private void handle(LuceneRunnable runnable) {
+    private void handle(Collection<String> idList, LuceneRunnable runnable) {
+        indexingQueue.submit(new LuceneMutation(idList, runnable));
+    }
+
+    /**
+     * Returns the IDs of some Lucene documents.
+     *
+     * @param luceneDocumentList Lucene documents
+     * @return IDs
+     */
+    private static List<String> getIds(List<org.apache.lucene.document.Document> luceneDocumentList) {
+        List<String> idList = new ArrayList<>();
+        for (org.apache.lucene.document.Document luceneDocument : luceneDocumentList) {
+            idList.add(luceneDocument.get("id"));
+        }
+        return idList;
+    }
+
+    /**
+     * Apply a batch of queued processes, then commit once.
+     *
+     * @param runnableList Processes to run
+     */
+    private void applyBatch(List<LuceneMutation> runnableList) {
+        indexLock.readLock().lock();
         try {
-            runnable.run(indexWriter);
-        } catch (Exception e) {
-            log.error("Error in running index writing", e);
+            IndexWriter rebuildWriter = this.rebuildWriter;
+            for (LuceneMutation runnable : runnableList) {
+                try {
+                    runnable.run(indexWriter);
+                } catch (Exception e) {
+                    log.error("Error in running index writing", e);
+                }
+
+                // Keep the index being rebuilt up to date
+                if (rebuildWriter != null) {
+                    synchronized (rebuildWriteLock) {
+                        try {
+                            runnable.run(rebuildWriter);
+                        } catch (Exception e) {
+                            log.error("Error in running index writing on the rebuilt index", e);
+                        }
+                        long sequence = rebuildSequence.incrementAndGet();
+                        for (String id : runnable.getIdList()) {
+                            rebuildMutationMap.put(id, sequence);
+                        }
+                    }
+                }
+            }
+
+            if (commitInterval <= 0) {
+                commit();
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Commit pending changes to the index storage.
+     */
+    private void commit() {
+        indexLock.readLock().lock();
+        try {
+            commit(indexWriter);
+            IndexWriter rebuildWriter = this.rebuildWriter;
+            if (rebuildWriter != null) {
+                commit(rebuildWriter);
+            }
+        } finally {
+            indexLock.readLock().unlock();
         }
+    }
 
+    /**
+     * Commit pending changes of a writer.
+     *
+     * @param writer Index writer
+     */
+    private void commit(IndexWriter writer) {
         try {
-            indexWriter.commit();
-        } catch (IOException e) {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+            }
+        } catch (Exception e) {
             log.error("Cannot commit index writer", e);
         }
     }
 
+    /**
+     * Run a function with a searcher on the current index.
+     *
+     * @param callable Function
+     * @param <T> Type of result
+     * @return Result
+     * @throws Exception e
+     */
+    private <T> T withSearcher(SearcherCallable<T> callable) throws Exception {
+        indexLock.readLock().lock();
+        try {
+            SearcherManager searcherManager = this.searcherManager;
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                return callable.call(searcher);
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
     /**
      * Lucene runnable.
      *
@@ -621,4 +2030,55 @@ public class LuceneIndexingHandler implements IndexingHandler {
          */
         void run(IndexWriter indexWriter) throws Exception;
     }
+
+    /**
+     * Lucene runnable with the IDs of the documents and files it writes.
+     */
+    private static class LuceneMutation implements LuceneRunnable {
+        /**
+         * IDs of the documents and files written.
+         */
+        private final Collection<String> idList;
+
+        /**
+         * Code to run.
+         */
+        private final LuceneRunnable runnable;
+
+        /**
+         * Constructor.
+         *
+         * @param idList IDs of the documents and files written
+         * @param runnable Code to run
+         */
+        LuceneMutation(Collection<String> idList, LuceneRunnable runnable) {
+            this.idList = idList;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run(IndexWriter indexWriter) throws Exception {
+            runnable.run(indexWriter);
+        }
+
+        public Collection<String> getIdList() {
+            return idList;
+        }
+    }
+
+    /**
+     * Function using an index searcher.
+     *
+     * @param <T> Type of result
+     */
+    private interface SearcherCallable<T> {
+        /**
+         * Code to run with a searcher.
+         *
+         * @param searcher Index searcher
+         * @return Result
+         * @throws Exception e
+         */
+        T call(IndexSearcher searcher) throws Exception;
+    }
 }
@@ -0,0 +1,103 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.spell.LuceneDictionary;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Suggester on document titles.
+ * The suggester is built from a reader, and lookups are served from the last built suggester
+ * until it is rebuilt from a newer reader.
+ *
+ * @author bgamard
+ */
+public class TitleSuggester {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(TitleSuggester.class);
+
+    /**
+     * Directory used for temporary files while building.
+     */
+    private final Directory tempDirectory;
+
+    /**
+     * Last built suggester.
+     */
+    private volatile Lookup suggester;
+
+    /**
+     * Version of the reader the suggester was built from.
+     */
+    private volatile long version = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param tempDirectory Directory used for temporary files while building
+     */
+    public TitleSuggester(Directory tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Returns true if the suggester was not built from this reader.
+     *
+     * @param reader Index reader
+     * @return True if the suggester must be rebuilt
+     */
+    public boolean isStale(DirectoryReader reader) {
+        return reader.getVersion() != version;
+    }
+
+    /**
+     * Build a new suggester from a reader, and replace the current one.
+     *
+     * @param reader Index reader
+     * @throws IOException e
+     */
+    public synchronized void build(DirectoryReader reader) throws IOException {
+        if (!isStale(reader)) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        FuzzySuggester fuzzySuggester = new FuzzySuggester(tempDirectory, "suggest", new StandardAnalyzer());
+        fuzzySuggester.build(new LuceneDictionary(reader, "title"));
+        suggester = fuzzySuggester;
+        version = reader.getVersion();
+        log.info("Title suggester built with {} entries in {}ms", fuzzySuggester.getCount(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Suggest titles terms.
+     *
+     * @param query Query
+     * @param count Maximum number of suggestions
+     * @return Suggestions
+     * @throws IOException e
+     */
+    public List<String> lookup(String query, int count) throws IOException {
+        Lookup lookup = suggester;
+        if (lookup == null || lookup.getCount() == 0) {
+            return Collections.emptyList();
+        }
+
+        List<String> suggestionList = new ArrayList<>();
+        for (Lookup.LookupResult lookupResult : lookup.lookup(query, false, count)) {
+            suggestionList.add(lookupResult.key.toString());
+        }
+        return suggestionList;
+    }
+}
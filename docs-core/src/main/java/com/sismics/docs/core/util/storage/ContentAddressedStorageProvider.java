@@ -0,0 +1,272 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Storage of the files data by content hash.
+ * Each distinct content is stored once as a blob, and the stored files are hard links to their blob,
+ * so they are read like local files and the link count of a blob is its number of references.
+ * Falls back to plain local files if the filesystem doesn't support hard links.
+ *
+ * @author bgamard
+ */
+public class ContentAddressedStorageProvider extends LocalStorageProvider {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ContentAddressedStorageProvider.class);
+
+    /**
+     * Directory of the blobs, by content hash.
+     */
+    private final Path blobDirectory;
+
+    /**
+     * True if the filesystem supports hard links and their count.
+     */
+    private final boolean linkSupported;
+
+    /**
+     * Lock on the links between the stored files and the blobs.
+     */
+    private final Object linkLock = new Object();
+
+    /**
+     * Constructor.
+     *
+     * @param directory Storage directory
+     */
+    public ContentAddressedStorageProvider(Path directory) {
+        super(directory);
+        blobDirectory = directory.resolve("blobs");
+        boolean unixAttributes;
+        try {
+            Files.createDirectories(blobDirectory);
+            unixAttributes = Files.getFileStore(blobDirectory).supportsFileAttributeView("unix");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        linkSupported = unixAttributes;
+        if (!linkSupported) {
+            log.warn("Hard links are not supported in {}, stored files will not be deduplicated", directory);
+        }
+    }
+
+    @Override
+    public void write(String key, InputStream inputStream) throws IOException {
+        if (!linkSupported) {
+            super.write(key, inputStream);
+            return;
+        }
+
+        // Receive the data while hashing it
+        Path tmpFile = Files.createTempFile(blobDirectory, "write", ".tmp");
+        String hash;
+        try {
+            HashingInputStream hashingInputStream = new HashingInputStream(Hashing.sha256(), inputStream);
+            Files.copy(hashingInputStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            hash = hashingInputStream.hash().toString();
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+
+        // Keep the existing blob with the same content, or add this one
+        Path blob = getBlobPath(hash);
+        synchronized (linkLock) {
+            if (Files.exists(blob)) {
+                Files.delete(tmpFile);
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(tmpFile, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            link(key, blob);
+        }
+    }
+
+    @Override
+    public boolean share(String sourceKey, String targetKey) throws IOException {
+        if (!linkSupported) {
+            return super.share(sourceKey, targetKey);
+        }
+
+        // Another link to the same blob
+        synchronized (linkLock) {
+            Path source = resolve(sourceKey);
+            if (!Files.exists(source)) {
+                throw new NoSuchFileException(sourceKey);
+            }
+            link(targetKey, source);
+        }
+        return true;
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Path path = resolve(key);
+        if (!linkSupported || !Files.exists(path)) {
+            super.delete(key);
+            return;
+        }
+
+        synchronized (linkLock) {
+            Path blob = getLastReferencedBlob(path);
+            Files.delete(path);
+            if (blob != null && getLinkCount(blob) == 1) {
+                Files.delete(blob);
+            }
+        }
+    }
+
+    @Override
+    public void clean() throws IOException {
+        if (!linkSupported) {
+            return;
+        }
+
+        // Blobs without links, and files left by interrupted writes
+        long tmpExpiration = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        synchronized (linkLock) {
+            try (Stream<Path> stream = Files.walk(blobDirectory)) {
+                for (Path path : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+                    boolean tmpFile = path.getFileName().toString().endsWith(".tmp");
+                    if (tmpFile && Files.getLastModifiedTime(path).toMillis() < tmpExpiration
+                            || !tmpFile && getLinkCount(path) == 1) {
+                        log.info("Deleting unreferenced blob: {}", path);
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of blobs and their total size.
+     *
+     * @return Number of blobs and total size in bytes
+     * @throws IOException e
+     */
+    public long[] getBlobUsage() throws IOException {
+        long count = 0;
+        long size = 0;
+        try (Stream<Path> stream = Files.walk(blobDirectory)) {
+            for (Path path : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+                if (!path.getFileName().toString().endsWith(".tmp")) {
+                    count++;
+                    size += Files.size(path);
+                }
+            }
+        }
+        return new long[] { count, size };
+    }
+
+    /**
+     * Returns true if the stored files are deduplicated.
+     *
+     * @return True if hard links are supported
+     */
+    public boolean isLinkSupported() {
+        return linkSupported;
+    }
+
+    /**
+     * Link a stored file to a blob, replacing its previous content atomically.
+     * The previous blob is released only once the stored file links to the new one.
+     * Must be called with the link lock held.
+     *
+     * @param key Key
+     * @param blob Blob, or another stored file linked to it
+     * @throws IOException e
+     */
+    private void link(String key, Path blob) throws IOException {
+        Path path = resolve(key);
+        Path previousBlob = null;
+        if (Files.exists(path)) {
+            if (Files.isSameFile(path, blob)) {
+                // Already stored with this content
+                return;
+            }
+            previousBlob = getLastReferencedBlob(path);
+        }
+
+        Path tmpLink = blobDirectory.resolve("link-" + UUID.randomUUID() + ".tmp");
+        Files.createLink(tmpLink, blob);
+        try {
+            Files.move(tmpLink, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpLink);
+            throw e;
+        }
+        if (previousBlob != null && getLinkCount(previousBlob) == 1) {
+            Files.delete(previousBlob);
+        }
+    }
+
+    /**
+     * Returns the blob of a stored file if this file is its last reference.
+     * Only the last reference to a blob needs to find it to remove it.
+     *
+     * @param path Stored file
+     * @return Blob, null if still referenced by other stored files
+     * @throws IOException e
+     */
+    private Path getLastReferencedBlob(Path path) throws IOException {
+        if (getLinkCount(path) > 2) {
+            return null;
+        }
+        Path blob = getBlobPath(hash(path));
+        if (Files.exists(blob) && Files.isSameFile(path, blob)) {
+            return blob;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the path of a blob.
+     *
+     * @param hash Content hash
+     * @return Blob path
+     */
+    private Path getBlobPath(String hash) {
+        return blobDirectory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Returns the number of hard links to a file.
+     *
+     * @param path File
+     * @return Number of links
+     * @throws IOException e
+     */
+    private static int getLinkCount(Path path) throws IOException {
+        return (Integer) Files.getAttribute(path, "unix:nlink");
+    }
+
+    /**
+     * Hash the content of a file.
+     *
+     * @param path File
+     * @return SHA-256 of the content
+     * @throws IOException e
+     */
+    private static String hash(Path path) throws IOException {
+        try (HashingInputStream hashingInputStream = new HashingInputStream(Hashing.sha256(), Files.newInputStream(path))) {
+            ByteStreams.exhaust(hashingInputStream);
+            return hashingInputStream.hash().toString();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.sismics.docs.core.util.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Storage of the files data in a local directory, one file per key.
+ * Copies are hard links when the filesystem supports them, identical files then share their data.
+ * A stored file is always replaced whole, never modified in place, so it doesn't affect the files sharing its data.
+ *
+ * @author bgamard
+ */
+public class LocalStorageProvider implements StorageProvider {
+    /**
+     * Storage directory.
+     */
+    protected final Path directory;
+
+    /**
+     * Constructor.
+     *
+     * @param directory Storage directory
+     */
+    public LocalStorageProvider(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public long getSize(String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public long getLastModified(String key) throws IOException {
+        return Files.getLastModifiedTime(resolve(key)).toMillis();
+    }
+
+    @Override
+    public SeekableByteChannel open(String key) throws IOException {
+        return FileChannel.open(resolve(key), StandardOpenOption.READ);
+    }
+
+    @Override
+    public void write(String key, InputStream inputStream) throws IOException {
+        Files.copy(inputStream, resolve(key), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void copy(String sourceKey, String targetKey) throws IOException {
+        if (!share(sourceKey, targetKey)) {
+            StorageProvider.super.copy(sourceKey, targetKey);
+        }
+    }
+
+    @Override
+    public boolean share(String sourceKey, String targetKey) throws IOException {
+        Path source = resolve(sourceKey);
+        Path target = resolve(targetKey);
+        Path tmpLink = directory.resolve("link-" + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createLink(tmpLink, source);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Hard links not supported by this filesystem
+            return false;
+        }
+        try {
+            Files.move(tmpLink, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpLink);
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        List<String> keyList = new ArrayList<>();
+        try (DirectoryStream<Path> storedFileList = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path storedFile : storedFileList) {
+                keyList.add(storedFile.getFileName().toString());
+            }
+        }
+        return keyList;
+    }
+
+    @Override
+    public Path getLocalPath(String key) {
+        return resolve(key);
+    }
+
+    /**
+     * Returns the path of a stored file.
+     *
+     * @param key Key
+     * @return Path
+     */
+    protected Path resolve(String key) {
+        Path path = directory.resolve(key);
+        if (!directory.equals(path.getParent())) {
+            throw new IllegalArgumentException("Invalid storage key: " + key);
+        }
+        return path;
+    }
+}
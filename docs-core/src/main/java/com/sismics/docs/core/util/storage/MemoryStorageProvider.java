@@ -0,0 +1,104 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.io.ByteStreams;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage of the files data in memory, for testing.
+ *
+ * @author bgamard
+ */
+public class MemoryStorageProvider implements StorageProvider {
+    /**
+     * Stored files by key.
+     */
+    private final Map<String, StoredData> storedDataMap = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean exists(String key) {
+        return storedDataMap.containsKey(key);
+    }
+
+    @Override
+    public long getSize(String key) throws IOException {
+        return get(key).data.length;
+    }
+
+    @Override
+    public long getLastModified(String key) throws IOException {
+        return get(key).lastModified;
+    }
+
+    @Override
+    public SeekableByteChannel open(String key) throws IOException {
+        return new SeekableInMemoryByteChannel(get(key).data);
+    }
+
+    @Override
+    public void write(String key, InputStream inputStream) throws IOException {
+        storedDataMap.put(key, new StoredData(ByteStreams.toByteArray(inputStream)));
+    }
+
+    @Override
+    public void copy(String sourceKey, String targetKey) throws IOException {
+        storedDataMap.put(targetKey, get(sourceKey));
+    }
+
+    @Override
+    public void delete(String key) {
+        storedDataMap.remove(key);
+    }
+
+    @Override
+    public List<String> list() {
+        return new ArrayList<>(storedDataMap.keySet());
+    }
+
+    /**
+     * Returns a stored file.
+     *
+     * @param key Key
+     * @return Stored file
+     * @throws NoSuchFileException If the file doesn't exist
+     */
+    private StoredData get(String key) throws NoSuchFileException {
+        StoredData storedData = storedDataMap.get(key);
+        if (storedData == null) {
+            throw new NoSuchFileException(key);
+        }
+        return storedData;
+    }
+
+    /**
+     * Stored file.
+     */
+    private static class StoredData {
+        /**
+         * Data.
+         */
+        private final byte[] data;
+
+        /**
+         * Modification time in milliseconds.
+         */
+        private final long lastModified = System.currentTimeMillis();
+
+        /**
+         * Constructor.
+         *
+         * @param data Data
+         */
+        private StoredData(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.sismics.docs.core.util.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Storage of the files data.
+ * Stored files are identified by a key, the file ID with an optional suffix for the web image and thumbnail.
+ * The data is stored as is, encrypting it is up to the caller.
+ *
+ * @author bgamard
+ */
+public interface StorageProvider {
+    /**
+     * Returns true if a stored file exists.
+     *
+     * @param key Key
+     * @return True if the stored file exists
+     * @throws IOException e
+     */
+    boolean exists(String key) throws IOException;
+
+    /**
+     * Returns the size of a stored file.
+     *
+     * @param key Key
+     * @return Size in bytes
+     * @throws IOException e
+     */
+    long getSize(String key) throws IOException;
+
+    /**
+     * Returns the last modification time of a stored file.
+     *
+     * @param key Key
+     * @return Modification time in milliseconds
+     * @throws IOException e
+     */
+    long getLastModified(String key) throws IOException;
+
+    /**
+     * Open a stored file for reading.
+     *
+     * @param key Key
+     * @return Seekable channel, a FileChannel if the file is on the local filesystem
+     * @throws IOException e
+     */
+    SeekableByteChannel open(String key) throws IOException;
+
+    /**
+     * Write a stored file, replacing it if it exists.
+     *
+     * @param key Key
+     * @param inputStream Data to store
+     * @throws IOException e
+     */
+    void write(String key, InputStream inputStream) throws IOException;
+
+    /**
+     * Copy a stored file to another key, replacing it if it exists.
+     *
+     * @param sourceKey Key of the file to copy
+     * @param targetKey Key of the copy
+     * @throws IOException e
+     */
+    default void copy(String sourceKey, String targetKey) throws IOException {
+        try (InputStream inputStream = Channels.newInputStream(open(sourceKey))) {
+            write(targetKey, inputStream);
+        }
+    }
+
+    /**
+     * Store a file as another reference to the data of a stored file, replacing it if it exists.
+     * Nothing is copied, the target is left unchanged if the data can't be shared.
+     *
+     * @param sourceKey Key of the file to share
+     * @param targetKey Key of the new reference
+     * @return True if the data is shared, false if the storage provider can't share data
+     * @throws IOException e
+     */
+    default boolean share(String sourceKey, String targetKey) throws IOException {
+        return false;
+    }
+
+    /**
+     * Delete a stored file, if it exists.
+     *
+     * @param key Key
+     * @throws IOException e
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * Returns the keys of all stored files.
+     *
+     * @return List of keys
+     * @throws IOException e
+     */
+    List<String> list() throws IOException;
+
+    /**
+     * Remove the data which is not referenced by any stored file anymore.
+     *
+     * @throws IOException e
+     */
+    default void clean() throws IOException {
+        // NOP
+    }
+
+    /**
+     * Returns the path of a stored file on the local filesystem, to read it without copying it.
+     *
+     * @param key Key
+     * @return Path or null if the file is not on the local filesystem
+     */
+    default Path getLocalPath(String key) {
+        return null;
+    }
+}
@@ -0,0 +1,369 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.CipherInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage utilities.
+ * A null private key means that the stored file is not encrypted.
+ *
+ * @author bgamard
+ */
+public class StorageUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(StorageUtil.class);
+
+    /**
+     * Suffixes of the stored files derived from a file.
+     */
+    private static final String[] SIZE_LIST = { "web", "thumb" };
+
+    /**
+     * Time in minutes after which an unused decrypted file is deleted.
+     */
+    private static final int UNENCRYPTED_FILE_CACHE_EXPIRATION = 10;
+
+    /**
+     * Maximum size in kilobytes of the decrypted files cache.
+     */
+    private static final long UNENCRYPTED_FILE_CACHE_SIZE = EnvironmentUtil.getEnvIntegerValue(
+            Constants.UNENCRYPTED_FILE_CACHE_SIZE_ENV, Constants.DEFAULT_UNENCRYPTED_FILE_CACHE_SIZE) * 1024L;
+
+    /**
+     * Decrypted stored files by key, weighted by their size in kilobytes.
+     * The files are deleted from the disk when they are evicted and not used anymore.
+     */
+    private static final Cache<String, UnencryptedFile> unencryptedFileCache = CacheBuilder.newBuilder()
+            .maximumWeight(Math.max(UNENCRYPTED_FILE_CACHE_SIZE, 0))
+            .weigher((String key, UnencryptedFile unencryptedFile) -> {
+                try {
+                    return (int) Math.min(Files.size(unencryptedFile.getPath()) / 1024, Integer.MAX_VALUE);
+                } catch (IOException e) {
+                    return 0;
+                }
+            })
+            .expireAfterAccess(UNENCRYPTED_FILE_CACHE_EXPIRATION, TimeUnit.MINUTES)
+            .removalListener((RemovalNotification<String, UnencryptedFile> notification) -> notification.getValue().close())
+            .build();
+
+    /**
+     * Directory of the decrypted files, emptied of the files left by a previous run on first use.
+     */
+    private static Path decryptedFileDirectory;
+
+    /**
+     * Create the storage provider configured by the environment.
+     *
+     * @return Storage provider
+     */
+    public static StorageProvider createStorageProvider() {
+        String provider = System.getenv(Constants.STORAGE_PROVIDER_ENV);
+        if ("CAS".equals(provider)) {
+            return new ContentAddressedStorageProvider(DirectoryUtil.getStorageDirectory());
+        } else if ("MEMORY".equals(provider)) {
+            return new MemoryStorageProvider();
+        }
+        return new LocalStorageProvider(DirectoryUtil.getStorageDirectory());
+    }
+
+    /**
+     * Returns true if the new files must be encrypted at rest.
+     *
+     * @return True if the encryption is enabled
+     */
+    public static boolean isEncryptionEnabled() {
+        return !"false".equals(System.getenv(Constants.STORAGE_ENCRYPTION_ENV));
+    }
+
+    /**
+     * Returns the key of a stored file.
+     *
+     * @param fileId File ID
+     * @param size Size variation (web or thumb), null for the original file
+     * @return Key
+     */
+    public static String getKey(String fileId, String size) {
+        return size == null ? fileId : fileId + "_" + size;
+    }
+
+    /**
+     * Returns the private key to decrypt a stored file.
+     *
+     * @param file File
+     * @param user User whom created the file
+     * @return Private key, or null if the file is not encrypted
+     */
+    public static String getPrivateKey(File file, User user) {
+        return file.isEncrypted() ? user.getPrivateKey() : null;
+    }
+
+    /**
+     * Write a stored file, encrypting it if needed.
+     *
+     * @param key Key
+     * @param inputStream Unencrypted data
+     * @param privateKey Private key
+     * @throws Exception e
+     */
+    public static void write(String key, InputStream inputStream, String privateKey) throws Exception {
+        unencryptedFileCache.invalidate(key);
+        if (privateKey != null) {
+            inputStream = new CipherInputStream(inputStream, EncryptionUtil.getEncryptionCipher(privateKey));
+        }
+        getStorageProvider().write(key, inputStream);
+    }
+
+    /**
+     * Store a file with the content of an already stored file.
+     * The content is shared if the storage provider deduplicates it.
+     *
+     * @param sourceKey Key of the stored file with the same content
+     * @param targetKey Key
+     * @return True if the file has been stored, false if the source is not available anymore
+     */
+    public static boolean copy(String sourceKey, String targetKey) {
+        StorageProvider storageProvider = getStorageProvider();
+        unencryptedFileCache.invalidate(targetKey);
+        try {
+            storageProvider.copy(sourceKey, targetKey);
+            return true;
+        } catch (IOException e) {
+            log.warn("Unable to copy the stored file " + sourceKey + ", it may have been deleted", e);
+            try {
+                storageProvider.delete(targetKey);
+            } catch (IOException e1) {
+                // NOP
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Store a file as another reference to the data of an already stored file with the same content.
+     * The file is left unchanged if the data can't be shared.
+     *
+     * @param sourceKey Key of the stored file with the same content
+     * @param targetKey Key
+     * @return True if the data is shared
+     */
+    public static boolean share(String sourceKey, String targetKey) {
+        unencryptedFileCache.invalidate(targetKey);
+        try {
+            return getStorageProvider().share(sourceKey, targetKey);
+        } catch (IOException e) {
+            log.warn("Unable to share the stored file " + sourceKey + ", it may have been deleted", e);
+            return false;
+        }
+    }
+
+    /**
+     * Read a stored file from an offset, decrypting it if needed.
+     *
+     * @param channel Stored file channel
+     * @param privateKey Private key
+     * @param offset Offset in the unencrypted data
+     * @return Unencrypted data from the offset
+     * @throws Exception e
+     */
+    public static InputStream read(SeekableByteChannel channel, String privateKey, long offset) throws Exception {
+        if (privateKey != null) {
+            return EncryptionUtil.decryptInputStream(channel, privateKey, offset);
+        }
+        channel.position(offset);
+        return Channels.newInputStream(channel);
+    }
+
+    /**
+     * Read a stored file, decrypting it if needed.
+     *
+     * @param key Key
+     * @param privateKey Private key
+     * @return Unencrypted data
+     * @throws Exception e
+     */
+    public static InputStream read(String key, String privateKey) throws Exception {
+        return read(getStorageProvider().open(key), privateKey, 0);
+    }
+
+    /**
+     * Copy a window of a stored file to an output stream, decrypting it if needed.
+     * Unencrypted local files are transferred by the filesystem without going through the heap.
+     *
+     * @param channel Stored file channel, closed at the end
+     * @param privateKey Private key
+     * @param offset Offset in the unencrypted data
+     * @param count Number of bytes to copy
+     * @param outputStream Output stream
+     * @throws Exception e
+     */
+    public static void transfer(SeekableByteChannel channel, String privateKey, long offset, long count, OutputStream outputStream) throws Exception {
+        try (SeekableByteChannel inputChannel = channel) {
+            if (privateKey == null && inputChannel instanceof FileChannel) {
+                FileChannel fileChannel = (FileChannel) inputChannel;
+                WritableByteChannel outputChannel = Channels.newChannel(outputStream);
+                long position = offset;
+                long end = Math.min(offset + count, fileChannel.size());
+                while (position < end) {
+                    position += fileChannel.transferTo(position, end - position, outputChannel);
+                }
+            } else {
+                try (InputStream inputStream = read(inputChannel, privateKey, offset)) {
+                    ByteStreams.copy(ByteStreams.limit(inputStream, count), outputStream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a stored file as an unencrypted local file.
+     * Unencrypted local files are returned as is, they must not be modified.
+     *
+     * @param key Key
+     * @param privateKey Private key
+     * @return Unencrypted file
+     * @throws Exception e
+     */
+    public static Path getUnencryptedFile(String key, String privateKey) throws Exception {
+        StorageProvider storageProvider = getStorageProvider();
+        Path localPath = storageProvider.getLocalPath(key);
+        if (privateKey == null && localPath != null) {
+            return localPath;
+        }
+
+        Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
+        try (InputStream inputStream = read(key, privateKey)) {
+            Files.copy(inputStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return tmpFile;
+    }
+
+    /**
+     * Returns a stored file as an unencrypted local file, which is reused by the next calls for a while.
+     * Unencrypted local files are returned as is, and the decrypted files are kept within a size limit.
+     * The files must not be modified, and must be closed once done: a decrypted file is not deleted while in use.
+     *
+     * @param key Key
+     * @param privateKey Private key
+     * @return Unencrypted file
+     * @throws Exception e
+     */
+    public static UnencryptedFile getCachedUnencryptedFile(String key, String privateKey) throws Exception {
+        StorageProvider storageProvider = getStorageProvider();
+        Path localPath = storageProvider.getLocalPath(key);
+        if (privateKey == null && localPath != null) {
+            return new UnencryptedFile(localPath, false);
+        }
+
+        // Files too large for a cache segment would be evicted right away
+        if (UNENCRYPTED_FILE_CACHE_SIZE <= 0 || storageProvider.getSize(key) / 1024 > UNENCRYPTED_FILE_CACHE_SIZE / 4) {
+            return new UnencryptedFile(decrypt(key, privateKey), true);
+        }
+
+        try {
+            while (true) {
+                UnencryptedFile unencryptedFile = unencryptedFileCache.get(key,
+                        () -> new UnencryptedFile(decrypt(key, privateKey), true));
+                if (unencryptedFile.acquire()) {
+                    return unencryptedFile;
+                }
+                // Evicted and deleted in the meantime, decrypt it again
+            }
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+            throw e;
+        }
+    }
+
+    /**
+     * Decrypt a stored file to the decrypted files directory.
+     *
+     * @param key Key
+     * @param privateKey Private key
+     * @return Decrypted file
+     * @throws Exception e
+     */
+    private static Path decrypt(String key, String privateKey) throws Exception {
+        Path tmpFile = Files.createTempFile(getDecryptedFileDirectory(), "sismics_docs_decrypted", null);
+        try (InputStream inputStream = read(key, privateKey)) {
+            Files.copy(inputStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            Files.delete(tmpFile);
+            throw e;
+        }
+        return tmpFile;
+    }
+
+    /**
+     * Returns the directory of the decrypted files.
+     *
+     * @return Decrypted files directory
+     * @throws IOException e
+     */
+    private static synchronized Path getDecryptedFileDirectory() throws IOException {
+        if (decryptedFileDirectory == null) {
+            Path directory = DirectoryUtil.getDecryptedFileDirectory();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            decryptedFileDirectory = directory;
+        }
+        return decryptedFileDirectory;
+    }
+
+    /**
+     * Delete a stored file and its web image and thumbnail.
+     *
+     * @param fileId File ID
+     * @throws IOException e
+     */
+    public static void delete(String fileId) throws IOException {
+        StorageProvider storageProvider = getStorageProvider();
+        unencryptedFileCache.invalidate(fileId);
+        storageProvider.delete(fileId);
+        for (String size : SIZE_LIST) {
+            unencryptedFileCache.invalidate(getKey(fileId, size));
+            storageProvider.delete(getKey(fileId, size));
+        }
+    }
+
+    /**
+     * Returns the storage provider.
+     *
+     * @return Storage provider
+     */
+    public static StorageProvider getStorageProvider() {
+        return AppContext.getInstance().getStorageProvider();
+    }
+}
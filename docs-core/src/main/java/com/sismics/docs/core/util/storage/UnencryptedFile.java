@@ -0,0 +1,84 @@
+package com.sismics.docs.core.util.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Unencrypted local file of a stored file, shared by its users.
+ * Each user closes it once done, and a decrypted copy is deleted when its last user closes it.
+ *
+ * @author bgamard
+ */
+public class UnencryptedFile implements Closeable {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(UnencryptedFile.class);
+
+    /**
+     * Unencrypted file.
+     */
+    private final Path path;
+
+    /**
+     * True if the file is a decrypted copy, deleted once not used anymore.
+     */
+    private final boolean copy;
+
+    /**
+     * Number of users of the file, the file is deleted when it drops to 0.
+     */
+    private int useCount = 1;
+
+    /**
+     * Constructor, the file has one user.
+     *
+     * @param path Unencrypted file
+     * @param copy True if the file is a decrypted copy
+     */
+    UnencryptedFile(Path path, boolean copy) {
+        this.path = path;
+        this.copy = copy;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Add a user to the file.
+     *
+     * @return False if the file has already been deleted
+     */
+    synchronized boolean acquire() {
+        if (useCount == 0) {
+            return false;
+        }
+        useCount++;
+        return true;
+    }
+
+    /**
+     * Remove a user from the file, and delete the decrypted copy with its last user.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (useCount == 0 || --useCount > 0) {
+                return;
+            }
+        }
+        if (copy) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Unable to delete the decrypted file " + path, e);
+            }
+        }
+    }
+}
@@ -94,6 +94,25 @@ public class EnvironmentUtil {
         return TEEDY_HOME;
     }
 
+    /**
+     * Returns the integer value of an environment variable.
+     *
+     * @param name Name of the environment variable
+     * @param defaultValue Value returned if the variable is undefined or not a number
+     * @return Integer value
+     */
+    public static int getEnvIntegerValue(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Getter of webappContext.
      *
@@ -3,6 +3,8 @@ package com.sismics.util;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * HTTP request utilities.
@@ -15,6 +17,11 @@ public class HttpUtil {
      */
     private static final SimpleDateFormat EXPIRES_FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.ENGLISH);
 
+    /**
+     * Single byte range of a Range header.
+     */
+    private static final Pattern BYTE_RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
     /**
      * Build an Expires HTTP header.
      *
@@ -24,4 +31,55 @@ public class HttpUtil {
     public static String buildExpiresHeader(long futureTime) {
         return EXPIRES_FORMAT.format(new Date().getTime() + futureTime);
     }
+
+    /**
+     * Parse a Range header containing a single byte range.
+     * Multiple ranges and malformed headers are ignored, as allowed by RFC 7233.
+     *
+     * @param range Range header
+     * @param length Length of the whole content
+     * @return First and last bytes (inclusive) of the range, or null to serve the whole content
+     * @throws IllegalArgumentException If the range is not satisfiable
+     */
+    public static long[] parseRange(String range, long length) {
+        if (range == null) {
+            return null;
+        }
+        Matcher matcher = BYTE_RANGE_PATTERN.matcher(range.trim());
+        if (!matcher.matches() || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+            return null;
+        }
+
+        long start;
+        long end;
+        try {
+            if (matcher.group(1).isEmpty()) {
+                // Suffix range, the last N bytes
+                long suffixLength = Long.parseLong(matcher.group(2));
+                if (suffixLength == 0) {
+                    throw new IllegalArgumentException("Empty suffix range");
+                }
+                start = Math.max(length - suffixLength, 0);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                end = length - 1;
+                if (!matcher.group(2).isEmpty()) {
+                    long last = Long.parseLong(matcher.group(2));
+                    if (last < start) {
+                        // Invalid range, ignored
+                        return null;
+                    }
+                    end = Math.min(last, end);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (start >= length) {
+            throw new IllegalArgumentException("Range starts after the end of the content");
+        }
+        return new long[] { start, end };
+    }
 }
@@ -28,6 +28,11 @@ public class ThreadLocalContext {
      */
     private List<Object> asyncEventList = Lists.newArrayList();
 
+    /**
+     * List of actions to run after the transaction of this request is committed.
+     */
+    private List<Runnable> afterCommitList = Lists.newArrayList();
+
     /**
      * Private constructor.
      */
@@ -88,6 +93,28 @@ public class ThreadLocalContext {
         asyncEventList.add(asyncEvent);
     }
 
+    /**
+     * Add an action to run after the transaction of the current request is committed.
+     * The action is not run if the transaction is rolled back.
+     *
+     * @param action Action
+     */
+    public void addAfterCommit(Runnable action) {
+        afterCommitList.add(action);
+    }
+
+    /**
+     * Run all pending after commit actions.
+     */
+    public void runAfterCommit() {
+        Iterator<Runnable> iterator = afterCommitList.iterator();
+        while (iterator.hasNext()) {
+            Runnable action = iterator.next();
+            iterator.remove();
+            action.run();
+        }
+    }
+
     /**
      * Fire all pending async events.
      */
@@ -0,0 +1,69 @@
+package com.sismics.util.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Input stream copying the data read to an output stream.
+ *
+ * @author bgamard
+ */
+public class TeeInputStream extends FilterInputStream {
+    /**
+     * Output stream receiving a copy of the data.
+     */
+    private final OutputStream outputStream;
+
+    /**
+     * Constructor.
+     *
+     * @param inputStream Input stream
+     * @param outputStream Output stream receiving a copy of the data, closed with this stream
+     */
+    public TeeInputStream(InputStream inputStream, OutputStream outputStream) {
+        super(inputStream);
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            outputStream.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            outputStream.write(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped data must be copied too
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        int read = read(buffer, 0, buffer.length);
+        return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            outputStream.close();
+        }
+    }
+}
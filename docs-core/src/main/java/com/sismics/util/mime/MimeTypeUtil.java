@@ -2,8 +2,11 @@ package com.sismics.util.mime;
 
 import java.io.IOException;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Utility to check MIME types.
@@ -11,6 +14,11 @@ import java.nio.file.Path;
  * @author bgamard
  */
 public class MimeTypeUtil {
+    /**
+     * Number of bytes needed to guess the MIME type from the content.
+     */
+    public static final int HEADER_SIZE = 128;
+
     /**
      * Try to guess the MIME type of a file.
      * 
@@ -32,6 +40,93 @@ public class MimeTypeUtil {
 
         return mimeType;
     }
+
+    /**
+     * Try to guess the MIME type of a file from its first bytes, before it is completely received.
+     * Formats with a signature are recognized from the content, the others from the file name.
+     *
+     * @param header First bytes of the file, up to HEADER_SIZE
+     * @param name File name
+     * @return MIME type
+     */
+    public static String guessMimeType(byte[] header, String name) {
+        String mimeType = guessMimeTypeFromHeader(header);
+
+        if (mimeType == null && name != null) {
+            try {
+                mimeType = Files.probeContentType(Paths.get(name));
+            } catch (IOException | InvalidPathException e) {
+                // The name is not usable, try the next method
+            }
+            if (mimeType == null) {
+                mimeType = URLConnection.getFileNameMap().getContentTypeFor(name);
+            }
+        }
+
+        if (mimeType == null && startsWith(header, 0, "PK\u0003\u0004")) {
+            return MimeType.APPLICATION_ZIP;
+        }
+
+        if (mimeType == null) {
+            return MimeType.DEFAULT;
+        }
+
+        return mimeType;
+    }
+
+    /**
+     * Guess the MIME type from the signature at the beginning of a file.
+     * ZIP files are only recognized as OpenDocument, other ZIP based formats are told apart by name.
+     *
+     * @param header First bytes of the file
+     * @return MIME type, or null if not recognized
+     */
+    private static String guessMimeTypeFromHeader(byte[] header) {
+        if (startsWith(header, 0, "%PDF-")) {
+            return MimeType.APPLICATION_PDF;
+        }
+        if (startsWith(header, 0, "\u0089PNG\r\n\u001a\n")) {
+            return MimeType.IMAGE_PNG;
+        }
+        if (startsWith(header, 0, "\u00ff\u00d8\u00ff")) {
+            return MimeType.IMAGE_JPEG;
+        }
+        if (startsWith(header, 0, "GIF87a") || startsWith(header, 0, "GIF89a")) {
+            return MimeType.IMAGE_GIF;
+        }
+        if (startsWith(header, 0, "\u001a\u0045\u00df\u00a3")) {
+            return MimeType.VIDEO_WEBM;
+        }
+        if (startsWith(header, 4, "ftyp")) {
+            return MimeType.VIDEO_MP4;
+        }
+        if (startsWith(header, 0, "PK\u0003\u0004") && startsWith(header, 30, "mimetype" + MimeType.OPEN_DOCUMENT_TEXT)) {
+            // The first entry of an OpenDocument file is its uncompressed MIME type
+            return MimeType.OPEN_DOCUMENT_TEXT;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if some data contains a signature at an offset.
+     *
+     * @param data Data
+     * @param offset Offset of the signature
+     * @param signature Signature, as ISO-8859-1 characters
+     * @return True if the signature matches
+     */
+    private static boolean startsWith(byte[] data, int offset, String signature) {
+        byte[] bytes = signature.getBytes(StandardCharsets.ISO_8859_1);
+        if (data.length < offset + bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (data[offset + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
     
     /**
      * Get a file extension linked to a MIME type.
@@ -0,0 +1,7 @@
+-- DBUPDATE-032-0.SQL
+
+-- Files can be stored unencrypted, existing ones are encrypted
+alter table T_FILE add column FIL_ENCRYPTED_B bit not null default 1;
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '32' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,8 @@
+-- DBUPDATE-033-0.SQL
+
+-- Hash of the files content, to store identical files once
+alter table T_FILE add column FIL_HASH_C varchar(64);
+create index IDX_FIL_HASH_C on T_FILE (FIL_HASH_C ASC);
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '33' where CFG_ID_C = 'DB_VERSION';
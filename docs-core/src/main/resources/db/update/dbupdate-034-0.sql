@@ -0,0 +1,9 @@
+-- DBUPDATE-034-0.SQL
+
+-- Effective permissions on the ACL sources, including the permissions inherited by the documents from their tags
+create cached table T_EFFECTIVE_ACL ( EAC_IDSOURCE_C varchar(36) not null, EAC_IDTARGET_C varchar(36) not null, EAC_PERM_C varchar(30) not null, primary key (EAC_IDSOURCE_C, EAC_IDTARGET_C, EAC_PERM_C) );
+create index IDX_EAC_IDTARGET_C on T_EFFECTIVE_ACL (EAC_IDTARGET_C);
+insert into T_EFFECTIVE_ACL (EAC_IDSOURCE_C, EAC_IDTARGET_C, EAC_PERM_C) select a.ACL_SOURCEID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_ACL a where a.ACL_DELETEDATE_D is null union select d.DOC_ID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_ACL a, T_DOCUMENT_TAG dt, T_DOCUMENT d where a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null and d.DOC_DELETEDATE_D is null and a.ACL_DELETEDATE_D is null;
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '34' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,9 @@
+-- DBUPDATE-035-0.SQL
+
+-- Ancestors of the groups, including the groups themselves, to resolve the groups of a user at once
+create cached table T_GROUP_ANCESTOR ( GAN_IDGROUP_C varchar(36) not null, GAN_IDANCESTOR_C varchar(36) not null, primary key (GAN_IDGROUP_C, GAN_IDANCESTOR_C) );
+create index IDX_GAN_IDANCESTOR_C on T_GROUP_ANCESTOR (GAN_IDANCESTOR_C);
+insert into T_GROUP_ANCESTOR (GAN_IDGROUP_C, GAN_IDANCESTOR_C) with recursive GA (GROUPID, ANCESTORID, DEPTH) as (select g.GRP_ID_C, g.GRP_ID_C, 0 from T_GROUP g where g.GRP_DELETEDATE_D is null union all select GA.GROUPID, g.GRP_IDPARENT_C, GA.DEPTH + 1 from GA join T_GROUP g on g.GRP_ID_C = GA.ANCESTORID where g.GRP_IDPARENT_C is not null and g.GRP_DELETEDATE_D is null and GA.DEPTH < 10) select distinct GROUPID, ANCESTORID from GA;
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '35' where CFG_ID_C = 'DB_VERSION';
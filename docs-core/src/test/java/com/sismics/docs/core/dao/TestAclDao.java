@@ -0,0 +1,181 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.Share;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.util.context.ThreadLocalContext;
+import com.sismics.util.jpa.EMF;
+import org.junit.Assert;
+import org.junit.Test;
+
+import jakarta.persistence.EntityManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Test of the effective permissions.
+ *
+ * @author bgamard
+ */
+public class TestAclDao extends BaseTransactionalTest {
+    @Test
+    public void testEffectiveAcl() throws Exception {
+        User user = createUser("testEffectiveAcl");
+        AclDao aclDao = new AclDao();
+        TagDao tagDao = new TagDao();
+        List<String> targetIdList = Collections.singletonList("group1");
+
+        // Create a document and a tag
+        Document document = new Document();
+        document.setUserId(user.getId());
+        document.setLanguage("eng");
+        document.setTitle("Document");
+        document.setCreateDate(new Date());
+        String documentId = new DocumentDao().create(document, user.getId());
+        Tag tag = new Tag();
+        tag.setUserId(user.getId());
+        tag.setName("tag");
+        tag.setColor("#ff0000");
+        String tagId = tagDao.create(tag, user.getId());
+
+        // The group can read the tag
+        createAcl(tagId, PermType.READ, "group1");
+        Assert.assertTrue(aclDao.checkPermission(tagId, PermType.READ, targetIdList));
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+
+        // The document inherits the permission from its tag
+        tagDao.updateTagList(documentId, Sets.newHashSet(tagId));
+        Assert.assertTrue(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.WRITE, targetIdList));
+        Assert.assertEquals(Collections.singletonMap(documentId, Collections.singleton("group1")),
+                aclDao.getTargetIdsByDocumentIds(Collections.singletonList(documentId), PermType.READ));
+
+        // The permission given directly is kept when the tag is removed
+        createAcl(documentId, PermType.READ, "group1");
+        tagDao.updateTagList(documentId, Collections.emptySet());
+        Assert.assertTrue(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+        aclDao.delete(documentId, PermType.READ, "group1", user.getId(), AclType.USER);
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+
+        // The permission of the tag is removed from the document
+        tagDao.updateTagList(documentId, Sets.newHashSet(tagId));
+        aclDao.delete(tagId, PermType.READ, "group1", user.getId(), AclType.USER);
+        Assert.assertFalse(aclDao.checkPermission(tagId, PermType.READ, targetIdList));
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+
+        // Deleted targets are removed
+        ShareDao shareDao = new ShareDao();
+        String shareId = shareDao.create(new Share());
+        createAcl(documentId, PermType.READ, shareId);
+        Assert.assertTrue(aclDao.checkPermission(documentId, PermType.READ, Collections.singletonList(shareId)));
+        shareDao.delete(shareId);
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, Collections.singletonList(shareId)));
+
+        // Deleted documents are removed
+        createAcl(tagId, PermType.READ, "group1");
+        createAcl(documentId, PermType.WRITE, "group2");
+        Assert.assertTrue(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+        Assert.assertTrue(aclDao.checkPermission(documentId, PermType.WRITE, Collections.singletonList("group2")));
+        new DocumentDao().delete(documentId, user.getId());
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.WRITE, Collections.singletonList("group2")));
+        Assert.assertTrue(aclDao.checkPermission(tagId, PermType.READ, targetIdList));
+
+        // Rebuilding gives the same permissions
+        aclDao.rebuildEffectiveAcl();
+        Assert.assertTrue(aclDao.checkPermission(tagId, PermType.READ, targetIdList));
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+    }
+
+    @Test
+    public void testConcurrentRefresh() throws Exception {
+        // A document tagged with a tag readable by a group, committed
+        String[] idList = new String[2];
+        runInTransaction(() -> {
+            User user = createUser("testConcurrentRefresh");
+            Document document = new Document();
+            document.setUserId(user.getId());
+            document.setLanguage("eng");
+            document.setTitle("Document");
+            document.setCreateDate(new Date());
+            idList[0] = new DocumentDao().create(document, user.getId());
+            Tag tag = new Tag();
+            tag.setUserId(user.getId());
+            tag.setName("concurrent");
+            tag.setColor("#ff0000");
+            idList[1] = new TagDao().create(tag, user.getId());
+            createAcl(idList[1], PermType.READ, "group1");
+            new TagDao().updateTagList(idList[0], Sets.newHashSet(idList[1]));
+            return null;
+        }).get();
+
+        // Concurrent refreshes of the same permissions don't conflict
+        CyclicBarrier barrier = new CyclicBarrier(idList.length);
+        List<Future<?>> futureList = new ArrayList<>();
+        for (String sourceId : idList) {
+            futureList.add(runInTransaction(() -> {
+                barrier.await();
+                new AclDao().refreshEffectiveAcl(sourceId);
+                Thread.sleep(200);
+                return null;
+            }));
+        }
+        for (Future<?> future : futureList) {
+            future.get();
+        }
+        Assert.assertTrue(new AclDao().checkPermission(idList[0], PermType.READ, Collections.singletonList("group1")));
+    }
+
+    /**
+     * Run a process in its own transaction on another thread, committed at the end.
+     *
+     * @param callable Process
+     * @return Result of the process and the commit
+     */
+    private static Future<?> runInTransaction(Callable<?> callable) {
+        FutureTask<?> futureTask = new FutureTask<>(() -> {
+            EntityManager em = EMF.get().createEntityManager();
+            ThreadLocalContext.get().setEntityManager(em);
+            try {
+                em.getTransaction().begin();
+                callable.call();
+                em.getTransaction().commit();
+                return null;
+            } finally {
+                ThreadLocalContext.cleanup();
+                em.close();
+            }
+        });
+        new Thread(futureTask).start();
+        return futureTask;
+    }
+
+    /**
+     * Create an ACL.
+     *
+     * @param sourceId Source ID
+     * @param perm Permission
+     * @param targetId Target ID
+     */
+    private void createAcl(String sourceId, PermType perm, String targetId) {
+        Acl acl = new Acl();
+        acl.setSourceId(sourceId);
+        acl.setPerm(perm);
+        acl.setTargetId(targetId);
+        acl.setType(AclType.USER);
+        new AclDao().create(acl, "admin");
+    }
+}
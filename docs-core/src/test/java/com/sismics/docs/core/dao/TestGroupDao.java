@@ -0,0 +1,81 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.criteria.GroupCriteria;
+import com.sismics.docs.core.dao.dto.GroupDto;
+import com.sismics.docs.core.model.jpa.Group;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.model.jpa.UserGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Test of the groups hierarchy.
+ *
+ * @author bgamard
+ */
+public class TestGroupDao extends BaseTransactionalTest {
+    @Test
+    public void testGroupHierarchy() throws Exception {
+        User user = createUser("testGroupHierarchy");
+        GroupDao groupDao = new GroupDao();
+
+        // g1 <- g11 <- g111, g2
+        String g1 = createGroup("g1", null);
+        String g11 = createGroup("g11", g1);
+        String g111 = createGroup("g111", g11);
+        String g2 = createGroup("g2", null);
+        UserGroup userGroup = new UserGroup();
+        userGroup.setGroupId(g111);
+        userGroup.setUserId(user.getId());
+        groupDao.addMember(userGroup);
+        Assert.assertEquals(Set.of("g1", "g11", "g111"), findGroupNames(user.getId(), true));
+        Assert.assertEquals(Set.of("g111"), findGroupNames(user.getId(), false));
+        Assert.assertTrue(groupDao.hasAncestor(g111, g1));
+        Assert.assertTrue(groupDao.hasAncestor(g1, g1));
+        Assert.assertFalse(groupDao.hasAncestor(g1, g111));
+
+        // g2 <- g11 <- g111, g1
+        Group group = groupDao.getActiveById(g11);
+        groupDao.update(new Group().setId(g11).setName(group.getName()).setParentId(g2), "admin");
+        Assert.assertEquals(Set.of("g2", "g11", "g111"), findGroupNames(user.getId(), true));
+        Assert.assertFalse(groupDao.hasAncestor(g111, g1));
+
+        // g11 <- g111, g1
+        groupDao.delete(g2, "admin");
+        Assert.assertEquals(Set.of("g11", "g111"), findGroupNames(user.getId(), true));
+
+        // g111, g1
+        groupDao.delete(g11, "admin");
+        Assert.assertEquals(Set.of("g111"), findGroupNames(user.getId(), true));
+        Assert.assertTrue(groupDao.hasAncestor(g111, g111));
+    }
+
+    /**
+     * Create a group.
+     *
+     * @param name Name
+     * @param parentId Parent group ID
+     * @return Group ID
+     */
+    private String createGroup(String name, String parentId) {
+        return new GroupDao().create(new Group().setName(name).setParentId(parentId), "admin");
+    }
+
+    /**
+     * Returns the names of the groups of a user.
+     *
+     * @param userId User ID
+     * @param recursive True to include the ancestor groups
+     * @return Group names
+     */
+    private Set<String> findGroupNames(String userId, boolean recursive) {
+        return new GroupDao().findByCriteria(new GroupCriteria().setUserId(userId).setRecursive(recursive), null)
+                .stream()
+                .map(GroupDto::getName)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,124 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.dto.TagDto;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.docs.core.model.jpa.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Test of the tags.
+ *
+ * @author bgamard
+ */
+public class TestTagDao extends BaseTransactionalTest {
+    @Test
+    public void testFindByDocumentIds() throws Exception {
+        User user = createUser("testFindByDocumentIds");
+        TagDao tagDao = new TagDao();
+
+        // Two documents sharing a tag, the group can read the tags a and c only
+        String document1Id = createDocument(user);
+        String document2Id = createDocument(user);
+        String document3Id = createDocument(user);
+        String tagAId = createTag(user, "a");
+        String tagBId = createTag(user, "b");
+        String tagCId = createTag(user, "c");
+        createAcl(tagAId, "group1");
+        createAcl(tagCId, "group1");
+        tagDao.updateTagList(document1Id, Sets.newHashSet(tagCId, tagBId, tagAId));
+        tagDao.updateTagList(document2Id, Sets.newHashSet(tagCId));
+        List<String> documentIdList = Arrays.asList(document1Id, document2Id, document3Id);
+
+        // The tags are grouped by document and sorted by name
+        Map<String, List<TagDto>> tagDtoMap = tagDao.findByDocumentIds(documentIdList, null);
+        Assert.assertEquals(2, tagDtoMap.size());
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), getNames(tagDtoMap.get(document1Id)));
+        Assert.assertEquals(Collections.singletonList("c"), getNames(tagDtoMap.get(document2Id)));
+        Assert.assertEquals("testFindByDocumentIds", tagDtoMap.get(document2Id).get(0).getCreator());
+        Assert.assertNull(tagDtoMap.get(document3Id));
+
+        // Only the tags readable by the targets are returned
+        tagDtoMap = tagDao.findByDocumentIds(documentIdList, Collections.singletonList("group1"));
+        Assert.assertEquals(Arrays.asList("a", "c"), getNames(tagDtoMap.get(document1Id)));
+        Assert.assertEquals(Collections.singletonList("c"), getNames(tagDtoMap.get(document2Id)));
+        Assert.assertTrue(tagDao.findByDocumentIds(documentIdList, Collections.singletonList("group2")).isEmpty());
+
+        // Deleted tags are not returned
+        tagDao.delete(tagCId, user.getId());
+        tagDtoMap = tagDao.findByDocumentIds(documentIdList, null);
+        Assert.assertEquals(Arrays.asList("a", "b"), getNames(tagDtoMap.get(document1Id)));
+        Assert.assertNull(tagDtoMap.get(document2Id));
+
+        // Nothing to query without documents
+        Assert.assertTrue(tagDao.findByDocumentIds(Collections.emptyList(), null).isEmpty());
+    }
+
+    /**
+     * Returns the names of some tags.
+     *
+     * @param tagDtoList Tags
+     * @return Names
+     */
+    private static List<String> getNames(List<TagDto> tagDtoList) {
+        return tagDtoList.stream().map(TagDto::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * Create a document.
+     *
+     * @param user Owner
+     * @return Document ID
+     */
+    private static String createDocument(User user) {
+        Document document = new Document();
+        document.setUserId(user.getId());
+        document.setLanguage("eng");
+        document.setTitle("Document");
+        document.setCreateDate(new Date());
+        return new DocumentDao().create(document, user.getId());
+    }
+
+    /**
+     * Create a tag.
+     *
+     * @param user Owner
+     * @param name Name
+     * @return Tag ID
+     */
+    private static String createTag(User user, String name) {
+        Tag tag = new Tag();
+        tag.setUserId(user.getId());
+        tag.setName(name);
+        tag.setColor("#ff0000");
+        return new TagDao().create(tag, user.getId());
+    }
+
+    /**
+     * Give the read permission on a tag.
+     *
+     * @param tagId Tag ID
+     * @param targetId Target ID
+     */
+    private static void createAcl(String tagId, String targetId) {
+        Acl acl = new Acl();
+        acl.setSourceId(tagId);
+        acl.setPerm(PermType.READ);
+        acl.setTargetId(targetId);
+        acl.setType(AclType.USER);
+        new AclDao().create(acl, "admin");
+    }
+}
@@ -0,0 +1,112 @@
+package com.sismics.docs.core.model.context;
+
+import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
+import com.sismics.docs.core.event.FileCreatedAsyncEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test of the event lane executors.
+ *
+ * @author bgamard
+ */
+public class TestEventLaneExecutor {
+    @Test
+    public void abortTest() throws Exception {
+        EventLaneExecutor executor = new EventLaneExecutor(EventLane.PROCESSING, 1, 1, EventLaneExecutor.RejectionPolicy.ABORT);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> awaitQuietly(release));
+        executor.execute(() -> { });
+        try {
+            executor.execute(() -> { });
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // NOP
+        }
+        Assert.assertEquals(1, executor.getQueueSize());
+        Assert.assertEquals(1, executor.getRejectedCount());
+
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, executor.getExecutedCount());
+    }
+
+    @Test
+    public void blockTest() throws Exception {
+        EventLaneExecutor executor = new EventLaneExecutor(EventLane.PROCESSING, 1, 1, EventLaneExecutor.RejectionPolicy.BLOCK);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executedCount = new AtomicInteger();
+        executor.execute(() -> awaitQuietly(release));
+        executor.execute(executedCount::incrementAndGet);
+
+        // The third task waits until the queue has room
+        Thread submitter = new Thread(() -> executor.execute(executedCount::incrementAndGet));
+        submitter.start();
+        submitter.join(200);
+        Assert.assertTrue(submitter.isAlive());
+
+        release.countDown();
+        submitter.join(10000);
+        Assert.assertFalse(submitter.isAlive());
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, executedCount.get());
+        Assert.assertEquals(1, executor.getRejectedCount());
+        Assert.assertTrue(executor.getMaxWaitTime() >= 100);
+    }
+
+    @Test
+    public void laneTest() throws Exception {
+        EventLaneExecutor interactiveExecutor = new EventLaneExecutor(EventLane.INTERACTIVE, 1, 10, EventLaneExecutor.RejectionPolicy.BLOCK);
+        EventLaneExecutor processingExecutor = new EventLaneExecutor(EventLane.PROCESSING, 1, 10, EventLaneExecutor.RejectionPolicy.BLOCK);
+        LaneEventBus eventBus = new LaneEventBus("test", EventLane.INTERACTIVE);
+        eventBus.addLane(interactiveExecutor);
+        eventBus.addLane(processingExecutor);
+
+        // A slow file processing doesn't delay document updates
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch documentUpdated = new CountDownLatch(1);
+        eventBus.register(new Object() {
+            @Subscribe
+            public void on(FileCreatedAsyncEvent event) {
+                awaitQuietly(release);
+            }
+
+            @Subscribe
+            public void on(DocumentUpdatedAsyncEvent event) {
+                documentUpdated.countDown();
+            }
+        });
+        eventBus.post(new FileCreatedAsyncEvent());
+        eventBus.post(new DocumentUpdatedAsyncEvent());
+        Assert.assertTrue(documentUpdated.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, processingExecutor.getExecutedCount());
+
+        release.countDown();
+        interactiveExecutor.shutdown();
+        processingExecutor.shutdown();
+        Assert.assertTrue(processingExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, processingExecutor.getExecutedCount());
+        Assert.assertEquals(1, interactiveExecutor.getExecutedCount());
+    }
+
+    /**
+     * Wait for a latch, ignoring interruptions.
+     *
+     * @param latch Latch
+     */
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sismics.BaseTest;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Test of the PDF export service.
+ *
+ * @author bgamard
+ */
+public class TestPdfExportService extends BaseTest {
+    @Test
+    public void pdfCacheTest() throws Exception {
+        // Document with one image
+        Path storedFile = DirectoryUtil.getStorageDirectory().resolve("pdf_export_cache");
+        try (InputStream inputStream = getSystemResourceAsStream(FILE_JPG)) {
+            Files.copy(inputStream, storedFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        DocumentDto documentDto = new DocumentDto();
+        documentDto.setId("pdf_export_cache_document");
+        documentDto.setTitle("PDF export cache");
+        documentDto.setCreator("user1");
+        documentDto.setLanguage("eng");
+        documentDto.setCreateTimestamp(new Date().getTime());
+        documentDto.setUpdateTimestamp(new Date().getTime());
+        File file = new File();
+        file.setId("pdf_export_cache");
+        file.setVersion(0);
+        file.setMimeType(MimeType.IMAGE_JPEG);
+        List<File> fileList = Lists.newArrayList(file);
+
+        PdfExportService pdfExportService = new PdfExportService();
+        pdfExportService.startAsync();
+        pdfExportService.awaitRunning();
+        try {
+            byte[] pdf;
+            try (InputStream inputStream = pdfExportService.openPdf(documentDto, fileList, true, true, 10)) {
+                pdf = ByteStreams.toByteArray(inputStream);
+            }
+            Assert.assertTrue(pdf.length > 0);
+
+            // The same export is served from the cache, even without the stored file
+            Files.delete(storedFile);
+            try (InputStream inputStream = pdfExportService.openPdf(documentDto, fileList, true, true, 10)) {
+                Assert.assertArrayEquals(pdf, ByteStreams.toByteArray(inputStream));
+            }
+
+            // Other options or a modified document are generated again
+            try {
+                pdfExportService.openPdf(documentDto, fileList, false, true, 10).close();
+                Assert.fail();
+            } catch (Exception e) {
+                // The stored file is gone
+            }
+            documentDto.setUpdateTimestamp(documentDto.getUpdateTimestamp() + 1);
+            try {
+                pdfExportService.openPdf(documentDto, fileList, true, true, 10).close();
+                Assert.fail();
+            } catch (Exception e) {
+                // The stored file is gone
+            }
+            documentDto.setUpdateTimestamp(documentDto.getUpdateTimestamp() - 1);
+
+            // A modified file invalidates the PDFs containing it
+            pdfExportService.invalidateFile("pdf_export_cache");
+            try {
+                pdfExportService.openPdf(documentDto, fileList, true, true, 10).close();
+                Assert.fail();
+            } catch (Exception e) {
+                // The stored file is gone
+            }
+        } finally {
+            pdfExportService.stopAsync();
+            pdfExportService.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void userLimitTest() throws Exception {
+        DocumentDto documentDto = new DocumentDto();
+        documentDto.setId("pdf_export_limit_document");
+        documentDto.setTitle("PDF export limit");
+        documentDto.setCreator("user1");
+        documentDto.setLanguage("eng");
+        documentDto.setCreateTimestamp(new Date().getTime());
+        documentDto.setUpdateTimestamp(new Date().getTime());
+
+        // The exports are held until released
+        CountDownLatch latch = new CountDownLatch(1);
+        List<File> fileList = new ArrayList<File>() {
+            @Override
+            public Iterator<File> iterator() {
+                Uninterruptibles.awaitUninterruptibly(latch);
+                return super.iterator();
+            }
+        };
+
+        PdfExportService pdfExportService = new PdfExportService();
+        pdfExportService.startAsync();
+        pdfExportService.awaitRunning();
+        try {
+            // A user can't queue more exports than the limit
+            List<PdfExportJob> jobList = new ArrayList<>();
+            for (int i = 0; i < Constants.DEFAULT_PDF_EXPORT_USER_LIMIT; i++) {
+                jobList.add(pdfExportService.submit("user1", null, documentDto, fileList, true, true, 10));
+            }
+            Assert.assertNull(pdfExportService.submit("user1", null, documentDto, fileList, true, true, 10));
+            Assert.assertNotNull(pdfExportService.submit("user2", null, documentDto, fileList, true, true, 10));
+
+            // Once finished, the oldest export makes room for a new one
+            latch.countDown();
+            for (PdfExportJob job : jobList) {
+                while (job.getEndTime() == 0) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(PdfExportJob.Status.DONE, job.getStatus());
+            }
+            Assert.assertNotNull(pdfExportService.submit("user1", null, documentDto, fileList, true, true, 10));
+            Assert.assertEquals(Constants.DEFAULT_PDF_EXPORT_USER_LIMIT - 1,
+                    jobList.stream().filter(job -> pdfExportService.getJob(job.getId()) != null).count());
+        } finally {
+            pdfExportService.stopAsync();
+            pdfExportService.awaitTerminated();
+        }
+    }
+}
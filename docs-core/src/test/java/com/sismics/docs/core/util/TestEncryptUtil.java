@@ -9,6 +9,11 @@ import org.junit.Test;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  * Test of the encryption utilities.
@@ -48,4 +53,30 @@ public class TestEncryptUtil extends BaseTest {
         
         Assert.assertEquals(encryptedData.length, assertData.length);
     }
+
+    @Test
+    public void cachedKeyTest() throws Exception {
+        // The cached key gives the same cipher as a freshly derived one
+        EncryptionUtil.clearSecretKeyCache();
+        byte[] decryptedData = ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(
+                getSystemResourceAsStream(FILE_PDF_ENCRYPTED), "OnceUponATime"));
+        byte[] cachedDecryptedData = ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(
+                getSystemResourceAsStream(FILE_PDF_ENCRYPTED), "OnceUponATime"));
+        Assert.assertArrayEquals(decryptedData, cachedDecryptedData);
+        Assert.assertArrayEquals(ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF)), cachedDecryptedData);
+    }
+
+    @Test
+    public void decryptRangeTest() throws Exception {
+        // Decrypting from any offset gives the end of the fully decrypted file
+        byte[] decryptedData = ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF));
+        Path encryptedFile = Paths.get(getResource(FILE_PDF_ENCRYPTED).toURI());
+        for (long offset : new long[] { 0, 1, 15, 16, 17, 4096, 12345, decryptedData.length - 1, decryptedData.length }) {
+            try (SeekableByteChannel channel = Files.newByteChannel(encryptedFile)) {
+                InputStream inputStream = EncryptionUtil.decryptInputStream(channel, "OnceUponATime", offset);
+                Assert.assertArrayEquals(Arrays.copyOfRange(decryptedData, (int) offset, decryptedData.length),
+                        ByteStreams.toByteArray(inputStream));
+            }
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Test of the extraction cache.
+ *
+ * @author bgamard
+ */
+public class TestExtractionCache extends BaseTransactionalTest {
+    @Test
+    public void cacheTest() throws Exception {
+        Path path = Paths.get(getResource(FILE_PDF).toURI());
+        FormatHandler formatHandler = FormatHandlerUtil.find(MimeType.APPLICATION_PDF);
+
+        // Unique content to start from an empty entry
+        Path file = Files.createTempFile("extraction_cache", ".pdf");
+        Files.write(file, Files.readAllBytes(path));
+        Files.write(file, UUID.randomUUID().toString().getBytes(), StandardOpenOption.APPEND);
+        String contentHash = ExtractionCache.hash(file);
+        Assert.assertEquals(64, contentHash.length());
+        Assert.assertNull(ExtractionCache.get(contentHash, "eng", formatHandler));
+
+        // Store and read back an entry
+        byte[] web = new byte[] { 1, 2, 3 };
+        ExtractionCache.put(contentHash, "eng", formatHandler, new ExtractionCache.Entry("Some content", web, null));
+        ExtractionCache.Entry entry = ExtractionCache.get(contentHash, "eng", formatHandler);
+        Assert.assertNotNull(entry);
+        Assert.assertEquals("Some content", entry.getContent());
+        Assert.assertArrayEquals(web, entry.getWeb());
+        Assert.assertNull(entry.getThumb());
+
+        // Another language is another entry
+        Assert.assertNull(ExtractionCache.get(contentHash, "fra", formatHandler));
+
+        // The cached content is encrypted
+        try (Stream<Path> stream = Files.walk(DirectoryUtil.getExtractionCacheDirectory())) {
+            Assert.assertTrue(stream.filter(Files::isRegularFile)
+                    .noneMatch(cachedFile -> {
+                        try {
+                            return new String(Files.readAllBytes(cachedFile)).contains("Some content");
+                        } catch (Exception e) {
+                            return false;
+                        }
+                    }));
+        }
+        Files.delete(file);
+    }
+}
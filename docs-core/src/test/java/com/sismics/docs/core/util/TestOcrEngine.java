@@ -0,0 +1,127 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.BaseTest;
+import com.sismics.docs.core.model.context.AppContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Test of the OCR engine.
+ *
+ * @author bgamard
+ */
+public class TestOcrEngine extends BaseTest {
+    /**
+     * OCR engine.
+     */
+    private OcrEngine ocrEngine;
+
+    @Before
+    public void setUp() {
+        // The application creates its own temporary files while starting
+        AppContext.getInstance();
+        ocrEngine = new OcrEngine();
+    }
+
+    @After
+    public void tearDown() {
+        ocrEngine.shutDown();
+    }
+
+    @Test
+    public void ocrImageTest() throws Exception {
+        Assume.assumeTrue("tesseract is not installed", isTesseractInstalled());
+        Set<Path> temporaryFileSet = listTemporaryFiles();
+
+        String content = ocrEngine.ocrImage("eng", createTextImage("Uranium"));
+        Assert.assertTrue(content.toLowerCase().contains("uranium"));
+        Assert.assertEquals(1, ocrEngine.getPageCount());
+
+        // The temporary files are deleted
+        Set<Path> newTemporaryFileSet = listTemporaryFiles();
+        newTemporaryFileSet.removeAll(temporaryFileSet);
+        Assert.assertEquals(Collections.emptySet(), newTemporaryFileSet);
+    }
+
+    @Test
+    public void ocrImageErrorTest() throws Exception {
+        Set<Path> temporaryFileSet = listTemporaryFiles();
+
+        // tesseract can't be started with this language
+        try {
+            ocrEngine.ocrImage("eng\u0000", createTextImage("Uranium"));
+            Assert.fail();
+        } catch (IOException e) {
+            // NOP
+        }
+        Assert.assertEquals(0, ocrEngine.getPageCount());
+
+        // The temporary files are deleted
+        Set<Path> newTemporaryFileSet = listTemporaryFiles();
+        newTemporaryFileSet.removeAll(temporaryFileSet);
+        Assert.assertEquals(Collections.emptySet(), newTemporaryFileSet);
+    }
+
+    /**
+     * Returns true if tesseract can be run.
+     *
+     * @return True if tesseract is installed
+     */
+    private static boolean isTesseractInstalled() {
+        try {
+            Process process = new ProcessBuilder("tesseract", "--version").redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Draw a text in an image.
+     *
+     * @param text Text
+     * @return Image
+     */
+    private static BufferedImage createTextImage(String text) {
+        BufferedImage image = new BufferedImage(800, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 800, 200);
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 72));
+        graphics.drawString(text, 50, 130);
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Returns the temporary files of the application.
+     *
+     * @return Temporary files
+     * @throws IOException e
+     */
+    private static Set<Path> listTemporaryFiles() throws IOException {
+        Set<Path> temporaryFileSet = new HashSet<>();
+        try (DirectoryStream<Path> pathList = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")), "sismics_docs*")) {
+            for (Path path : pathList) {
+                temporaryFileSet.add(path);
+            }
+        }
+        return temporaryFileSet;
+    }
+}
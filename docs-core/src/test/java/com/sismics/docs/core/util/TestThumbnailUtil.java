@@ -0,0 +1,84 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.BaseTest;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Test of the thumbnails utilities.
+ *
+ * @author bgamard
+ */
+public class TestThumbnailUtil extends BaseTest {
+    @Test
+    public void generateImageTest() throws Exception {
+        // Large image
+        BufferedImage image = new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(0, 0, 2000, 3000);
+        graphics.dispose();
+        Path file = Files.createTempFile("sismics_docs_thumbnail", ".png");
+        try {
+            ImageIO.write(image, "png", file.toFile());
+
+            // Each size is handed over in order
+            List<BufferedImage> thumbnailList = generate(FormatHandlerUtil.find(MimeType.IMAGE_PNG), file);
+            Assert.assertEquals(2, thumbnailList.size());
+            Assert.assertEquals(1280, thumbnailList.get(0).getWidth());
+            Assert.assertEquals(960, thumbnailList.get(0).getHeight());
+            Assert.assertEquals(256, thumbnailList.get(1).getWidth());
+            Assert.assertEquals(192, thumbnailList.get(1).getHeight());
+
+            // Only the requested sizes are handed over
+            List<ThumbnailUtil.Size> sizeList = new ArrayList<>();
+            Assert.assertTrue(ThumbnailUtil.generate("test", FormatHandlerUtil.find(MimeType.IMAGE_PNG), file,
+                    EnumSet.of(ThumbnailUtil.Size.THUMB), (size, data) -> sizeList.add(size)));
+            Assert.assertEquals(Collections.singletonList(ThumbnailUtil.Size.THUMB), sizeList);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void generatePdfTest() throws Exception {
+        // The first page is rendered at the web size
+        Path file = Paths.get(getResource(FILE_PDF).toURI());
+        List<BufferedImage> thumbnailList = generate(FormatHandlerUtil.find(MimeType.APPLICATION_PDF), file);
+        Assert.assertEquals(2, thumbnailList.size());
+        Assert.assertEquals(1280, Math.max(thumbnailList.get(0).getWidth(), thumbnailList.get(0).getHeight()), 1);
+        Assert.assertEquals(256, Math.max(thumbnailList.get(1).getWidth(), thumbnailList.get(1).getHeight()));
+    }
+
+    /**
+     * Generate the thumbnails of a file.
+     *
+     * @param formatHandler Format handler
+     * @param file File
+     * @return Decoded thumbnails
+     * @throws Exception e
+     */
+    private static List<BufferedImage> generate(FormatHandler formatHandler, Path file) throws Exception {
+        List<BufferedImage> thumbnailList = new ArrayList<>();
+        Assert.assertTrue(ThumbnailUtil.generate("test", formatHandler, file, (size, data) -> {
+            Assert.assertEquals(ThumbnailUtil.Size.values()[thumbnailList.size()], size);
+            thumbnailList.add(ImageIO.read(new ByteArrayInputStream(data)));
+        }));
+        return thumbnailList;
+    }
+}
@@ -0,0 +1,91 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.io.ByteStreams;
+import com.sismics.BaseTest;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Test of the ZIP export engine.
+ *
+ * @author bgamard
+ */
+public class TestZipExporter extends BaseTest {
+    @Test
+    public void exportTest() throws Exception {
+        ZipExporter zipExporter = new ZipExporter();
+        try {
+            // Compressible text and already compressed images, the odd ones of several MB staged on disk
+            List<byte[]> dataList = new ArrayList<>();
+            List<ZipExporter.Entry> entryList = new ArrayList<>();
+            AtomicInteger openCount = new AtomicInteger();
+            for (int i = 0; i < 10; i++) {
+                boolean large = i % 2 != 0;
+                boolean text = i % 4 < 2;
+                byte[] data = new byte[large ? ZipExporter.MEMORY_THRESHOLD * (i + 3) / 3 + i : 10_000 + i];
+                if (!text) {
+                    new Random().nextBytes(data);
+                }
+                dataList.add(data);
+                entryList.add(new ZipExporter.Entry(i + ".bin", text ? MimeType.TEXT_PLAIN : MimeType.IMAGE_JPEG,
+                        System.currentTimeMillis(), () -> new ByteArrayInputStream(data) {
+                            {
+                                openCount.incrementAndGet();
+                            }
+
+                            @Override
+                            public void close() {
+                                openCount.decrementAndGet();
+                            }
+                        }));
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            zipExporter.export(entryList, outputStream);
+            Assert.assertEquals(0, openCount.get());
+
+            // Entries are written in order, the text is deflated and the images are stored whatever their size
+            try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+                for (int i = 0; i < 10; i++) {
+                    boolean large = i % 2 != 0;
+                    boolean text = i % 4 < 2;
+                    ZipEntry zipEntry = zipInputStream.getNextEntry();
+                    Assert.assertNotNull(zipEntry);
+                    Assert.assertEquals(i + ".bin", zipEntry.getName());
+                    Assert.assertEquals(text ? ZipEntry.DEFLATED : ZipEntry.STORED, zipEntry.getMethod());
+                    Assert.assertArrayEquals(dataList.get(i), ByteStreams.toByteArray(zipInputStream));
+                    if (text) {
+                        Assert.assertTrue(zipEntry.getCompressedSize() < zipEntry.getSize() / 10);
+                    } else {
+                        Assert.assertEquals(zipEntry.getSize(), zipEntry.getCompressedSize());
+                    }
+                }
+                Assert.assertNull(zipInputStream.getNextEntry());
+            }
+
+            // A failing entry fails the export, and the entries read ahead are released
+            entryList.add(0, new ZipExporter.Entry("error.bin", MimeType.TEXT_PLAIN, System.currentTimeMillis(), () -> {
+                throw new IOException("Unreadable");
+            }));
+            try {
+                zipExporter.export(entryList, new ByteArrayOutputStream());
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertEquals("Unreadable", e.getMessage());
+            }
+            Assert.assertEquals(0, openCount.get());
+        } finally {
+            zipExporter.shutDown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test of the indexing queue.
+ *
+ * @author bgamard
+ */
+public class TestIndexingQueue {
+    @Test
+    public void batchTest() throws Exception {
+        List<Integer> appliedList = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        IndexingQueue<Integer> queue = new IndexingQueue<>(100, 10, mutationList -> {
+            if (mutationList.contains(0)) {
+                // Hold the first batch while the next mutations are queued
+                firstBatchStarted.countDown();
+                try {
+                    releaseFirstBatch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            appliedList.addAll(mutationList);
+        });
+        queue.start("test-indexing");
+
+        queue.submit(0);
+        Assert.assertTrue(firstBatchStarted.await(10, TimeUnit.SECONDS));
+        Future<Void> lastFuture = null;
+        for (int i = 1; i <= 25; i++) {
+            lastFuture = queue.submit(i);
+        }
+        Assert.assertEquals(25, queue.getQueueSize());
+        releaseFirstBatch.countDown();
+        lastFuture.get(10, TimeUnit.SECONDS);
+        queue.stop();
+
+        // Mutations are applied in order, the 25 queued mutations in 3 batches
+        Assert.assertEquals(26, appliedList.size());
+        for (int i = 0; i <= 25; i++) {
+            Assert.assertEquals(i, appliedList.get(i).intValue());
+        }
+        Assert.assertEquals(4, queue.getBatchCount());
+        Assert.assertEquals(26, queue.getMutationCount());
+        Assert.assertEquals(10, queue.getLargestBatchSize());
+        Assert.assertEquals(0, queue.getQueueSize());
+    }
+
+    @Test
+    public void stoppedTest() throws Exception {
+        List<Integer> appliedList = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        IndexingQueue<Integer> queue = new IndexingQueue<>(100, 10, mutationList -> {
+            try {
+                releaseFirstBatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            appliedList.addAll(mutationList);
+        });
+
+        // Mutations are rejected until the queue is started
+        try {
+            queue.submit(0);
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // NOP
+        }
+        queue.start("test-indexing");
+
+        // The mutations submitted before stopping are all applied
+        List<Future<Void>> futureList = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            futureList.add(queue.submit(i));
+        }
+        Thread stopThread = new Thread(queue::stop);
+        stopThread.start();
+        Thread.sleep(100);
+        releaseFirstBatch.countDown();
+        stopThread.join(TimeUnit.SECONDS.toMillis(10));
+        for (Future<Void> future : futureList) {
+            Assert.assertTrue(future.isDone());
+        }
+        Assert.assertEquals(List.of(1, 2, 3, 4, 5), appliedList);
+
+        // Mutations are rejected after the queue is stopped
+        try {
+            queue.submit(6);
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // NOP
+        }
+        Assert.assertEquals(5, appliedList.size());
+    }
+
+    @Test
+    public void awaitTest() throws Exception {
+        List<Integer> appliedList = Collections.synchronizedList(new ArrayList<>());
+        IndexingQueue<Integer> queue = new IndexingQueue<>(100, 10, appliedList::addAll);
+        queue.start("test-indexing");
+
+        // Waiting returns once the previous mutations are applied, and is not counted as a mutation
+        for (int i = 0; i < 20; i++) {
+            queue.submit(i);
+        }
+        queue.await();
+        Assert.assertEquals(20, appliedList.size());
+        Assert.assertEquals(20, queue.getMutationCount());
+        queue.stop();
+    }
+}
@@ -0,0 +1,102 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test of the Lucene indexing handler.
+ *
+ * @author bgamard
+ */
+public class TestLuceneIndexingHandler {
+    @Test
+    public void checkShutdownTest() throws Exception {
+        try (Directory directory = new RAMDirectory()) {
+            // An index closed properly is up to date
+            writeIndex(directory, true);
+            Assert.assertFalse(LuceneIndexingHandler.checkShutdown(directory));
+
+            // A healthy index not closed properly misses its last updates
+            writeIndex(directory, false);
+            Assert.assertTrue(LuceneIndexingHandler.checkShutdown(directory));
+        }
+    }
+
+    @Test
+    public void checkRebuildTest() throws Exception {
+        Path rebuildPath = Files.createTempDirectory("sismics_docs_lucene_rebuild");
+        try (Directory directory = new RAMDirectory()) {
+            // A rebuild interrupted by a clean shutdown is resumed from its checkpoint
+            writeCheckpoint(rebuildPath);
+            writeIndex(directory, true);
+            Assert.assertTrue(LuceneIndexingHandler.checkRebuild(rebuildPath, LuceneIndexingHandler.checkShutdown(directory)));
+            Assert.assertTrue(Files.exists(rebuildPath));
+
+            // A rebuild interrupted by a dirty shutdown starts over
+            writeIndex(directory, false);
+            Assert.assertFalse(LuceneIndexingHandler.checkRebuild(rebuildPath, LuceneIndexingHandler.checkShutdown(directory)));
+            Assert.assertFalse(Files.exists(rebuildPath));
+
+            // Nothing to resume without a rebuild
+            Assert.assertFalse(LuceneIndexingHandler.checkRebuild(rebuildPath, false));
+        } finally {
+            if (Files.exists(rebuildPath)) {
+                LuceneIndexingHandler.checkRebuild(rebuildPath, true);
+            }
+        }
+    }
+
+    /**
+     * Commit a document to an index being rebuilt, with a checkpoint.
+     *
+     * @param rebuildPath Path of the index being rebuilt
+     * @throws Exception e
+     */
+    private static void writeCheckpoint(Path rebuildPath) throws Exception {
+        try (Directory directory = FSDirectory.open(rebuildPath);
+             IndexWriter indexWriter = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            Document document = new Document();
+            document.add(new StringField("id", "1", Field.Store.YES));
+            indexWriter.updateDocument(new Term("id", "1"), document);
+            Map<String, String> commitData = new HashMap<>();
+            commitData.put(LuceneIndexingHandler.REBUILD_PHASE_KEY, "files");
+            commitData.put(LuceneIndexingHandler.REBUILD_LAST_ID_KEY, "1");
+            indexWriter.setLiveCommitData(commitData.entrySet());
+            indexWriter.commit();
+        }
+    }
+
+    /**
+     * Commit a document to an index, with the clean shutdown flag.
+     *
+     * @param directory Index directory
+     * @param cleanShutdown Clean shutdown flag
+     * @throws Exception e
+     */
+    private static void writeIndex(Directory directory, boolean cleanShutdown) throws Exception {
+        try (IndexWriter indexWriter = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            Document document = new Document();
+            document.add(new StringField("id", "1", Field.Store.YES));
+            indexWriter.updateDocument(new Term("id", "1"), document);
+            indexWriter.setLiveCommitData(Collections.singletonMap(LuceneIndexingHandler.CLEAN_SHUTDOWN_KEY,
+                    Boolean.toString(cleanShutdown)).entrySet());
+            indexWriter.commit();
+        }
+    }
+}
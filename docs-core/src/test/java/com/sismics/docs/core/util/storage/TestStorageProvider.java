@@ -0,0 +1,168 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.io.ByteStreams;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.model.context.AppContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Test of the storage providers.
+ *
+ * @author bgamard
+ */
+public class TestStorageProvider extends BaseTransactionalTest {
+    @Test
+    public void contentAddressedTest() throws Exception {
+        Path directory = Files.createTempDirectory("storage");
+        ContentAddressedStorageProvider storageProvider = new ContentAddressedStorageProvider(directory);
+        byte[] data = randomData(1000);
+
+        // Identical contents are stored once
+        storageProvider.write("file1", new ByteArrayInputStream(data));
+        storageProvider.write("file2", new ByteArrayInputStream(data));
+        storageProvider.write("file3", new ByteArrayInputStream(randomData(10)));
+        Assert.assertEquals(3, storageProvider.list().size());
+        Assert.assertEquals(2, countBlobs(directory));
+        try (InputStream inputStream = Files.newInputStream(storageProvider.getLocalPath("file2"))) {
+            Assert.assertArrayEquals(data, ByteStreams.toByteArray(inputStream));
+        }
+
+        // Writing the same key twice with the same content keeps it
+        storageProvider.write("file1", new ByteArrayInputStream(data));
+        Assert.assertEquals(2, countBlobs(directory));
+        try (InputStream inputStream = Files.newInputStream(storageProvider.getLocalPath("file1"))) {
+            Assert.assertArrayEquals(data, ByteStreams.toByteArray(inputStream));
+        }
+        storageProvider.write("file3", new ByteArrayInputStream(randomData(10)));
+        Assert.assertEquals(2, countBlobs(directory));
+        Assert.assertEquals(3, storageProvider.list().size());
+
+        // A blob is removed with its last reference
+        storageProvider.delete("file1");
+        Assert.assertEquals(2, countBlobs(directory));
+        Assert.assertTrue(storageProvider.exists("file2"));
+        storageProvider.delete("file2");
+        Assert.assertEquals(1, countBlobs(directory));
+
+        // Replacing a stored file releases its previous blob
+        storageProvider.write("file3", new ByteArrayInputStream(data));
+        Assert.assertEquals(1, countBlobs(directory));
+        Assert.assertEquals(data.length, storageProvider.getSize("file3"));
+
+        // A copy shares the blob
+        storageProvider.copy("file3", "file4");
+        Assert.assertEquals(1, countBlobs(directory));
+        storageProvider.delete("file3");
+        Assert.assertEquals(1, countBlobs(directory));
+        Assert.assertArrayEquals(new long[] { 1, data.length }, storageProvider.getBlobUsage());
+
+        // Cleaning removes the blobs without references
+        Files.delete(directory.resolve("file4"));
+        storageProvider.clean();
+        Assert.assertEquals(0, countBlobs(directory));
+    }
+
+    @Test
+    public void localTest() throws Exception {
+        Path directory = Files.createTempDirectory("storage");
+        LocalStorageProvider storageProvider = new LocalStorageProvider(directory);
+        byte[] data = randomData(1000);
+
+        // A copy shares the data
+        storageProvider.write("file1", new ByteArrayInputStream(data));
+        storageProvider.copy("file1", "file2");
+        Assert.assertTrue(Files.isSameFile(directory.resolve("file1"), directory.resolve("file2")));
+        Assert.assertEquals(2, storageProvider.list().size());
+
+        // Replacing a file sharing its data doesn't change the other one
+        byte[] otherData = randomData(10);
+        storageProvider.write("file2", new ByteArrayInputStream(otherData));
+        Assert.assertFalse(Files.isSameFile(directory.resolve("file1"), directory.resolve("file2")));
+        Assert.assertArrayEquals(data, Files.readAllBytes(directory.resolve("file1")));
+        Assert.assertArrayEquals(otherData, Files.readAllBytes(directory.resolve("file2")));
+
+        // Sharing replaces the stored data
+        Assert.assertTrue(storageProvider.share("file1", "file2"));
+        Assert.assertArrayEquals(data, Files.readAllBytes(directory.resolve("file2")));
+        storageProvider.delete("file1");
+        Assert.assertArrayEquals(data, Files.readAllBytes(directory.resolve("file2")));
+        Assert.assertEquals(1, storageProvider.list().size());
+    }
+
+    @Test
+    public void memoryTest() throws Exception {
+        StorageProvider previousStorageProvider = AppContext.getInstance().getStorageProvider();
+        AppContext.getInstance().setStorageProvider(new MemoryStorageProvider());
+        try {
+            byte[] data = randomData(5000);
+
+            // Encrypted file
+            StorageUtil.write("encrypted", new ByteArrayInputStream(data), "OnceUponATime");
+            try (InputStream inputStream = Channels.newInputStream(StorageUtil.getStorageProvider().open("encrypted"))) {
+                Assert.assertFalse(Arrays.equals(data, ByteStreams.toByteArray(inputStream)));
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            StorageUtil.transfer(StorageUtil.getStorageProvider().open("encrypted"), "OnceUponATime", 100, 1000, outputStream);
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 100, 1100), outputStream.toByteArray());
+
+            // Unencrypted file
+            StorageUtil.write("unencrypted", new ByteArrayInputStream(data), null);
+            Path unencryptedFile = StorageUtil.getUnencryptedFile("unencrypted", null);
+            Assert.assertArrayEquals(data, Files.readAllBytes(unencryptedFile));
+
+            // Delete a file and its thumbnails
+            StorageUtil.write("unencrypted_thumb", new ByteArrayInputStream(data), null);
+            StorageUtil.delete("unencrypted");
+            Assert.assertEquals(1, StorageUtil.getStorageProvider().list().size());
+
+            // A decrypted file is private, and kept while in use even once evicted
+            UnencryptedFile decryptedFile = StorageUtil.getCachedUnencryptedFile("encrypted", "OnceUponATime");
+            Assert.assertArrayEquals(data, Files.readAllBytes(decryptedFile.getPath()));
+            Assert.assertEquals(PosixFilePermissions.fromString("rwx------"),
+                    Files.getPosixFilePermissions(decryptedFile.getPath().getParent()));
+            StorageUtil.delete("encrypted");
+            Assert.assertTrue(Files.exists(decryptedFile.getPath()));
+            decryptedFile.close();
+            Assert.assertFalse(Files.exists(decryptedFile.getPath()));
+        } finally {
+            AppContext.getInstance().setStorageProvider(previousStorageProvider);
+        }
+    }
+
+    /**
+     * Generate random data.
+     *
+     * @param length Length
+     * @return Data
+     */
+    private static byte[] randomData(int length) {
+        byte[] data = new byte[length];
+        new Random().nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Count the blobs of a content addressed storage.
+     *
+     * @param directory Storage directory
+     * @return Number of blobs
+     * @throws Exception e
+     */
+    private static long countBlobs(Path directory) throws Exception {
+        try (Stream<Path> stream = Files.walk(directory.resolve("blobs"))) {
+            return stream.filter(Files::isRegularFile).count();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.sismics.util.mime.MimeTypeUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -69,4 +70,38 @@ public class TestMimeTypeUtil extends BaseTest {
         path = Paths.get(getResource(FILE_MP4).toURI());
         Assert.assertEquals(MimeType.VIDEO_MP4, MimeTypeUtil.guessMimeType(path, FILE_MP4));
     }
+
+    @Test
+    public void headerTest() throws Exception {
+        // Formats with a signature are recognized without a name
+        Assert.assertEquals(MimeType.OPEN_DOCUMENT_TEXT, MimeTypeUtil.guessMimeType(readHeader(FILE_ODT), null));
+        Assert.assertEquals(MimeType.APPLICATION_PDF, MimeTypeUtil.guessMimeType(readHeader(FILE_PDF), "document.bin"));
+        Assert.assertEquals(MimeType.IMAGE_JPEG, MimeTypeUtil.guessMimeType(readHeader(FILE_JPG), null));
+        Assert.assertEquals(MimeType.IMAGE_GIF, MimeTypeUtil.guessMimeType(readHeader(FILE_GIF), null));
+        Assert.assertEquals(MimeType.IMAGE_PNG, MimeTypeUtil.guessMimeType(readHeader(FILE_PNG), null));
+        Assert.assertEquals(MimeType.VIDEO_WEBM, MimeTypeUtil.guessMimeType(readHeader(FILE_WEBM), null));
+        Assert.assertEquals(MimeType.VIDEO_MP4, MimeTypeUtil.guessMimeType(readHeader(FILE_MP4), null));
+
+        // ZIP based formats are told apart by name
+        Assert.assertEquals(MimeType.OFFICE_DOCUMENT, MimeTypeUtil.guessMimeType(readHeader(FILE_DOCX), FILE_DOCX));
+        Assert.assertEquals(MimeType.OFFICE_SHEET, MimeTypeUtil.guessMimeType(readHeader(FILE_XLSX), FILE_XLSX));
+        Assert.assertEquals(MimeType.APPLICATION_ZIP, MimeTypeUtil.guessMimeType(readHeader(FILE_DOCX), null));
+
+        // Text formats are recognized by name
+        Assert.assertEquals(MimeType.TEXT_CSV, MimeTypeUtil.guessMimeType(readHeader(FILE_CSV), FILE_CSV));
+        Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(readHeader(FILE_TXT), null));
+    }
+
+    /**
+     * Read the first bytes of a test file.
+     *
+     * @param name Resource name
+     * @return First bytes
+     * @throws Exception e
+     */
+    private byte[] readHeader(String name) throws Exception {
+        try (InputStream inputStream = getResource(name).openStream()) {
+            return inputStream.readNBytes(MimeTypeUtil.HEADER_SIZE);
+        }
+    }
 }
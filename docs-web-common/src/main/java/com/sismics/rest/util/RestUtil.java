@@ -1,8 +1,8 @@
 package com.sismics.rest.util;
 
 import com.sismics.docs.core.model.jpa.File;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.util.JsonUtil;
 
@@ -10,7 +10,6 @@ import jakarta.json.Json;
 import jakarta.json.JsonObjectBuilder;
 
 import java.io.IOException;
-import java.nio.file.Files;
 
 /**
  * Rest utilities.
@@ -27,7 +26,7 @@ public class RestUtil {
      */
     public static JsonObjectBuilder fileToJsonObjectBuilder(File fileDb) {
         try {
-            long fileSize = fileDb.getSize().equals(File.UNKNOWN_SIZE) ? Files.size(DirectoryUtil.getStorageDirectory().resolve(fileDb.getId())) : fileDb.getSize();
+            long fileSize = fileDb.getSize().equals(File.UNKNOWN_SIZE) ? StorageUtil.getStorageProvider().getSize(fileDb.getId()) : fileDb.getSize();
             return Json.createObjectBuilder()
                     .add("id", fileDb.getId())
                     .add("processing", FileUtil.isProcessingFile(fileDb.getId()))
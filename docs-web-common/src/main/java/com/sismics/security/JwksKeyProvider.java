@@ -0,0 +1,233 @@
+package com.sismics.security;
+
+import com.auth0.jwt.interfaces.RSAKeyProvider;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Public keys of a JWT issuer, downloaded from its JSON Web Key Set and kept by key ID.
+ * The keys are downloaded again in the background regularly, the current keys being used meanwhile,
+ * and right away when a token is signed by an unknown key, since the issuer may have rotated its keys.
+ *
+ * @author bgamard
+ */
+public class JwksKeyProvider implements RSAKeyProvider {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(JwksKeyProvider.class);
+
+    /**
+     * HTTP client.
+     */
+    private final OkHttpClient client;
+
+    /**
+     * URL of the JSON Web Key Set.
+     */
+    private final String jwksUrl;
+
+    /**
+     * Time in milliseconds after which the keys are downloaded again in the background.
+     */
+    private final long refreshInterval;
+
+    /**
+     * Minimum time in milliseconds between two downloads, so that unknown key IDs don't flood the issuer.
+     */
+    private final long minRefreshInterval;
+
+    /**
+     * Public keys by key ID, replaced as a whole by each download.
+     */
+    private volatile Map<String, RSAPublicKey> keyMap = Collections.emptyMap();
+
+    /**
+     * Time in milliseconds of the last download attempt.
+     */
+    private volatile long refreshTime;
+
+    /**
+     * True while the keys are downloaded in the background.
+     */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * Constructor.
+     *
+     * @param client HTTP client
+     * @param jwksUrl URL of the JSON Web Key Set
+     * @param refreshInterval Time in milliseconds after which the keys are downloaded again in the background
+     * @param minRefreshInterval Minimum time in milliseconds between two downloads
+     */
+    public JwksKeyProvider(OkHttpClient client, String jwksUrl, long refreshInterval, long minRefreshInterval) {
+        this.client = client;
+        this.jwksUrl = jwksUrl;
+        this.refreshInterval = refreshInterval;
+        this.minRefreshInterval = minRefreshInterval;
+    }
+
+    @Override
+    public RSAPublicKey getPublicKeyById(String keyId) {
+        if (keyId == null) {
+            return null;
+        }
+
+        RSAPublicKey publicKey = keyMap.get(keyId);
+        long now = System.currentTimeMillis();
+        if (publicKey == null) {
+            // Unknown key, the keys may have been rotated
+            refresh(now);
+            publicKey = keyMap.get(keyId);
+        } else if (now - refreshTime >= refreshInterval && refreshing.compareAndSet(false, true)) {
+            refreshInBackground(now);
+        }
+        return publicKey;
+    }
+
+    @Override
+    public RSAPrivateKey getPrivateKey() {
+        return null;
+    }
+
+    @Override
+    public String getPrivateKeyId() {
+        return null;
+    }
+
+    /**
+     * Download the keys, unless they have just been downloaded.
+     *
+     * @param now Current time in milliseconds
+     */
+    private synchronized void refresh(long now) {
+        if (now - refreshTime < minRefreshInterval) {
+            return;
+        }
+
+        refreshTime = now;
+        try (Response response = client.newCall(buildRequest()).execute()) {
+            update(response);
+        } catch (Exception e) {
+            log.error("Error downloading the JWT signing keys at: " + jwksUrl, e);
+        }
+    }
+
+    /**
+     * Download the keys in the background.
+     *
+     * @param now Current time in milliseconds
+     */
+    private void refreshInBackground(long now) {
+        refreshTime = now;
+        client.newCall(buildRequest()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                refreshing.set(false);
+                log.error("Error downloading the JWT signing keys at: " + jwksUrl, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    update(response);
+                } catch (Exception e) {
+                    log.error("Error downloading the JWT signing keys at: " + jwksUrl, e);
+                } finally {
+                    refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Build the request downloading the keys.
+     *
+     * @return Request
+     */
+    private Request buildRequest() {
+        return new Request.Builder()
+                .url(jwksUrl)
+                .get()
+                .build();
+    }
+
+    /**
+     * Replace the keys by the downloaded ones.
+     * The current keys are kept if the download failed.
+     *
+     * @param response Response of the issuer
+     * @throws Exception e
+     */
+    private void update(Response response) throws Exception {
+        ResponseBody body = response.body();
+        if (!response.isSuccessful() || body == null) {
+            log.error("Error downloading the JWT signing keys at: " + jwksUrl + " - " + response.code());
+            return;
+        }
+
+        Map<String, RSAPublicKey> newKeyMap = new HashMap<>();
+        try (JsonReader jsonReader = Json.createReader(body.charStream())) {
+            for (JsonValue value : jsonReader.readObject().getJsonArray("keys")) {
+                JsonObject key = value.asJsonObject();
+                if (!key.containsKey("kid") || "enc".equals(key.getString("use", null))) {
+                    continue;
+                }
+                PublicKey publicKey = parsePublicKey(key);
+                if (publicKey instanceof RSAPublicKey) {
+                    newKeyMap.put(key.getString("kid"), (RSAPublicKey) publicKey);
+                }
+            }
+        }
+        keyMap = Collections.unmodifiableMap(newKeyMap);
+        log.info("Downloaded {} JWT signing keys at: {}", newKeyMap.size(), jwksUrl);
+    }
+
+    /**
+     * Parse a public key, from its certificate chain if any or from its RSA parameters.
+     *
+     * @param key JSON Web Key
+     * @return Public key, null if not supported
+     * @throws Exception e
+     */
+    private static PublicKey parsePublicKey(JsonObject key) throws Exception {
+        if (key.containsKey("x5c") && !key.getJsonArray("x5c").isEmpty()) {
+            byte[] certificate = Base64.getDecoder().decode(key.getJsonArray("x5c").getString(0));
+            return CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(certificate))
+                    .getPublicKey();
+        }
+        if ("RSA".equals(key.getString("kty", null)) && key.containsKey("n") && key.containsKey("e")) {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+                    new BigInteger(1, decoder.decode(key.getString("n"))),
+                    new BigInteger(1, decoder.decode(key.getString("e")))));
+        }
+        return null;
+    }
+}
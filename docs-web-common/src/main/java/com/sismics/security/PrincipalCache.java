@@ -0,0 +1,172 @@
+package com.sismics.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Authenticated users principals, by authentication key (for example the authentication token).
+ * Resolving a principal needs the token, the user, its groups and its base functions, for each request.
+ * The entries expire shortly or with their authentication, and are invalidated when the users, groups or tokens change.
+ *
+ * @author bgamard
+ */
+public class PrincipalCache {
+    /**
+     * Time in seconds during which a principal is kept.
+     */
+    private static final int EXPIRATION = EnvironmentUtil.getEnvIntegerValue(Constants.PRINCIPAL_CACHE_EXPIRATION_ENV, Constants.DEFAULT_PRINCIPAL_CACHE_EXPIRATION);
+
+    /**
+     * Principals by authentication key.
+     */
+    private static final Cache<String, Entry> principalCache = CacheBuilder.newBuilder()
+            .maximumSize(EnvironmentUtil.getEnvIntegerValue(Constants.PRINCIPAL_CACHE_SIZE_ENV, Constants.DEFAULT_PRINCIPAL_CACHE_SIZE))
+            .expireAfterWrite(Math.max(EXPIRATION, 0), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    /**
+     * Number of invalidations, a principal resolved during an invalidation may be outdated.
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * Returns the principal of an authentication key.
+     *
+     * @param key Authentication key
+     * @return Principal, null if not cached or if its authentication has expired
+     */
+    public static UserPrincipal get(String key) {
+        if (EXPIRATION <= 0) {
+            return null;
+        }
+        Entry entry = principalCache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiryTime) {
+            principalCache.invalidate(key);
+            return null;
+        }
+        return entry.principal;
+    }
+
+    /**
+     * Returns the current version of the cache, to read before resolving a principal to put.
+     *
+     * @return Version
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Keep the principal of an authentication key.
+     * The principal is not kept if the cache has been invalidated since it started to be resolved.
+     *
+     * @param key Authentication key
+     * @param principal Principal
+     * @param expiryTime Time in milliseconds when the authentication expires
+     * @param resolveVersion Version of the cache read before resolving the principal
+     */
+    public static void put(String key, UserPrincipal principal, long expiryTime, long resolveVersion) {
+        if (EXPIRATION <= 0) {
+            return;
+        }
+        principalCache.put(key, new Entry(principal, expiryTime));
+        if (version.get() != resolveVersion) {
+            principalCache.invalidate(key);
+        }
+    }
+
+    /**
+     * Forget the principal of an authentication key, for example a deleted token.
+     *
+     * @param key Authentication key
+     */
+    public static void invalidate(String key) {
+        invalidate(() -> principalCache.invalidate(key));
+    }
+
+    /**
+     * Forget all the principals of a user.
+     *
+     * @param userId User ID
+     */
+    public static void invalidateUser(String userId) {
+        invalidate(() -> principalCache.asMap().values().removeIf(entry -> entry.principal.getId().equals(userId)));
+    }
+
+    /**
+     * Forget all the principals, for example when the groups hierarchy changes.
+     */
+    public static void invalidateAll() {
+        invalidate(principalCache::invalidateAll);
+    }
+
+    /**
+     * Run an invalidation now, and again after the current transaction is committed,
+     * since the requests resolving principals in the meantime still read the data before the commit.
+     *
+     * @param invalidation Invalidation
+     */
+    private static void invalidate(Runnable invalidation) {
+        Runnable versionedInvalidation = () -> {
+            version.incrementAndGet();
+            invalidation.run();
+        };
+        versionedInvalidation.run();
+        ThreadLocalContext.get().addAfterCommit(versionedInvalidation);
+    }
+
+    /**
+     * Returns the statistics of the cache.
+     *
+     * @return Statistics
+     */
+    public static CacheStats getStats() {
+        return principalCache.stats();
+    }
+
+    /**
+     * Returns the number of principals kept.
+     *
+     * @return Number of principals
+     */
+    public static long getSize() {
+        return principalCache.size();
+    }
+
+    /**
+     * Principal kept with the expiration of its authentication.
+     */
+    private static class Entry {
+        /**
+         * Principal.
+         */
+        private final UserPrincipal principal;
+
+        /**
+         * Time in milliseconds when the authentication expires.
+         */
+        private final long expiryTime;
+
+        /**
+         * Constructor.
+         *
+         * @param principal Principal
+         * @param expiryTime Time in milliseconds when the authentication expires
+         */
+        Entry(UserPrincipal principal, long expiryTime) {
+            this.principal = principal;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -42,4 +42,17 @@ public class HeaderBasedSecurityFilter extends SecurityFilter {
         }
         return new UserDao().getActiveByUsername(username);
     }
+
+    @Override
+    protected String getPrincipalCacheKey(HttpServletRequest request) {
+        if (!enabled) {
+            return null;
+        }
+
+        String username = request.getHeader(AUTHENTICATED_USER_HEADER);
+        if (Strings.isNullOrEmpty(username)) {
+            return null;
+        }
+        return AUTHENTICATED_USER_HEADER + ":" + username;
+    }
 }
\ No newline at end of file
@@ -6,37 +6,33 @@ import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.interfaces.JWTVerifier;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.util.Base64;
-
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.model.jpa.User;
-import jakarta.json.Json;
-import jakarta.json.JsonArray;
-import jakarta.json.JsonObject;
-import jakarta.json.JsonReader;
+import com.sismics.security.JwksKeyProvider;
+import com.sismics.util.EnvironmentUtil;
 import jakarta.servlet.FilterConfig;
 import jakarta.servlet.http.HttpServletRequest;
-import okhttp3.Request;
-import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
-import java.security.interfaces.RSAPublicKey;
-import java.util.Objects;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Optional.ofNullable;
 
 /**
  * This filter is used to authenticate the user having an active session by validating a jwt token.
  * The filter extracts the jwt token stored from Authorization header.
- * It validates the token by calling an Identity Broker like KeyCloak.
+ * It validates the token with the public keys of an Identity Broker like KeyCloak, which are kept in memory.
+ * Only the tokens of the configured issuers are trusted, their keys are never downloaded from another issuer.
  * If validated, the user is retrieved, and the filter injects a UserPrincipal into the request attribute.
  *
  * @author smitra
@@ -44,6 +40,22 @@ import static java.util.Optional.ofNullable;
 public class JwtBasedSecurityFilter extends SecurityFilter {
     private static final Logger log = LoggerFactory.getLogger(JwtBasedSecurityFilter.class);
     private static final okhttp3.OkHttpClient client = new okhttp3.OkHttpClient();
+    /**
+     * Minimum time in seconds between two downloads of the keys of an issuer.
+     */
+    private static final int MIN_JWKS_REFRESH_INTERVAL = 10;
+    /**
+     * Verifiers by trusted issuer, holding the public keys of the issuer.
+     */
+    private final Cache<String, JWTVerifier> verifierCache = CacheBuilder.newBuilder()
+            .build();
+    /**
+     * Verified tokens, valid until their expiration.
+     */
+    private final Cache<String, DecodedJWT> verifiedTokenCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
     /**
      * Name of the header used to store the authentication token.
      */
@@ -52,11 +64,21 @@ public class JwtBasedSecurityFilter extends SecurityFilter {
      * True if this authentication method is enabled.
      */
     private boolean enabled;
+    /**
+     * Trusted issuers.
+     */
+    private final Set<String> trustedIssuerSet = new HashSet<>();
 
     @Override
     public void init(FilterConfig filterConfig) {
         enabled = Boolean.parseBoolean(filterConfig.getInitParameter("enabled"))
                 || Boolean.parseBoolean(System.getProperty("docs.jwt_authentication"));
+        String issuers = ofNullable(filterConfig.getInitParameter("issuers"))
+                .orElse(Strings.nullToEmpty(System.getenv(Constants.JWT_ISSUERS_ENV)));
+        trustedIssuerSet.addAll(Splitter.on(',').trimResults().omitEmptyStrings().splitToList(issuers));
+        if (enabled && trustedIssuerSet.isEmpty()) {
+            log.warn("JWT authentication is enabled without trusted issuer, all tokens will be rejected");
+        }
     }
 
     @Override
@@ -64,11 +86,16 @@ public class JwtBasedSecurityFilter extends SecurityFilter {
         if (!enabled) {
             return null;
         }
-        log.info("Jwt authentication started");
-        User user = null;
         String token = extractAuthToken(request).replace("Bearer ", "");
-        DecodedJWT jwt = JWT.decode(token);
-        if (verifyJwt(jwt, token)) {
+        if (Strings.isNullOrEmpty(token)) {
+            return null;
+        }
+        DecodedJWT jwt = getVerifiedJwt(token);
+        User user = null;
+        if (jwt != null) {
+            if (jwt.getExpiresAt() != null) {
+                request.setAttribute(AUTHENTICATION_EXPIRY_ATTRIBUTE, jwt.getExpiresAt().getTime());
+            }
             String email = jwt.getClaim("preferred_username").toString();
             UserDao userDao = new UserDao();
             user = userDao.getActiveByUsername(email);
@@ -92,25 +119,68 @@ public class JwtBasedSecurityFilter extends SecurityFilter {
         return user;
     }
 
-    private boolean verifyJwt(final DecodedJWT jwt, final String token) {
+    @Override
+    protected String getPrincipalCacheKey(HttpServletRequest request) {
+        if (!enabled) {
+            return null;
+        }
+
+        // Only the principals of the tokens verified and not expired are cached
+        String token = extractAuthToken(request).replace("Bearer ", "");
+        if (Strings.isNullOrEmpty(token) || getCachedJwt(token) == null) {
+            return null;
+        }
+        return HEADER_NAME + ":" + token;
+    }
+
+    /**
+     * Returns a verified token, from the cache if it has already been verified.
+     *
+     * @param token Token
+     * @return Decoded token, null if not valid
+     */
+    private DecodedJWT getVerifiedJwt(final String token) {
+        DecodedJWT jwt = getCachedJwt(token);
+        if (jwt == null) {
+            jwt = verifyJwt(token);
+            if (jwt != null) {
+                verifiedTokenCache.put(token, jwt);
+            }
+        }
+        return jwt;
+    }
+
+    /**
+     * Returns an already verified token, if not expired.
+     *
+     * @param token Token
+     * @return Decoded token, null if not verified or expired
+     */
+    private DecodedJWT getCachedJwt(final String token) {
+        DecodedJWT jwt = verifiedTokenCache.getIfPresent(token);
+        if (jwt != null && jwt.getExpiresAt() != null && !jwt.getExpiresAt().after(new Date())) {
+            verifiedTokenCache.invalidate(token);
+            return null;
+        }
+        return jwt;
+    }
+
+    private DecodedJWT verifyJwt(final String token) {
 
         try {
-            buildJWTVerifier(jwt).verify(token);
+            DecodedJWT jwt = JWT.decode(token);
             // if token is valid no exception will be thrown
+            jwt = getJWTVerifier(jwt).verify(jwt);
             log.info("Valid TOKEN");
-            return Boolean.TRUE;
-        } catch (CertificateException e) {
-            //if CertificateException comes from buildJWTVerifier()
-            log.info("InValid TOKEN: " + e.getMessage());
-            return Boolean.FALSE;
+            return jwt;
         } catch (JWTVerificationException e) {
             // if JWT Token in invalid
             log.info("InValid TOKEN: " + e.getMessage() );
-            return Boolean.FALSE;
+            return null;
         } catch (Exception e) {
             // If any other exception comes
             log.info("InValid TOKEN, Exception Occurred: " + e.getMessage());
-            return Boolean.FALSE;
+            return null;
         }
     }
 
@@ -118,44 +188,21 @@ public class JwtBasedSecurityFilter extends SecurityFilter {
         return ofNullable(request.getHeader("Authorization")).orElse("");
     }
 
-    private RSAPublicKey getPublicKey(DecodedJWT jwt) {
-        String jwtIssuerCerts = jwt.getIssuer() + "/protocol/openid-connect/certs";
-        String publicKey = "";
-        RSAPublicKey rsaPublicKey = null;
-        Request request = new Request.Builder()
-                .url(jwtIssuerCerts)
-                .get()
-                .build();
-        try (Response response = client.newCall(request).execute()) {
-            log.info("Successfully called the jwt issuer at: " + jwtIssuerCerts + " - " + response.code());
-            assert response.body() != null;
-            if (response.isSuccessful()) {
-                try (Reader reader = response.body().charStream()) {
-                    try (JsonReader jsonReader = Json.createReader(reader)) {
-                        JsonObject jwks = jsonReader.readObject();
-                        JsonArray keys = jwks.getJsonArray("keys");
-                        publicKey = keys.stream().filter(key -> Objects.equals(key.asJsonObject().getString("kid"),
-                                        jwt.getKeyId()))
-                                .findFirst()
-                                .map(k -> k.asJsonObject().getJsonArray("x5c").getString(0))
-                                .orElse("");
-                        var decode = Base64.getDecoder().decode(publicKey);
-                        var certificate = CertificateFactory.getInstance("X.509")
-                                .generateCertificate(new ByteArrayInputStream(decode));
-                        rsaPublicKey = (RSAPublicKey) certificate.getPublicKey();
-                    }
-                }
-            }
-        } catch (IOException e) {
-            log.error("Error calling the jwt issuer at: " + jwtIssuerCerts, e);
-        } catch (CertificateException e) {
-            log.error("Error in getting the certificate: ", e);
+    private JWTVerifier getJWTVerifier(DecodedJWT jwt) throws Exception {
+        // The issuer is not verified yet, its keys are only downloaded if it is trusted
+        String issuer = jwt.getIssuer();
+        if (issuer == null || !trustedIssuerSet.contains(issuer)) {
+            throw new JWTVerificationException("Untrusted issuer: " + issuer);
         }
-        return rsaPublicKey;
-    }
-
-    private JWTVerifier buildJWTVerifier(DecodedJWT jwt) throws CertificateException {
-        var algo = Algorithm.RSA256(getPublicKey(jwt), null);
-        return JWT.require(algo).build();
+        String jwtIssuerCerts = issuer + "/protocol/openid-connect/certs";
+        return verifierCache.get(issuer, () -> {
+            long refreshInterval = TimeUnit.MINUTES.toMillis(EnvironmentUtil.getEnvIntegerValue(
+                    Constants.JWKS_REFRESH_INTERVAL_ENV, Constants.DEFAULT_JWKS_REFRESH_INTERVAL));
+            JwksKeyProvider keyProvider = new JwksKeyProvider(client, jwtIssuerCerts, refreshInterval,
+                    TimeUnit.SECONDS.toMillis(MIN_JWKS_REFRESH_INTERVAL));
+            return JWT.require(Algorithm.RSA256(keyProvider))
+                    .withIssuer(issuer)
+                    .build();
+        });
     }
 }
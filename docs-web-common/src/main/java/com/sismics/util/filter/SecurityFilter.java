@@ -8,6 +8,7 @@ import com.sismics.docs.core.dao.criteria.GroupCriteria;
 import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.security.AnonymousPrincipal;
+import com.sismics.security.PrincipalCache;
 import com.sismics.security.UserPrincipal;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
@@ -16,6 +17,7 @@ import org.slf4j.LoggerFactory;
 import jakarta.servlet.*;
 import jakarta.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -34,6 +36,11 @@ public abstract class SecurityFilter implements Filter {
      */
     public static final String PRINCIPAL_ATTRIBUTE = "principal";
 
+    /**
+     * Name of the attribute containing the time in milliseconds when the authentication of the request expires.
+     */
+    protected static final String AUTHENTICATION_EXPIRY_ATTRIBUTE = "authenticationExpiry";
+
     /**
      * Logger.
      */
@@ -54,11 +61,18 @@ public abstract class SecurityFilter implements Filter {
      *
      * @param request HTTP request
      * @param user nullable User to inject
+     * @param cacheKey Key of the principal in the cache, null to not cache it
+     * @param cacheVersion Version of the cache before the user was authenticated
      */
-    private void injectUser(HttpServletRequest request, User user) {
+    private void injectUser(HttpServletRequest request, User user, String cacheKey, long cacheVersion) {
         // Check if the user is still valid
         if (user != null && user.getDeleteDate() == null && user.getDisableDate() == null) {
-            injectAuthenticatedUser(request, user);
+            UserPrincipal userPrincipal = injectAuthenticatedUser(request, user);
+            if (cacheKey != null) {
+                Object expiryTime = request.getAttribute(AUTHENTICATION_EXPIRY_ATTRIBUTE);
+                PrincipalCache.put(cacheKey, userPrincipal,
+                        expiryTime instanceof Long ? (Long) expiryTime : Long.MAX_VALUE, cacheVersion);
+            }
         } else {
             injectAnonymousUser(request);
         }
@@ -69,8 +83,9 @@ public abstract class SecurityFilter implements Filter {
      *
      * @param request HTTP request
      * @param user User to inject
+     * @return Injected principal
      */
-    private void injectAuthenticatedUser(HttpServletRequest request, User user) {
+    private UserPrincipal injectAuthenticatedUser(HttpServletRequest request, User user) {
         UserPrincipal userPrincipal = new UserPrincipal(user.getId(), user.getUsername());
 
         // Add groups
@@ -86,18 +101,19 @@ public abstract class SecurityFilter implements Filter {
                 groupRoleIdSet.add(groupDto.getRoleId());
             }
         }
-        userPrincipal.setGroupIdSet(groupIdSet);
+        userPrincipal.setGroupIdSet(Collections.unmodifiableSet(groupIdSet));
 
         // Add base functions
         groupRoleIdSet.add(user.getRoleId());
         RoleBaseFunctionDao userBaseFunction = new RoleBaseFunctionDao();
         Set<String> baseFunctionSet = userBaseFunction.findByRoleId(groupRoleIdSet);
-        userPrincipal.setBaseFunctionSet(baseFunctionSet);
+        userPrincipal.setBaseFunctionSet(Collections.unmodifiableSet(baseFunctionSet));
 
         // Add email
         userPrincipal.setEmail(user.getEmail());
 
         request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
+        return userPrincipal;
     }
 
     /**
@@ -127,8 +143,16 @@ public abstract class SecurityFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) req;
 
         if (!hasIdentifiedUser(request)) {
-            User user = authenticate(request);
-            injectUser(request, user);
+            // The principals are shared by the requests with the same authentication
+            String cacheKey = getPrincipalCacheKey(request);
+            UserPrincipal userPrincipal = cacheKey == null ? null : PrincipalCache.get(cacheKey);
+            if (userPrincipal != null) {
+                request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
+            } else {
+                long cacheVersion = PrincipalCache.getVersion();
+                User user = authenticate(request);
+                injectUser(request, user, cacheKey, cacheVersion);
+            }
         }
 
         filterChain.doFilter(request, response);
@@ -136,10 +160,22 @@ public abstract class SecurityFilter implements Filter {
 
     /**
      * Authenticates an user from the given request parameters.
+     * The expiration of the authentication can be set in the request attribute AUTHENTICATION_EXPIRY_ATTRIBUTE.
      *
      * @param request HTTP request
      * @return nullable User
      */
     protected abstract User authenticate(HttpServletRequest request);
 
+    /**
+     * Returns the key of the principal authenticated by the given request parameters in the cache.
+     * The principals are not cached by default.
+     *
+     * @param request HTTP request
+     * @return nullable cache key
+     */
+    protected String getPrincipalCacheKey(HttpServletRequest request) {
+        return null;
+    }
+
 }
\ No newline at end of file
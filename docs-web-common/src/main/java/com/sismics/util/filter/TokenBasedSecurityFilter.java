@@ -67,20 +67,19 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
     }
 
     /**
-     * Returns true if the token is expired.
+     * Returns the time when the token expires.
      * 
      * @param authenticationToken Authentication token
-     * @return Token expired
+     * @return Expiry time in milliseconds
      */
-    private boolean isTokenExpired(AuthenticationToken authenticationToken) {
-        final long now = new Date().getTime();
+    private long getTokenExpiryTime(AuthenticationToken authenticationToken) {
         final long creationDate = authenticationToken.getCreationDate().getTime();
         if (authenticationToken.isLongLasted()) {
-            return now >= creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
+            return creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
         } else {
             long date = authenticationToken.getLastConnectionDate() != null ?
                     authenticationToken.getLastConnectionDate().getTime() : creationDate;
-            return now >= date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
+            return date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
         }
     }
 
@@ -99,11 +98,19 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
             return null;
         }
 
-        if (isTokenExpired(authToken)) {
+        long expiryTime = getTokenExpiryTime(authToken);
+        if (new Date().getTime() >= expiryTime) {
             handleExpiredToken(authTokenDao, authTokenId);
             return null;
         }
+        request.setAttribute(AUTHENTICATION_EXPIRY_ATTRIBUTE, expiryTime);
 
         return new UserDao().getById(authToken.getUserId());
     }
+
+    @Override
+    protected String getPrincipalCacheKey(HttpServletRequest request) {
+        // The principals are cached by authentication token, see PrincipalCache.invalidate
+        return extractAuthToken(request.getCookies());
+    }
 }
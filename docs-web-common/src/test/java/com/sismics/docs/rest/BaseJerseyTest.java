@@ -1,5 +1,6 @@
 package com.sismics.docs.rest;
 
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.rest.util.ClientUtil;
 import com.sismics.util.filter.HeaderBasedSecurityFilter;
 import com.sismics.util.filter.RequestContextFilter;
@@ -7,6 +8,7 @@ import com.sismics.util.filter.TokenBasedSecurityFilter;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.servlet.ServletRegistration;
 import org.glassfish.grizzly.servlet.WebappContext;
+import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.servlet.ServletContainer;
 import org.glassfish.jersey.test.JerseyTest;
 import org.glassfish.jersey.test.TestProperties;
@@ -20,6 +22,7 @@ import org.subethamail.wiser.WiserMessage;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
+import jakarta.ws.rs.client.ClientRequestFilter;
 import jakarta.ws.rs.core.Application;
 import jakarta.ws.rs.core.UriBuilder;
 import java.io.ByteArrayOutputStream;
@@ -84,6 +87,18 @@ public abstract class BaseJerseyTest extends JerseyTest {
         return new Application();
     }
     
+    @Override
+    protected void configureClient(ClientConfig config) {
+        // The index is refreshed in background, wait for the previous writes before each request
+        config.register((ClientRequestFilter) requestContext -> {
+            try {
+                AppContext.getInstance().getIndexingHandler().awaitSearchable();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        });
+    }
+
     @Override
     protected URI getBaseUri() {
         return UriBuilder.fromUri(super.getBaseUri()).path("docs").build();
@@ -0,0 +1,190 @@
+package com.sismics.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test of the JWT issuer keys provider, against a local issuer.
+ *
+ * @author bgamard
+ */
+public class TestJwksKeyProvider {
+    /**
+     * Local issuer.
+     */
+    private HttpServer server;
+
+    /**
+     * JSON Web Key Set served by the issuer.
+     */
+    private volatile String jwks;
+
+    /**
+     * Number of downloads of the keys.
+     */
+    private final AtomicInteger downloadCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/protocol/openid-connect/certs", exchange -> {
+            downloadCount.incrementAndGet();
+            byte[] data = jwks.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(data);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testKeyRotation() throws Exception {
+        KeyPair keyPair1 = generateKeyPair();
+        KeyPair keyPair2 = generateKeyPair();
+        String token1 = sign("key1", keyPair1);
+        String token2 = sign("key2", keyPair2);
+
+        jwks = buildJwks("key1", keyPair1);
+        JwksKeyProvider keyProvider = new JwksKeyProvider(new OkHttpClient(), getJwksUrl(), 3600000L, 200L);
+        JWTVerifier verifier = JWT.require(Algorithm.RSA256(keyProvider)).build();
+
+        // The keys are downloaded once
+        Assert.assertEquals("user1", verifier.verify(token1).getClaim("preferred_username").asString());
+        Assert.assertEquals("user1", verifier.verify(token1).getClaim("preferred_username").asString());
+        Assert.assertEquals(1, downloadCount.get());
+
+        // The issuer rotates its keys, the unknown key is downloaded right away
+        Thread.sleep(250);
+        jwks = buildJwks("key2", keyPair2);
+        Assert.assertEquals("user1", verifier.verify(token2).getClaim("preferred_username").asString());
+        Assert.assertEquals(2, downloadCount.get());
+
+        // Unknown keys don't trigger a download again right away
+        try {
+            verifier.verify(token1);
+            Assert.fail();
+        } catch (JWTVerificationException e) {
+            // NOP
+        }
+        try {
+            verifier.verify(sign("key3", keyPair1));
+            Assert.fail();
+        } catch (JWTVerificationException e) {
+            // NOP
+        }
+        Assert.assertEquals(2, downloadCount.get());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        KeyPair keyPair1 = generateKeyPair();
+        KeyPair keyPair2 = generateKeyPair();
+
+        jwks = buildJwks("key1", keyPair1);
+        JwksKeyProvider keyProvider = new JwksKeyProvider(new OkHttpClient(), getJwksUrl(), 100L, 100L);
+        Assert.assertNotNull(keyProvider.getPublicKeyById("key1"));
+        Assert.assertEquals(1, downloadCount.get());
+
+        // The current keys are used while downloading them again
+        Thread.sleep(150);
+        jwks = buildJwks("key2", keyPair2);
+        Assert.assertNotNull(keyProvider.getPublicKeyById("key1"));
+        for (int i = 0; i < 50 && keyProvider.getPublicKeyById("key2") == null; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertNotNull(keyProvider.getPublicKeyById("key2"));
+        Assert.assertNull(keyProvider.getPublicKeyById("key1"));
+    }
+
+    /**
+     * Returns the URL of the local issuer keys.
+     *
+     * @return URL
+     */
+    private String getJwksUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/protocol/openid-connect/certs";
+    }
+
+    /**
+     * Generate a RSA key pair.
+     *
+     * @return Key pair
+     * @throws Exception e
+     */
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Sign a token valid for a minute.
+     *
+     * @param keyId Key ID
+     * @param keyPair Key pair
+     * @return Token
+     */
+    private static String sign(String keyId, KeyPair keyPair) {
+        return JWT.create()
+                .withKeyId(keyId)
+                .withClaim("preferred_username", "user1")
+                .withExpiresAt(new Date(System.currentTimeMillis() + 60000))
+                .sign(Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate()));
+    }
+
+    /**
+     * Build a JSON Web Key Set of a single key.
+     *
+     * @param keyId Key ID
+     * @param keyPair Key pair
+     * @return JSON Web Key Set
+     */
+    private static String buildJwks(String keyId, KeyPair keyPair) {
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return "{\"keys\":[{\"kid\":\"" + keyId + "\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\""
+                + ",\"n\":\"" + encoder.encodeToString(toUnsignedBytes(publicKey.getModulus().toByteArray())) + "\""
+                + ",\"e\":\"" + encoder.encodeToString(publicKey.getPublicExponent().toByteArray()) + "\"}]}";
+    }
+
+    /**
+     * Remove the sign byte of a big integer.
+     *
+     * @param bytes Big integer bytes
+     * @return Unsigned bytes
+     */
+    private static byte[] toUnsignedBytes(byte[] bytes) {
+        if (bytes[0] != 0) {
+            return bytes;
+        }
+        byte[] unsignedBytes = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 1, unsignedBytes, 0, unsignedBytes.length);
+        return unsignedBytes;
+    }
+}
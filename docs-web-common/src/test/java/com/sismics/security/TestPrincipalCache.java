@@ -0,0 +1,55 @@
+package com.sismics.security;
+
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test of the principals cache.
+ *
+ * @author bgamard
+ */
+public class TestPrincipalCache {
+    @After
+    public void tearDown() {
+        ThreadLocalContext.cleanup();
+        PrincipalCache.invalidateAll();
+        ThreadLocalContext.cleanup();
+    }
+
+    @Test
+    public void expiryTest() {
+        UserPrincipal principal = new UserPrincipal("expiry1", "expiry1");
+
+        // A principal is kept until its authentication expires
+        PrincipalCache.put("token1", principal, System.currentTimeMillis() + 60000, PrincipalCache.getVersion());
+        Assert.assertSame(principal, PrincipalCache.get("token1"));
+        PrincipalCache.put("token2", principal, System.currentTimeMillis() - 1, PrincipalCache.getVersion());
+        Assert.assertNull(PrincipalCache.get("token2"));
+    }
+
+    @Test
+    public void invalidateTest() {
+        UserPrincipal principal = new UserPrincipal("invalidate1", "invalidate1");
+        PrincipalCache.put("token1", principal, Long.MAX_VALUE, PrincipalCache.getVersion());
+        PrincipalCache.put("token2", new UserPrincipal("invalidate2", "invalidate2"), Long.MAX_VALUE, PrincipalCache.getVersion());
+
+        // The principals of a user are invalidated now
+        long version = PrincipalCache.getVersion();
+        PrincipalCache.invalidateUser("invalidate1");
+        Assert.assertNull(PrincipalCache.get("token1"));
+        Assert.assertNotNull(PrincipalCache.get("token2"));
+
+        // A principal resolved before the invalidation is not kept
+        PrincipalCache.put("token1", principal, Long.MAX_VALUE, version);
+        Assert.assertNull(PrincipalCache.get("token1"));
+
+        // A principal resolved before the commit is invalidated after the commit
+        PrincipalCache.put("token1", principal, Long.MAX_VALUE, PrincipalCache.getVersion());
+        Assert.assertSame(principal, PrincipalCache.get("token1"));
+        ThreadLocalContext.get().runAfterCommit();
+        Assert.assertNull(PrincipalCache.get("token1"));
+        Assert.assertNotNull(PrincipalCache.get("token2"));
+    }
+}
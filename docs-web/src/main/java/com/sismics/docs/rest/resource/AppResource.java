@@ -1,26 +1,37 @@
 package com.sismics.docs.rest.resource;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.dao.DocumentDao;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.dao.dto.FileDuplicateDto;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.context.EventLaneExecutor;
 import com.sismics.docs.core.model.jpa.Config;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.service.InboxService;
 import com.sismics.docs.core.util.ConfigUtil;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.OcrEngine;
+import com.sismics.docs.core.util.indexing.IndexRebuildProgress;
+import com.sismics.docs.core.util.indexing.IndexingQueue;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
+import com.sismics.docs.core.util.storage.ContentAddressedStorageProvider;
+import com.sismics.docs.core.util.storage.StorageProvider;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.security.PrincipalCache;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.log4j.LogCriteria;
@@ -40,8 +51,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.text.MessageFormat;
 import java.util.*;
 
@@ -68,6 +77,33 @@ public class AppResource extends BaseResource {
      * @apiSuccess {Boolean} guest_login True if guest login is enabled
      * @apiSuccess {String} default_language Default platform language
      * @apiSuccess {Number} queued_tasks Number of queued tasks waiting to be processed
+     * @apiSuccess {Number} indexing_queue_size Number of index mutations waiting to be applied
+     * @apiSuccess {Number} indexing_batch_count Number of index mutation batches applied
+     * @apiSuccess {Number} indexing_last_batch_size Size of the last index mutation batch
+     * @apiSuccess {Number} indexing_largest_batch_size Size of the largest index mutation batch
+     * @apiSuccess {Number} indexing_average_batch_size Average size of the index mutation batches
+     * @apiSuccess {Number} ocr_thread_count Number of threads rendering and recognizing pages
+     * @apiSuccess {Number} ocr_max_processes Maximum number of concurrent tesseract processes
+     * @apiSuccess {Number} ocr_active_processes Number of tesseract processes running
+     * @apiSuccess {Number} ocr_page_count Number of pages recognized
+     * @apiSuccess {Number} ocr_average_page_time Average time to recognize a page (in milliseconds)
+     * @apiSuccess {Number} ocr_timeout_count Number of pages or files which timed out
+     * @apiSuccess {Number} principal_cache_size Number of authenticated users kept in memory
+     * @apiSuccess {Number} principal_cache_hit_count Number of requests authenticated from memory
+     * @apiSuccess {Number} principal_cache_miss_count Number of requests authenticated from the database
+     * @apiSuccess {Number} principal_cache_hit_rate Ratio of the requests authenticated from memory
+     * @apiSuccess {Object[]} event_lanes Asynchronous event lanes
+     * @apiSuccess {String} event_lanes.name Lane name (INTERACTIVE, PROCESSING, BATCH or MAIL)
+     * @apiSuccess {Number} event_lanes.thread_count Number of threads
+     * @apiSuccess {Number} event_lanes.active_count Number of tasks running
+     * @apiSuccess {Number} event_lanes.queue_size Number of tasks waiting to be processed
+     * @apiSuccess {Number} event_lanes.queue_capacity Maximum number of waiting tasks
+     * @apiSuccess {Number} event_lanes.executed_count Number of tasks executed
+     * @apiSuccess {Number} event_lanes.rejected_count Number of tasks submitted while the queue was full
+     * @apiSuccess {Number} event_lanes.average_wait_time Average time spent waiting (in milliseconds)
+     * @apiSuccess {Number} event_lanes.max_wait_time Longest time spent waiting (in milliseconds)
+     * @apiSuccess {Number} event_lanes.average_execution_time Average execution time (in milliseconds)
+     * @apiSuccess {Number} event_lanes.max_execution_time Longest execution time (in milliseconds)
      * @apiSuccess {String} total_memory Allocated JVM memory (in bytes)
      * @apiSuccess {String} free_memory Free JVM memory (in bytes)
      * @apiSuccess {String} document_count Number of documents
@@ -110,6 +146,42 @@ public class AppResource extends BaseResource {
         if (globalQuota > 0) {
             response.add("global_storage_quota", globalQuota);
         }
+        IndexingQueue<?> indexingQueue = AppContext.getInstance().getIndexingHandler().getIndexingQueue();
+        if (indexingQueue != null) {
+            response.add("indexing_queue_size", indexingQueue.getQueueSize())
+                    .add("indexing_batch_count", indexingQueue.getBatchCount())
+                    .add("indexing_last_batch_size", indexingQueue.getLastBatchSize())
+                    .add("indexing_largest_batch_size", indexingQueue.getLargestBatchSize())
+                    .add("indexing_average_batch_size", indexingQueue.getAverageBatchSize());
+        }
+        OcrEngine ocrEngine = AppContext.getInstance().getOcrEngine();
+        response.add("ocr_thread_count", ocrEngine.getThreadCount())
+                .add("ocr_max_processes", ocrEngine.getMaxProcessCount())
+                .add("ocr_active_processes", ocrEngine.getActiveProcessCount())
+                .add("ocr_page_count", ocrEngine.getPageCount())
+                .add("ocr_average_page_time", ocrEngine.getAveragePageTime())
+                .add("ocr_timeout_count", ocrEngine.getTimeoutCount());
+        CacheStats principalCacheStats = PrincipalCache.getStats();
+        response.add("principal_cache_size", PrincipalCache.getSize())
+                .add("principal_cache_hit_count", principalCacheStats.hitCount())
+                .add("principal_cache_miss_count", principalCacheStats.missCount())
+                .add("principal_cache_hit_rate", principalCacheStats.hitRate());
+        JsonArrayBuilder eventLanes = Json.createArrayBuilder();
+        for (EventLaneExecutor executor : AppContext.getInstance().getAsyncExecutorList()) {
+            eventLanes.add(Json.createObjectBuilder()
+                    .add("name", executor.getLane().name())
+                    .add("thread_count", executor.getMaximumPoolSize())
+                    .add("active_count", executor.getActiveCount())
+                    .add("queue_size", executor.getQueueSize())
+                    .add("queue_capacity", executor.getQueueCapacity())
+                    .add("executed_count", executor.getExecutedCount())
+                    .add("rejected_count", executor.getRejectedCount())
+                    .add("average_wait_time", executor.getAverageWaitTime())
+                    .add("max_wait_time", executor.getMaxWaitTime())
+                    .add("average_execution_time", executor.getAverageExecutionTime())
+                    .add("max_execution_time", executor.getMaxExecutionTime()));
+        }
+        response.add("event_lanes", eventLanes);
 
         return Response.ok().entity(response.build()).build();
     }
@@ -632,6 +704,126 @@ public class AppResource extends BaseResource {
         return Response.ok().entity(response.build()).build();
     }
 
+    /**
+     * Get the progress of the search index rebuild.
+     *
+     * @api {get} /app/batch/reindex Get the search index rebuild progress
+     * @apiName GetAppBatchReindex
+     * @apiGroup App
+     * @apiSuccess {String="IDLE","RUNNING","COMPLETED","FAILED"} status Rebuild status
+     * @apiSuccess {String} phase Current phase (documents or files)
+     * @apiSuccess {Boolean} resumed True if the rebuild resumed from a checkpoint
+     * @apiSuccess {Number} document_count Number of documents indexed
+     * @apiSuccess {Number} document_total Number of documents to index
+     * @apiSuccess {Number} file_count Number of files indexed
+     * @apiSuccess {Number} file_total Number of files to index
+     * @apiSuccess {Number} start_date Start date (timestamp)
+     * @apiSuccess {Number} end_date End date (timestamp)
+     * @apiSuccess {String} error Error message of the last failure
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.12.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/reindex")
+    public Response batchReindexProgress() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        IndexRebuildProgress progress = AppContext.getInstance().getIndexingHandler().getRebuildProgress();
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", progress.getStatus().name())
+                .add("phase", JsonUtil.nullable(progress.getPhase()))
+                .add("resumed", progress.isResumed())
+                .add("document_count", progress.getDocumentCount())
+                .add("document_total", progress.getDocumentTotal())
+                .add("file_count", progress.getFileCount())
+                .add("file_total", progress.getFileTotal())
+                .add("start_date", JsonUtil.nullable(progress.getStartDate()))
+                .add("end_date", JsonUtil.nullable(progress.getEndDate()))
+                .add("error", JsonUtil.nullable(progress.getError()));
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Get the report of the files stored with the same content.
+     *
+     * @api {get} /app/dedup Get the files deduplication report
+     * @apiName GetAppDedup
+     * @apiGroup App
+     * @apiSuccess {Number} file_count Number of files
+     * @apiSuccess {Number} hashed_file_count Number of files with a content hash, files uploaded before are not reported
+     * @apiSuccess {Number} duplicate_file_count Number of files with the content of another file of the same user
+     * @apiSuccess {Number} duplicate_size Size of the duplicate files in bytes
+     * @apiSuccess {Boolean} deduplicated True if the storage stores identical contents once
+     * @apiSuccess {Number} blob_count Number of distinct contents stored, if deduplicated
+     * @apiSuccess {Number} blob_size Size of the distinct contents stored in bytes, if deduplicated
+     * @apiSuccess {Object[]} duplicates Largest duplicates
+     * @apiSuccess {String} duplicates.hash Content hash
+     * @apiSuccess {String} duplicates.username Username of the user whom created the files
+     * @apiSuccess {Number} duplicates.count Number of files with this content
+     * @apiSuccess {Number} duplicates.size Size of the content in bytes
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (server) FileError Error reading the storage
+     * @apiPermission admin
+     * @apiVersion 1.12.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("dedup")
+    public Response dedup() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        FileDao fileDao = new FileDao();
+        UserDao userDao = new UserDao();
+        List<FileDuplicateDto> duplicateList = fileDao.findDuplicates();
+        long duplicateFileCount = 0;
+        long duplicateSize = 0;
+        JsonArrayBuilder duplicates = Json.createArrayBuilder();
+        for (FileDuplicateDto duplicate : duplicateList) {
+            duplicateFileCount += duplicate.getCount() - 1;
+            duplicateSize += duplicate.getDuplicateSize();
+        }
+        for (FileDuplicateDto duplicate : duplicateList.subList(0, Math.min(duplicateList.size(), 20))) {
+            User user = userDao.getById(duplicate.getUserId());
+            duplicates.add(Json.createObjectBuilder()
+                    .add("hash", duplicate.getHash())
+                    .add("username", user == null ? "" : user.getUsername())
+                    .add("count", duplicate.getCount())
+                    .add("size", duplicate.getSize()));
+        }
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("file_count", fileDao.getFileCount())
+                .add("hashed_file_count", fileDao.getHashedFileCount())
+                .add("duplicate_file_count", duplicateFileCount)
+                .add("duplicate_size", duplicateSize)
+                .add("duplicates", duplicates);
+        StorageProvider storageProvider = StorageUtil.getStorageProvider();
+        if (storageProvider instanceof ContentAddressedStorageProvider
+                && ((ContentAddressedStorageProvider) storageProvider).isLinkSupported()) {
+            try {
+                long[] blobUsage = ((ContentAddressedStorageProvider) storageProvider).getBlobUsage();
+                response.add("deduplicated", true)
+                        .add("blob_count", blobUsage[0])
+                        .add("blob_size", blobUsage[1]);
+            } catch (IOException e) {
+                throw new ServerException("FileError", "Error reading the storage", e);
+            }
+        } else {
+            response.add("deduplicated", false);
+        }
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Clean storage.
      *
@@ -664,15 +856,18 @@ public class AppResource extends BaseResource {
         log.info("Checking {} files", fileMap.size());
 
         // Check if each stored file is valid
-        try (DirectoryStream<java.nio.file.Path> storedFileList = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory())) {
-            for (java.nio.file.Path storedFile : storedFileList) {
-                String fileName = storedFile.getFileName().toString();
-                String[] fileNameArray = fileName.split("_");
-                if (!fileMap.containsKey(fileNameArray[0])) {
-                    log.info("Deleting orphan files at this location: {}", storedFile);
-                    Files.delete(storedFile);
+        try {
+            StorageProvider storageProvider = StorageUtil.getStorageProvider();
+            for (String key : storageProvider.list()) {
+                String[] keyArray = key.split("_");
+                if (!fileMap.containsKey(keyArray[0])) {
+                    log.info("Deleting orphan stored file: {}", key);
+                    storageProvider.delete(key);
                 }
             }
+
+            // Remove the contents not referenced anymore
+            storageProvider.clean();
         } catch (IOException e) {
             throw new ServerException("FileError", "Error deleting orphan files", e);
         }
@@ -733,6 +928,9 @@ public class AppResource extends BaseResource {
         q.setParameter("dateNow", new Date());
         log.info("Deleting {} orphan files", q.executeUpdate());
 
+        // Compute again the effective permissions without the deleted data
+        new AclDao().rebuildEffectiveAcl();
+
         // Hard delete softly deleted data
         log.info("Deleting {} soft deleted document tag links", em.createQuery("delete DocumentTag where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted ACLs", em.createQuery("delete Acl where deleteDate is not null").executeUpdate());
@@ -1,6 +1,7 @@
 package com.sismics.docs.rest.resource;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.AclType;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
@@ -29,14 +30,15 @@ import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.service.PdfExportJob;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.DocumentUtil;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.MetadataUtil;
-import com.sismics.docs.core.util.PdfUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.SortCriteria;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.docs.rest.util.DocumentSearchCriteriaUtil;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
@@ -64,7 +66,6 @@ import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataParam;
@@ -79,15 +80,17 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * Document REST resources.
@@ -331,20 +334,15 @@ public class DocumentResource extends BaseResource {
         }
 
         // Get files
-        FileDao fileDao = new FileDao();
-        UserDao userDao = new UserDao();
-        final List<File> fileList = fileDao.getByDocumentId(null, documentId);
-        for (File file : fileList) {
-            // A file is always encrypted by the creator of it
-            // Store its private key to decrypt it
-            User user = userDao.getById(file.getUserId());
-            file.setPrivateKey(user.getPrivateKey());
-        }
+        final List<File> fileList = getPdfFileList(documentId);
 
-        // Convert to PDF
+        // Convert to PDF, or reuse the PDF of an identical export
         StreamingOutput stream = outputStream -> {
-            try {
-                PdfUtil.convertToPdf(documentDto, fileList, fitImageToPage, metadata, margin, outputStream);
+            try (InputStream inputStream = AppContext.getInstance().getPdfExportService().openPdf(documentDto, fileList,
+                    Boolean.TRUE.equals(fitImageToPage), Boolean.TRUE.equals(metadata), margin)) {
+                ByteStreams.copy(inputStream, outputStream);
+            } catch (IOException e) {
+                throw e;
             } catch (Exception e) {
                 throw new IOException(e);
             }
@@ -356,6 +354,180 @@ public class DocumentResource extends BaseResource {
                 .build();
     }
 
+    /**
+     * Start exporting a document to PDF in the background.
+     *
+     * @api {post} /document/:id/pdf Start exporting a document to PDF in the background
+     * @apiDescription Large documents can take a while to export, the export status is then polled until it can be downloaded.
+     * @apiName PostDocumentPdf
+     * @apiGroup Document
+     * @apiParam {String} id Document ID
+     * @apiParam {String} share Share ID
+     * @apiParam {Boolean} metadata If true, export metadata
+     * @apiParam {Boolean} fitimagetopage If true, fit the images to pages
+     * @apiParam {Number} margin Margin around the pages, in millimeter
+     * @apiSuccess {String} id Export ID
+     * @apiSuccess {String} status Export status (PENDING, RUNNING, DONE or ERROR)
+     * @apiError (client) NotFound Document not found
+     * @apiError (client) ValidationError Validation error
+     * @apiError (client) TooManyExports Too many exports are running for this user (status 429)
+     * @apiPermission none
+     * @apiVersion 1.12.0
+     *
+     * @param documentId Document ID
+     * @param shareId Share ID
+     * @param metadata Export metadata
+     * @param fitImageToPage Fit images to page
+     * @param marginStr Margins
+     * @return Response
+     */
+    @POST
+    @Path("{id: [a-z0-9\\-]+}/pdf")
+    public Response exportPdf(
+            @PathParam("id") String documentId,
+            @FormParam("share") String shareId,
+            @FormParam("metadata") Boolean metadata,
+            @FormParam("fitimagetopage") Boolean fitImageToPage,
+            @FormParam("margin") String marginStr) {
+        authenticate();
+
+        // Validate input
+        int margin = ValidationUtil.validateInteger(marginStr, "margin");
+
+        // Get document and check read permission
+        DocumentDao documentDao = new DocumentDao();
+        DocumentDto documentDto = documentDao.getDocument(documentId, PermType.READ, getTargetIdList(shareId));
+        if (documentDto == null) {
+            throw new NotFoundException();
+        }
+
+        // Start the export
+        PdfExportJob job = AppContext.getInstance().getPdfExportService().submit(principal.getId(), shareId, documentDto,
+                getPdfFileList(documentId), Boolean.TRUE.equals(fitImageToPage), Boolean.TRUE.equals(metadata), margin);
+        if (job == null) {
+            return Response.status(Response.Status.TOO_MANY_REQUESTS).entity(Json.createObjectBuilder()
+                    .add("type", "TooManyExports")
+                    .add("message", "Too many exports are running, retry once they are finished")
+                    .build()).build();
+        }
+        return Response.ok().entity(pdfExportToJson(job).build()).build();
+    }
+
+    /**
+     * Returns the status of a background PDF export.
+     *
+     * @api {get} /document/pdf/:exportId Get the status of a background PDF export
+     * @apiName GetDocumentPdfExport
+     * @apiGroup Document
+     * @apiParam {String} exportId Export ID
+     * @apiParam {String} share Share ID
+     * @apiSuccess {String} id Export ID
+     * @apiSuccess {String} document_id Document ID
+     * @apiSuccess {String} status Export status (PENDING, RUNNING, DONE or ERROR)
+     * @apiError (client) NotFound Export not found or expired
+     * @apiPermission none
+     * @apiVersion 1.12.0
+     *
+     * @param exportId Export ID
+     * @param shareId Share ID
+     * @return Response
+     */
+    @GET
+    @Path("pdf/{exportId: [a-z0-9\\-]+}")
+    public Response getPdfExport(
+            @PathParam("exportId") String exportId,
+            @QueryParam("share") String shareId) {
+        authenticate();
+        PdfExportJob job = findPdfExport(exportId, shareId);
+        return Response.ok().entity(pdfExportToJson(job).build()).build();
+    }
+
+    /**
+     * Download a finished background PDF export.
+     *
+     * @api {get} /document/pdf/:exportId/data Download a background PDF export
+     * @apiName GetDocumentPdfExportData
+     * @apiGroup Document
+     * @apiParam {String} exportId Export ID
+     * @apiParam {String} share Share ID
+     * @apiSuccess {String} pdf The whole response is the PDF file
+     * @apiError (client) NotFound Export not found or expired
+     * @apiError (client) ExportNotReady The export is not finished
+     * @apiPermission none
+     * @apiVersion 1.12.0
+     *
+     * @param exportId Export ID
+     * @param shareId Share ID
+     * @return Response
+     */
+    @GET
+    @Path("pdf/{exportId: [a-z0-9\\-]+}/data")
+    public Response getPdfExportData(
+            @PathParam("exportId") String exportId,
+            @QueryParam("share") String shareId) {
+        authenticate();
+        PdfExportJob job = findPdfExport(exportId, shareId);
+        java.nio.file.Path file = job.getFile();
+        if (job.getStatus() != PdfExportJob.Status.DONE || file == null || !Files.exists(file)) {
+            throw new ClientException("ExportNotReady", "The export is not finished");
+        }
+
+        StreamingOutput stream = outputStream -> Files.copy(file, outputStream);
+        return Response.ok(stream)
+                .header("Content-Type", MimeType.APPLICATION_PDF)
+                .header("Content-Length", file.toFile().length())
+                .header("Content-Disposition", "inline; filename=\"" + job.getTitle() + ".pdf\"")
+                .build();
+    }
+
+    /**
+     * Returns the files of a document to export in PDF, with their private key.
+     *
+     * @param documentId Document ID
+     * @return List of files
+     */
+    private List<File> getPdfFileList(String documentId) {
+        FileDao fileDao = new FileDao();
+        UserDao userDao = new UserDao();
+        List<File> fileList = fileDao.getByDocumentId(null, documentId);
+        Map<String, User> userMap = new HashMap<>();
+        for (File file : fileList) {
+            // A file is always encrypted by the creator of it
+            // Store its private key to decrypt it
+            User user = userMap.computeIfAbsent(file.getUserId(), userDao::getById);
+            file.setPrivateKey(StorageUtil.getPrivateKey(file, user));
+        }
+        return fileList;
+    }
+
+    /**
+     * Find a background PDF export requested by the current user.
+     *
+     * @param exportId Export ID
+     * @param shareId Share ID
+     * @return Export
+     */
+    private PdfExportJob findPdfExport(String exportId, String shareId) {
+        PdfExportJob job = AppContext.getInstance().getPdfExportService().getJob(exportId);
+        if (job == null || !Objects.equals(job.getUserId(), principal.getId()) || !Objects.equals(job.getShareId(), shareId)) {
+            throw new NotFoundException();
+        }
+        return job;
+    }
+
+    /**
+     * Returns a background PDF export as JSON.
+     *
+     * @param job Export
+     * @return JSON builder
+     */
+    private static JsonObjectBuilder pdfExportToJson(PdfExportJob job) {
+        return Json.createObjectBuilder()
+                .add("id", job.getId())
+                .add("document_id", job.getDocumentId())
+                .add("status", job.getStatus().name());
+    }
+
     /**
      * Returns all documents, if a parameter is considered invalid, the search result will be empty.
      *
@@ -489,28 +661,32 @@ public class DocumentResource extends BaseResource {
             throw new ServerException("SearchError", "Error searching in documents", e);
         }
 
-        // Find the files of the documents
-        Iterable<String> documentsIds = CollectionUtils.collect(paginatedList.getResultList(), DocumentDto::getId);
+        // Find the tags and the files of the documents, grouped by document
+        List<String> documentsIds = paginatedList.getResultList().stream()
+                .map(DocumentDto::getId)
+                .collect(Collectors.toList());
+        Map<String, List<TagDto>> tagDtoByDocument = tagDao.findByDocumentIds(documentsIds, getTargetIdList(null));
         FileDao fileDao = new FileDao();
-        List<File> filesList = null;
+        Map<String, List<File>> filesByDocument = null;
         Map<String, Long> filesCountByDocument = null;
-        if (Boolean.TRUE == files) {
-            filesList = fileDao.getByDocumentsIds(documentsIds);
+        if (documentsIds.isEmpty()) {
+            filesByDocument = Collections.emptyMap();
+            filesCountByDocument = Collections.emptyMap();
+        } else if (Boolean.TRUE == files) {
+            filesByDocument = fileDao.getByDocumentsIds(documentsIds).stream()
+                    .collect(Collectors.groupingBy(File::getDocumentId));
         } else {
             filesCountByDocument = fileDao.countByDocumentsIds(documentsIds);
         }
 
         for (DocumentDto documentDto : paginatedList.getResultList()) {
-            // Get tags accessible by the current user on this document
-            List<TagDto> tagDtoList = tagDao.findByCriteria(new TagCriteria()
-                    .setTargetIdList(getTargetIdList(null))
-                    .setDocumentId(documentDto.getId()), new SortCriteria(1, true));
+            // Tags accessible by the current user on this document
+            List<TagDto> tagDtoList = tagDtoByDocument.getOrDefault(documentDto.getId(), Collections.emptyList());
 
             Long filesCount;
-            Collection<File> filesOfDocument = null;
+            List<File> filesOfDocument = null;
             if (Boolean.TRUE == files) {
-                // Find files matching the document
-                filesOfDocument = CollectionUtils.select(filesList, file -> file.getDocumentId().equals(documentDto.getId()));
+                filesOfDocument = filesByDocument.getOrDefault(documentDto.getId(), Collections.emptyList());
                 filesCount = (long) filesOfDocument.size();
             } else {
                 filesCount = filesCountByDocument.getOrDefault(documentDto.getId(), 0L);
@@ -610,6 +786,51 @@ public class DocumentResource extends BaseResource {
         );
     }
 
+    /**
+     * Suggests search terms.
+     *
+     * @api {get} /document/suggest Get search suggestions
+     * @apiDescription Suggestions complete the last word of the query with words from the titles of the readable documents
+     * @apiName GetDocumentSuggest
+     * @apiGroup Document
+     * @apiParam {String} search Search query
+     * @apiParam {Number} [limit] Maximum number of suggestions (default 10, max 100)
+     * @apiSuccess {String[]} suggestions List of search suggestions
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (server) SearchError Error searching in documents
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param search Search query
+     * @param limit Maximum number of suggestions
+     * @return Response
+     */
+    @GET
+    @Path("suggest")
+    public Response suggest(
+            @QueryParam("search") String search,
+            @QueryParam("limit") Integer limit) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        int count = limit == null ? 10 : Math.max(1, Math.min(limit, 100));
+        List<String> suggestionList;
+        try {
+            suggestionList = AppContext.getInstance().getIndexingHandler().suggest(search, getTargetIdList(null), count);
+        } catch (Exception e) {
+            throw new ServerException("SearchError", "Error searching in documents", e);
+        }
+
+        JsonArrayBuilder suggestions = Json.createArrayBuilder();
+        for (String suggestion : suggestionList) {
+            suggestions.add(suggestion);
+        }
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("suggestions", suggestions);
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Creates a new document.
      *
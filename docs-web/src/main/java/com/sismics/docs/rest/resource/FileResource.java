@@ -2,7 +2,6 @@ package com.sismics.docs.rest.resource;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.DocumentDao;
@@ -15,9 +14,10 @@ import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
-import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.ZipExporter;
+import com.sismics.docs.core.util.storage.StorageProvider;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
@@ -43,14 +43,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
 
 /**
  * File REST resources.
@@ -76,8 +77,7 @@ public class FileResource extends BaseResource {
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
      * @apiError (client) NotFound Document not found
-     * @apiError (server) StreamError Error reading the input file
-     * @apiError (server) ErrorGuessMime Error guessing mime type
+     * @apiError (client) StreamError Error reading the input file
      * @apiError (client) QuotaReached Quota limit reached
      * @apiError (server) FileError Error adding a file
      * @apiPermission user
@@ -112,28 +112,18 @@ public class FileResource extends BaseResource {
             }
         }
         
-        // Keep unencrypted data temporary on disk
+        // Store the file while it is received
         String name = fileBodyPart.getContentDisposition() != null ?
                 URLDecoder.decode(fileBodyPart.getContentDisposition().getFileName(), StandardCharsets.UTF_8) : null;
-        java.nio.file.Path unencryptedFile;
-        long fileSize;
-        try {
-            unencryptedFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
-            Files.copy(fileBodyPart.getValueAs(InputStream.class), unencryptedFile, StandardCopyOption.REPLACE_EXISTING);
-            fileSize = Files.size(unencryptedFile);
-        } catch (IOException e) {
-            throw new ServerException("StreamError", "Error reading the input file", e);
-        }
-
-        try {
-            String fileId = FileUtil.createFile(name, previousFileId, unencryptedFile, fileSize, documentDto == null ?
+        try (InputStream inputStream = fileBodyPart.getValueAs(InputStream.class)) {
+            File file = FileUtil.createFile(name, previousFileId, inputStream, documentDto == null ?
                     null : documentDto.getLanguage(), principal.getId(), documentId);
 
             // Always return OK
             JsonObjectBuilder response = Json.createObjectBuilder()
                     .add("status", "ok")
-                    .add("id", fileId)
-                    .add("size", fileSize);
+                    .add("id", file.getId())
+                    .add("size", file.getSize());
             return Response.ok().entity(response.build()).build();
         } catch (IOException e) {
             throw new ClientException(e.getMessage(), e.getMessage(), e);
@@ -198,8 +188,7 @@ public class FileResource extends BaseResource {
         
         // Raise a new file updated event and document updated event (it wasn't sent during file creation)
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
+            java.nio.file.Path unencryptedFile = StorageUtil.getUnencryptedFile(id, StorageUtil.getPrivateKey(file, user));
             FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent fileUpdatedAsyncEvent = new FileUpdatedAsyncEvent();
             fileUpdatedAsyncEvent.setUserId(principal.getId());
@@ -306,8 +295,7 @@ public class FileResource extends BaseResource {
 
         // Start the processing asynchronously
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
+            java.nio.file.Path unencryptedFile = StorageUtil.getUnencryptedFile(id, StorageUtil.getPrivateKey(file, user));
             FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent event = new FileUpdatedAsyncEvent();
             event.setUserId(principal.getId());
@@ -550,8 +538,12 @@ public class FileResource extends BaseResource {
      * @apiGroup File
      * @apiParam {String} id File ID
      * @apiParam {String} share Share ID
-     * @apiParam {String="web","thumb","content"} [size] Size variation
+     * @apiParam {String="web","thumb","content"} [size] Size variation, missing thumbnails are replaced by a placeholder while generated in the background
+     * @apiHeader {String} [Range] Single byte range to return, answered with 206 Partial Content
+     * @apiHeader {String} [If-Range] ETag of the cached file, the range is ignored if it has changed
+     * @apiHeader {String} [If-None-Match] ETag of the cached file, answered with 304 Not Modified if unchanged
      * @apiSuccess {Object} file The file data is the whole response
+     * @apiError (client) RangeNotSatisfiable The range starts after the end of the file
      * @apiError (client) SizeError Size must be web or thumb
      * @apiError (client) ForbiddenError Access denied or document not visible
      * @apiError (client) NotFound File not found
@@ -560,6 +552,11 @@ public class FileResource extends BaseResource {
      * @apiVersion 1.5.0
      *
      * @param fileId File ID
+     * @param shareId Share ID
+     * @param size Size variation
+     * @param range Range header
+     * @param ifRange If-Range header
+     * @param ifNoneMatch If-None-Match header
      * @return Response
      */
     @GET
@@ -568,7 +565,10 @@ public class FileResource extends BaseResource {
     public Response data(
             @PathParam("id") final String fileId,
             @QueryParam("share") String shareId,
-            @QueryParam("size") String size) {
+            @QueryParam("size") String size,
+            @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
         authenticate();
         
         if (size != null && !Lists.newArrayList("web", "thumb", "content").contains(size)) {
@@ -578,11 +578,11 @@ public class FileResource extends BaseResource {
         // Get the file
         File file = findFile(fileId, shareId);
 
-        // Get the stored file
-        UserDao userDao = new UserDao();
-        java.nio.file.Path storedFile;
+        // Get the stored file, or the placeholder of a missing thumbnail
+        StorageProvider storageProvider = StorageUtil.getStorageProvider();
+        String key = StorageUtil.getKey(fileId, size);
+        java.nio.file.Path placeholderFile = null;
         String mimeType;
-        boolean decrypt;
         if (size != null) {
             if (size.equals("content")) {
                 return Response.ok(Strings.nullToEmpty(file.getContent()))
@@ -590,42 +590,73 @@ public class FileResource extends BaseResource {
                         .build();
             }
 
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_" + size);
             mimeType = MimeType.IMAGE_JPEG; // Thumbnails are JPEG
-            decrypt = true; // Thumbnails are encrypted
-            if (!Files.exists(storedFile)) {
-                try {
-                    storedFile = Paths.get(getClass().getResource("/image/file-" + size + ".png").toURI());
-                } catch (URISyntaxException e) {
-                    // Ignore
+            try {
+                if (!storageProvider.exists(key)) {
+                    generateThumbnails(file);
+                    placeholderFile = Paths.get(getClass().getResource("/image/file-" + size + ".png").toURI());
+                    mimeType = MimeType.IMAGE_PNG;
                 }
-                mimeType = MimeType.IMAGE_PNG;
-                decrypt = false;
+            } catch (IOException | URISyntaxException e) {
+                return Response.status(Status.SERVICE_UNAVAILABLE).build();
             }
         } else {
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
             mimeType = file.getMimeType();
-            decrypt = true; // Original files are encrypted
         }
         
-        // Stream the output and decrypt it if necessary
-        StreamingOutput stream;
-        
+        // Validate the cached version of the file
+        String etag = null;
+        long length;
+        try {
+            // CTR mode doesn't pad, the decrypted file has the same length as the stored one
+            if (placeholderFile == null) {
+                length = storageProvider.getSize(key);
+                etag = "\"" + key + "-" + length + "-" + Long.toHexString(storageProvider.getLastModified(key)) + "\"";
+                if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag))) {
+                    return Response.notModified()
+                            .header(HttpHeaders.ETAG, etag)
+                            .build();
+                }
+            } else {
+                length = Files.size(placeholderFile);
+            }
+        } catch (IOException e) {
+            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        // Serve only the requested range, unless the cached version is outdated
+        long[] byteRange = null;
+        if (ifRange == null || ifRange.equals(etag)) {
+            try {
+                byteRange = HttpUtil.parseRange(range, length);
+            } catch (IllegalArgumentException e) {
+                return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + length)
+                        .build();
+            }
+        }
+        final long start = byteRange == null ? 0 : byteRange[0];
+        final long count = byteRange == null ? length : byteRange[1] - byteRange[0] + 1;
+
         // A file is always encrypted by the creator of it
+        UserDao userDao = new UserDao();
         User user = userDao.getById(file.getUserId());
-        
-        // Write the decrypted file to the output
+        final String privateKey = placeholderFile == null ? StorageUtil.getPrivateKey(file, user) : null;
+
+        // Write the decrypted window of the file to the output
+        StreamingOutput stream;
         try {
-            InputStream fileInputStream = Files.newInputStream(storedFile);
-            final InputStream responseInputStream = decrypt ?
-                    EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey()) : fileInputStream;
-                    
+            final SeekableByteChannel channel = placeholderFile == null ?
+                    storageProvider.open(key) : Files.newByteChannel(placeholderFile);
             stream = outputStream -> {
                 try {
-                    ByteStreams.copy(responseInputStream, outputStream);
+                    StorageUtil.transfer(channel, privateKey, start, count, outputStream);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
                 } finally {
                     try {
-                        responseInputStream.close();
                         outputStream.close();
                     } catch (IOException e) {
                         // Ignore
@@ -638,11 +669,18 @@ public class FileResource extends BaseResource {
 
         Response.ResponseBuilder builder = Response.ok(stream)
                 .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, mimeType);
-        if (decrypt) {
+                .header(HttpHeaders.CONTENT_TYPE, mimeType)
+                .header(HttpHeaders.CONTENT_LENGTH, count)
+                .header("Accept-Ranges", "bytes");
+        if (byteRange != null) {
+            builder.status(Status.PARTIAL_CONTENT)
+                    .header("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + length);
+        }
+        if (placeholderFile == null) {
             // Cache real files
             builder.header(HttpHeaders.CACHE_CONTROL, "private")
-                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L));
+                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L))
+                    .header(HttpHeaders.ETAG, etag);
         } else {
             // Do not cache the temporary thumbnail
             builder.header(HttpHeaders.CACHE_CONTROL, "no-store, must-revalidate")
@@ -651,6 +689,22 @@ public class FileResource extends BaseResource {
         return builder.build();
     }
 
+    /**
+     * Generate the missing thumbnails of a file in the background.
+     *
+     * @param file File
+     */
+    private void generateThumbnails(File file) {
+        // The thumbnails of a file being processed are on their way
+        if (FileUtil.isProcessingFile(file.getId())) {
+            return;
+        }
+
+        UserDao userDao = new UserDao();
+        User user = userDao.getById(file.getUserId());
+        AppContext.getInstance().getThumbnailService().generate(file, StorageUtil.getPrivateKey(file, user));
+    }
+
     /**
      * Returns all files from a document, zipped.
      *
@@ -721,33 +775,22 @@ public class FileResource extends BaseResource {
      * Sent the content of a list of files.
      */
     private Response sendZippedFiles(String zipFileName, List<File> fileList) {
-        final UserDao userDao = new UserDao();
+        // Files are encrypted by the creator of them, look each creator up once
+        UserDao userDao = new UserDao();
+        Map<String, User> userMap = new HashMap<>();
+        List<ZipExporter.Entry> entryList = new ArrayList<>();
+        int index = 0;
+        for (File file : fileList) {
+            User user = userMap.computeIfAbsent(file.getUserId(), userDao::getById);
+            String privateKey = StorageUtil.getPrivateKey(file, user);
+            entryList.add(new ZipExporter.Entry(index + "-" + file.getFullName(Integer.toString(index)),
+                    file.getMimeType(), file.getCreateDate().getTime(),
+                    () -> StorageUtil.read(file.getId(), privateKey)));
+            index++;
+        }
 
         // Create the ZIP stream
-        StreamingOutput stream = outputStream -> {
-            try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
-                // Add each file to the ZIP stream
-                int index = 0;
-                for (File file : fileList) {
-                    java.nio.file.Path storedfile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-                    InputStream fileInputStream = Files.newInputStream(storedfile);
-
-                    // Add the decrypted file to the ZIP stream
-                    // Files are encrypted by the creator of them
-                    User user = userDao.getById(file.getUserId());
-                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey())) {
-                        ZipEntry zipEntry = new ZipEntry(index + "-" + file.getFullName(Integer.toString(index)));
-                        zipOutputStream.putNextEntry(zipEntry);
-                        ByteStreams.copy(decryptedStream, zipOutputStream);
-                        zipOutputStream.closeEntry();
-                    } catch (Exception e) {
-                        throw new WebApplicationException(e);
-                    }
-                    index++;
-                }
-            }
-            outputStream.close();
-        };
+        StreamingOutput stream = outputStream -> AppContext.getInstance().getZipExporter().export(entryList, outputStream);
         
         // Write to the output
         return Response.ok(stream)
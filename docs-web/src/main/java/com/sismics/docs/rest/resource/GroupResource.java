@@ -19,6 +19,7 @@ import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.security.PrincipalCache;
 import com.sismics.util.JsonUtil;
 
 import jakarta.json.Json;
@@ -108,6 +109,7 @@ public class GroupResource extends BaseResource {
      * @apiError (client) ValidationError Validation error
      * @apiError (client) GroupAlreadyExists This group already exists
      * @apiError (client) ParentGroupNotFound Parent group not found
+     * @apiError (client) CircularGroupHierarchy The parent group is a subgroup of this group
      * @apiError (client) NotFound Group not found
      * @apiPermission admin
      * @apiVersion 1.5.0
@@ -148,6 +150,9 @@ public class GroupResource extends BaseResource {
             if (parentGroup == null) {
                 throw new ClientException("ParentGroupNotFound", MessageFormat.format("This group does not exists: {0}", parentName));
             }
+            if (groupDao.hasAncestor(parentGroup.getId(), group.getId())) {
+                throw new ClientException("CircularGroupHierarchy", MessageFormat.format("This group is a subgroup of {0}: {1}", groupName, parentName));
+            }
             parentId = parentGroup.getId();
         }
 
@@ -162,6 +167,9 @@ public class GroupResource extends BaseResource {
         // Update the group
         groupDao.update(group.setName(name)
                 .setParentId(parentId), principal.getId());
+
+        // The members of the subgroups may have changed
+        PrincipalCache.invalidateAll();
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -217,6 +225,7 @@ public class GroupResource extends BaseResource {
 
         // Delete the group
         groupDao.delete(group.getId(), principal.getId());
+        PrincipalCache.invalidateAll();
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -285,6 +294,7 @@ public class GroupResource extends BaseResource {
             userGroup.setGroupId(group.getId());
             userGroup.setUserId(user.getId());
             groupDao.addMember(userGroup);
+            PrincipalCache.invalidateUser(user.getId());
         }
         
         // Always return OK
@@ -341,6 +351,7 @@ public class GroupResource extends BaseResource {
         
         // Remove the membership
         groupDao.removeMember(group.getId(), user.getId());
+        PrincipalCache.invalidateUser(user.getId());
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
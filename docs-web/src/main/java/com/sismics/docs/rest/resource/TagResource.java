@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.TagDao;
 import com.sismics.docs.core.dao.criteria.TagCriteria;
 import com.sismics.docs.core.dao.dto.TagDto;
+import com.sismics.docs.core.event.TagDeletedAsyncEvent;
 import com.sismics.docs.core.model.jpa.Acl;
 import com.sismics.docs.core.model.jpa.Tag;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -14,6 +15,7 @@ import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.util.AclUtil;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import org.apache.commons.lang3.StringUtils;
 
 import jakarta.json.Json;
@@ -336,7 +338,15 @@ public class TagResource extends BaseResource {
 
         // Delete the tag
         TagDao tagDao = new TagDao();
+        List<String> documentIdList = tagDao.getDocumentIdsByTagId(id);
         tagDao.delete(id, principal.getId());
+
+        // Raise a tag deleted event
+        TagDeletedAsyncEvent tagDeletedAsyncEvent = new TagDeletedAsyncEvent();
+        tagDeletedAsyncEvent.setUserId(principal.getId());
+        tagDeletedAsyncEvent.setTagId(id);
+        tagDeletedAsyncEvent.setDocumentIdList(documentIdList);
+        ThreadLocalContext.get().addAsyncEvent(tagDeletedAsyncEvent);
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
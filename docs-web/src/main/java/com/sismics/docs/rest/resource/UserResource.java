@@ -24,6 +24,7 @@ import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.security.PrincipalCache;
 import com.sismics.security.UserPrincipal;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
@@ -158,6 +159,7 @@ public class UserResource extends BaseResource {
             user.setEmail(email);
         }
         user = userDao.update(user, principal.getId());
+        PrincipalCache.invalidateUser(user.getId());
         
         // Change the password
         if (StringUtils.isNotBlank(password)) {
@@ -243,6 +245,7 @@ public class UserResource extends BaseResource {
             }
         }
         user = userDao.update(user, principal.getId());
+        PrincipalCache.invalidateUser(user.getId());
         
         // Change the password
         if (StringUtils.isNotBlank(password)) {
@@ -388,6 +391,7 @@ public class UserResource extends BaseResource {
         } catch (Exception e) {
             throw new ServerException("AuthenticationTokenError", "Error deleting the authentication token: " + authToken, e);
         }
+        PrincipalCache.invalidate(authToken);
         
         // Deletes the client token in the HTTP response
         JsonObjectBuilder response = Json.createObjectBuilder();
@@ -436,6 +440,7 @@ public class UserResource extends BaseResource {
         // Delete the user
         UserDao userDao = new UserDao();
         userDao.delete(principal.getName(), principal.getId());
+        PrincipalCache.invalidateUser(principal.getId());
         
         sendDeletionEvents(documentList, fileList);
 
@@ -504,6 +509,7 @@ public class UserResource extends BaseResource {
         
         // Delete the user
         userDao.delete(user.getUsername(), principal.getId());
+        PrincipalCache.invalidateUser(user.getId());
 
         sendDeletionEvents(documentList, fileList);
 
@@ -834,6 +840,7 @@ public class UserResource extends BaseResource {
         // Remove other tokens
         AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
         authenticationTokenDao.deleteByUserId(principal.getId(), authToken);
+        PrincipalCache.invalidateUser(principal.getId());
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -1,12 +1,16 @@
 package com.sismics.docs.rest;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
 import com.icegreen.greenmail.util.GreenMail;
 import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.ServerSetup;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.storage.StorageProvider;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
@@ -62,6 +66,10 @@ public class TestAppResource extends BaseJerseyTest {
         Assert.assertEquals("eng", json.getString("default_language"));
         Assert.assertTrue(json.containsKey("global_storage_current"));
         Assert.assertTrue(json.getJsonNumber("active_user_count").longValue() > 0);
+        Assert.assertEquals(0, json.getJsonNumber("indexing_queue_size").intValue());
+        Assert.assertTrue(json.containsKey("indexing_batch_count"));
+        Assert.assertTrue(json.getJsonNumber("ocr_max_processes").intValue() > 0);
+        Assert.assertNotNull(json.getJsonArray("event_lanes"));
 
         // Rebuild Lucene index
         Response response = target().path("/app/batch/reindex").request()
@@ -98,6 +106,116 @@ public class TestAppResource extends BaseJerseyTest {
         Assert.assertEquals("eng", json.getString("default_language"));
     }
 
+    /**
+     * Test the index rebuild.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testReindex() throws Exception {
+        // Login admin
+        String adminToken = adminToken();
+
+        // Login reindex1
+        clientUtil.createUser("reindex1");
+        String reindex1Token = clientUtil.login("reindex1");
+
+        // Create a document with a file
+        String documentId = clientUtil.createDocument(reindex1Token);
+        clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, reindex1Token, documentId);
+
+        // Rebuild Lucene index
+        Response response = target().path("/app/batch/reindex").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()));
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+
+        // Check the rebuild progress
+        JsonObject json = target().path("/app/batch/reindex").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertEquals("COMPLETED", json.getString("status"));
+        Assert.assertTrue(json.getJsonNumber("document_count").longValue() >= 1);
+        Assert.assertEquals(json.getJsonNumber("document_total").longValue(), json.getJsonNumber("document_count").longValue());
+        Assert.assertTrue(json.getJsonNumber("file_count").longValue() >= 1);
+        Assert.assertEquals(json.getJsonNumber("file_total").longValue(), json.getJsonNumber("file_count").longValue());
+        Assert.assertNotNull(json.getJsonNumber("end_date"));
+
+        // Search the document in the rebuilt index
+        json = target().path("/document/list")
+                .queryParam("search", "full:love")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, reindex1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(1, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(documentId, json.getJsonArray("documents").getJsonObject(0).getString("id"));
+
+        // Progress is reserved to admins
+        response = target().path("/app/batch/reindex").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, reindex1Token)
+                .get();
+        Assert.assertEquals(Status.FORBIDDEN, Status.fromStatusCode(response.getStatus()));
+    }
+
+    /**
+     * Test the deduplication report.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testDedup() throws Exception {
+        // Login admin
+        String adminToken = adminToken();
+
+        // Login dedup1
+        clientUtil.createUser("dedup1");
+        String dedup1Token = clientUtil.login("dedup1");
+
+        // Upload the same file twice
+        String documentId = clientUtil.createDocument(dedup1Token);
+        String file1Id = clientUtil.addFileToDocument(FILE_PIA_00452_JPG, dedup1Token, documentId);
+        String file2Id = clientUtil.addFileToDocument(FILE_PIA_00452_JPG, dedup1Token, documentId);
+
+        // Both files are readable
+        for (String fileId : new String[] { file1Id, file2Id }) {
+            Response response = target().path("/file/" + fileId + "/data").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, dedup1Token)
+                    .get();
+            Assert.assertEquals(FILE_PIA_00452_JPG_SIZE, ByteStreams.toByteArray((InputStream) response.getEntity()).length);
+        }
+
+        // The streamed uploads share their stored data
+        StorageProvider storageProvider = AppContext.getInstance().getStorageProvider();
+        Assert.assertTrue(Files.isSameFile(storageProvider.getLocalPath(file1Id), storageProvider.getLocalPath(file2Id)));
+
+        // Check the report
+        JsonObject json = target().path("/app/dedup").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertTrue(json.getJsonNumber("hashed_file_count").longValue() >= 2);
+        Assert.assertTrue(json.getJsonNumber("duplicate_file_count").longValue() >= 1);
+        Assert.assertTrue(json.getJsonNumber("duplicate_size").longValue() >= FILE_PIA_00452_JPG_SIZE);
+        JsonArray duplicates = json.getJsonArray("duplicates");
+        Assert.assertTrue(duplicates.stream()
+                .map(JsonObject.class::cast)
+                .anyMatch(duplicate -> duplicate.getString("username").equals("dedup1") && duplicate.getJsonNumber("count").longValue() == 2));
+
+        // Deleting a file keeps the content of the other one
+        target().path("/file/" + file1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, dedup1Token)
+                .delete();
+        Response response = target().path("/file/" + file2Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, dedup1Token)
+                .get();
+        Assert.assertEquals(FILE_PIA_00452_JPG_SIZE, ByteStreams.toByteArray((InputStream) response.getEntity()).length);
+
+        // The report is reserved to admins
+        response = target().path("/app/dedup").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, dedup1Token)
+                .get();
+        Assert.assertEquals(Status.FORBIDDEN, Status.fromStatusCode(response.getStatus()));
+    }
+
     /**
      * Test the log resource.
      */
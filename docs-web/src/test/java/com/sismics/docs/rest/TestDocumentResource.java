@@ -13,13 +13,18 @@ import org.junit.Test;
 
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.Form;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Exhaustive test of the document resource.
@@ -188,6 +193,12 @@ public class TestDocumentResource extends BaseJerseyTest {
                 .get(JsonObject.class);
         String suggestion = json.getJsonArray("suggestions").getString(0);
         Assert.assertEquals("document", suggestion);
+        json = target().path("/document/suggest")
+                .queryParam("search", "super docu")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals("document", json.getJsonArray("suggestions").getString(0));
 
         // Search documents
         Assert.assertEquals(1, searchDocuments("full:uranium full:einstein", document1Token));
@@ -472,6 +483,17 @@ public class TestDocumentResource extends BaseJerseyTest {
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentOdtToken)
                 .get(JsonObject.class);
         Assert.assertEquals(1, json.getJsonArray("documents").size());
+        Assert.assertTrue(json.getJsonArray("documents").getJsonObject(0).getString("highlight").contains("<strong>ipsum</strong>"));
+
+        // Highlights are the same when sorting in the database
+        json = target().path("/document/list")
+                .queryParam("search", "full:ipsum")
+                .queryParam("sort_column", 2)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentOdtToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(1, json.getJsonArray("documents").size());
+        Assert.assertTrue(json.getJsonArray("documents").getJsonObject(0).getString("highlight").contains("<strong>ipsum</strong>"));
         
         // Get the file thumbnail data
         Response response = target().path("/file/" + file1Id + "/data")
@@ -596,6 +618,35 @@ public class TestDocumentResource extends BaseJerseyTest {
         is = (InputStream) response.getEntity();
         byte[] pdfBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(pdfBytes.length > 0);
+
+        // Export a document in PDF format in the background
+        json = target().path("/document/" + document1Id + "/pdf").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentPdfToken)
+                .post(Entity.form(new Form()
+                        .param("margin", "10")
+                        .param("metadata", "true")
+                        .param("fitimagetopage", "true")), JsonObject.class);
+        String exportId = json.getString("id");
+        for (int i = 0; i < 100 && !"DONE".equals(json.getString("status")); i++) {
+            Assert.assertNotEquals("ERROR", json.getString("status"));
+            Thread.sleep(100);
+            json = target().path("/document/pdf/" + exportId).request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentPdfToken)
+                    .get(JsonObject.class);
+        }
+        Assert.assertEquals("DONE", json.getString("status"));
+        Assert.assertEquals(document1Id, json.getString("document_id"));
+
+        // Download the background export
+        response = target().path("/document/pdf/" + exportId + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentPdfToken)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertTrue(ByteStreams.toByteArray((InputStream) response.getEntity()).length > 0);
+
+        // The export is private to its requester
+        response = target().path("/document/pdf/" + exportId).request().get();
+        Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
     }
 
     /**
@@ -999,4 +1050,169 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals("BOOLEAN", meta.getString("type"));
         Assert.assertTrue(meta.getBoolean("value"));
     }
+
+    /**
+     * Test the search suggestions permissions.
+     */
+    @Test
+    public void testDocumentList() throws Exception {
+        // Login document_list
+        clientUtil.createUser("document_list");
+        String documentListToken = clientUtil.login("document_list");
+
+        // Create two tags
+        String tag1Id = target().path("/tag").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentListToken)
+                .put(Entity.form(new Form()
+                        .param("name", "ListTag1")
+                        .param("color", "#ff0000")), JsonObject.class).getString("id");
+        String tag2Id = target().path("/tag").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentListToken)
+                .put(Entity.form(new Form()
+                        .param("name", "ListTag2")
+                        .param("color", "#00ff00")), JsonObject.class).getString("id");
+
+        // Create three documents, with two, one and no tags and files
+        String document1Id = target().path("/document").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentListToken)
+                .put(Entity.form(new Form()
+                        .param("title", "List document 1")
+                        .param("tags", tag1Id)
+                        .param("tags", tag2Id)
+                        .param("language", "eng")), JsonObject.class).getString("id");
+        String file1Id = clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, documentListToken, document1Id);
+        String file2Id = clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, documentListToken, document1Id);
+        String document2Id = target().path("/document").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentListToken)
+                .put(Entity.form(new Form()
+                        .param("title", "List document 2")
+                        .param("tags", tag2Id)
+                        .param("language", "eng")), JsonObject.class).getString("id");
+        String file3Id = clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, documentListToken, document2Id);
+        String document3Id = target().path("/document").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentListToken)
+                .put(Entity.form(new Form()
+                        .param("title", "List document 3")
+                        .param("language", "eng")), JsonObject.class).getString("id");
+
+        // List the documents with their files, each one gets its own tags and files
+        JsonObject json = target().path("/document/list")
+                .queryParam("sort_column", 1)
+                .queryParam("asc", true)
+                .queryParam("files", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentListToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(3, json.getJsonNumber("total").intValue());
+        JsonArray documents = json.getJsonArray("documents");
+        Assert.assertEquals(3, documents.size());
+        Assert.assertEquals(document1Id, documents.getJsonObject(0).getString("id"));
+        Assert.assertEquals(Arrays.asList(tag1Id, tag2Id), getIds(documents.getJsonObject(0).getJsonArray("tags")));
+        Assert.assertEquals(2, documents.getJsonObject(0).getInt("file_count"));
+        Assert.assertEquals(Arrays.asList(file1Id, file2Id), getIds(documents.getJsonObject(0).getJsonArray("files")));
+        Assert.assertEquals(document2Id, documents.getJsonObject(1).getString("id"));
+        Assert.assertEquals(Collections.singletonList(tag2Id), getIds(documents.getJsonObject(1).getJsonArray("tags")));
+        Assert.assertEquals(1, documents.getJsonObject(1).getInt("file_count"));
+        Assert.assertEquals(Collections.singletonList(file3Id), getIds(documents.getJsonObject(1).getJsonArray("files")));
+        Assert.assertEquals(document3Id, documents.getJsonObject(2).getString("id"));
+        Assert.assertTrue(documents.getJsonObject(2).getJsonArray("tags").isEmpty());
+        Assert.assertEquals(0, documents.getJsonObject(2).getInt("file_count"));
+        Assert.assertTrue(documents.getJsonObject(2).getJsonArray("files").isEmpty());
+
+        // List a page of the documents with their files count
+        json = target().path("/document/list")
+                .queryParam("sort_column", 1)
+                .queryParam("asc", true)
+                .queryParam("limit", 2)
+                .queryParam("offset", 1)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentListToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(3, json.getJsonNumber("total").intValue());
+        documents = json.getJsonArray("documents");
+        Assert.assertEquals(2, documents.size());
+        Assert.assertEquals(document2Id, documents.getJsonObject(0).getString("id"));
+        Assert.assertEquals(Collections.singletonList(tag2Id), getIds(documents.getJsonObject(0).getJsonArray("tags")));
+        Assert.assertEquals(1, documents.getJsonObject(0).getInt("file_count"));
+        Assert.assertNull(documents.getJsonObject(0).get("files"));
+        Assert.assertEquals(document3Id, documents.getJsonObject(1).getString("id"));
+        Assert.assertEquals(0, documents.getJsonObject(1).getInt("file_count"));
+
+        // List an empty page, with and without the files
+        for (boolean files : new boolean[] { true, false }) {
+            json = target().path("/document/list")
+                    .queryParam("offset", 10)
+                    .queryParam("files", files)
+                    .request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentListToken)
+                    .get(JsonObject.class);
+            Assert.assertEquals(3, json.getJsonNumber("total").intValue());
+            Assert.assertTrue(json.getJsonArray("documents").isEmpty());
+        }
+    }
+
+    /**
+     * Returns the IDs of some JSON objects.
+     *
+     * @param array JSON objects
+     * @return IDs
+     */
+    private static List<String> getIds(JsonArray array) {
+        return array.getValuesAs(JsonObject.class).stream()
+                .map(object -> object.getString("id"))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testSuggestAcl() {
+        // Login suggest1 and suggest2
+        clientUtil.createUser("suggest1");
+        String suggest1Token = clientUtil.login("suggest1");
+        clientUtil.createUser("suggest2");
+        String suggest2Token = clientUtil.login("suggest2");
+
+        // Create a document with suggest1
+        JsonObject json = target().path("/document").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, suggest1Token)
+                .put(Entity.form(new Form()
+                        .param("title", "Xylophonist contract")
+                        .param("language", "eng")), JsonObject.class);
+        String document1Id = json.getString("id");
+
+        // The title is suggested to suggest1 only
+        Assert.assertEquals(Collections.singletonList("xylophonist"), suggest("xylophon", suggest1Token));
+        Assert.assertTrue(suggest("xylophon", suggest2Token).isEmpty());
+        json = target().path("/document/list")
+                .queryParam("search", "xylophon")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, suggest2Token)
+                .get(JsonObject.class);
+        Assert.assertTrue(json.getJsonArray("suggestions").isEmpty());
+
+        // Share the document with suggest2
+        target().path("/acl").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, suggest1Token)
+                .put(Entity.form(new Form()
+                        .param("source", document1Id)
+                        .param("perm", "READ")
+                        .param("target", "suggest2")
+                        .param("type", "USER")), JsonObject.class);
+        Assert.assertEquals(Collections.singletonList("xylophonist"), suggest("xylophon", suggest2Token));
+    }
+
+    /**
+     * Get the search suggestions.
+     *
+     * @param search Search query
+     * @param token Authentication token
+     * @return Suggestions
+     */
+    private List<String> suggest(String search, String token) {
+        JsonObject json = target().path("/document/suggest")
+                .queryParam("search", search)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get(JsonObject.class);
+        return json.getJsonArray("suggestions").getValuesAs(JsonString::getString);
+    }
 }
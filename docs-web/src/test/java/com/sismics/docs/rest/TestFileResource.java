@@ -16,12 +16,15 @@ import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.zip.ZipInputStream;
 
@@ -58,7 +61,42 @@ public class TestFileResource extends BaseJerseyTest {
         InputStream is = (InputStream) response.getEntity();
         byte[] fileBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(fileBytes.length > 0);
-        
+        Assert.assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+        String etag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(etag);
+
+        // Get a range of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=1000-1999")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes 1000-1999/" + fileBytes.length, response.getHeaderString("Content-Range"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, 1000, 2000), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get the end of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=-100")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, fileBytes.length - 100, fileBytes.length), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get a range after the end of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=" + fileBytes.length + "-")
+                .get();
+        Assert.assertEquals(Status.REQUESTED_RANGE_NOT_SATISFIABLE, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes */" + fileBytes.length, response.getHeaderString("Content-Range"));
+
+        // The cached file data is still valid
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
+
         // Get the thumbnail data
         response = target().path("/file/" + file1Id + "/data")
                 .queryParam("size", "thumb")
@@ -93,6 +131,33 @@ public class TestFileResource extends BaseJerseyTest {
         Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file1Id);
         Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(storedFile, null));
 
+        // A missing thumbnail is replaced by a placeholder while generated in the background
+        Path thumbFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_thumb");
+        Path webStoredFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_web");
+        Object webFileKey = Files.readAttributes(webStoredFile, BasicFileAttributes.class).fileKey();
+        Files.delete(thumbFile);
+        response = target().path("/file/" + file1Id + "/data")
+                .queryParam("size", "thumb")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals(MimeType.IMAGE_PNG, response.getHeaderString(HttpHeaders.CONTENT_TYPE));
+        for (int i = 0; i < 100 && !Files.exists(thumbFile); i++) {
+            Thread.sleep(100);
+        }
+        response = target().path("/file/" + file1Id + "/data")
+                .queryParam("size", "thumb")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals(MimeType.IMAGE_JPEG, response.getHeaderString(HttpHeaders.CONTENT_TYPE));
+        Assert.assertTrue(ByteStreams.toByteArray((InputStream) response.getEntity()).length > 0);
+
+        // The other thumbnail is kept as is
+        Assert.assertEquals(webFileKey, Files.readAttributes(webStoredFile, BasicFileAttributes.class).fileKey());
+
         // Get all files from a document
         JsonObject json = target().path("/file/list")
                 .queryParam("id", document1Id)
@@ -217,10 +217,52 @@ public class TestTagResource extends BaseJerseyTest {
         Assert.assertEquals(2, tags.size());
         Assert.assertEquals(tag3Id, tags.getJsonObject(1).getString("parent"));
 
+        // Share the tag with tag2
+        clientUtil.createUser("tag2");
+        String tag2Token = clientUtil.login("tag2");
+        target().path("/acl").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, tag1Token)
+                .put(Entity.form(new Form()
+                        .param("source", tag3Id)
+                        .param("perm", "READ")
+                        .param("target", "tag2")
+                        .param("type", "USER")), JsonObject.class);
+
+        // Search the shared documents with tag2, counted past the current page
+        json = target().path("/document/list")
+                .queryParam("search", "super")
+                .queryParam("sort_column", "1")
+                .queryParam("offset", "10")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, tag2Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(0, json.getJsonArray("documents").size());
+        Assert.assertEquals(1, json.getJsonNumber("total").intValue());
+
         // Deletes a tag
         target().path("/tag/" + tag3Id).request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, tag1Token)
                 .delete();
+
+        // The documents are not shared with tag2 anymore
+        json = target().path("/document/list")
+                .queryParam("search", "super")
+                .queryParam("sort_column", "1")
+                .queryParam("offset", "10")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, tag2Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(0, json.getJsonNumber("total").intValue());
+
+        // The documents are still found by their owner
+        json = target().path("/document/list")
+                .queryParam("search", "super")
+                .queryParam("sort_column", "1")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, tag1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(2, json.getJsonArray("documents").size());
+        Assert.assertEquals(2, json.getJsonNumber("total").intValue());
         
         // Get all tags
         json = target().path("/tag/list").request()